@@ -0,0 +1,49 @@
+package com.backend.config;
+
+import com.backend.service.CurrentUserContext;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+
+/**
+ * Xác định id người gọi từ header (X-User-Id, hoặc Authorization: Bearer user-token-{id}) 1 lần / request.
+ * Chỉ ghi id; việc nạp user do {@link CurrentUserContext} làm khi service cần (lazy).
+ * Header sai định dạng thì bỏ qua: controller/service vẫn tự báo lỗi như trước.
+ */
+@Component
+public class CurrentUserFilter extends OncePerRequestFilter {
+
+    private static final String TOKEN_PREFIX = "user-token-";
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        Long userId = parseUserId(request.getHeader("X-User-Id"));
+        if (userId == null) userId = parseUserIdFromAuth(request.getHeader("Authorization"));
+
+        if (userId != null) request.setAttribute(CurrentUserContext.ATTR_USER_ID, userId);
+        chain.doFilter(request, response);
+    }
+
+    private static Long parseUserIdFromAuth(String authorization) {
+        if (authorization == null) return null;
+        String token = authorization.trim();
+        if (token.toLowerCase().startsWith("bearer ")) token = token.substring(7).trim();
+        if (!token.startsWith(TOKEN_PREFIX)) return null;
+        return parseUserId(token.substring(TOKEN_PREFIX.length()));
+    }
+
+    private static Long parseUserId(String s) {
+        if (s == null || s.isBlank()) return null;
+        try {
+            return Long.parseLong(s.trim());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,10 @@
+package com.backend.config;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+/** Bật các job @Scheduled (lưu trữ thông báo, ...). Spring tự dừng scheduler khi tắt ứng dụng. */
+@Configuration
+@EnableScheduling
+public class SchedulingConfig {
+}
@@ -2,7 +2,16 @@ package com.backend.controller;
 
 import com.backend.dto.UpdateRolePermissionsRequestDTO;
 import com.backend.dto.UserDTO;
+import com.backend.service.ConsumptionHistoryService;
+import com.backend.service.IssueReqStatusCounts;
+import com.backend.service.IssuedRequestService;
+import com.backend.service.LotBalanceService;
+import com.backend.service.LotLockManager;
+import com.backend.service.MaterialCatalogCache;
+import com.backend.service.NotificationDispatcher;
+import com.backend.service.NotificationRetentionService;
 import com.backend.service.RbacService;
+import com.backend.service.StockSnapshotCache;
 import com.backend.service.SystemSettingsService;
 import com.backend.service.UserService;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -33,6 +42,33 @@ public class AdminController {
     @Autowired
     private SystemSettingsService systemSettingsService;
 
+    @Autowired
+    private LotBalanceService lotBalanceService;
+
+    @Autowired
+    private ConsumptionHistoryService consumptionHistoryService;
+
+    @Autowired
+    private IssuedRequestService issuedRequestService;
+
+    @Autowired
+    private StockSnapshotCache stockSnapshotCache;
+
+    @Autowired
+    private LotLockManager lotLockManager;
+
+    @Autowired
+    private MaterialCatalogCache materialCatalogCache;
+
+    @Autowired
+    private IssueReqStatusCounts issueReqStatusCounts;
+
+    @Autowired
+    private NotificationDispatcher notificationDispatcher;
+
+    @Autowired
+    private NotificationRetentionService notificationRetentionService;
+
     @GetMapping("/users/pending")
     public ResponseEntity<?> getPendingUsers(
             @RequestHeader(value = "Authorization", required = false) String auth,
@@ -61,7 +97,7 @@ public class AdminController {
         }
     }
 
-    /** Danh sách người dùng đã lọc + phân trang ở backend (cho màn Quản trị). */
+    /** Danh sách người dùng đã lọc + phân trang ở DB (cho màn Quản trị); afterId => keyset. */
     @GetMapping("/users")
     public ResponseEntity<?> getUsersPage(
             @RequestHeader(value = "Authorization", required = false) String auth,
@@ -69,11 +105,12 @@ public class AdminController {
             @org.springframework.web.bind.annotation.RequestParam(required = false, defaultValue = "all") String status,
             @org.springframework.web.bind.annotation.RequestParam(required = false) String keyword,
             @org.springframework.web.bind.annotation.RequestParam(required = false, defaultValue = "0") int page,
-            @org.springframework.web.bind.annotation.RequestParam(required = false, defaultValue = "10") int size
+            @org.springframework.web.bind.annotation.RequestParam(required = false, defaultValue = "10") int size,
+            @org.springframework.web.bind.annotation.RequestParam(required = false) Long afterId
     ) {
         try {
             requireUsersManage(auth, actorId);
-            return ResponseEntity.ok(userService.getUsersPage(status, keyword, page, size));
+            return ResponseEntity.ok(userService.getUsersPage(status, keyword, page, size, afterId));
         } catch (SecurityException se) {
             return forbidden(se);
         }
@@ -238,6 +275,197 @@ public class AdminController {
         }
     }
 
+    /** Dựng lại lot_balance từ sổ thẻ kho (dùng sau khi sửa dữ liệu thẻ kho thủ công). */
+    @PostMapping("/inventory/lot-balance/rebuild")
+    public ResponseEntity<?> rebuildLotBalance(
+            @RequestHeader(value = "Authorization", required = false) String auth
+    ) {
+        try {
+            requireSettingsManage(auth);
+            return ResponseEntity.ok(lotBalanceService.rebuildFromLedger());
+        } catch (SecurityException se) {
+            return forbidden(se);
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        }
+    }
+
+    /** Dựng lại bảng tiêu thụ theo năm học / khoa từ chứng từ xuất (số liệu "năm trước" của dự trù). */
+    @PostMapping("/inventory/consumption/rebuild")
+    public ResponseEntity<?> rebuildConsumption(
+            @RequestHeader(value = "Authorization", required = false) String auth
+    ) {
+        try {
+            requireSettingsManage(auth);
+            return ResponseEntity.ok(consumptionHistoryService.rebuildFromIssues());
+        } catch (SecurityException se) {
+            return forbidden(se);
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        }
+    }
+
+    /** Liên kết phiếu xuất cũ (marker "(IssueReq#id)" trong receiver_name) với phiếu xin lĩnh. */
+    @PostMapping("/issues/issue-req-links/backfill")
+    public ResponseEntity<?> backfillIssueReqLinks(
+            @RequestHeader(value = "Authorization", required = false) String auth
+    ) {
+        try {
+            requireSettingsManage(auth);
+            return ResponseEntity.ok(issuedRequestService.backfillFromLegacyMarkers());
+        } catch (SecurityException se) {
+            return forbidden(se);
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        }
+    }
+
+    /** Kiểm tra lot_balance có khớp dòng thẻ kho cuối của từng lô hay không. */
+    @GetMapping("/inventory/lot-balance/check")
+    public ResponseEntity<?> checkLotBalance(
+            @RequestHeader(value = "Authorization", required = false) String auth
+    ) {
+        try {
+            requireSettingsManage(auth);
+            return ResponseEntity.ok(lotBalanceService.checkConsistency());
+        } catch (SecurityException se) {
+            return forbidden(se);
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        }
+    }
+
+    /** Thống kê snapshot tồn kho trong bộ nhớ (hit / miss / số lần nạp lại). */
+    @GetMapping("/inventory/stock-cache/stats")
+    public ResponseEntity<?> getStockCacheStats(
+            @RequestHeader(value = "Authorization", required = false) String auth
+    ) {
+        try {
+            requireSettingsManage(auth);
+            return ResponseEntity.ok(stockSnapshotCache.getStats());
+        } catch (SecurityException se) {
+            return forbidden(se);
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        }
+    }
+
+    /** Khóa lô khi ghi tồn: số câu khóa, số dòng, thời gian chờ (trung bình / lớn nhất / số lần chậm). */
+    @GetMapping("/inventory/lot-locks/stats")
+    public ResponseEntity<?> getLotLockStats(
+            @RequestHeader(value = "Authorization", required = false) String auth
+    ) {
+        try {
+            requireSettingsManage(auth);
+            return ResponseEntity.ok(lotLockManager.getStats());
+        } catch (SecurityException se) {
+            return forbidden(se);
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        }
+    }
+
+    /** Số phiếu xin lĩnh theo trạng thái (badge hàng đợi lãnh đạo): hit/miss và bản đếm đang giữ. */
+    @GetMapping("/issue-requests/status-counts/stats")
+    public ResponseEntity<?> getIssueReqStatusCountStats(
+            @RequestHeader(value = "Authorization", required = false) String auth
+    ) {
+        try {
+            requireSettingsManage(auth);
+            return ResponseEntity.ok(issueReqStatusCounts.getStats());
+        } catch (SecurityException se) {
+            return forbidden(se);
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        }
+    }
+
+    /** Danh mục vật tư trong bộ nhớ (tra code -> vật tư khi nhập phiếu / xin lĩnh). */
+    @GetMapping("/materials/catalog-cache/stats")
+    public ResponseEntity<?> getMaterialCatalogStats(
+            @RequestHeader(value = "Authorization", required = false) String auth
+    ) {
+        try {
+            requireSettingsManage(auth);
+            return ResponseEntity.ok(materialCatalogCache.getStats());
+        } catch (SecurityException se) {
+            return forbidden(se);
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        }
+    }
+
+    /** Nạp lại danh mục vật tư (sau khi sửa trực tiếp bảng materials). */
+    @PostMapping("/materials/catalog-cache/reload")
+    public ResponseEntity<?> reloadMaterialCatalog(
+            @RequestHeader(value = "Authorization", required = false) String auth
+    ) {
+        try {
+            requireSettingsManage(auth);
+            return ResponseEntity.ok(materialCatalogCache.reload());
+        } catch (SecurityException se) {
+            return forbidden(se);
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        }
+    }
+
+    /** Hàng đợi ghi thông báo: độ sâu, độ trễ, số lỗi. */
+    @GetMapping("/notifications/dispatch/stats")
+    public ResponseEntity<?> getNotificationDispatchStats(
+            @RequestHeader(value = "Authorization", required = false) String auth
+    ) {
+        try {
+            requireSettingsManage(auth);
+            return ResponseEntity.ok(notificationDispatcher.getStats());
+        } catch (SecurityException se) {
+            return forbidden(se);
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        }
+    }
+
+    /** Lưu trữ thông báo cũ: số dòng đã chuyển, lần chạy gần nhất, kích thước bảng nóng / lưu trữ. */
+    @GetMapping("/notifications/retention/stats")
+    public ResponseEntity<?> getNotificationRetentionStats(
+            @RequestHeader(value = "Authorization", required = false) String auth
+    ) {
+        try {
+            requireSettingsManage(auth);
+            return ResponseEntity.ok(notificationRetentionService.getStats());
+        } catch (SecurityException se) {
+            return forbidden(se);
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        }
+    }
+
+    /** Chạy ngay 1 lượt lưu trữ (ngoài lịch định kỳ). */
+    @PostMapping("/notifications/retention/run")
+    public ResponseEntity<?> runNotificationRetention(
+            @RequestHeader(value = "Authorization", required = false) String auth
+    ) {
+        try {
+            requireSettingsManage(auth);
+            return ResponseEntity.ok(notificationRetentionService.runOnce());
+        } catch (SecurityException se) {
+            return forbidden(se);
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        }
+    }
+
+    @GetMapping("/rbac/permission-cache/stats")
+    public ResponseEntity<?> getPermissionCacheStats(@RequestHeader(value = "Authorization", required = false) String auth) {
+        try {
+            return ResponseEntity.ok(rbacService.getPermissionCacheStats(auth));
+        } catch (SecurityException se) {
+            return forbidden(se);
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        }
+    }
+
     @GetMapping("/rbac/roles/{roleCode}/permissions")
     public ResponseEntity<?> getRolePermissions(
             @RequestHeader(value = "Authorization", required = false) String auth,
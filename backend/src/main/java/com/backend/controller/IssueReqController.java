@@ -21,9 +21,11 @@ public class IssueReqController {
 
     @GetMapping("/leader/pending")
     public ResponseEntity<IssueReqListResponseDTO> getPendingRequestsForLeader(
-            @RequestHeader("X-User-Id") Long leaderId) {
+            @RequestHeader("X-User-Id") Long leaderId,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) Integer size) {
         try {
-            IssueReqListResponseDTO response = issueReqService.getPendingRequestsForLeader(leaderId);
+            IssueReqListResponseDTO response = issueReqService.getPendingRequestsForLeader(leaderId, cursor, size);
             return ResponseEntity.ok(response);
         } catch (Exception e) {
             log.warn("Failed to load pending issue requests for leader {}", leaderId, e);
@@ -38,9 +40,11 @@ public class IssueReqController {
 
     @GetMapping("/leader/processed")
     public ResponseEntity<IssueReqListResponseDTO> getProcessedRequestsForLeader(
-            @RequestHeader("X-User-Id") Long leaderId) {
+            @RequestHeader("X-User-Id") Long leaderId,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) Integer size) {
         try {
-            IssueReqListResponseDTO response = issueReqService.getProcessedRequestsForLeader(leaderId);
+            IssueReqListResponseDTO response = issueReqService.getProcessedRequestsForLeader(leaderId, cursor, size);
             return ResponseEntity.ok(response);
         } catch (Exception e) {
             log.warn("Failed to load processed issue requests for leader {}", leaderId, e);
@@ -139,6 +143,20 @@ public class IssueReqController {
         }
     }
 
+    @GetMapping("/canbo/my-requests/feed")
+    public ResponseEntity<IssueReqListResponseDTO> getCanBoRequestsFeed(
+            @RequestHeader("X-User-Id") Long canBoId,
+            @RequestParam(required = false) String keyword,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false, defaultValue = "10") Integer size) {
+        try {
+            return ResponseEntity.ok(issueReqService.getRequestsForCanBoFeed(canBoId, keyword, cursor, size));
+        } catch (Exception e) {
+            log.warn("Failed to load issue request feed for canBo {}", canBoId, e);
+            return ResponseEntity.ok(IssueReqListResponseDTO.error("Không thể lấy danh sách phiếu"));
+        }
+    }
+
     @GetMapping("/canbo/previous")
     public ResponseEntity<IssueReqDetailResponseDTO> loadPrevious(
             @RequestParam(value = "subDepartmentId", required = false) Long subDepartmentId,
@@ -5,6 +5,8 @@ import com.backend.dto.NotificationListResponseDTO;
 import com.backend.dto.SchedulePickupRequestDTO;
 import com.backend.service.NotificationService;
 import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
@@ -27,6 +29,58 @@ public class NotificationController {
         return ResponseEntity.ok(notificationService.getMyNotifications(userId, unreadOnly, page, size));
     }
 
+    // Hộp thư phân trang theo cursor (cuộn vô hạn)
+    // GET /api/notifications/my/feed?unreadOnly=false&size=20&cursor=<summary.nextCursor>
+    @GetMapping("/my/feed")
+    public ResponseEntity<NotificationListResponseDTO> myFeed(
+            @RequestParam(value = "unreadOnly", required = false, defaultValue = "false") boolean unreadOnly,
+            @RequestParam(value = "cursor", required = false) String cursor,
+            @RequestParam(value = "size", required = false) Integer size,
+            @RequestHeader("X-User-Id") Long userId
+    ) {
+        return ResponseEntity.ok(notificationService.getMyNotificationsFeed(userId, unreadOnly, cursor, size));
+    }
+
+    // Lịch sử thông báo đã lưu trữ (đã đọc, quá hạn giữ)
+    // GET /api/notifications/my/archive?size=20&cursor=<summary.nextCursor>
+    @GetMapping("/my/archive")
+    public ResponseEntity<NotificationListResponseDTO> myArchive(
+            @RequestParam(value = "cursor", required = false) String cursor,
+            @RequestParam(value = "size", required = false) Integer size,
+            @RequestHeader("X-User-Id") Long userId
+    ) {
+        return ResponseEntity.ok(notificationService.getMyArchivedNotifications(userId, cursor, size));
+    }
+
+    // Luồng SSE thông báo mới. EventSource không gửi được header tuỳ ý => cho phép ?userId=
+    // Kết nối lại: trình duyệt tự gửi Last-Event-ID (hoặc ?lastEventId=)
+    @GetMapping(value = "/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<?> stream(
+            @RequestHeader(value = "X-User-Id", required = false) Long userIdHeader,
+            @RequestParam(value = "userId", required = false) Long userIdParam,
+            @RequestHeader(value = "Last-Event-ID", required = false) Long lastEventIdHeader,
+            @RequestParam(value = "lastEventId", required = false) Long lastEventIdParam
+    ) {
+        Long userId = userIdHeader != null ? userIdHeader : userIdParam;
+        if (userId == null) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
+        }
+        try {
+            Long lastEventId = lastEventIdHeader != null ? lastEventIdHeader : lastEventIdParam;
+            return ResponseEntity.ok(notificationService.subscribe(userId, lastEventId));
+        } catch (SecurityException se) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+    }
+
+    // Số thông báo chưa đọc (chuông)
+    @GetMapping("/unread-count")
+    public ResponseEntity<BasicResponseDTO> unreadCount(
+            @RequestHeader("X-User-Id") Long userId
+    ) {
+        return ResponseEntity.ok(notificationService.getUnreadCount(userId));
+    }
+
     // Mark 1 notification đã đọc
     @PostMapping("/{id}/read")
     public ResponseEntity<BasicResponseDTO> read(
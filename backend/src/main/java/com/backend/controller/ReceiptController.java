@@ -1,12 +1,20 @@
 package com.backend.controller;
 
+import com.backend.dto.BasicResponseDTO;
 import com.backend.dto.CreateReceiptDTO;
 import com.backend.dto.ReceiptFeedResponseDTO;
 import com.backend.dto.ReceiptResponseDTO;
+import com.backend.service.ReceiptImportService;
 import com.backend.service.ReceiptService;
 import lombok.RequiredArgsConstructor;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.InputStream;
+import java.time.LocalDate;
 
 @RestController
 @RequestMapping("/api/receipts")
@@ -14,6 +22,7 @@ import org.springframework.web.bind.annotation.*;
 public class ReceiptController {
 
     private final ReceiptService receiptService;
+    private final ReceiptImportService receiptImportService;
 
     @PostMapping("/create")
     public ResponseEntity<ReceiptResponseDTO> createReceipt(
@@ -27,6 +36,37 @@ public class ReceiptController {
         }
     }
 
+    // Nhập phiếu từ file CSV (giao hàng lớn): multipart "file" + thông tin header
+    // Cột: materialCode, lotNumber, qtyActual, price [, qtyDoc, mfgDate, expDate]
+    @PostMapping(value = "/import", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public ResponseEntity<BasicResponseDTO> importReceipt(
+            @RequestParam("file") MultipartFile file,
+            @RequestParam("receivedFrom") String receivedFrom,
+            @RequestParam(value = "deliveryPerson", required = false) String deliveryPerson,
+            @RequestParam(value = "reason", required = false) String reason,
+            @RequestParam(value = "receiptDate", required = false)
+            @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate receiptDate,
+            @RequestParam(value = "warehouseName", required = false) String warehouseName,
+            @RequestHeader("X-User-Id") Long creatorId) {
+        String name = file.getOriginalFilename() == null ? "" : file.getOriginalFilename().toLowerCase();
+        if (name.endsWith(".xlsx") || name.endsWith(".xls")) {
+            return ResponseEntity.ok(BasicResponseDTO.error("Chỉ hỗ trợ file CSV (Excel: Lưu thành CSV UTF-8)"));
+        }
+
+        CreateReceiptDTO header = new CreateReceiptDTO();
+        header.setReceivedFrom(receivedFrom);
+        header.setDeliveryPerson(deliveryPerson);
+        header.setReason(reason);
+        header.setReceiptDate(receiptDate);
+        header.setWarehouseName(warehouseName);
+
+        try (InputStream in = file.getInputStream()) {
+            return ResponseEntity.ok(receiptImportService.importCsv(in, header, creatorId));
+        } catch (Exception e) {
+            return ResponseEntity.ok(BasicResponseDTO.error("Không thể đọc file: " + e.getMessage()));
+        }
+    }
+
     @GetMapping("/{id}/detail")
     public ResponseEntity<ReceiptResponseDTO> getReceiptDetail(
             @PathVariable Long id,
@@ -75,15 +75,17 @@ public class SuppForecastController {
     public ResponseEntity<?> getMyForecasts(
             @RequestParam Long userId,
             @RequestParam(required = false) String keyword,
+            @RequestParam(required = false) String academicYear,
             @RequestParam(required = false, defaultValue = "0") Integer page,
             @RequestParam(required = false, defaultValue = "10") Integer size) {
-        return forecastService.getMyForecasts(userId, keyword, page, size);
+        return forecastService.getMyForecasts(userId, keyword, academicYear, page, size);
     }
 
     @GetMapping("/previous")
-    public ResponseEntity<?> loadPrevious(@RequestParam(required = false) Long departmentId) {
+    public ResponseEntity<?> loadPrevious(@RequestParam(required = false) Long departmentId,
+                                          @RequestParam(required = false) String academicYear) {
         try {
-            return ResponseEntity.ok(forecastService.loadPreviousForecast(departmentId));
+            return ResponseEntity.ok(forecastService.loadPreviousForecast(departmentId, academicYear));
         } catch (Exception ex) {
             return ResponseEntity.badRequest().body(Map.of("error", ex.getMessage()));
         }
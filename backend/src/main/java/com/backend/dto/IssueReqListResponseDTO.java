@@ -18,6 +18,10 @@ public class IssueReqListResponseDTO {
     private Integer totalPages;
     private Long filteredCount;
 
+    // Cuộn vô hạn (keyset): truyền nextCursor cho lần gọi sau khi hasMore = true
+    private String nextCursor;
+    private Boolean hasMore;
+
     public IssueReqListResponseDTO(boolean success, String message, List<IssueReqHeaderDTO> requests,
                                    Long totalCount, Integer pendingCount, Integer approvedCount, Integer rejectedCount) {
         this.success = success;
@@ -11,4 +11,8 @@ public class ReceiptFeedItemDTO {
     private String receivedFrom;
     private String reason;
     private BigDecimal totalAmount;
+    private Long createdById;
+    private String createdByName;
+    /** Số dòng hàng của phiếu nhập */
+    private Integer lineCount;
 }
@@ -0,0 +1,16 @@
+package com.backend.dto;
+
+import lombok.Data;
+import java.time.LocalDate;
+
+@Data
+public class SuppForecastListItemDTO {
+    private Long id;
+    private String academicYear;
+    /** Mã trạng thái: PENDING / APPROVED / REJECTED */
+    private String status;
+    private LocalDate createdAt;
+    private String departmentName;
+    /** Số dòng vật tư của phiếu dự trù */
+    private Integer itemCount;
+}
@@ -26,4 +26,20 @@ public class UserPageDTO {
     private long totalUsers;
     private long pendingUsers;
     private long approvedUsers;
+
+    // Keyset: truyền lại nextAfterId (afterId) để lấy trang kế tiếp
+    private Long nextAfterId;
+    private boolean hasMore;
+
+    public UserPageDTO(List<UserDTO> items, int page, int size, long totalElements, int totalPages,
+                       long totalUsers, long pendingUsers, long approvedUsers) {
+        this.items = items;
+        this.page = page;
+        this.size = size;
+        this.totalElements = totalElements;
+        this.totalPages = totalPages;
+        this.totalUsers = totalUsers;
+        this.pendingUsers = pendingUsers;
+        this.approvedUsers = approvedUsers;
+    }
 }
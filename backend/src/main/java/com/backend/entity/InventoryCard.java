@@ -11,8 +11,16 @@ import java.time.LocalDate;
 @Data
 public class InventoryCard {
 
+    public static final String ID_SEQUENCE = "inventory_card_id_seq";
+    public static final int ID_ALLOCATION_SIZE = 50;
+
+    // Sequence pooled (50 id / lần gọi) => Hibernate gom INSERT thành JDBC batch.
+    // Thứ tự sổ thẻ kho theo id vẫn đúng trong 1 lô: id được cấp khi đã giữ lock lô
+    // và optimizer dùng chung trong JVM nên tăng dần giữa các transaction.
+    // Bước tăng của sequence trong DB phải bằng allocationSize: kiểm tra khi khởi động (LotBalanceService).
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "inventory_card_seq")
+    @SequenceGenerator(name = "inventory_card_seq", sequenceName = ID_SEQUENCE, allocationSize = ID_ALLOCATION_SIZE)
     private Long id;
 
     @ManyToOne
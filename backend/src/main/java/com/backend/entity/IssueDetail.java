@@ -11,7 +11,8 @@ import java.math.BigDecimal;
 public class IssueDetail {
 
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "issue_detail_seq")
+    @SequenceGenerator(name = "issue_detail_seq", sequenceName = "issue_detail_id_seq", allocationSize = 50)
     private Long id;
 
     @ManyToOne(optional = false)
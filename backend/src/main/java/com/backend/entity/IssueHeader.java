@@ -11,7 +11,8 @@ import java.util.ArrayList;
 import java.util.List;
 
 @Entity
-@Table(name = "issue_header")
+@Table(name = "issue_header",
+        uniqueConstraints = @UniqueConstraint(name = "uq_issue_header_req", columnNames = {"issue_req_id"}))
 @Data
 public class IssueHeader {
 
@@ -12,7 +12,8 @@ import java.time.LocalDateTime;
 public class IssueReservation {
 
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "issue_reservations_seq")
+    @SequenceGenerator(name = "issue_reservations_seq", sequenceName = "issue_reservations_id_seq", allocationSize = 50)
     private Long id;
 
     @ManyToOne(optional = false)
@@ -0,0 +1,66 @@
+package com.backend.entity;
+
+import jakarta.persistence.*;
+import lombok.Data;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
+/**
+ * Tồn hiện tại theo (material, lot) — projection của dòng inventory_card mới nhất.
+ * Được cập nhật cùng transaction với mỗi dòng thẻ kho (nhập / xuất),
+ * để các luồng phân bổ FEFO không phải quét lại toàn bộ sổ thẻ kho.
+ */
+@Entity
+@Table(
+        name = "lot_balance",
+        uniqueConstraints = {
+                @UniqueConstraint(columnNames = {"material_id", "lot_number"})
+        }
+)
+@Data
+public class LotBalance {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "lot_balance_seq")
+    @SequenceGenerator(name = "lot_balance_seq", sequenceName = "lot_balance_id_seq", allocationSize = 50)
+    private Long id;
+
+    @ManyToOne(optional = false)
+    @JoinColumn(name = "material_id", nullable = false)
+    private Material material;
+
+    @Column(name = "lot_number", nullable = false, length = 100)
+    private String lotNumber;
+
+    @Column(name = "closing_stock", nullable = false, precision = 18, scale = 3)
+    private BigDecimal closingStock;
+
+    @Column(name = "mfg_date")
+    private LocalDate mfgDate;
+
+    @Column(name = "exp_date")
+    private LocalDate expDate;
+
+    // Lấy lại từ dòng thẻ kho cuối để ghi dòng xuất (kho / nhà cung cấp)
+    @Column(name = "warehouse_name", length = 255)
+    private String warehouseName;
+
+    @Column(name = "supplier", length = 255)
+    private String supplier;
+
+    // inventory_card.id của dòng thẻ kho mới nhất đã áp vào balance
+    @Column(name = "last_card_id", nullable = false)
+    private Long lastCardId;
+
+    @Column(name = "updated_at")
+    private LocalDateTime updatedAt;
+
+    @PrePersist
+    @PreUpdate
+    public void touch() {
+        updatedAt = LocalDateTime.now();
+        if (closingStock == null) closingStock = BigDecimal.ZERO;
+    }
+}
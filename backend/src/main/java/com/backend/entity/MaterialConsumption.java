@@ -0,0 +1,58 @@
+package com.backend.entity;
+
+import jakarta.persistence.*;
+import lombok.Data;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
+/**
+ * Lượng thực xuất theo (năm học, khoa, material) — tổng hợp từ issue_detail.qty_issued.
+ * Được cộng dồn cùng transaction với mỗi phiếu xuất, để dự trù năm sau đọc tiêu thụ thật
+ * bằng 1 query thay vì quét lại chứng từ xuất.
+ */
+@Entity
+@Table(
+        name = "material_consumption",
+        uniqueConstraints = {
+                @UniqueConstraint(columnNames = {"academic_year", "department_id", "material_id"})
+        }
+)
+@Data
+public class MaterialConsumption {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    // "2025-2026": từ tháng 9 năm đầu đến hết tháng 8 năm sau
+    @Column(name = "academic_year", nullable = false, length = 20)
+    private String academicYear;
+
+    @ManyToOne(optional = false)
+    @JoinColumn(name = "department_id", nullable = false)
+    private Department department;
+
+    @ManyToOne(optional = false)
+    @JoinColumn(name = "material_id", nullable = false)
+    private Material material;
+
+    @Column(name = "qty_issued", nullable = false, precision = 18, scale = 3)
+    private BigDecimal qtyIssued = BigDecimal.ZERO;
+
+    @Column(name = "issue_count", nullable = false)
+    private Integer issueCount = 0;
+
+    @Column(name = "last_issue_date")
+    private LocalDate lastIssueDate;
+
+    @Column(name = "updated_at")
+    private LocalDateTime updatedAt;
+
+    @PrePersist
+    @PreUpdate
+    public void touch() {
+        updatedAt = LocalDateTime.now();
+    }
+}
@@ -0,0 +1,46 @@
+package com.backend.entity;
+
+import jakarta.persistence.*;
+import lombok.Data;
+
+import java.time.LocalDateTime;
+
+/**
+ * Bản lưu trữ của {@link Notification} (giữ nguyên id). Được chép sang khi dòng người nhận đầu tiên
+ * của thông báo được lưu trữ; dòng ở bảng notifications bị xoá khi không còn người nhận "nóng".
+ */
+@Entity
+@Table(name = "notification_archive")
+@Data
+public class NotificationArchive {
+
+    @Id
+    private Long id;
+
+    @ManyToOne(optional = false)
+    @JoinColumn(name = "entity_type_id", nullable = false)
+    private NotificationEntity entityType;
+
+    @Column(name = "entity_id", nullable = false)
+    private Long entityId;
+
+    @ManyToOne(optional = false)
+    @JoinColumn(name = "event_type_id", nullable = false)
+    private NotificationEvent eventType;
+
+    @Column(name = "title", length = 255)
+    private String title;
+
+    @Column(name = "content", columnDefinition = "TEXT")
+    private String content;
+
+    @Column(name = "created_at")
+    private LocalDateTime createdAt;
+
+    // user có thể đã bị xoá: chỉ giữ id, không ràng buộc khoá ngoại
+    @Column(name = "created_by")
+    private Long createdBy;
+
+    @Column(name = "archived_at", nullable = false)
+    private LocalDateTime archivedAt;
+}
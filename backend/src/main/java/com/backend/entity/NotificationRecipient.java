@@ -2,6 +2,9 @@ package com.backend.entity;
 
 import jakarta.persistence.*;
 import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.ToString;
+import org.springframework.data.domain.Persistable;
 
 import java.io.Serializable;
 import java.time.LocalDateTime;
@@ -10,7 +13,7 @@ import java.util.Objects;
 @Entity
 @Table(name = "notification_recipients")
 @Data
-public class NotificationRecipient {
+public class NotificationRecipient implements Persistable<NotificationRecipient.NotificationRecipientId> {
 
     @EmbeddedId
     private NotificationRecipientId id = new NotificationRecipientId();
@@ -31,6 +34,38 @@ public class NotificationRecipient {
     @Column(name = "read_at")
     private LocalDateTime readAt;
 
+    // Bản sao notifications.created_at: cho phép index (user_id, created_at, notification_id)
+    // phục vụ phân trang keyset mà không phải JOIN notifications để sắp xếp.
+    @Column(name = "created_at")
+    private LocalDateTime createdAt;
+
+    // Id ghép được gán sẵn => Spring Data coi là "cũ" và merge (SELECT từng dòng).
+    // Đánh dấu mới / đã lưu để saveAll() đi thẳng persist + JDBC batch.
+    @Transient
+    @EqualsAndHashCode.Exclude
+    @ToString.Exclude
+    private boolean persisted;
+
+    @Override
+    public boolean isNew() {
+        return !persisted;
+    }
+
+    @PostLoad
+    @PostPersist
+    void markPersisted() {
+        persisted = true;
+    }
+
+    @PrePersist
+    public void prePersist() {
+        if (createdAt == null) {
+            createdAt = (notification != null && notification.getCreatedAt() != null)
+                    ? notification.getCreatedAt()
+                    : LocalDateTime.now();
+        }
+    }
+
     @Embeddable
     @Data
     public static class NotificationRecipientId implements Serializable {
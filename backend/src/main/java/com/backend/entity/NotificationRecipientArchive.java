@@ -0,0 +1,34 @@
+package com.backend.entity;
+
+import com.backend.entity.NotificationRecipient.NotificationRecipientId;
+import jakarta.persistence.*;
+import lombok.Data;
+
+import java.time.LocalDateTime;
+
+/** Bản lưu trữ của {@link NotificationRecipient} đã đọc và quá hạn giữ (xem NotificationRetentionService). */
+@Entity
+@Table(name = "notification_recipient_archive")
+@Data
+public class NotificationRecipientArchive {
+
+    @EmbeddedId
+    private NotificationRecipientId id = new NotificationRecipientId();
+
+    @ManyToOne(optional = false)
+    @MapsId("notificationId")
+    @JoinColumn(name = "notification_id", nullable = false)
+    private NotificationArchive notification;
+
+    @Column(name = "is_read", nullable = false)
+    private Boolean isRead = true;
+
+    @Column(name = "read_at")
+    private LocalDateTime readAt;
+
+    @Column(name = "created_at")
+    private LocalDateTime createdAt;
+
+    @Column(name = "archived_at", nullable = false)
+    private LocalDateTime archivedAt;
+}
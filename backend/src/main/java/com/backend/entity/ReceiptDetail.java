@@ -12,7 +12,8 @@ import java.time.LocalDate;
 public class ReceiptDetail {
 
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "receipt_detail_seq")
+    @SequenceGenerator(name = "receipt_detail_seq", sequenceName = "receipt_detail_id_seq", allocationSize = 50)
     private Long id;
 
     @ManyToOne(optional = false)
@@ -43,9 +43,9 @@ public class User {
     @Column(name = "job_title", length = 150)
     private String jobTitle;
 
-    // NEW: status_id -> user_status
-    @ManyToOne(optional = false)
-    @JoinColumn(name = "status_id", nullable = false)
+    // NEW: status_id -> user_status (dữ liệu cũ có thể thiếu => coi như chờ duyệt)
+    @ManyToOne
+    @JoinColumn(name = "status_id")
     private UserStatus status;
 
     @Column(name = "created_at")
@@ -0,0 +1,33 @@
+package com.backend.event;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Yêu cầu tạo 1 thông báo cho danh sách người nhận.
+ * Publish trong transaction nghiệp vụ; NotificationDispatcher ghi thông báo sau commit, ngoài luồng request.
+ *
+ * @param userIds     người nhận (đã loại trùng, giữ thứ tự)
+ * @param requestedAt thời điểm publish (epoch millis) để đo độ trễ hàng đợi
+ */
+public record NotificationRequestedEvent(String entityCode,
+                                         Long entityId,
+                                         String eventCode,
+                                         String title,
+                                         String content,
+                                         List<Long> userIds,
+                                         long requestedAt) {
+
+    public static NotificationRequestedEvent of(String entityCode, Long entityId, String eventCode,
+                                                String title, String content, Collection<Long> userIds) {
+        LinkedHashSet<Long> ids = new LinkedHashSet<>();
+        if (userIds != null) {
+            userIds.stream().filter(Objects::nonNull).forEach(ids::add);
+        }
+        return new NotificationRequestedEvent(entityCode, entityId, eventCode, title, content,
+                List.copyOf(new ArrayList<>(ids)), System.currentTimeMillis());
+    }
+}
@@ -0,0 +1,29 @@
+package com.backend.event;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Tồn khả dụng của các material đã thay đổi (nhập, xuất, giữ chỗ / huỷ / tiêu thụ giữ chỗ, thêm vật tư).
+ * Được publish trong transaction nghiệp vụ; bên nghe xử lý sau khi commit.
+ *
+ * @param materialIds material bị ảnh hưởng (rỗng khi {@code all} = true)
+ * @param all         true nếu cần nạp lại toàn bộ (vd. rebuild lot_balance)
+ * @param reason      nguồn thay đổi, phục vụ log / thống kê
+ */
+public record StockChangedEvent(Set<Long> materialIds, boolean all, String reason) {
+
+    public static StockChangedEvent of(Collection<Long> materialIds, String reason) {
+        Set<Long> ids = new HashSet<>();
+        if (materialIds != null) {
+            materialIds.stream().filter(Objects::nonNull).forEach(ids::add);
+        }
+        return new StockChangedEvent(Set.copyOf(ids), false, reason);
+    }
+
+    public static StockChangedEvent allMaterials(String reason) {
+        return new StockChangedEvent(Set.of(), true, reason);
+    }
+}
@@ -3,27 +3,94 @@ package com.backend.repository;
 import com.backend.entity.IssueHeader;
 import org.springframework.data.domain.Page;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 
 import org.springframework.data.domain.Pageable;
+import java.util.Collection;
 import java.util.List;
-import java.util.Optional;
 
 public interface IssueHeaderRepository extends JpaRepository<IssueHeader, Long> {
 
-    @Query(value = "SELECT COUNT(1) > 0 FROM issue_header WHERE receiver_name ILIKE CONCAT('%', :marker, '%')",
+    boolean existsByIssueReqId(Long issueReqId);
+
+    /** Các phiếu xin lĩnh (trong danh sách) đã có phiếu xuất — 1 lookup trên index unique issue_req_id. */
+    @Query("SELECT h.issueReq.id FROM IssueHeader h WHERE h.issueReq.id IN :issueReqIds")
+    List<Long> findIssuedReqIds(@Param("issueReqIds") Collection<Long> issueReqIds);
+
+    // ===== Backfill issue_req_id cho phiếu xuất cũ (chỉ có marker "(IssueReq#id)" trong receiver_name) =====
+    @Query(value = """
+            SELECT COUNT(1) FROM issue_header
+            WHERE issue_req_id IS NULL AND receiver_name LIKE '%(IssueReq#%'
+            """, nativeQuery = true)
+    long countLegacyMarkedWithoutIssueReq();
+
+    /** Phiếu xuất cũ chưa liên kết, theo id tăng dần. Mỗi dòng: id, receiver_name. */
+    @Query("""
+            SELECT h.id, h.receiverName FROM IssueHeader h
+            WHERE h.issueReq IS NULL AND h.receiverName LIKE '%(IssueReq#%'
+            ORDER BY h.id
+            """)
+    List<Object[]> findLegacyMarkedWithoutIssueReq();
+
+    @Modifying
+    @Query(value = "UPDATE issue_header SET issue_req_id = :reqId WHERE id = :id AND issue_req_id IS NULL",
             nativeQuery = true)
-    boolean existsByReceiverMarker(@Param("marker") String marker);
+    int linkIssueReq(@Param("id") Long issueHeaderId, @Param("reqId") Long issueReqId);
 
-    Optional<IssueHeader> findByIssueReqId(Long issueReqId);
+    /** Số phiếu xin lĩnh đang bị nhiều phiếu xuất trỏ tới (DB cũ, trước khi có uq_issue_header_req). */
+    @Query(value = """
+            SELECT COUNT(1) FROM (
+                SELECT issue_req_id FROM issue_header
+                WHERE issue_req_id IS NOT NULL
+                GROUP BY issue_req_id
+                HAVING COUNT(1) > 1
+            ) d
+            """, nativeQuery = true)
+    long countDuplicateIssueReqLinks();
 
-    List<IssueHeader> findByIdLessThanOrderByIdDesc(Long beforeId, Pageable pageable);
+    /** Giữ liên kết ở phiếu xuất đầu tiên (id nhỏ nhất), bỏ liên kết ở các phiếu trùng sau đó. */
+    @Modifying
+    @Query(value = """
+            UPDATE issue_header SET issue_req_id = NULL
+            WHERE issue_req_id IS NOT NULL
+              AND id > (SELECT MIN(x.id) FROM issue_header x WHERE x.issue_req_id = issue_header.issue_req_id)
+            """, nativeQuery = true)
+    int clearDuplicateIssueReqLinks();
 
-    /** Tìm phiếu xuất theo mã / người nhận / khoa / ngày (lọc ở DB, có phân trang). */
-    @Query("SELECT h FROM IssueHeader h LEFT JOIN h.department d WHERE "
-            + "CAST(h.id AS string) LIKE CONCAT('%', :kw, '%') "
+    /**
+     * Unique index cho issue_req_id, tạo sau khi đã bỏ liên kết trùng: ddl-auto=update không tạo được
+     * uq_issue_header_req trên DB cũ đang có dữ liệu trùng (và không thử lại ở lần khởi động sau).
+     * Đã có (constraint do Hibernate tạo trên DB mới) => bỏ qua.
+     */
+    @Modifying
+    @Query(value = "CREATE UNIQUE INDEX IF NOT EXISTS uq_issue_header_req ON issue_header(issue_req_id)",
+           nativeQuery = true)
+    void createIssueReqUniqueIndex();
+
+    // ===== Feed phiếu xuất: 1 query / trang, không nạp entity =====
+    // Cột: id, issueDate, receiverName, totalAmount, createdById, createdByName,
+    //      departmentId, departmentName, issueReqId, subDepartmentId, subDepartmentName, lineCount
+    String FEED_SELECT = "SELECT h.id, h.issueDate, h.receiverName, h.totalAmount, cb.id, cb.fullName, "
+            + "d.id, d.name, r.id, sd.id, sd.name, COUNT(x.id) "
+            + "FROM IssueHeader h LEFT JOIN h.createdBy cb LEFT JOIN h.department d "
+            + "LEFT JOIN h.issueReq r LEFT JOIN r.subDepartment sd LEFT JOIN h.details x ";
+    String FEED_GROUP = " GROUP BY h.id, h.issueDate, h.receiverName, h.totalAmount, cb.id, cb.fullName, "
+            + "d.id, d.name, r.id, sd.id, sd.name ORDER BY h.id DESC";
+    /** Tìm phiếu xuất theo mã / người nhận / khoa (lọc ở DB). */
+    String KEYWORD_FILTER = "CAST(h.id AS string) LIKE CONCAT('%', :kw, '%') "
             + "OR LOWER(COALESCE(h.receiverName, '')) LIKE CONCAT('%', :kw, '%') "
-            + "OR LOWER(COALESCE(d.name, '')) LIKE CONCAT('%', :kw, '%')")
-    Page<IssueHeader> searchByKeyword(@Param("kw") String kw, Pageable pageable);
+            + "OR LOWER(COALESCE(d.name, '')) LIKE CONCAT('%', :kw, '%')";
+
+    @Query(FEED_SELECT + "WHERE h.id < :beforeId" + FEED_GROUP)
+    List<Object[]> findFeedRowsBefore(@Param("beforeId") Long beforeId, Pageable pageable);
+
+    @Query(value = FEED_SELECT + FEED_GROUP,
+            countQuery = "SELECT COUNT(h) FROM IssueHeader h")
+    Page<Object[]> findFeedRows(Pageable pageable);
+
+    @Query(value = FEED_SELECT + "WHERE " + KEYWORD_FILTER + FEED_GROUP,
+            countQuery = "SELECT COUNT(h) FROM IssueHeader h LEFT JOIN h.department d WHERE " + KEYWORD_FILTER)
+    Page<Object[]> searchFeedRows(@Param("kw") String kw, Pageable pageable);
 }
@@ -1,15 +1,21 @@
 package com.backend.repository;
 
 import com.backend.entity.IssueReqHeader;
+import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 
 public interface IssueReqHeaderRepository extends JpaRepository<IssueReqHeader, Long> {
 
+    @Query("SELECT r.id FROM IssueReqHeader r WHERE r.id IN :ids")
+    List<Long> findExistingIds(@Param("ids") Collection<Long> ids);
+
     // ===== Theo status code =====
     List<IssueReqHeader> findByStatus_Code(String statusCode);
 
@@ -28,6 +34,53 @@ public interface IssueReqHeaderRepository extends JpaRepository<IssueReqHeader,
 
     List<IssueReqHeader> findByDepartmentIdAndStatus_Code(Long departmentId, String statusCode);
 
+    // ===== Danh sách của cán bộ: lọc + phân trang trong DB, chỉ lấy id rồi nạp chi tiết cho trang =====
+    // :kw đã trim + lower-case; '' = không lọc. Mới nhất trước, id phá hòa.
+    String CREATOR_FILTER = """
+        ir.createdBy.id = :createdById
+          AND (:kw = ''
+               OR CAST(ir.id AS String) LIKE CONCAT('%', :kw, '%')
+               OR LOWER(COALESCE(ir.note, '')) LIKE CONCAT('%', :kw, '%'))
+        """;
+
+    @Query(value = "SELECT ir.id FROM IssueReqHeader ir WHERE " + CREATOR_FILTER
+            + " ORDER BY ir.requestedAt DESC, ir.id DESC",
+           countQuery = "SELECT COUNT(ir) FROM IssueReqHeader ir WHERE " + CREATOR_FILTER)
+    Page<Long> findIdsByCreator(@Param("createdById") Long createdById,
+                                @Param("kw") String kw,
+                                Pageable pageable);
+
+    // Keyset: các phiếu đứng sau vị trí (beforeAt, beforeId) — không OFFSET, không COUNT
+    @Query("SELECT ir.id FROM IssueReqHeader ir WHERE " + CREATOR_FILTER + """
+          AND (ir.requestedAt < :beforeAt OR (ir.requestedAt = :beforeAt AND ir.id < :beforeId))
+        ORDER BY ir.requestedAt DESC, ir.id DESC
+        """)
+    List<Long> findIdsByCreatorBefore(@Param("createdById") Long createdById,
+                                      @Param("kw") String kw,
+                                      @Param("beforeAt") LocalDateTime beforeAt,
+                                      @Param("beforeId") Long beforeId,
+                                      Pageable pageable);
+
+    // Summary tổng/chờ/duyệt/từ chối: 1 câu GROUP BY thay vì nạp hết phiếu
+    @Query("SELECT ir.status.code, COUNT(ir) FROM IssueReqHeader ir WHERE ir.createdBy.id = :createdById GROUP BY ir.status.code")
+    List<Object[]> countByCreatorGroupByStatus(@Param("createdById") Long createdById);
+
+    // ===== Hàng đợi phê duyệt của lãnh đạo: keyset theo (requestedAt, id), mới nhất trước =====
+    @Query("""
+        SELECT ir.id FROM IssueReqHeader ir
+        WHERE ir.status.code IN :statusCodes
+          AND (ir.requestedAt < :beforeAt OR (ir.requestedAt = :beforeAt AND ir.id < :beforeId))
+        ORDER BY ir.requestedAt DESC, ir.id DESC
+    """)
+    List<Long> findIdsByStatusBefore(@Param("statusCodes") Collection<String> statusCodes,
+                                     @Param("beforeAt") LocalDateTime beforeAt,
+                                     @Param("beforeId") Long beforeId,
+                                     Pageable pageable);
+
+    // Số phiếu theo từng trạng thái (toàn hệ thống) — 1 câu cho mọi badge đếm
+    @Query("SELECT ir.status.code, COUNT(ir) FROM IssueReqHeader ir GROUP BY ir.status.code")
+    List<Object[]> countGroupByStatus();
+
     // ===== Pending / Processed cho department =====
     @Query("""
         SELECT ir FROM IssueReqHeader ir
@@ -67,6 +120,34 @@ public interface IssueReqHeaderRepository extends JpaRepository<IssueReqHeader,
 
     List<IssueReqHeader> findByDepartmentIdAndSubDepartmentIdAndStatus_CodeOrderByRequestedAtAsc(Long departmentId, Long subDepartmentId, String statusCode, Pageable pageable);
 
+    // ===== Eligibility: nạp theo lô (id trước, rồi fetch đủ header + details + material) =====
+    @Query("""
+        SELECT ir.id FROM IssueReqHeader ir
+        WHERE ir.status.code = :statusCode
+          AND (:departmentId IS NULL OR ir.department.id = :departmentId)
+          AND (:subDepartmentId IS NULL OR ir.subDepartment.id = :subDepartmentId)
+        ORDER BY ir.requestedAt ASC, ir.id ASC
+    """)
+    List<Long> findIdsByStatusOrderByRequestedAtAsc(@Param("statusCode") String statusCode,
+                                                    @Param("departmentId") Long departmentId,
+                                                    @Param("subDepartmentId") Long subDepartmentId,
+                                                    Pageable pageable);
+
+    @Query("""
+        SELECT DISTINCT ir FROM IssueReqHeader ir
+        LEFT JOIN FETCH ir.details d
+        LEFT JOIN FETCH d.material m
+        LEFT JOIN FETCH m.unit
+        LEFT JOIN FETCH d.unit
+        LEFT JOIN FETCH ir.department
+        LEFT JOIN FETCH ir.subDepartment
+        LEFT JOIN FETCH ir.createdBy
+        LEFT JOIN FETCH ir.approvalBy
+        JOIN FETCH ir.status
+        WHERE ir.id IN :ids
+    """)
+    List<IssueReqHeader> findWithDetailsByIdIn(@Param("ids") Collection<Long> ids);
+
     // ===== Concurrency =====
     @Query(value = """
         SELECT * FROM issue_req_header
@@ -6,6 +6,7 @@ import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 
 import java.math.BigDecimal;
+import java.util.Collection;
 import java.util.List;
 
 public interface IssueReservationRepository extends JpaRepository<IssueReservation, Long> {
@@ -14,6 +15,15 @@ public interface IssueReservationRepository extends JpaRepository<IssueReservati
 
     List<IssueReservation> findByIssueReqHeader_IdAndStatus_Code(Long issueReqHeaderId, String statusCode);
 
+    // Mỗi dòng: issueReqHeaderId, materialId, lotNumber, qtyReserved (ACTIVE) — cho nhiều phiếu trong 1 query
+    @Query("""
+        SELECT r.issueReqHeader.id, r.material.id, r.lotNumber, r.qtyReserved
+        FROM IssueReservation r
+        WHERE r.issueReqHeader.id IN :headerIds
+          AND r.status.code = 'ACTIVE'
+    """)
+    List<Object[]> findActiveQtyByHeaderIds(@Param("headerIds") Collection<Long> headerIds);
+
     @Query("""
         SELECT COALESCE(SUM(r.qtyReserved), 0)
         FROM IssueReservation r
@@ -44,6 +54,16 @@ public interface IssueReservationRepository extends JpaRepository<IssueReservati
     """)
     List<Object[]> sumActiveReservedGroupByLot(@Param("materialId") Long materialId);
 
+    // Mỗi dòng: materialId, lotNumber, SUM(qty ACTIVE) — cho nhiều vật tư trong 1 query
+    @Query("""
+        SELECT r.material.id, r.lotNumber, COALESCE(SUM(r.qtyReserved), 0)
+        FROM IssueReservation r
+        WHERE r.material.id IN :materialIds
+          AND r.status.code = 'ACTIVE'
+        GROUP BY r.material.id, r.lotNumber
+    """)
+    List<Object[]> sumActiveReservedGroupByMaterialAndLot(@Param("materialIds") Collection<Long> materialIds);
+
     @Query("""
     SELECT 
         r.material.id,
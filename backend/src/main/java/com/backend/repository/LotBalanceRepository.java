@@ -0,0 +1,173 @@
+package com.backend.repository;
+
+import com.backend.entity.LotBalance;
+import jakarta.persistence.LockModeType;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+public interface LotBalanceRepository extends JpaRepository<LotBalance, Long> {
+
+    Optional<LotBalance> findByMaterial_IdAndLotNumber(Long materialId, String lotNumber);
+
+    // Lô còn tồn của 1 vật tư, sắp theo FEFO (hết hạn sớm trước)
+    @Query("""
+        SELECT b FROM LotBalance b
+        WHERE b.material.id = :materialId
+          AND b.closingStock > 0
+        ORDER BY b.expDate ASC NULLS LAST, b.mfgDate ASC NULLS LAST, b.lotNumber ASC
+    """)
+    List<LotBalance> findAvailableByMaterial(@Param("materialId") Long materialId);
+
+    // Như trên nhưng cho nhiều vật tư trong 1 query (gom theo material, FEFO trong từng material)
+    @Query("""
+        SELECT b FROM LotBalance b
+        JOIN FETCH b.material m
+        WHERE m.id IN :materialIds
+          AND b.closingStock > 0
+        ORDER BY m.id ASC, b.expDate ASC NULLS LAST, b.mfgDate ASC NULLS LAST, b.lotNumber ASC
+    """)
+    List<LotBalance> findAvailableByMaterialIds(@Param("materialIds") Collection<Long> materialIds);
+
+    /**
+     * Tồn khả dụng theo material: SUM(tồn các lô trong lot_balance) - SUM(giữ chỗ ACTIVE), không âm.
+     * Dùng chung cho snapshot tồn kho, trang tồn kho có tìm kiếm và các số đếm summary.
+     */
+    String MATERIAL_STOCK_CTE = """
+            WITH stock AS (
+                SELECT m.id, m.code, m.name, u.name AS unit_name, m.category,
+                       GREATEST(COALESCE(b.on_hand, 0) - COALESCE(r.reserved, 0), 0) AS available
+                FROM materials m
+                LEFT JOIN units u ON u.id = m.unit_id
+                LEFT JOIN (
+                    SELECT material_id, SUM(closing_stock) AS on_hand
+                    FROM lot_balance
+                    GROUP BY material_id
+                ) b ON b.material_id = m.id
+                LEFT JOIN (
+                    SELECT ir.material_id, SUM(ir.qty_reserved) AS reserved
+                    FROM issue_reservations ir
+                    JOIN reservation_status rs ON rs.id = ir.status_id
+                    WHERE rs.code = 'ACTIVE'
+                    GROUP BY ir.material_id
+                ) r ON r.material_id = m.id
+            )
+            """;
+
+    String MATERIAL_STOCK_FILTER = """
+            (:kw = '' OR LOWER(code) LIKE :kw ESCAPE '\\' OR LOWER(name) LIKE :kw ESCAPE '\\')
+            AND (:status = 'all'
+                 OR (:status = 'low' AND available > 0 AND available < :lowThreshold)
+                 OR (:status = 'out' AND available <= 0))
+            """;
+
+    /**
+     * Tồn khả dụng của toàn bộ danh mục, sắp theo id.
+     * Mỗi dòng: id, code, name, unit_name, category, available. Dùng để nạp snapshot tồn kho.
+     */
+    @Query(value = MATERIAL_STOCK_CTE + """
+            SELECT id, code, name, unit_name, category, available
+            FROM stock
+            ORDER BY id
+            """, nativeQuery = true)
+    List<Object[]> findAllMaterialStock();
+
+    /** 1 trang tồn kho đã lọc. Mỗi dòng: id, code, name, unit_name, category, available. */
+    @Query(value = MATERIAL_STOCK_CTE + """
+            SELECT id, code, name, unit_name, category, available
+            FROM stock
+            WHERE """ + MATERIAL_STOCK_FILTER + """
+            ORDER BY id
+            LIMIT :limit OFFSET :offset
+            """, nativeQuery = true)
+    List<Object[]> findMaterialStockPage(@Param("kw") String keyword,
+                                         @Param("status") String status,
+                                         @Param("lowThreshold") BigDecimal lowThreshold,
+                                         @Param("limit") int limit,
+                                         @Param("offset") long offset);
+
+    /** Các số đếm trong 1 câu: total, low, out (toàn danh mục) và số dòng khớp bộ lọc. */
+    @Query(value = MATERIAL_STOCK_CTE + """
+            SELECT COUNT(*),
+                   COALESCE(SUM(CASE WHEN available > 0 AND available < :lowThreshold THEN 1 ELSE 0 END), 0),
+                   COALESCE(SUM(CASE WHEN available <= 0 THEN 1 ELSE 0 END), 0),
+                   COALESCE(SUM(CASE WHEN """ + MATERIAL_STOCK_FILTER + """
+                                THEN 1 ELSE 0 END), 0)
+            FROM stock
+            """, nativeQuery = true)
+    List<Object[]> countMaterialStock(@Param("kw") String keyword,
+                                      @Param("status") String status,
+                                      @Param("lowThreshold") BigDecimal lowThreshold);
+
+    /** Như {@link #findAllMaterialStock()} nhưng chỉ cho các material đã thay đổi (đi theo index material_id). */
+    @Query(value = """
+            SELECT m.id, m.code, m.name, u.name AS unit_name, m.category,
+                   GREATEST(
+                       COALESCE((SELECT SUM(b.closing_stock) FROM lot_balance b WHERE b.material_id = m.id), 0)
+                     - COALESCE((SELECT SUM(ir.qty_reserved)
+                                 FROM issue_reservations ir
+                                 JOIN reservation_status rs ON rs.id = ir.status_id
+                                 WHERE ir.material_id = m.id AND rs.code = 'ACTIVE'), 0),
+                   0) AS available
+            FROM materials m
+            LEFT JOIN units u ON u.id = m.unit_id
+            WHERE m.id IN (:ids)
+            ORDER BY m.id
+            """, nativeQuery = true)
+    List<Object[]> findMaterialStockByIds(@Param("ids") Collection<Long> materialIds);
+
+    // ===== Concurrency: lock theo (material, lot) khi ghi xuất / giữ chỗ =====
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT b FROM LotBalance b WHERE b.material.id = :materialId AND b.lotNumber = :lotNumber")
+    Optional<LotBalance> lockByMaterialAndLot(@Param("materialId") Long materialId,
+                                              @Param("lotNumber") String lotNumber);
+
+    // ===== Rebuild từ sổ thẻ kho (thứ tự ghi: id tăng dần) =====
+    // Dòng thẻ kho cuối của lô = dòng có id lớn nhất trong (material_id, lot_number); SQL chạy được cả PostgreSQL và H2.
+    // Tồn cuối tính lại như LotBalanceService.applyCard (không dựa vào cột generated closing_stock).
+    String CARD_CLOSING = "COALESCE(ic.opening_stock, 0) + COALESCE(ic.qty_in, 0) - COALESCE(ic.qty_out, 0)";
+    String LATEST_CARD_OF_LOT = """
+            ic.material_id IS NOT NULL AND ic.lot_number IS NOT NULL
+            AND ic.id = (SELECT MAX(x.id) FROM inventory_card x
+                         WHERE x.material_id = ic.material_id AND x.lot_number = ic.lot_number)
+            """;
+
+    @Modifying
+    @Query(value = "DELETE FROM lot_balance", nativeQuery = true)
+    int deleteAllRows();
+
+    /** Id lấy từ lot_balance_id_seq: mỗi NEXTVAL là 1 khối riêng, không trùng khối Hibernate đang cấp. */
+    @Modifying
+    @Query(value = "INSERT INTO lot_balance(id, material_id, lot_number, closing_stock, mfg_date, exp_date,"
+            + " warehouse_name, supplier, last_card_id, updated_at)"
+            + " SELECT NEXTVAL('lot_balance_id_seq'), ic.material_id, ic.lot_number, " + CARD_CLOSING + ","
+            + " ic.mfg_date, ic.exp_date, ic.warehouse_name, ic.supplier, ic.id, CURRENT_TIMESTAMP"
+            + " FROM inventory_card ic WHERE " + LATEST_CARD_OF_LOT, nativeQuery = true)
+    int insertLatestFromLedger();
+
+    /**
+     * So khớp lot_balance với dòng thẻ kho cuối của từng lô: lô lệch / thiếu trong lot_balance,
+     * rồi dòng lot_balance không còn thẻ kho nào.
+     * Mỗi dòng: material_id, lot_number, ledger_closing, balance_closing, ledger_card_id, balance_card_id.
+     */
+    @Query(value = "SELECT ic.material_id, ic.lot_number, " + CARD_CLOSING + " AS ledger_closing,"
+            + " b.closing_stock AS balance_closing, ic.id AS ledger_card_id, b.last_card_id AS balance_card_id"
+            + " FROM inventory_card ic"
+            + " LEFT JOIN lot_balance b ON b.material_id = ic.material_id AND b.lot_number = ic.lot_number"
+            + " WHERE " + LATEST_CARD_OF_LOT
+            + " AND (b.id IS NULL OR b.closing_stock <> " + CARD_CLOSING + " OR b.last_card_id <> ic.id)"
+            + " UNION ALL"
+            + " SELECT b.material_id, b.lot_number, NULL, b.closing_stock, NULL, b.last_card_id"
+            + " FROM lot_balance b"
+            + " WHERE NOT EXISTS (SELECT 1 FROM inventory_card x"
+            + "                   WHERE x.material_id = b.material_id AND x.lot_number = b.lot_number)"
+            + " ORDER BY 1, 2", nativeQuery = true)
+    List<Object[]> findLedgerMismatches();
+}
@@ -0,0 +1,72 @@
+package com.backend.repository;
+
+import com.backend.entity.MaterialConsumption;
+import jakarta.persistence.LockModeType;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.util.Collection;
+import java.util.List;
+
+public interface MaterialConsumptionRepository extends JpaRepository<MaterialConsumption, Long> {
+
+    // ===== Cộng dồn khi xuất kho: khóa các dòng đã có của (năm học, khoa) cho các material của phiếu =====
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("""
+        SELECT c FROM MaterialConsumption c
+        WHERE c.academicYear = :year AND c.department.id = :departmentId AND c.material.id IN :materialIds
+        ORDER BY c.material.id
+    """)
+    List<MaterialConsumption> lockForUpdate(@Param("year") String year,
+                                            @Param("departmentId") Long departmentId,
+                                            @Param("materialIds") Collection<Long> materialIds);
+
+    /**
+     * Tiêu thụ của 1 năm học (1 khoa hoặc cả trường) kèm tồn hiện tại, phục vụ dự trù.
+     * Mỗi dòng: material id, code, name, spec, unit id, manufacturer, tổng thực xuất, tồn hiện tại.
+     */
+    @Query("""
+        SELECT m.id, m.code, m.name, m.spec, u.id, m.manufacturer, SUM(c.qtyIssued),
+               (SELECT COALESCE(SUM(b.closingStock), 0) FROM LotBalance b WHERE b.material.id = m.id)
+        FROM MaterialConsumption c
+        JOIN c.material m
+        LEFT JOIN m.unit u
+        WHERE c.academicYear = :year
+          AND (:departmentId IS NULL OR c.department.id = :departmentId)
+        GROUP BY m.id, m.code, m.name, m.spec, u.id, m.manufacturer
+        ORDER BY m.name
+    """)
+    List<Object[]> findYearRowsWithStock(@Param("year") String year,
+                                         @Param("departmentId") Long departmentId);
+
+    // ===== Rebuild từ chứng từ xuất (năm học bắt đầu tháng 9) =====
+    @Modifying
+    @Query(value = "DELETE FROM material_consumption", nativeQuery = true)
+    int deleteAllRows();
+
+    @Modifying
+    @Query(value = """
+            INSERT INTO material_consumption(academic_year, department_id, material_id,
+                                             qty_issued, issue_count, last_issue_date, updated_at)
+            SELECT y.academic_year, y.department_id, y.material_id,
+                   SUM(y.qty_issued), COUNT(DISTINCT y.header_id), MAX(y.issue_date), NOW()
+            FROM (
+                SELECT CASE WHEN EXTRACT(MONTH FROM h.issue_date) >= 9
+                            THEN CONCAT(CAST(EXTRACT(YEAR FROM h.issue_date) AS INT), '-',
+                                        CAST(EXTRACT(YEAR FROM h.issue_date) AS INT) + 1)
+                            ELSE CONCAT(CAST(EXTRACT(YEAR FROM h.issue_date) AS INT) - 1, '-',
+                                        CAST(EXTRACT(YEAR FROM h.issue_date) AS INT))
+                       END AS academic_year,
+                       h.department_id, d.material_id, d.qty_issued, h.id AS header_id, h.issue_date
+                FROM issue_detail d
+                JOIN issue_header h ON h.id = d.header_id
+                WHERE d.material_id IS NOT NULL AND h.department_id IS NOT NULL
+                  AND h.issue_date IS NOT NULL AND d.qty_issued > 0
+            ) y
+            GROUP BY y.academic_year, y.department_id, y.material_id
+            """, nativeQuery = true)
+    int insertFromIssues();
+}
@@ -8,12 +8,20 @@ import org.springframework.data.jpa.repository.Lock;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 
+import java.util.Collection;
 import java.util.List;
 
 public interface MaterialRepository extends JpaRepository<Material, Long> {
     Material findByCode(String code);
+
+    List<Material> findByCodeIn(Collection<String> codes);
+
     boolean existsByCode(String code);
 
+    // Danh mục gọn cho MaterialCatalogCache: id, code, name, spec, unit_id, category
+    @Query("SELECT m.id, m.code, m.name, m.spec, m.unit.id, m.category FROM Material m")
+    List<Object[]> findCatalogRows();
+
     // category là String ("A"/"B"/"C"/"D")
     List<Material> findByCategory(String category);
 
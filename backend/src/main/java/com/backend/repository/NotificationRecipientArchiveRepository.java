@@ -0,0 +1,31 @@
+package com.backend.repository;
+
+import com.backend.entity.NotificationRecipient.NotificationRecipientId;
+import com.backend.entity.NotificationRecipientArchive;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+public interface NotificationRecipientArchiveRepository
+        extends JpaRepository<NotificationRecipientArchive, NotificationRecipientId> {
+
+    /** Lịch sử đã lưu trữ của user, keyset (createdAt, notificationId) giảm dần như hộp thư. */
+    @Query("""
+        SELECT r FROM NotificationRecipientArchive r
+        JOIN FETCH r.notification n
+        LEFT JOIN FETCH n.entityType
+        LEFT JOIN FETCH n.eventType
+        WHERE r.id.userId = :userId
+          AND (r.createdAt < :beforeAt
+               OR (r.createdAt = :beforeAt AND r.id.notificationId < :beforeId))
+        ORDER BY r.createdAt DESC, r.id.notificationId DESC
+    """)
+    List<NotificationRecipientArchive> findArchiveBefore(@Param("userId") Long userId,
+                                                         @Param("beforeAt") LocalDateTime beforeAt,
+                                                         @Param("beforeId") Long beforeId,
+                                                         Pageable pageable);
+}
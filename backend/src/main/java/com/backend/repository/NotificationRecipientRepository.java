@@ -5,16 +5,98 @@ import com.backend.entity.NotificationRecipient.NotificationRecipientId;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
+import java.time.LocalDateTime;
+import java.util.List;
 import java.util.Optional;
 
 public interface NotificationRecipientRepository extends JpaRepository<NotificationRecipient, NotificationRecipientId> {
 
-    Page<NotificationRecipient> findByUser_IdOrderByNotification_CreatedAtDesc(Long userId, Pageable pageable);
+    Page<NotificationRecipient> findByUser_IdOrderByCreatedAtDesc(Long userId, Pageable pageable);
 
-    Page<NotificationRecipient> findByUser_IdAndIsReadFalseOrderByNotification_CreatedAtDesc(Long userId, Pageable pageable);
+    Page<NotificationRecipient> findByUser_IdAndIsReadFalseOrderByCreatedAtDesc(Long userId, Pageable pageable);
+
+    // ===== Keyset (createdAt, notificationId) giảm dần: đi theo idx_notif_recip_user_time =====
+    @Query("""
+        SELECT r FROM NotificationRecipient r
+        JOIN FETCH r.notification n
+        LEFT JOIN FETCH n.entityType
+        LEFT JOIN FETCH n.eventType
+        WHERE r.id.userId = :userId
+          AND (r.createdAt < :beforeAt
+               OR (r.createdAt = :beforeAt AND r.id.notificationId < :beforeId))
+        ORDER BY r.createdAt DESC, r.id.notificationId DESC
+    """)
+    List<NotificationRecipient> findInboxBefore(@Param("userId") Long userId,
+                                                @Param("beforeAt") LocalDateTime beforeAt,
+                                                @Param("beforeId") Long beforeId,
+                                                Pageable pageable);
+
+    /** Như {@link #findInboxBefore} nhưng chỉ thông báo chưa đọc (idx_notif_recip_unread_time). */
+    @Query("""
+        SELECT r FROM NotificationRecipient r
+        JOIN FETCH r.notification n
+        LEFT JOIN FETCH n.entityType
+        LEFT JOIN FETCH n.eventType
+        WHERE r.id.userId = :userId AND r.isRead = false
+          AND (r.createdAt < :beforeAt
+               OR (r.createdAt = :beforeAt AND r.id.notificationId < :beforeId))
+        ORDER BY r.createdAt DESC, r.id.notificationId DESC
+    """)
+    List<NotificationRecipient> findUnreadInboxBefore(@Param("userId") Long userId,
+                                                      @Param("beforeAt") LocalDateTime beforeAt,
+                                                      @Param("beforeId") Long beforeId,
+                                                      Pageable pageable);
+
+    // ===== Backfill created_at cho dòng cũ (cột được thêm sau) =====
+    boolean existsByCreatedAtIsNull();
+
+    @Modifying
+    @Query(value = """
+        UPDATE notification_recipients
+        SET created_at = COALESCE(
+            (SELECT n.created_at FROM notifications n WHERE n.id = notification_recipients.notification_id),
+            CURRENT_TIMESTAMP)
+        WHERE created_at IS NULL
+    """, nativeQuery = true)
+    int backfillCreatedAt();
 
     long countByUser_IdAndIsReadFalse(Long userId);
 
     Optional<NotificationRecipient> findByNotification_IdAndUser_Id(Long notificationId, Long userId);
+
+    /** Đánh dấu đã đọc toàn bộ thông báo chưa đọc của user trong 1 câu UPDATE (đi theo index (user_id, is_read)). */
+    @Modifying
+    @Query("""
+        UPDATE NotificationRecipient r
+        SET r.isRead = true, r.readAt = :readAt
+        WHERE r.id.userId = :userId AND r.isRead = false
+    """)
+    int markAllRead(@Param("userId") Long userId, @Param("readAt") LocalDateTime readAt);
+
+    @Modifying
+    @Query("""
+        UPDATE NotificationRecipient r
+        SET r.isRead = true, r.readAt = :readAt
+        WHERE r.id.notificationId = :notificationId AND r.id.userId = :userId AND r.isRead = false
+    """)
+    int markRead(@Param("notificationId") Long notificationId,
+                 @Param("userId") Long userId,
+                 @Param("readAt") LocalDateTime readAt);
+
+    /** Thông báo có id > afterId của user (phát lại khi SSE kết nối lại với Last-Event-ID). */
+    @Query("""
+        SELECT r FROM NotificationRecipient r
+        JOIN FETCH r.notification n
+        LEFT JOIN FETCH n.entityType
+        LEFT JOIN FETCH n.eventType
+        WHERE r.id.userId = :userId AND r.id.notificationId > :afterId
+        ORDER BY r.id.notificationId ASC
+    """)
+    List<NotificationRecipient> findForReplay(@Param("userId") Long userId,
+                                              @Param("afterId") Long afterId,
+                                              Pageable pageable);
 }
@@ -12,12 +12,28 @@ import java.util.List;
 
 public interface ReceiptHeaderRepository extends JpaRepository<ReceiptHeader, Long> {
     List<ReceiptHeader> findByReceiptDateOrderByIdDesc(LocalDate receiptDate);
-    List<ReceiptHeader> findByIdLessThanOrderByIdDesc(Long beforeId, Pageable pageable);
 
-    /** Tìm phiếu nhập theo mã / nhà cung cấp / lý do / ngày (lọc ở DB, có phân trang). */
-    @Query("SELECT h FROM ReceiptHeader h WHERE "
-            + "CAST(h.id AS string) LIKE CONCAT('%', :kw, '%') "
+    /** Tìm phiếu nhập theo mã / nhà cung cấp / lý do (lọc ở DB). */
+    String KEYWORD_FILTER = "CAST(h.id AS string) LIKE CONCAT('%', :kw, '%') "
             + "OR LOWER(COALESCE(h.receivedFrom, '')) LIKE CONCAT('%', :kw, '%') "
-            + "OR LOWER(COALESCE(h.reason, '')) LIKE CONCAT('%', :kw, '%')")
-    Page<ReceiptHeader> searchByKeyword(@Param("kw") String kw, Pageable pageable);
+            + "OR LOWER(COALESCE(h.reason, '')) LIKE CONCAT('%', :kw, '%')";
+
+    // ===== Feed phiếu nhập: 1 query / trang, không nạp entity =====
+    // Cột: id, receiptDate, receivedFrom, reason, totalAmount, createdById, createdByName, lineCount
+    String FEED_SELECT = "SELECT h.id, h.receiptDate, h.receivedFrom, h.reason, h.totalAmount, "
+            + "cb.id, cb.fullName, COUNT(x.id) "
+            + "FROM ReceiptHeader h LEFT JOIN h.createdBy cb LEFT JOIN h.details x ";
+    String FEED_GROUP = " GROUP BY h.id, h.receiptDate, h.receivedFrom, h.reason, h.totalAmount, "
+            + "cb.id, cb.fullName ORDER BY h.id DESC";
+
+    @Query(FEED_SELECT + "WHERE h.id < :beforeId" + FEED_GROUP)
+    List<Object[]> findFeedRowsBefore(@Param("beforeId") Long beforeId, Pageable pageable);
+
+    @Query(value = FEED_SELECT + FEED_GROUP,
+            countQuery = "SELECT COUNT(h) FROM ReceiptHeader h")
+    Page<Object[]> findFeedRows(Pageable pageable);
+
+    @Query(value = FEED_SELECT + "WHERE " + KEYWORD_FILTER + FEED_GROUP,
+            countQuery = "SELECT COUNT(h) FROM ReceiptHeader h WHERE " + KEYWORD_FILTER)
+    Page<Object[]> searchFeedRows(@Param("kw") String kw, Pageable pageable);
 }
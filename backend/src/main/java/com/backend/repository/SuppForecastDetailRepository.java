@@ -2,8 +2,17 @@ package com.backend.repository;
 
 import com.backend.entity.SuppForecastDetail;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
+import java.util.List;
+
 @Repository
 public interface SuppForecastDetailRepository extends JpaRepository<SuppForecastDetail, Long> {
-}
\ No newline at end of file
+
+    // Số dòng vật tư cho các phiếu của 1 trang (1 câu cho cả trang): header_id, count
+    @Query("SELECT x.header.id, COUNT(x) FROM SuppForecastDetail x WHERE x.header.id IN :headerIds GROUP BY x.header.id")
+    List<Object[]> countByHeaderIds(@Param("headerIds") Collection<Long> headerIds);
+}
@@ -1,6 +1,8 @@
 package com.backend.repository;
 
 import com.backend.entity.SuppForecastHeader;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
@@ -24,5 +26,27 @@ public interface SuppForecastHeaderRepository extends JpaRepository<SuppForecast
             @Param("deptId") Long deptId
     );
 
-    List<SuppForecastHeader> findByCreatedBy_IdOrderByCreatedAtDesc(Long userId);
+    long countByCreatedBy_Id(Long userId);
+
+    // ===== Lịch sử dự trù của người tạo: projection + phân trang trong DB =====
+    // :year = '' => mọi năm học; :kw đã trim + lower-case, '' = không lọc.
+    String MY_FILTER = """
+        h.createdBy.id = :userId
+          AND (:year = '' OR h.academicYear = :year)
+          AND (:kw = ''
+               OR CAST(h.id AS String) LIKE CONCAT('%', :kw, '%')
+               OR LOWER(COALESCE(h.academicYear, '')) LIKE CONCAT('%', :kw, '%')
+               OR LOWER(COALESCE(d.name, '')) LIKE CONCAT('%', :kw, '%')
+               OR LOWER(s.code) LIKE CONCAT('%', :kw, '%'))
+        """;
+
+    // id, academicYear, status code, createdAt, department name
+    @Query(value = "SELECT h.id, h.academicYear, s.code, h.createdAt, d.name FROM SuppForecastHeader h"
+            + " LEFT JOIN h.status s LEFT JOIN h.department d WHERE " + MY_FILTER
+            + " ORDER BY h.createdAt DESC, h.id DESC",
+           countQuery = "SELECT COUNT(h) FROM SuppForecastHeader h LEFT JOIN h.status s LEFT JOIN h.department d WHERE " + MY_FILTER)
+    Page<Object[]> findMyForecastRows(@Param("userId") Long userId,
+                                      @Param("year") String year,
+                                      @Param("kw") String kw,
+                                      Pageable pageable);
 }
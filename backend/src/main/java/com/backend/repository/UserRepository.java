@@ -1,7 +1,10 @@
 package com.backend.repository;
 
 import com.backend.entity.User;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.util.List;
@@ -24,4 +27,76 @@ public interface UserRepository extends JpaRepository<User, Long> {
 
     // role.code + status.code
     List<User> findByRole_CodeAndStatus_Code(String roleCode, String statusCode);
+
+    // ===== Người nhận thông báo: chỉ trả id, đi theo index (role_id / department_id / status_id) =====
+
+    @Query("SELECT u.id FROM User u WHERE u.role.code = :roleCode AND u.status.code = 'APPROVED' ORDER BY u.id")
+    List<Long> findApprovedIdsByRoleCode(@Param("roleCode") String roleCode);
+
+    @Query("SELECT u.id FROM User u WHERE u.department.id = :departmentId AND u.status.code = 'APPROVED' ORDER BY u.id")
+    List<Long> findApprovedIdsByDepartmentId(@Param("departmentId") Long departmentId);
+
+    /**
+     * User APPROVED có quyền hiệu lực {@code permCode} — cùng quy tắc với RbacService.getEffectivePermissionCodes:
+     * (quyền của role, trừ user special) + GRANT riêng - REVOKE riêng.
+     */
+    @Query("""
+        SELECT u.id FROM User u
+        WHERE u.status.code = 'APPROVED'
+          AND NOT EXISTS (SELECT 1 FROM UserPermission rv
+                          WHERE rv.user = u AND rv.permission.code = :permCode AND rv.effect = 'REVOKE')
+          AND (EXISTS (SELECT 1 FROM UserPermission g
+                       WHERE g.user = u AND g.permission.code = :permCode AND g.effect = 'GRANT')
+               OR (EXISTS (SELECT 1 FROM RolePermission rp
+                           WHERE rp.role = u.role AND rp.permission.code = :permCode)
+                   AND NOT EXISTS (SELECT 1 FROM UserPermission sp
+                                   WHERE sp.user = u AND sp.permission.code = :specialCode AND sp.effect = 'GRANT')))
+        ORDER BY u.id
+    """)
+    List<Long> findApprovedIdsWithPermission(@Param("permCode") String permCode,
+                                             @Param("specialCode") String specialCode);
+
+    // ===== Màn Quản trị người dùng (không gồm ADMIN / BGH) =====
+    // status: 'all' | 'pending' (null hoặc khác APPROVED) | 'approved'; so mã role/status không phân biệt hoa thường
+    // kw: '' hoặc '%từ khoá%' (lowercase, đã thoát % _ \ — xem LikePatterns)
+
+    /** Trang người dùng theo id tăng dần; afterId != null => keyset (bỏ qua offset). */
+    @Query("""
+        SELECT u FROM User u
+        LEFT JOIN FETCH u.role r
+        LEFT JOIN FETCH u.status s
+        LEFT JOIN FETCH u.department d
+        WHERE (r.code IS NULL OR UPPER(r.code) NOT IN ('ADMIN', 'BGH'))
+          AND (:afterId IS NULL OR u.id > :afterId)
+          AND (:status = 'all'
+               OR (:status = 'approved' AND UPPER(s.code) = 'APPROVED')
+               OR (:status = 'pending' AND (s.code IS NULL OR UPPER(s.code) <> 'APPROVED')))
+          AND (:kw = ''
+               OR LOWER(COALESCE(u.fullName, '')) LIKE :kw ESCAPE '\\'
+               OR LOWER(COALESCE(u.email, '')) LIKE :kw ESCAPE '\\')
+        ORDER BY u.id ASC
+    """)
+    List<User> findAdminListing(@Param("status") String status,
+                                @Param("kw") String kw,
+                                @Param("afterId") Long afterId,
+                                Pageable pageable);
+
+    /**
+     * Đếm theo trạng thái trong 1 query. Mỗi dòng: status code (có thể null), tổng, số khớp keyword.
+     * Tổng dùng cho thẻ thống kê; số khớp keyword dùng cho totalElements của danh sách.
+     */
+    @Query("""
+        SELECT s.code,
+               COUNT(u),
+               SUM(CASE WHEN :kw = ''
+                          OR LOWER(COALESCE(u.fullName, '')) LIKE :kw ESCAPE '\\'
+                          OR LOWER(COALESCE(u.email, '')) LIKE :kw ESCAPE '\\'
+                        THEN 1 ELSE 0 END)
+        FROM User u
+        LEFT JOIN u.role r
+        LEFT JOIN u.status s
+        WHERE r.code IS NULL OR UPPER(r.code) NOT IN ('ADMIN', 'BGH')
+        GROUP BY s.code
+    """)
+    List<Object[]> countAdminListingByStatus(@Param("kw") String kw);
 }
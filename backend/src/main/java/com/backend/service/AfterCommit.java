@@ -0,0 +1,28 @@
+package com.backend.service;
+
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Chạy việc cập nhật cache / bộ đếm sau khi transaction hiện tại commit,
+ * để request khác không đọc (và cache lại) dữ liệu chưa commit. Rollback => bỏ qua.
+ * Không có transaction thì chạy ngay.
+ */
+final class AfterCommit {
+
+    private AfterCommit() {
+    }
+
+    static void run(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
+}
@@ -0,0 +1,160 @@
+package com.backend.service;
+
+import com.backend.entity.IssueDetail;
+import com.backend.entity.IssueHeader;
+import com.backend.entity.MaterialConsumption;
+import com.backend.repository.IssueDetailRepository;
+import com.backend.repository.MaterialConsumptionRepository;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.persistence.Query;
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.*;
+
+/**
+ * Duy trì bảng material_consumption (lượng thực xuất theo năm học, khoa, material).
+ *
+ * - Mỗi phiếu xuất mới phải đi qua {@link #recordIssue} trong cùng transaction.
+ * - Năm học bắt đầu từ tháng 9: ngày 15/10/2025 và 20/08/2026 cùng thuộc "2025-2026".
+ * - Có lệnh rebuild toàn bộ từ issue_detail (vd. sau khi sửa tay chứng từ xuất).
+ */
+@Service
+@RequiredArgsConstructor
+@Transactional
+public class ConsumptionHistoryService {
+
+    static final int ACADEMIC_YEAR_START_MONTH = 9;
+
+    /** Số vật tư tối đa mỗi câu tạo dòng mới. */
+    private static final int MATERIALS_PER_INSERT = 500;
+
+    private final MaterialConsumptionRepository consumptionRepository;
+    private final IssueDetailRepository issueDetailRepository;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    public static String academicYearOf(LocalDate date) {
+        int start = date.getMonthValue() >= ACADEMIC_YEAR_START_MONTH ? date.getYear() : date.getYear() - 1;
+        return start + "-" + (start + 1);
+    }
+
+    /** "2025-2026" -> "2024-2025"; chuỗi không đúng dạng => RuntimeException. */
+    public static String previousAcademicYear(String academicYear) {
+        try {
+            int start = Integer.parseInt(academicYear.trim().substring(0, 4));
+            return (start - 1) + "-" + start;
+        } catch (RuntimeException e) {
+            throw new RuntimeException("Năm học không hợp lệ: " + academicYear);
+        }
+    }
+
+    /**
+     * Cộng lượng thực xuất của phiếu vào năm học của ngày xuất.
+     * Phiếu không gắn khoa không được ghi nhận (dự trù luôn theo khoa).
+     *
+     * Khóa các dòng đã có (theo material_id tăng dần) rồi cộng qua entity. Dòng chưa có được tạo trước
+     * bằng INSERT ... ON CONFLICT DO NOTHING (qty 0) rồi khóa như dòng có sẵn: 2 phiếu xuất đồng thời
+     * cùng (năm học, khoa, vật tư) mới chờ nhau ở khóa dòng thay vì cùng INSERT vi phạm unique.
+     */
+    public void recordIssue(IssueHeader header) {
+        if (header == null || header.getDepartment() == null || header.getDepartment().getId() == null) return;
+
+        Map<Long, BigDecimal> qtyByMaterial = new TreeMap<>();
+        for (IssueDetail d : header.getDetails()) {
+            if (d.getMaterial() == null || d.getQtyIssued() == null || d.getQtyIssued().signum() <= 0) continue;
+            qtyByMaterial.merge(d.getMaterial().getId(), d.getQtyIssued(), BigDecimal::add);
+        }
+        if (qtyByMaterial.isEmpty()) return;
+
+        LocalDate issueDate = header.getIssueDate() != null ? header.getIssueDate() : LocalDate.now();
+        String year = academicYearOf(issueDate);
+        Long departmentId = header.getDepartment().getId();
+
+        Map<Long, MaterialConsumption> rows = new HashMap<>();
+        for (MaterialConsumption c : consumptionRepository.lockForUpdate(year, departmentId, qtyByMaterial.keySet())) {
+            rows.put(c.getMaterial().getId(), c);
+        }
+
+        List<Long> missing = qtyByMaterial.keySet().stream().filter(id -> !rows.containsKey(id)).toList();
+        if (!missing.isEmpty()) {
+            insertMissingRows(year, departmentId, missing);
+            for (MaterialConsumption c : consumptionRepository.lockForUpdate(year, departmentId, missing)) {
+                rows.put(c.getMaterial().getId(), c);
+            }
+        }
+
+        for (Map.Entry<Long, BigDecimal> e : qtyByMaterial.entrySet()) {
+            MaterialConsumption c = rows.get(e.getKey());
+            if (c == null) throw new RuntimeException("Không ghi được tiêu thụ cho materialId=" + e.getKey());
+
+            c.setQtyIssued(c.getQtyIssued().add(e.getValue()));
+            c.setIssueCount(c.getIssueCount() + 1);
+            if (c.getLastIssueDate() == null || issueDate.isAfter(c.getLastIssueDate())) {
+                c.setLastIssueDate(issueDate);
+            }
+        }
+    }
+
+    /**
+     * Tiêu thụ của {@code academicYear} theo material (1 khoa, hoặc cả trường khi departmentId = null).
+     * Mỗi dòng: xem {@link MaterialConsumptionRepository#findYearRowsWithStock}.
+     */
+    @Transactional(readOnly = true)
+    public List<Object[]> findYearRowsWithStock(String academicYear, Long departmentId) {
+        return consumptionRepository.findYearRowsWithStock(academicYear, departmentId);
+    }
+
+    /** Dựng lại toàn bộ material_consumption từ issue_detail. */
+    public Map<String, Object> rebuildFromIssues() {
+        int deleted = consumptionRepository.deleteAllRows();
+        int inserted = consumptionRepository.insertFromIssues();
+
+        Map<String, Object> result = new HashMap<>();
+        result.put("deleted", deleted);
+        result.put("inserted", inserted);
+        return result;
+    }
+
+    // ---------------------------------------------------------------------
+
+    /** Tạo dòng rỗng (qty 0) cho các vật tư chưa có; dòng giao dịch khác vừa tạo thì bỏ qua. */
+    private void insertMissingRows(String year, Long departmentId, List<Long> materialIds) {
+        for (int from = 0; from < materialIds.size(); from += MATERIALS_PER_INSERT) {
+            List<Long> chunk = materialIds.subList(from, Math.min(from + MATERIALS_PER_INSERT, materialIds.size()));
+
+            StringBuilder sql = new StringBuilder("""
+                    INSERT INTO material_consumption(academic_year, department_id, material_id,
+                                                     qty_issued, issue_count, updated_at)
+                    VALUES\s""");
+            for (int i = 0; i < chunk.size(); i++) {
+                if (i > 0) sql.append(", ");
+                sql.append("(?1, ?2, ?").append(i + 3).append(", 0, 0, CURRENT_TIMESTAMP)");
+            }
+            sql.append(" ON CONFLICT DO NOTHING");
+
+            Query q = entityManager.createNativeQuery(sql.toString());
+            q.setParameter(1, year);
+            q.setParameter(2, departmentId);
+            for (int i = 0; i < chunk.size(); i++) {
+                q.setParameter(i + 3, chunk.get(i));
+            }
+            q.executeUpdate();
+        }
+    }
+
+    /** DB cũ (ddl-auto=update) chỉ có bảng rỗng: dựng lần đầu từ chứng từ xuất khi khởi động. */
+    @EventListener(ApplicationReadyEvent.class)
+    public void rebuildIfEmpty() {
+        if (consumptionRepository.count() == 0 && issueDetailRepository.count() > 0) {
+            rebuildFromIssues();
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.backend.service;
+
+import com.backend.entity.User;
+import com.backend.repository.UserRepository;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * Người dùng đang gọi API, nạp tối đa 1 lần / request.
+ *
+ * - CurrentUserFilter ghi id lấy từ header (X-User-Id hoặc Authorization: Bearer user-token-{id}).
+ * - Lần đầu service cần đúng user đó: 1 query (user + role + status), giữ trong request attribute;
+ *   các lần sau (validate, RBAC, ...) dùng lại, kể cả tập quyền hiệu lực.
+ * - Ngoài request (job, test) hoặc tra user khác người gọi: đọc thẳng DB như cũ.
+ */
+@Component
+@RequiredArgsConstructor
+public class CurrentUserContext {
+
+    public static final String ATTR_USER_ID = CurrentUserContext.class.getName() + ".userId";
+    private static final String ATTR_PRINCIPAL = CurrentUserContext.class.getName() + ".principal";
+
+    private final UserRepository userRepository;
+
+    /** Thay cho userRepository.findById khi tra người gọi API. */
+    public Optional<User> findUser(Long userId) {
+        if (userId == null) return Optional.empty();
+
+        RequestAttributes attrs = RequestContextHolder.getRequestAttributes();
+        if (attrs == null || !userId.equals(attrs.getAttribute(ATTR_USER_ID, RequestAttributes.SCOPE_REQUEST))) {
+            return userRepository.findById(userId);
+        }
+
+        Principal p = (Principal) attrs.getAttribute(ATTR_PRINCIPAL, RequestAttributes.SCOPE_REQUEST);
+        if (p == null) {
+            Optional<User> loaded = userRepository.findById(userId);
+            if (loaded.isEmpty()) return loaded;
+            p = new Principal(loaded.get());
+            attrs.setAttribute(ATTR_PRINCIPAL, p, RequestAttributes.SCOPE_REQUEST);
+        }
+        return Optional.of(p.user);
+    }
+
+    /** Tập quyền đã tính trong request này cho {@code user} (null nếu chưa có / không phải người gọi). */
+    PermissionSetCache.PermissionSet cachedPermissions(User user) {
+        Principal p = principalOf(user);
+        return p != null ? p.permissions : null;
+    }
+
+    void rememberPermissions(User user, PermissionSetCache.PermissionSet permissions) {
+        Principal p = principalOf(user);
+        if (p != null) p.permissions = permissions;
+    }
+
+    // ---------------------------------------------------------------------
+
+    private Principal principalOf(User user) {
+        if (user == null) return null;
+        RequestAttributes attrs = RequestContextHolder.getRequestAttributes();
+        if (attrs == null) return null;
+
+        Principal p = (Principal) attrs.getAttribute(ATTR_PRINCIPAL, RequestAttributes.SCOPE_REQUEST);
+        // chỉ dùng khi đúng instance đã nạp (role không bị đổi giữa chừng trong request)
+        if (p == null || p.user != user || !Objects.equals(p.roleId, roleIdOf(user))) return null;
+        return p;
+    }
+
+    private static Long roleIdOf(User user) {
+        return user.getRole() != null ? user.getRole().getId() : null;
+    }
+
+    private static final class Principal {
+        private final User user;
+        private final Long roleId;
+        private PermissionSetCache.PermissionSet permissions;
+
+        private Principal(User user) {
+            this.user = user;
+            this.roleId = roleIdOf(user);
+        }
+    }
+}
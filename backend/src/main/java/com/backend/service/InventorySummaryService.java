@@ -2,34 +2,30 @@ package com.backend.service;
 
 import com.backend.dto.MaterialStockDTO;
 import com.backend.dto.MaterialStockPageDTO;
-import com.backend.entity.Material;
-import com.backend.repository.InventoryCardRepository;
-import com.backend.repository.IssueReservationRepository;
-import com.backend.repository.MaterialRepository;
+import com.backend.repository.LotBalanceRepository;
 import lombok.RequiredArgsConstructor;
 import org.springframework.stereotype.Service;
 
 import java.math.BigDecimal;
 import java.util.*;
-import java.util.stream.Collectors;
 
 @Service
 @RequiredArgsConstructor
 public class InventorySummaryService {
 
-    private final InventoryCardRepository inventoryCardRepository;
-    private final IssueReservationRepository issueReservationRepository;
-    private final MaterialRepository materialRepository;
-
-    /** Ngưỡng "sắp hết hàng": tồn kho > 0 và < 10. */
-    private static final BigDecimal LOW_STOCK_THRESHOLD = BigDecimal.TEN;
+    private final StockSnapshotCache stockSnapshotCache;
+    private final LotBalanceRepository lotBalanceRepository;
 
     /**
      * Lấy danh sách tồn kho tổng hợp theo material — đã lọc (keyword + trạng thái)
      * và phân trang ở backend, kèm summary cho thẻ thống kê.
      *
+     * - Không có keyword: đọc từ {@link StockSnapshotCache} (thuần bộ nhớ, O(cỡ trang));
+     *   snapshot được làm mới theo StockChangedEvent từ nhập / xuất / giữ chỗ.
+     * - Có keyword: lọc, đếm và LIMIT/OFFSET chạy ở DB (2 câu), không quét snapshot.
+     *
      * Tồn kho hiển thị =
-     *   SUM(inventory_card.closing_stock)
+     *   SUM(lot_balance.closing_stock)         -- tồn mới nhất của từng lô
      * - SUM(issue_reservations.qty_reserved WHERE status = ACTIVE)
      *
      * @param keyword lọc theo mã hoặc tên vật tư (không phân biệt hoa thường)
@@ -37,41 +33,38 @@ public class InventorySummaryService {
      */
     public MaterialStockPageDTO getMaterialStockSummary(String keyword, String status, int page, int size) {
 
-        List<MaterialStockDTO> all = buildAllStock();
-
-        // Summary tính trên toàn bộ danh mục (không phụ thuộc bộ lọc / trang)
-        long totalItems = all.size();
-        long lowStock = all.stream().filter(this::isLowStock).count();
-        long outOfStock = all.stream().filter(this::isOutOfStock).count();
-
-        // Lọc theo trạng thái + keyword
         String kw = keyword == null ? "" : keyword.trim().toLowerCase();
         String st = status == null ? "all" : status.trim().toLowerCase();
+        if (!"low".equals(st) && !"out".equals(st)) st = "all";
 
-        List<MaterialStockDTO> filtered = all.stream()
-                .filter(dto -> {
-                    if ("low".equals(st) && !isLowStock(dto)) return false;
-                    if ("out".equals(st) && !isOutOfStock(dto)) return false;
-                    return true;
-                })
-                .filter(dto -> {
-                    if (kw.isEmpty()) return true;
-                    String code = dto.getMaterialCode() == null ? "" : dto.getMaterialCode().toLowerCase();
-                    String name = dto.getMaterialName() == null ? "" : dto.getMaterialName().toLowerCase();
-                    return code.contains(kw) || name.contains(kw);
-                })
-                .collect(Collectors.toList());
-
-        // Phân trang
         int safeSize = size <= 0 ? 10 : size;
         int safePage = Math.max(0, page);
-        long totalElements = filtered.size();
+
+        if (!kw.isEmpty()) {
+            return searchInDatabase(kw, st, safePage, safeSize);
+        }
+
+        StockSnapshotCache.Snapshot snap = stockSnapshotCache.get();
+
+        long totalElements = snap.count(st);
         int totalPages = (int) Math.max(1, Math.ceil((double) totalElements / safeSize));
         if (safePage > totalPages - 1) safePage = totalPages - 1;
 
-        int from = Math.min(safePage * safeSize, filtered.size());
-        int to = Math.min(from + safeSize, filtered.size());
-        List<MaterialStockDTO> pageItems = filtered.subList(from, to);
+        int from = (int) Math.min((long) safePage * safeSize, totalElements);
+        int to = (int) Math.min((long) from + safeSize, totalElements);
+
+        List<MaterialStockDTO> pageItems = new ArrayList<>(to - from);
+        for (int k = from; k < to; k++) {
+            int i = snap.position(st, k);
+            pageItems.add(new MaterialStockDTO(
+                    snap.id(i),
+                    snap.code(i),
+                    snap.name(i),
+                    snap.unitName(i),
+                    snap.available(i),
+                    snap.category(i)
+            ));
+        }
 
         return new MaterialStockPageDTO(
                 pageItems,
@@ -79,69 +72,56 @@ public class InventorySummaryService {
                 safeSize,
                 totalElements,
                 totalPages,
-                totalItems,
-                lowStock,
-                outOfStock
+                snap.size(),
+                snap.lowStockCount(),
+                snap.outOfStockCount()
         );
     }
 
-    private boolean isOutOfStock(MaterialStockDTO dto) {
-        return dto.getClosingStock() == null || dto.getClosingStock().compareTo(BigDecimal.ZERO) <= 0;
-    }
+    /** Tìm theo keyword: 1 câu đếm (summary + số dòng khớp) và 1 câu lấy trang. */
+    private MaterialStockPageDTO searchInDatabase(String kw, String st, int safePage, int safeSize) {
+        BigDecimal threshold = StockSnapshotCache.LOW_STOCK_THRESHOLD;
 
-    private boolean isLowStock(MaterialStockDTO dto) {
-        BigDecimal qty = dto.getClosingStock();
-        return qty != null
-                && qty.compareTo(BigDecimal.ZERO) > 0
-                && qty.compareTo(LOW_STOCK_THRESHOLD) < 0;
-    }
+        String pattern = LikePatterns.contains(kw);
 
-    /** Build danh sách tồn kho đầy đủ (chưa lọc) cho toàn bộ material. */
-    private List<MaterialStockDTO> buildAllStock() {
-
-        // 1. Tổng closing_stock theo material
-        Map<Long, BigDecimal> stockMap =
-                inventoryCardRepository.sumClosingStockGroupByMaterial()
-                        .stream()
-                        .collect(Collectors.toMap(
-                                r -> (Long) r[0],
-                                r -> (BigDecimal) r[1]
-                        ));
-
-        // 2. Tổng qty_reserved (ACTIVE) theo material
-        Map<Long, BigDecimal> reservedMap =
-                issueReservationRepository.sumActiveReservedGroupByMaterial()
-                        .stream()
-                        .collect(Collectors.toMap(
-                                r -> (Long) r[0],
-                                r -> (BigDecimal) r[1]
-                        ));
-
-        // 3. Lấy danh sách material (để map code, name, unit)
-        List<Material> materials = materialRepository.findAll();
-
-        // 4. Build DTO
-        List<MaterialStockDTO> result = new ArrayList<>();
-
-        for (Material m : materials) {
-            BigDecimal stock = stockMap.getOrDefault(m.getId(), BigDecimal.ZERO);
-            BigDecimal reserved = reservedMap.getOrDefault(m.getId(), BigDecimal.ZERO);
-
-            BigDecimal available = stock.subtract(reserved);
-            if (available.compareTo(BigDecimal.ZERO) < 0) {
-                available = BigDecimal.ZERO; // an toàn dữ liệu
-            }
+        Object[] counts = lotBalanceRepository.countMaterialStock(pattern, st, threshold).get(0);
+        long totalItems = ((Number) counts[0]).longValue();
+        long lowStock = ((Number) counts[1]).longValue();
+        long outOfStock = ((Number) counts[2]).longValue();
+        long totalElements = ((Number) counts[3]).longValue();
 
-            result.add(new MaterialStockDTO(
-                    m.getId(),
-                    m.getCode(),
-                    m.getName(),
-                    m.getUnit() != null ? m.getUnit().getName() : null,
-                    available,
-                    m.getCategory()
-            ));
+        int totalPages = (int) Math.max(1, Math.ceil((double) totalElements / safeSize));
+        if (safePage > totalPages - 1) safePage = totalPages - 1;
+
+        List<MaterialStockDTO> pageItems = new ArrayList<>(safeSize);
+        if (totalElements > 0) {
+            for (Object[] r : lotBalanceRepository.findMaterialStockPage(
+                    pattern, st, threshold, safeSize, (long) safePage * safeSize)) {
+                pageItems.add(new MaterialStockDTO(
+                        ((Number) r[0]).longValue(),
+                        (String) r[1],
+                        (String) r[2],
+                        (String) r[3],
+                        toDecimal(r[5]),
+                        (String) r[4]
+                ));
+            }
         }
 
-        return result;
+        return new MaterialStockPageDTO(
+                pageItems,
+                safePage,
+                safeSize,
+                totalElements,
+                totalPages,
+                totalItems,
+                lowStock,
+                outOfStock
+        );
+    }
+
+    private static BigDecimal toDecimal(Object v) {
+        if (v == null) return BigDecimal.ZERO;
+        return (v instanceof BigDecimal d) ? d : new BigDecimal(v.toString());
     }
 }
@@ -0,0 +1,323 @@
+package com.backend.service;
+
+import com.backend.dto.StockShortageDTO;
+import com.backend.entity.IssueReqDetail;
+import com.backend.entity.IssueReqHeader;
+import com.backend.entity.LotBalance;
+import com.backend.entity.Material;
+import com.backend.repository.IssueReqHeaderRepository;
+import com.backend.repository.IssueReservationRepository;
+import lombok.RequiredArgsConstructor;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.math.BigDecimal;
+import java.util.*;
+
+/**
+ * Xác định phiếu xin lĩnh APPROVED nào xuất được ngay, theo thứ tự ưu tiên (requestedAt tăng dần).
+ *
+ * Nạp dữ liệu với số query cố định, không phụ thuộc số phiếu / số dòng:
+ *  1) id phiếu APPROVED (đã giới hạn) 2) header + details + material (fetch join)
+ *  3) cờ "đã xuất" theo FK issue_req_id 4) reservation ACTIVE của các phiếu
+ *  5) lô còn tồn 6) reserved ACTIVE theo lô.
+ *
+ * Sau đó mô phỏng FEFO hoàn toàn trong bộ nhớ: phiếu xếp trước "chiếm" tồn,
+ * phiếu sau chỉ thấy phần còn lại. Phần đã giữ chỗ của chính phiếu được cộng lại cho phiếu đó.
+ */
+@Service
+@RequiredArgsConstructor
+@Transactional(readOnly = true)
+public class IssueEligibilityEngine {
+
+    private static final String DOC_APPROVED = "APPROVED";
+
+    private final IssueReqHeaderRepository issueReqHeaderRepository;
+    private final IssuedRequestService issuedRequestService;
+    private final IssueReservationRepository issueReservationRepository;
+    private final LotBalanceService lotBalanceService;
+
+    public enum Verdict {
+        ELIGIBLE,
+        ALREADY_ISSUED,
+        HAS_UNMAPPED_MATERIAL,
+        NOT_ENOUGH_STOCK
+    }
+
+    /** Kết quả đánh giá 1 phiếu. */
+    public static class Evaluation {
+        private final IssueReqHeader request;
+        private final Verdict verdict;
+        private final List<StockShortageDTO> shortages;
+        private final List<String> unmappedItems;
+
+        private Evaluation(IssueReqHeader request, Verdict verdict,
+                           List<StockShortageDTO> shortages, List<String> unmappedItems) {
+            this.request = request;
+            this.verdict = verdict;
+            this.shortages = shortages;
+            this.unmappedItems = unmappedItems;
+        }
+
+        public IssueReqHeader getRequest() { return request; }
+
+        public Verdict getVerdict() { return verdict; }
+
+        public List<StockShortageDTO> getShortages() { return shortages; }
+
+        public List<String> getUnmappedItems() { return unmappedItems; }
+    }
+
+    /**
+     * Phiếu APPROVED theo thứ tự ưu tiên, đã kèm details + material (2 query).
+     * subDepartmentId chỉ có tác dụng khi có departmentId (giữ đúng hành vi lọc cũ).
+     */
+    public List<IssueReqHeader> loadApproved(Long departmentId, Long subDepartmentId, int limit) {
+        Long subId = departmentId != null ? subDepartmentId : null;
+        List<Long> ids = issueReqHeaderRepository.findIdsByStatusOrderByRequestedAtAsc(
+                DOC_APPROVED, departmentId, subId, PageRequest.of(0, limit));
+        if (ids.isEmpty()) return new ArrayList<>();
+
+        Map<Long, IssueReqHeader> byId = new HashMap<>();
+        for (IssueReqHeader h : issueReqHeaderRepository.findWithDetailsByIdIn(ids)) {
+            byId.put(h.getId(), h);
+        }
+
+        List<IssueReqHeader> ordered = new ArrayList<>(ids.size());
+        for (Long id : ids) {
+            IssueReqHeader h = byId.get(id);
+            if (h != null) ordered.add(h);
+        }
+        return ordered;
+    }
+
+    /**
+     * Đánh giá lần lượt các phiếu (đúng thứ tự truyền vào). Kết quả cùng thứ tự.
+     */
+    public List<Evaluation> evaluate(List<IssueReqHeader> approved) {
+        List<Evaluation> out = new ArrayList<>(approved.size());
+        if (approved.isEmpty()) return out;
+
+        List<Long> reqIds = approved.stream().map(IssueReqHeader::getId).toList();
+
+        Set<Long> issued = issuedRequestService.findIssuedReqIds(reqIds);
+        Map<Long, Map<Long, Map<String, BigDecimal>>> reservedByReq = loadActiveReservations(reqIds);
+        Map<Long, List<LotState>> lotStates = loadLotStates(approved);
+
+        for (IssueReqHeader req : approved) {
+            if (issued.contains(req.getId())) {
+                out.add(new Evaluation(req, Verdict.ALREADY_ISSUED, null, null));
+                continue;
+            }
+
+            List<String> unmappedItems = collectUnmappedItems(req);
+            if (!unmappedItems.isEmpty()) {
+                out.add(new Evaluation(req, Verdict.HAS_UNMAPPED_MATERIAL, null, unmappedItems));
+                continue;
+            }
+
+            Map<Long, Map<String, BigDecimal>> reservedThisReq = reservedByReq.getOrDefault(req.getId(), Map.of());
+            Map<Long, MaterialNeed> needs = buildNeedByMaterial(req);
+
+            List<StockShortageDTO> shortages = computeShortages(needs, reservedThisReq, lotStates);
+            if (!shortages.isEmpty()) {
+                out.add(new Evaluation(req, Verdict.NOT_ENOUGH_STOCK, shortages, null));
+                continue;
+            }
+
+            deductForRequest(needs, reservedThisReq, lotStates);
+            out.add(new Evaluation(req, Verdict.ELIGIBLE, null, null));
+        }
+
+        return out;
+    }
+
+    // ------------------------- BULK LOAD -------------------------
+
+    /** reqId -> materialId -> lot -> qty ACTIVE của chính phiếu. */
+    private Map<Long, Map<Long, Map<String, BigDecimal>>> loadActiveReservations(List<Long> reqIds) {
+        Map<Long, Map<Long, Map<String, BigDecimal>>> out = new HashMap<>();
+
+        for (Object[] r : issueReservationRepository.findActiveQtyByHeaderIds(reqIds)) {
+            Long reqId = ((Number) r[0]).longValue();
+            Long mid = ((Number) r[1]).longValue();
+            String lot = safeTrim((String) r[2]);
+            BigDecimal qty = nvl((BigDecimal) r[3]);
+            if (qty.compareTo(BigDecimal.ZERO) <= 0) continue;
+
+            out.computeIfAbsent(reqId, x -> new HashMap<>())
+                    .computeIfAbsent(mid, x -> new LinkedHashMap<>())
+                    .merge(lot, qty, BigDecimal::add);
+        }
+        return out;
+    }
+
+    /** Lô FEFO của mọi vật tư xuất hiện trong các phiếu, tồn net = closing - reserved ACTIVE (mọi phiếu). */
+    private Map<Long, List<LotState>> loadLotStates(List<IssueReqHeader> approved) {
+        Set<Long> materialIds = new LinkedHashSet<>();
+        for (IssueReqHeader req : approved) {
+            for (IssueReqDetail d : req.getDetails()) {
+                if (d.getMaterial() != null) materialIds.add(d.getMaterial().getId());
+            }
+        }
+
+        Map<String, BigDecimal> reservedCache = new HashMap<>();
+        Map<Long, List<LotBalance>> lotsByMaterial = lotBalanceService.loadAvailableLots(materialIds, reservedCache);
+
+        Map<Long, List<LotState>> states = new HashMap<>();
+        for (Map.Entry<Long, List<LotBalance>> e : lotsByMaterial.entrySet()) {
+            Long mid = e.getKey();
+            List<LotState> list = new ArrayList<>();
+
+            for (LotBalance lb : e.getValue()) {
+                String lot = safeTrim(lb.getLotNumber());
+                BigDecimal reserved = nvl(reservedCache.get(mid + "|" + lot));
+                BigDecimal net = nvl(lb.getClosingStock()).subtract(reserved);
+                if (net.compareTo(BigDecimal.ZERO) <= 0) continue;
+                list.add(new LotState(lot, net));
+            }
+            states.put(mid, list);
+        }
+        return states;
+    }
+
+    // ------------------------- IN-MEMORY FEFO -------------------------
+
+    private Map<Long, MaterialNeed> buildNeedByMaterial(IssueReqHeader req) {
+        Map<Long, MaterialNeed> map = new LinkedHashMap<>();
+        for (IssueReqDetail d : req.getDetails()) {
+            if (d.getMaterial() == null) continue;
+            Material m = d.getMaterial();
+            BigDecimal qty = nvl(d.getQtyRequested());
+            if (qty.compareTo(BigDecimal.ZERO) <= 0) continue;
+
+            MaterialNeed need = map.computeIfAbsent(m.getId(), k -> new MaterialNeed(m));
+            need.need = need.need.add(qty);
+        }
+        return map;
+    }
+
+    private List<StockShortageDTO> computeShortages(Map<Long, MaterialNeed> needs,
+                                                    Map<Long, Map<String, BigDecimal>> reservedThisReq,
+                                                    Map<Long, List<LotState>> lotStates) {
+        List<StockShortageDTO> shortages = new ArrayList<>();
+
+        for (MaterialNeed mn : needs.values()) {
+            Long materialId = mn.material.getId();
+
+            BigDecimal baseAvailable = BigDecimal.ZERO;
+            for (LotState ls : lotStates.getOrDefault(materialId, List.of())) {
+                baseAvailable = baseAvailable.add(ls.remaining);
+            }
+
+            BigDecimal reservedThisTotal = sumMap(reservedThisReq.get(materialId));
+            BigDecimal availableForThisReq = baseAvailable.add(reservedThisTotal);
+
+            if (availableForThisReq.compareTo(mn.need) < 0) {
+                BigDecimal missing = mn.need.subtract(availableForThisReq);
+                String unitName = (mn.material.getUnit() != null) ? mn.material.getUnit().getName() : null;
+
+                shortages.add(StockShortageDTO.of(
+                        materialId,
+                        mn.material.getCode(),
+                        mn.material.getName(),
+                        unitName,
+                        mn.need,
+                        availableForThisReq,
+                        missing
+                ));
+            }
+        }
+
+        return shortages;
+    }
+
+    private void deductForRequest(Map<Long, MaterialNeed> needs,
+                                  Map<Long, Map<String, BigDecimal>> reservedThisReq,
+                                  Map<Long, List<LotState>> lotStates) {
+        for (MaterialNeed mn : needs.values()) {
+            Long materialId = mn.material.getId();
+
+            BigDecimal reservedThisTotal = sumMap(reservedThisReq.get(materialId));
+            BigDecimal remaining = nvl(mn.need).subtract(reservedThisTotal);
+            if (remaining.compareTo(BigDecimal.ZERO) <= 0) continue;
+
+            for (LotState lot : lotStates.getOrDefault(materialId, List.of())) {
+                if (remaining.compareTo(BigDecimal.ZERO) <= 0) break;
+                if (lot.remaining.compareTo(BigDecimal.ZERO) <= 0) continue;
+
+                BigDecimal take = lot.remaining.min(remaining);
+                lot.remaining = lot.remaining.subtract(take);
+                remaining = remaining.subtract(take);
+            }
+
+            if (remaining.compareTo(BigDecimal.ZERO) > 0) {
+                throw new RuntimeException("Lỗi nội bộ reserve tồn kho (materialId=" + materialId + ")");
+            }
+        }
+    }
+
+    private List<String> collectUnmappedItems(IssueReqHeader req) {
+        List<String> out = new ArrayList<>();
+        for (IssueReqDetail d : req.getDetails()) {
+            if (d.getMaterial() != null) continue;
+
+            String code = safeTrim(d.getProposedCode());
+            String name = safeTrim(d.getMaterialName());
+            String spec = safeTrim(d.getSpec());
+            BigDecimal qty = nvl(d.getQtyRequested());
+
+            String label;
+            if (!code.isEmpty()) label = code;
+            else if (!name.isEmpty()) label = name;
+            else label = "Vật tư chưa map";
+
+            if (!name.isEmpty() && !label.equals(name) && !code.isEmpty()) {
+                label = label + " - " + name;
+            }
+            if (!spec.isEmpty()) label = label + " (" + spec + ")";
+            label = label + " x " + qty;
+
+            out.add(label);
+        }
+        return out;
+    }
+
+    // ------------------------- HELPERS -------------------------
+
+    private static BigDecimal nvl(BigDecimal v) {
+        return v == null ? BigDecimal.ZERO : v;
+    }
+
+    private static String safeTrim(String s) {
+        return s == null ? "" : s.trim();
+    }
+
+    private static BigDecimal sumMap(Map<String, BigDecimal> m) {
+        if (m == null || m.isEmpty()) return BigDecimal.ZERO;
+        BigDecimal s = BigDecimal.ZERO;
+        for (BigDecimal v : m.values()) s = s.add(nvl(v));
+        return s;
+    }
+
+    private static class LotState {
+        String lotNumber;
+        BigDecimal remaining;
+
+        LotState(String lotNumber, BigDecimal remaining) {
+            this.lotNumber = lotNumber;
+            this.remaining = remaining;
+        }
+    }
+
+    private static class MaterialNeed {
+        Material material;
+        BigDecimal need;
+
+        MaterialNeed(Material material) {
+            this.material = material;
+            this.need = BigDecimal.ZERO;
+        }
+    }
+}
@@ -2,8 +2,12 @@ package com.backend.service;
 
 import com.backend.dto.*;
 import com.backend.entity.*;
+import com.backend.event.StockChangedEvent;
 import com.backend.repository.*;
 import lombok.RequiredArgsConstructor;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.transaction.interceptor.TransactionAspectSupport;
@@ -29,13 +33,14 @@ public class IssueReqService {
     private final IssueReqHeaderRepository headerRepository;
     private final IssueReqDetailRepository detailRepository;
 
-    private final UserRepository userRepository;
+    private final CurrentUserContext currentUserContext;
     private final DepartmentRepository departmentRepository;
     private final SubDepartmentRepository subDepartmentRepository;
     private final MaterialRepository materialRepository;
+    private final MaterialCatalogCache materialCatalog;
     private final UnitRepository unitRepository;
 
-    private final InventoryCardRepository inventoryCardRepository;
+    private final LotBalanceService lotBalanceService;
 
     private final DocStatusRepository docStatusRepository;
     private final NotificationService notificationService;
@@ -43,34 +48,30 @@ public class IssueReqService {
     private final IssueReservationRepository issueReservationRepository;
     private final ReservationStatusRepository reservationStatusRepository;
 
+    private final IssueReqStatusCounts statusCounts;
+
     private final RbacService rbacService;
     private final SystemSettingsService systemSettingsService;
+    private final ApplicationEventPublisher eventPublisher;
 
     // ==================== DANH SÁCH PHIẾU CHO LÃNH ĐẠO ====================
 
-    public IssueReqListResponseDTO getPendingRequestsForLeader(Long leaderId) {
+    /**
+     * Hàng đợi chờ phê duyệt, phân trang keyset: {@code cursor} (opaque) = vị trí (requestedAt, id)
+     * của phiếu cuối trang trước; null => trang đầu. Chi tiết chỉ nạp cho phiếu của trang,
+     * số đếm theo trạng thái lấy từ {@link IssueReqStatusCounts}.
+     */
+    @Transactional(readOnly = true)
+    public IssueReqListResponseDTO getPendingRequestsForLeader(Long leaderId, String cursor, Integer size) {
         try {
             getLeaderUser(leaderId, "Chỉ lãnh đạo được xem phiếu chờ phê duyệt");
 
-            List<IssueReqHeader> pendingRequests =
-                    headerRepository.findByStatus_CodeOrderByRequestedAtDesc(DOC_PENDING);
-
-            List<IssueReqHeaderDTO> requestDTOs = pendingRequests.stream()
-                    .map(this::convertToDTO)
-                    .collect(Collectors.toList());
-
-            long totalCount = headerRepository.countByStatus_Code(DOC_PENDING);
-            long approvedCount = headerRepository.countByStatus_Code(DOC_APPROVED);
-            long rejectedCount = headerRepository.countByStatus_Code(DOC_REJECTED);
-
-            return IssueReqListResponseDTO.success(
-                    requestDTOs.isEmpty() ? "Không có phiếu nào chờ phê duyệt" : "Lấy danh sách phiếu chờ phê duyệt thành công",
-                    requestDTOs,
-                    totalCount,
-                    (int) totalCount,
-                    (int) approvedCount,
-                    (int) rejectedCount
-            );
+            long pendingCount = statusCounts.get(DOC_PENDING);
+            IssueReqListResponseDTO resp = leaderQueuePage(List.of(DOC_PENDING), cursor, size,
+                    "Không có phiếu nào chờ phê duyệt", "Lấy danh sách phiếu chờ phê duyệt thành công",
+                    pendingCount);
+            resp.setPendingCount((int) pendingCount);
+            return resp;
 
         } catch (Exception e) {
             return IssueReqListResponseDTO.success(
@@ -81,31 +82,18 @@ public class IssueReqService {
         }
     }
 
-    public IssueReqListResponseDTO getProcessedRequestsForLeader(Long leaderId) {
+    /** Lịch sử đã duyệt / từ chối, cùng kiểu cursor với {@link #getPendingRequestsForLeader}. */
+    @Transactional(readOnly = true)
+    public IssueReqListResponseDTO getProcessedRequestsForLeader(Long leaderId, String cursor, Integer size) {
         try {
             getLeaderUser(leaderId, "Chỉ lãnh đạo được xem lịch sử phê duyệt");
 
-            List<IssueReqHeader> processedRequests =
-                    headerRepository.findByStatus_CodeInOrderByRequestedAtDesc(List.of(DOC_APPROVED, DOC_REJECTED));
-
-            List<IssueReqHeaderDTO> requestDTOs = processedRequests.stream()
-                    .map(this::convertToDTO)
-                    .collect(Collectors.toList());
-
-            long totalCount = requestDTOs.size();
-            long pendingCount = headerRepository.countByStatus_Code(DOC_PENDING);
-
-            int approved = (int) requestDTOs.stream().filter(r -> Objects.equals(r.getStatus(), 1)).count();
-            int rejected = (int) requestDTOs.stream().filter(r -> Objects.equals(r.getStatus(), 2)).count();
-
-            return IssueReqListResponseDTO.success(
-                    requestDTOs.isEmpty() ? "Chưa có lịch sử phê duyệt" : "Lấy lịch sử phiếu thành công",
-                    requestDTOs,
-                    totalCount,
-                    (int) pendingCount,
-                    approved,
-                    rejected
-            );
+            long processedCount = statusCounts.get(DOC_APPROVED) + statusCounts.get(DOC_REJECTED);
+            IssueReqListResponseDTO resp = leaderQueuePage(List.of(DOC_APPROVED, DOC_REJECTED), cursor, size,
+                    "Chưa có lịch sử phê duyệt", "Lấy lịch sử phiếu thành công",
+                    processedCount);
+            resp.setPendingCount((int) statusCounts.get(DOC_PENDING));
+            return resp;
 
         } catch (Exception e) {
             return IssueReqListResponseDTO.success(
@@ -116,6 +104,38 @@ public class IssueReqService {
         }
     }
 
+    private IssueReqListResponseDTO leaderQueuePage(List<String> statusCodes, String cursor, Integer size,
+                                                    String emptyMessage, String okMessage, long totalCount) {
+        int s = (size == null || size <= 0) ? 50 : Math.min(size, 200);
+        KeysetCursor before = KeysetCursor.decodeOrFirst(cursor);
+
+        // lấy thêm 1 dòng để biết còn trang sau
+        List<Long> ids = headerRepository.findIdsByStatusBefore(
+                statusCodes, before.at(), before.id(), PageRequest.of(0, s + 1));
+        boolean hasMore = ids.size() > s;
+        if (hasMore) ids = ids.subList(0, s);
+
+        List<IssueReqHeader> headers = loadRequestsInOrder(ids);
+        List<IssueReqHeaderDTO> items = headers.stream()
+                .map(this::convertToDTO)
+                .collect(Collectors.toList());
+
+        IssueReqListResponseDTO resp = IssueReqListResponseDTO.success(
+                items.isEmpty() ? emptyMessage : okMessage,
+                items,
+                totalCount,
+                0,
+                (int) statusCounts.get(DOC_APPROVED),
+                (int) statusCounts.get(DOC_REJECTED)
+        );
+        resp.setHasMore(hasMore);
+        if (hasMore) {
+            IssueReqHeader last = headers.get(headers.size() - 1);
+            resp.setNextCursor(new KeysetCursor(last.getRequestedAt(), last.getId()).encode());
+        }
+        return resp;
+    }
+
     // ==================== CHI TIẾT PHIẾU ====================
 
     public IssueReqDetailResponseDTO getRequestDetailWithSummary(Long issueReqId, Long userId) {
@@ -123,7 +143,7 @@ public class IssueReqService {
             IssueReqHeader header = headerRepository.findById(issueReqId)
                     .orElseThrow(() -> new RuntimeException("Phiếu xin lĩnh không tồn tại"));
 
-            User user = userRepository.findById(userId)
+            User user = currentUserContext.findUser(userId)
                     .orElseThrow(() -> new RuntimeException("User không tồn tại"));
 
             if (!hasPermissionToView(header, user)) {
@@ -199,6 +219,7 @@ public class IssueReqService {
             }
 
             header = headerRepository.save(header);
+            statusCounts.invalidateAfterCommit();
 
             IssueReqHeaderDTO headerDTO = convertToDTO(header);
             Map<String, Object> summary = createSummary(header);
@@ -224,10 +245,18 @@ public class IssueReqService {
     private void createNewMaterialsForApprovedRequest(IssueReqHeader header) {
         if (header == null || header.getDetails() == null) return;
 
+        Set<String> proposedCodes = new HashSet<>();
         for (IssueReqDetail detail : header.getDetails()) {
             if (detail.getMaterial() == null && detail.getProposedCode() != null) {
+                proposedCodes.add(detail.getProposedCode());
+            }
+        }
+        Map<String, Material> byCode = loadMaterialsByCode(proposedCodes);
 
-                Material existingMaterial = materialRepository.findByCode(detail.getProposedCode());
+        for (IssueReqDetail detail : header.getDetails()) {
+            if (detail.getMaterial() == null && detail.getProposedCode() != null) {
+
+                Material existingMaterial = byCode.get(detail.getProposedCode().trim());
                 if (existingMaterial != null) {
                     detail.setMaterial(existingMaterial);
                 } else {
@@ -250,6 +279,10 @@ public class IssueReqService {
 
                     newMaterial = materialRepository.save(newMaterial);
                     detail.setMaterial(newMaterial);
+                    // 2 dòng cùng mã đề xuất => dòng sau dùng lại vật tư vừa tạo
+                    byCode.put(detail.getProposedCode().trim(), newMaterial);
+                    materialCatalog.registerAfterCommit(newMaterial);
+                    eventPublisher.publishEvent(StockChangedEvent.of(List.of(newMaterial.getId()), "MATERIAL_CREATED"));
                 }
             }
         }
@@ -261,7 +294,7 @@ public class IssueReqService {
 
     public IssueReqDetailResponseDTO createIssueRequest(CreateIssueReqDTO request, Long creatorId) {
         try {
-            User creator = userRepository.findById(creatorId)
+            User creator = currentUserContext.findUser(creatorId)
                     .orElseThrow(() -> new RuntimeException("User không tồn tại"));
 
             if (!creator.isApproved()) throw new RuntimeException("Tài khoản chưa được kích hoạt");
@@ -293,6 +326,7 @@ public class IssueReqService {
             }
 
             header = headerRepository.save(header);
+            statusCounts.invalidateAfterCommit();
 
             List<IssueReqDetail> details = createDetails(header, request.getDetails());
             header.setDetails(details);
@@ -356,53 +390,37 @@ public class IssueReqService {
 
     /**
      * Danh sách phiếu xin lĩnh của cán bộ — lọc theo keyword (mã phiếu / mục đích)
-     * và phân trang ở backend. Summary (tổng/chờ/duyệt/từ chối) tính trên toàn bộ.
+     * và phân trang trong DB; chi tiết chỉ nạp cho các phiếu của trang. Summary (tổng/chờ/duyệt/từ chối)
+     * tính trên toàn bộ phiếu của cán bộ.
      */
+    @Transactional(readOnly = true)
     public IssueReqListResponseDTO getRequestsForCanBo(Long canBoId, String keyword, Integer page, Integer size) {
         try {
-            User canBo = userRepository.findById(canBoId)
+            User canBo = currentUserContext.findUser(canBoId)
                     .orElseThrow(() -> new RuntimeException("User không tồn tại"));
 
             if (!canBo.isApproved()) throw new RuntimeException("Tài khoản chưa được kích hoạt");
 
-            List<IssueReqHeader> requests =
-                    headerRepository.findByCreatedByIdOrderByRequestedAtDesc(canBoId);
+            String kw = normalizeKeyword(keyword);
+            int safeSize = (size == null || size <= 0) ? 10 : Math.min(size, 100);
+            int requestedPage = Math.max(0, page == null ? 0 : page);
 
-            long totalCount = requests.size();
-            long pendingCount = requests.stream().filter(r -> isDocStatus(r, DOC_PENDING)).count();
-            long approvedCount = requests.stream().filter(r -> isDocStatus(r, DOC_APPROVED)).count();
-            long rejectedCount = requests.stream().filter(r -> isDocStatus(r, DOC_REJECTED)).count();
+            Page<Long> ids = headerRepository.findIdsByCreator(canBoId, kw, PageRequest.of(requestedPage, safeSize));
+            int totalPages = Math.max(1, ids.getTotalPages());
+            int safePage = Math.min(requestedPage, totalPages - 1);
+            if (safePage != requestedPage) {
+                // trang vượt quá cuối => trả trang cuối như trước
+                ids = headerRepository.findIdsByCreator(canBoId, kw, PageRequest.of(safePage, safeSize));
+            }
 
-            List<IssueReqHeaderDTO> all = requests.stream()
+            List<IssueReqHeaderDTO> pageItems = loadRequestsInOrder(ids.getContent()).stream()
                     .map(this::convertToDTO)
                     .collect(Collectors.toList());
 
-            // Lọc theo keyword (mã phiếu hoặc mục đích sử dụng)
-            String kw = keyword == null ? "" : keyword.trim().toLowerCase();
-            List<IssueReqHeaderDTO> filtered = kw.isEmpty() ? all : all.stream()
-                    .filter(d -> String.valueOf(d.getId()).contains(kw)
-                            || (d.getNote() != null && d.getNote().toLowerCase().contains(kw)))
-                    .collect(Collectors.toList());
-
-            // Phân trang
-            int safeSize = (size == null || size <= 0) ? 10 : size;
-            int totalPages = (int) Math.max(1, Math.ceil((double) filtered.size() / safeSize));
-            int safePage = Math.max(0, Math.min(page == null ? 0 : page, totalPages - 1));
-            int from = Math.min(safePage * safeSize, filtered.size());
-            int to = Math.min(from + safeSize, filtered.size());
-            List<IssueReqHeaderDTO> pageItems = new ArrayList<>(filtered.subList(from, to));
-
-            IssueReqListResponseDTO resp = IssueReqListResponseDTO.success(
-                    pageItems.isEmpty() ? "Không có phiếu phù hợp" : "Lấy danh sách phiếu thành công",
-                    pageItems,
-                    totalCount,
-                    (int) pendingCount,
-                    (int) approvedCount,
-                    (int) rejectedCount
-            );
+            IssueReqListResponseDTO resp = canBoListResponse(canBoId, pageItems);
             resp.setPage(safePage);
             resp.setTotalPages(totalPages);
-            resp.setFilteredCount((long) filtered.size());
+            resp.setFilteredCount(ids.getTotalElements());
             return resp;
 
         } catch (Exception e) {
@@ -414,9 +432,97 @@ public class IssueReqService {
         }
     }
 
+    /**
+     * Cuộn vô hạn (mobile) cho danh sách phiếu của cán bộ: {@code cursor} (opaque) = vị trí
+     * (requestedAt, id) của phiếu cuối lần trước; null => trang đầu. Không OFFSET, không COUNT;
+     * summary chỉ trả ở trang đầu.
+     */
+    @Transactional(readOnly = true)
+    public IssueReqListResponseDTO getRequestsForCanBoFeed(Long canBoId, String keyword, String cursor, Integer size) {
+        try {
+            User canBo = currentUserContext.findUser(canBoId)
+                    .orElseThrow(() -> new RuntimeException("User không tồn tại"));
+
+            if (!canBo.isApproved()) throw new RuntimeException("Tài khoản chưa được kích hoạt");
+
+            String kw = normalizeKeyword(keyword);
+            int s = (size == null || size <= 0) ? 10 : Math.min(size, 100);
+            boolean firstPage = cursor == null || cursor.isBlank();
+            KeysetCursor before = KeysetCursor.decodeOrFirst(cursor);
+
+            // lấy thêm 1 dòng để biết còn trang sau
+            List<Long> ids = headerRepository.findIdsByCreatorBefore(
+                    canBoId, kw, before.at(), before.id(), PageRequest.of(0, s + 1));
+            boolean hasMore = ids.size() > s;
+            if (hasMore) ids = ids.subList(0, s);
+
+            List<IssueReqHeader> headers = loadRequestsInOrder(ids);
+            List<IssueReqHeaderDTO> items = headers.stream()
+                    .map(this::convertToDTO)
+                    .collect(Collectors.toList());
+
+            IssueReqListResponseDTO resp;
+            if (firstPage) {
+                resp = canBoListResponse(canBoId, items);
+            } else {
+                resp = IssueReqListResponseDTO.success(
+                        items.isEmpty() ? "Không có phiếu phù hợp" : "Lấy danh sách phiếu thành công",
+                        items, null, null, null, null);
+            }
+            resp.setHasMore(hasMore);
+            if (hasMore) {
+                IssueReqHeader last = headers.get(headers.size() - 1);
+                resp.setNextCursor(new KeysetCursor(last.getRequestedAt(), last.getId()).encode());
+            }
+            return resp;
+
+        } catch (Exception e) {
+            return IssueReqListResponseDTO.error("Không thể lấy danh sách phiếu: " + e.getMessage());
+        }
+    }
+
+    private static String normalizeKeyword(String keyword) {
+        return keyword == null ? "" : keyword.trim().toLowerCase();
+    }
+
+    /** Nạp header + chi tiết cho đúng các id (1 query), giữ thứ tự của danh sách id. */
+    private List<IssueReqHeader> loadRequestsInOrder(List<Long> ids) {
+        if (ids.isEmpty()) return new ArrayList<>();
+        Map<Long, IssueReqHeader> byId = new HashMap<>();
+        for (IssueReqHeader h : headerRepository.findWithDetailsByIdIn(ids)) {
+            byId.put(h.getId(), h);
+        }
+        List<IssueReqHeader> ordered = new ArrayList<>(ids.size());
+        for (Long id : ids) {
+            IssueReqHeader h = byId.get(id);
+            if (h != null) ordered.add(h);
+        }
+        return ordered;
+    }
+
+    private IssueReqListResponseDTO canBoListResponse(Long canBoId, List<IssueReqHeaderDTO> items) {
+        long totalCount = 0, pendingCount = 0, approvedCount = 0, rejectedCount = 0;
+        for (Object[] row : headerRepository.countByCreatorGroupByStatus(canBoId)) {
+            String code = (String) row[0];
+            long n = ((Number) row[1]).longValue();
+            totalCount += n;
+            if (DOC_PENDING.equalsIgnoreCase(code)) pendingCount += n;
+            else if (DOC_APPROVED.equalsIgnoreCase(code)) approvedCount += n;
+            else if (DOC_REJECTED.equalsIgnoreCase(code)) rejectedCount += n;
+        }
+        return IssueReqListResponseDTO.success(
+                items.isEmpty() ? "Không có phiếu phù hợp" : "Lấy danh sách phiếu thành công",
+                items,
+                totalCount,
+                (int) pendingCount,
+                (int) approvedCount,
+                (int) rejectedCount
+        );
+    }
+
     public IssueReqDetailResponseDTO loadPreviousRequestTemplate(Long canBoId, Long subDepartmentId) {
         try {
-            User canBo = userRepository.findById(canBoId)
+            User canBo = currentUserContext.findUser(canBoId)
                     .orElseThrow(() -> new RuntimeException("User không tồn tại"));
 
             if (!canBo.isApproved()) throw new RuntimeException("Tài khoản chưa được kích hoạt");
@@ -477,18 +583,23 @@ public class IssueReqService {
             requestedByMaterial.merge(d.getMaterialId(), qty, BigDecimal::add);
         }
 
+        // Nạp lô + reserved ACTIVE của mọi vật tư 1 lần
+        Map<String, BigDecimal> reservedCache = new HashMap<>();
+        Map<Long, List<LotBalance>> lotsByMaterial =
+                lotBalanceService.loadAvailableLots(requestedByMaterial.keySet(), reservedCache);
+
         for (Map.Entry<Long, BigDecimal> entry : requestedByMaterial.entrySet()) {
             Long materialId = entry.getKey();
             BigDecimal requested = entry.getValue();
 
             // Net available = sum over lots of (closingStock - activeReserved)
             BigDecimal available = BigDecimal.ZERO;
-            List<InventoryCard> lots = inventoryCardRepository.findAvailableLotsLatestByMaterial(materialId);
-            for (InventoryCard ic : lots) {
-                String lot = safeTrim(ic.getLotNumber());
-                BigDecimal closing = nvl(ic.getClosingStock());
-                BigDecimal reserved = issueReservationRepository.sumActiveReservedByMaterialAndLot(materialId, lot);
-                BigDecimal net = closing.subtract(reserved == null ? BigDecimal.ZERO : reserved);
+            List<LotBalance> lots = lotsByMaterial.getOrDefault(materialId, List.of());
+            for (LotBalance lb : lots) {
+                String lot = safeTrim(lb.getLotNumber());
+                BigDecimal closing = nvl(lb.getClosingStock());
+                BigDecimal reserved = getActiveReservedSum(materialId, lot, reservedCache);
+                BigDecimal net = closing.subtract(reserved);
                 if (net.compareTo(BigDecimal.ZERO) > 0) available = available.add(net);
             }
 
@@ -548,6 +659,14 @@ public class IssueReqService {
     private List<IssueReqDetail> createDetails(IssueReqHeader header, List<CreateIssueReqDetailDTO> detailDTOs) {
         List<IssueReqDetail> details = new ArrayList<>();
 
+        Set<String> proposedCodes = new HashSet<>();
+        for (CreateIssueReqDetailDTO d : detailDTOs) {
+            if (d.getMaterialId() == null && !safeTrim(d.getProposedCode()).isEmpty()) {
+                proposedCodes.add(safeTrim(d.getProposedCode()));
+            }
+        }
+        Map<String, Material> byCode = loadMaterialsByCode(proposedCodes);
+
         for (CreateIssueReqDetailDTO detailDTO : detailDTOs) {
             IssueReqDetail detail = new IssueReqDetail();
             detail.setHeader(header);
@@ -575,8 +694,7 @@ public class IssueReqService {
                 // Vật tư mới: nếu proposedCode đã tồn tại thì map về vật tư cũ
                 String proposedCode = safeTrim(detailDTO.getProposedCode());
                 if (!proposedCode.isEmpty()) {
-                    Material existing = materialRepository.findByCode(proposedCode);
-                    detail.setMaterial(existing); // null nếu chưa có
+                    detail.setMaterial(byCode.get(proposedCode)); // null nếu chưa có
                 } else {
                     detail.setMaterial(null);
                 }
@@ -588,6 +706,24 @@ public class IssueReqService {
         return detailRepository.saveAll(details);
     }
 
+    /** code (đã trim) -> Material cho các mã đề xuất: tra danh mục cache, tải entity bằng 1 query theo id. */
+    private Map<String, Material> loadMaterialsByCode(Collection<String> codes) {
+        Map<String, Material> out = new HashMap<>();
+        if (codes.isEmpty()) return out;
+
+        Map<String, MaterialCatalogCache.Entry> entries = materialCatalog.resolveCodes(codes);
+        if (entries.isEmpty()) return out;
+
+        Map<Long, Material> byId = new HashMap<>();
+        materialRepository.findAllById(entries.values().stream().map(MaterialCatalogCache.Entry::id).toList())
+                .forEach(m -> byId.put(m.getId(), m));
+        entries.forEach((code, e) -> {
+            Material m = byId.get(e.id());
+            if (m != null) out.put(code, m);
+        });
+        return out;
+    }
+
     private boolean hasAnyUnmappedMaterial(IssueReqHeader header) {
         if (header == null || header.getDetails() == null) return false;
         return header.getDetails().stream().anyMatch(d -> d.getMaterial() == null);
@@ -781,13 +917,15 @@ public class IssueReqService {
         header.setApprovalNote(AUTO_APPROVAL_NOTE);
 
         headerRepository.save(header);
+        statusCounts.invalidateAfterCommit();
         return true;
     }
 
     /**
      * Reserve đủ cho toàn phiếu theo FEFO.
      * - Trước khi reserve: huỷ reservation ACTIVE cũ của chính phiếu (nếu có) để tránh kẹt.
-     * - Trong khi reserve: lock inventory_card latest theo từng lot (FOR UPDATE) để tránh oversubscribe.
+     * - Trong khi reserve: lock lot_balance của mọi lô ứng viên (FOR UPDATE) để tránh oversubscribe;
+     *   lô + reserved ACTIVE nạp gộp cho cả phiếu (số query đọc không phụ thuộc số dòng).
      */
     private void reserveStockForWholeRequestOrThrow(IssueReqHeader header, User actor, String reason) {
         if (header == null || header.getId() == null) throw new RuntimeException("Phiếu không hợp lệ");
@@ -808,13 +946,35 @@ public class IssueReqService {
         // Build list reservations trước; chỉ save khi OK toàn bộ
         List<IssueReservation> toSave = new ArrayList<>();
 
-        // Duyệt material theo thứ tự tăng để giảm nguy cơ deadlock
+        // Duyệt material theo thứ tự tăng (phân bổ ổn định giữa các lần chạy)
         List<Long> materialIds = new ArrayList<>(needByMaterial.keySet());
         materialIds.sort(Long::compareTo);
 
         // Map material object từ details để tránh findById lặp
         Map<Long, Material> materialMap = buildMaterialMapFromDetails(header);
 
+        // Nạp lô ứng viên của mọi vật tư 1 lần
+        Map<Long, List<LotBalance>> lotsByMaterial = lotBalanceService.loadAvailableLots(materialIds, null);
+
+        // Lock toàn bộ lô ứng viên trong 1 câu rồi mới đọc reserved ACTIVE:
+        // reserved đọc sau khi giữ lock nên luôn thấy giữ chỗ của transaction khác đã commit
+        Map<Long, Set<String>> candidateLots = new HashMap<>();
+        lotsByMaterial.forEach((materialId, lots) -> lots.forEach(lb ->
+                candidateLots.computeIfAbsent(materialId, k -> new HashSet<>()).add(safeTrim(lb.getLotNumber()))));
+        Map<String, LotBalance> lockedByKey = lotBalanceService.lockBalances(lotsByMaterial, candidateLots);
+
+        // Từ đây chỉ dùng bản đã khóa (tồn mới nhất), giữ thứ tự FEFO của phương án
+        Map<Long, List<LotBalance>> lockedLots = new HashMap<>();
+        lotsByMaterial.forEach((materialId, lots) -> {
+            List<LotBalance> locked = new ArrayList<>(lots.size());
+            for (LotBalance lb : lots) {
+                LotBalance latest = lockedByKey.get(materialId + "|" + safeTrim(lb.getLotNumber()));
+                if (latest != null) locked.add(latest);
+            }
+            lockedLots.put(materialId, locked);
+        });
+        lotBalanceService.loadActiveReserved(lockedLots, reservedCache);
+
         for (Long materialId : materialIds) {
             BigDecimal remaining = nvl(needByMaterial.get(materialId));
             if (remaining.compareTo(BigDecimal.ZERO) <= 0) continue;
@@ -824,20 +984,15 @@ public class IssueReqService {
                 throw new RuntimeException("Không tìm thấy materialId=" + materialId + " trong details");
             }
 
-            List<InventoryCard> lots = inventoryCardRepository.findAvailableLotsLatestByMaterial(materialId);
+            List<LotBalance> lots = lockedLots.getOrDefault(materialId, List.of());
 
-            for (InventoryCard ic : lots) {
+            for (LotBalance lb : lots) {
                 if (remaining.compareTo(BigDecimal.ZERO) <= 0) break;
 
-                String lot = safeTrim(ic.getLotNumber());
+                String lot = safeTrim(lb.getLotNumber());
                 if (lot.isEmpty()) continue;
 
-                // Lock lot latest để serialize reserve theo lot
-                InventoryCard latest = inventoryCardRepository.lockLatestByMaterialAndLot(materialId, lot)
-                        .orElse(null);
-                if (latest == null) continue;
-
-                BigDecimal closing = nvl(latest.getClosingStock());
+                BigDecimal closing = nvl(lb.getClosingStock());
                 if (closing.compareTo(BigDecimal.ZERO) <= 0) continue;
 
                 BigDecimal reserved = getActiveReservedSum(materialId, lot, reservedCache);
@@ -867,7 +1022,7 @@ public class IssueReqService {
             }
 
             if (remaining.compareTo(BigDecimal.ZERO) > 0) {
-                BigDecimal availableNet = estimateNetAvailable(materialId, reservedCache);
+                BigDecimal availableNet = estimateNetAvailable(materialId, lots, reservedCache);
                 throw new RuntimeException("Không đủ tồn để phê duyệt (đã trừ giữ chỗ): "
                         + material.getCode() + " - " + material.getName()
                         + " (cần " + fmtQty(needByMaterial.get(materialId)) + ", còn " + fmtQty(availableNet) + ")");
@@ -875,6 +1030,8 @@ public class IssueReqService {
         }
 
         issueReservationRepository.saveAll(toSave);
+        eventPublisher.publishEvent(StockChangedEvent.of(
+                toSave.stream().map(r -> r.getMaterial().getId()).toList(), "RESERVATION_CREATED"));
     }
 
     private Map<Long, BigDecimal> buildNeedByMaterial(IssueReqHeader header) {
@@ -912,13 +1069,13 @@ public class IssueReqService {
         });
     }
 
-    private BigDecimal estimateNetAvailable(Long materialId, Map<String, BigDecimal> reservedCache) {
-        List<InventoryCard> lots = inventoryCardRepository.findAvailableLotsLatestByMaterial(materialId);
+    private BigDecimal estimateNetAvailable(Long materialId, List<LotBalance> lots,
+                                            Map<String, BigDecimal> reservedCache) {
         BigDecimal sum = BigDecimal.ZERO;
 
-        for (InventoryCard ic : lots) {
-            String lot = safeTrim(ic.getLotNumber());
-            BigDecimal closing = nvl(ic.getClosingStock());
+        for (LotBalance lb : lots) {
+            String lot = safeTrim(lb.getLotNumber());
+            BigDecimal closing = nvl(lb.getClosingStock());
             BigDecimal reserved = getActiveReservedSum(materialId, lot, reservedCache);
             BigDecimal net = closing.subtract(reserved);
             if (net.compareTo(BigDecimal.ZERO) > 0) sum = sum.add(net);
@@ -958,6 +1115,8 @@ public class IssueReqService {
         }
 
         issueReservationRepository.saveAll(actives);
+        eventPublisher.publishEvent(StockChangedEvent.of(
+                actives.stream().map(r -> r.getMaterial().getId()).toList(), "RESERVATION_CANCELLED"));
     }
 
     private void cancelActiveReservationsRejected(IssueReqHeader header, User by, String note) {
@@ -0,0 +1,91 @@
+package com.backend.service;
+
+import com.backend.repository.IssueReqHeaderRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Số phiếu xin lĩnh theo trạng thái (PENDING / APPROVED / REJECTED ...) cho badge của hàng đợi lãnh đạo.
+ *
+ * - Nạp bằng 1 câu GROUP BY status, giữ trong TTL ngắn: lãnh đạo lật trang / mở lại màn hình
+ *   không đếm lại.
+ * - Tạo phiếu, duyệt, từ chối, tự duyệt gọi {@link #invalidateAfterCommit()} => lần đọc sau commit
+ *   đếm lại ngay, không phải chờ hết TTL.
+ */
+@Component
+public class IssueReqStatusCounts {
+
+    private final IssueReqHeaderRepository headerRepository;
+    private final long ttlMillis;
+
+    private volatile Snapshot snapshot;
+    private final AtomicLong version = new AtomicLong();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    private record Snapshot(long version, long expiresAt, Map<String, Long> counts) {}
+
+    public IssueReqStatusCounts(IssueReqHeaderRepository headerRepository,
+                                @Value("${medventory.issue-req.status-count-cache-seconds:10}") long ttlSeconds) {
+        this.headerRepository = headerRepository;
+        this.ttlMillis = Math.max(0, ttlSeconds) * 1000;
+    }
+
+    /** Số phiếu của {@code statusCode} (không phân biệt hoa thường), 0 nếu không có. */
+    public long get(String statusCode) {
+        Long n = counts().get(statusCode.toUpperCase());
+        return n == null ? 0 : n;
+    }
+
+    /** Map status code (upper-case) -> số phiếu; không được sửa. */
+    public Map<String, Long> counts() {
+        long now = System.currentTimeMillis();
+        Snapshot s = snapshot;
+        if (s != null && s.version() == version.get() && s.expiresAt() > now) {
+            hits.incrementAndGet();
+            return s.counts();
+        }
+        misses.incrementAndGet();
+
+        // lấy version TRƯỚC khi đọc: có thay đổi commit trong lúc đếm thì snapshot này tự hết hiệu lực
+        long loadedAt = version.get();
+        Map<String, Long> counts = new HashMap<>();
+        for (Object[] row : headerRepository.countGroupByStatus()) {
+            if (row[0] == null) continue;
+            counts.merge(((String) row[0]).toUpperCase(), ((Number) row[1]).longValue(), Long::sum);
+        }
+        Map<String, Long> frozen = Map.copyOf(counts);
+        if (ttlMillis > 0) snapshot = new Snapshot(loadedAt, now + ttlMillis, frozen);
+        return frozen;
+    }
+
+    /** Gọi trong transaction đổi trạng thái phiếu: đếm lại sau khi commit. */
+    public void invalidateAfterCommit() {
+        AfterCommit.run(this::invalidate);
+    }
+
+    public void invalidate() {
+        version.incrementAndGet();
+    }
+
+    public Map<String, Object> getStats() {
+        long h = hits.get();
+        long m = misses.get();
+
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("ttlMillis", ttlMillis);
+        stats.put("version", version.get());
+        stats.put("hits", h);
+        stats.put("misses", m);
+        stats.put("hitRatio", (h + m) == 0 ? 0.0 : (double) h / (h + m));
+        Snapshot s = snapshot;
+        stats.put("counts", s == null ? Map.of() : s.counts());
+        return stats;
+    }
+}
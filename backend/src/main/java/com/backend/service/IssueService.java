@@ -2,11 +2,12 @@ package com.backend.service;
 
 import com.backend.dto.*;
 import com.backend.entity.*;
+import com.backend.event.StockChangedEvent;
 import com.backend.repository.*;
 import lombok.RequiredArgsConstructor;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
-import org.springframework.data.domain.Sort;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.transaction.interceptor.TransactionAspectSupport;
@@ -37,13 +38,18 @@ public class IssueService {
 
     private final IssueReqHeaderRepository issueReqHeaderRepository;
     private final InventoryCardRepository inventoryCardRepository;
+    private final LotBalanceService lotBalanceService;
+    private final ConsumptionHistoryService consumptionHistoryService;
     private final ReceiptDetailRepository receiptDetailRepository;
 
     private final IssueReservationRepository issueReservationRepository;
     private final ReservationStatusRepository reservationStatusRepository;
 
-    private final UserRepository userRepository;
+    private final CurrentUserContext currentUserContext;
     private final RbacService rbacService;
+    private final IssueEligibilityEngine issueEligibilityEngine;
+    private final IssuedRequestService issuedRequestService;
+    private final ApplicationEventPublisher eventPublisher;
 
     // ------------------------- API METHODS -------------------------
 
@@ -76,6 +82,15 @@ public class IssueService {
             // cache reserved TOTAL (ACTIVE) theo (material|lot) để tránh query lặp
             Map<String, BigDecimal> activeReservedCache = new HashMap<>();
 
+            // Nạp lô + reserved của mọi vật tư trong phiếu 1 lần (số query không phụ thuộc số dòng)
+            Set<Long> materialIds = req.getDetails().stream()
+                    .map(IssueReqDetail::getMaterial)
+                    .filter(Objects::nonNull)
+                    .map(Material::getId)
+                    .collect(Collectors.toCollection(LinkedHashSet::new));
+            Map<Long, List<LotBalance>> lotsByMaterial =
+                    lotBalanceService.loadAvailableLots(materialIds, activeReservedCache);
+
             List<IssuePreviewLineDTO> lines = new ArrayList<>();
             List<String> missingMessages = new ArrayList<>();
 
@@ -89,14 +104,14 @@ public class IssueService {
                 BigDecimal need = nvl(d.getQtyRequested());
                 if (need.compareTo(BigDecimal.ZERO) <= 0) continue;
 
-                List<InventoryCard> lots = inventoryCardRepository.findAvailableLotsLatestByMaterial(m.getId());
+                List<LotBalance> lots = lotsByMaterial.getOrDefault(m.getId(), List.of());
                 Map<String, BigDecimal> reservedThisByLot = reservedByMaterial.getOrDefault(m.getId(), Map.of());
 
                 BigDecimal availableThisReq = BigDecimal.ZERO;
 
-                for (InventoryCard ic : lots) {
-                    String lot = safeTrim(ic.getLotNumber());
-                    BigDecimal closing = nvl(ic.getClosingStock());
+                for (LotBalance lb : lots) {
+                    String lot = safeTrim(lb.getLotNumber());
+                    BigDecimal closing = nvl(lb.getClosingStock());
 
                     BigDecimal reservedTotal = getActiveReservedSum(m.getId(), lot, activeReservedCache);
                     BigDecimal reservedThis = nvl(reservedThisByLot.get(lot));
@@ -227,7 +242,7 @@ public class IssueService {
             String receiver = safeTrim(request.getReceiverName());
             if (receiver.isEmpty()) receiver = buildDefaultReceiverName(req);
 
-            // marker để chống xuất trùng (có ngoặc để tránh substring IssueReq#1 match IssueReq#12)
+            // marker để trace trên chứng từ; chống xuất trùng dựa vào FK issue_req_id (unique)
             receiver = receiver + " " + buildIssueReqMarker(req.getId());
             header.setReceiverName(receiver);
             header.setTotalAmount(BigDecimal.ZERO);
@@ -237,32 +252,26 @@ public class IssueService {
             // cache reserved TOTAL (ACTIVE) theo (material|lot)
             Map<String, BigDecimal> activeReservedCache = new HashMap<>();
 
-            // 1) Ghi inventory_card qty_out theo lô
+            // Nạp lô + giữ chỗ ACTIVE của mọi vật tư 1 lần để lập phương án FEFO (chưa khóa)
+            Map<Long, List<LotBalance>> lotsByMaterial =
+                    lotBalanceService.loadAvailableLots(needByMaterial.keySet(), activeReservedCache);
+
+            // 1a) Phương án xuất theo lô cho từng material
+            Map<Long, Map<String, BigDecimal>> allocationByMaterial = new LinkedHashMap<>();
             if (auto) {
                 for (Map.Entry<Long, BigDecimal> e : needByMaterial.entrySet()) {
                     Long materialId = e.getKey();
                     BigDecimal need = nvl(e.getValue());
                     if (need.compareTo(BigDecimal.ZERO) <= 0) continue;
 
-                    Material m = req.getDetails().stream()
-                            .map(IssueReqDetail::getMaterial)
-                            .filter(Objects::nonNull)
-                            .filter(x -> x.getId().equals(materialId))
-                            .findFirst()
-                            .orElseThrow(() -> new RuntimeException("Không tìm thấy materialId=" + materialId));
-
-                    Map<String, BigDecimal> allocation;
-                    Map<String, BigDecimal> reservedThisMaterial = reservedByMaterial.getOrDefault(materialId, Map.of());
-
                     if (useReservedAllocation) {
-                        allocation = new LinkedHashMap<>(reservedThisMaterial);
+                        allocationByMaterial.put(materialId,
+                                new LinkedHashMap<>(reservedByMaterial.getOrDefault(materialId, Map.of())));
                     } else {
-                        List<InventoryCard> lots = inventoryCardRepository.findAvailableLotsLatestByMaterial(materialId);
-                        allocation = allocateFEFOWithReservations(materialId, lots, need, activeReservedCache);
+                        List<LotBalance> lots = lotsByMaterial.getOrDefault(materialId, List.of());
+                        allocationByMaterial.put(materialId,
+                                allocateFEFOWithReservations(materialId, lots, need, activeReservedCache));
                     }
-
-                    writeInventoryOutMovements(req, m, allocation, issueDate, warehouseName,
-                            reservedThisMaterial, activeReservedCache);
                 }
             } else {
                 Map<Long, ManualIssueLineDTO> manualMap = mapManualLines(request.getManualLines());
@@ -282,18 +291,44 @@ public class IssueService {
                         throw new RuntimeException("Số lượng xuất thủ công phải đúng bằng số lượng yêu cầu (materialId=" + materialId + ")");
                     }
 
-                    Material m = req.getDetails().stream()
-                            .map(IssueReqDetail::getMaterial)
-                            .filter(Objects::nonNull)
-                            .filter(x -> x.getId().equals(materialId))
-                            .findFirst()
-                            .orElseThrow(() -> new RuntimeException("Không tìm thấy materialId=" + materialId));
-
-                    Map<String, BigDecimal> allocation = validateAndBuildManualAllocation(manualLine);
+                    allocationByMaterial.put(materialId, validateAndBuildManualAllocation(manualLine));
+                }
+            }
 
-                    writeInventoryOutMovements(req, m, allocation, issueDate, warehouseName,
-                            Map.of(), activeReservedCache);
+            // 1b) Khóa mọi lô sẽ xuất trong 1 câu (thứ tự material, lô), rồi đọc lại giữ chỗ ACTIVE
+            // sau khi đã giữ khóa để phần kiểm tra khi ghi thấy giữ chỗ mới nhất
+            Map<Long, Set<String>> lotsToLock = new HashMap<>();
+            allocationByMaterial.forEach((materialId, allocation) -> allocation.forEach((lot, qty) -> {
+                if (nvl(qty).compareTo(BigDecimal.ZERO) > 0) {
+                    lotsToLock.computeIfAbsent(materialId, k -> new HashSet<>()).add(safeTrim(lot));
                 }
+            }));
+            Map<String, LotBalance> lockedByKey = lotBalanceService.lockBalances(lotsByMaterial, lotsToLock);
+
+            Map<Long, List<LotBalance>> lockedByMaterial = new HashMap<>();
+            lockedByKey.values().forEach(b ->
+                    lockedByMaterial.computeIfAbsent(b.getMaterial().getId(), k -> new ArrayList<>()).add(b));
+            // số giữ chỗ dùng lập phương án có thể đã cũ: bỏ hết, nạp lại cho các lô vừa khóa
+            activeReservedCache.clear();
+            lotBalanceService.loadActiveReserved(lockedByMaterial, activeReservedCache);
+
+            // 1c) Ghi inventory_card qty_out theo lô
+            for (Map.Entry<Long, Map<String, BigDecimal>> e : allocationByMaterial.entrySet()) {
+                Long materialId = e.getKey();
+
+                Material m = req.getDetails().stream()
+                        .map(IssueReqDetail::getMaterial)
+                        .filter(Objects::nonNull)
+                        .filter(x -> x.getId().equals(materialId))
+                        .findFirst()
+                        .orElseThrow(() -> new RuntimeException("Không tìm thấy materialId=" + materialId));
+
+                Map<String, BigDecimal> reservedThisMaterial = auto
+                        ? reservedByMaterial.getOrDefault(materialId, Map.of())
+                        : Map.of();
+
+                writeInventoryOutMovements(req, m, e.getValue(), issueDate, warehouseName,
+                        reservedThisMaterial, activeReservedCache, lockedByKey);
             }
 
             // 2) Tạo issue_detail theo từng dòng của phiếu xin lĩnh (FE đang quen format này)
@@ -315,14 +350,21 @@ public class IssueService {
             header.setTotalAmount(totalAmount);
             header = issueHeaderRepository.save(header);
 
+            // Tiêu thụ theo năm học / khoa (nguồn số liệu "năm trước" cho dự trù)
+            consumptionHistoryService.recordIssue(header);
+
             // 3) Consume reservation nếu đang dùng reservation để xuất
             if (useReservedAllocation) {
                 consumeReservations(activeResList, "ISSUED", thuKho);
             }
 
+            // Tồn (lô đã xuất + giữ chỗ đã consume / cancel) thay đổi => snapshot tồn kho làm mới sau commit
+            Set<Long> touchedMaterialIds = new HashSet<>(needByMaterial.keySet());
+            activeResList.forEach(r -> touchedMaterialIds.add(r.getMaterial().getId()));
+            eventPublisher.publishEvent(StockChangedEvent.of(touchedMaterialIds, "ISSUE"));
+
             List<IssueDetail> persistedDetails = issueDetailRepository.findByHeaderId(header.getId());
-            IssueHeaderDTO headerDTO = toIssueHeaderDTO(header);
-            headerDTO.setDetails(persistedDetails.stream().map(this::toIssueDetailDTO).collect(Collectors.toList()));
+            IssueHeaderDTO headerDTO = toIssueHeaderDTO(header, persistedDetails);
 
             Map<String, Object> summary = buildIssueSummary(persistedDetails);
             summary.put("useReservedAllocation", useReservedAllocation);
@@ -337,7 +379,7 @@ public class IssueService {
 
     public IssueResponseDTO getIssueDetail(Long issueId, Long userId) {
         try {
-            User user = userRepository.findById(userId)
+            User user = currentUserContext.findUser(userId)
                     .orElseThrow(() -> new RuntimeException("User không tồn tại"));
 
             if (!user.isApproved()) {
@@ -358,8 +400,7 @@ public class IssueService {
 
             List<IssueDetail> details = issueDetailRepository.findByHeaderId(issueId);
 
-            IssueHeaderDTO headerDTO = toIssueHeaderDTO(header);
-            headerDTO.setDetails(details.stream().map(this::toIssueDetailDTO).collect(Collectors.toList()));
+            IssueHeaderDTO headerDTO = toIssueHeaderDTO(header, details);
 
             Map<String, Object> summary = buildIssueSummary(details);
 
@@ -378,7 +419,7 @@ public class IssueService {
     @Transactional(readOnly = true)
     public IssueFeedResponseDTO feedIssues(Long afterId, Integer limit, Long userId, Integer page, String keyword) {
         try {
-            User user = userRepository.findById(userId)
+            User user = currentUserContext.findUser(userId)
                     .orElseThrow(() -> new RuntimeException("User không tồn tại"));
 
             if (!user.isApproved()) {
@@ -394,11 +435,10 @@ public class IssueService {
 
             if (page != null) {
                 int pageNumber = Math.max(0, page);
-                Page<IssueHeader> pageResult = kw.isEmpty()
-                        ? issueHeaderRepository.findAll(
-                                PageRequest.of(pageNumber, size, Sort.by(Sort.Direction.DESC, "id")))
-                        : issueHeaderRepository.searchByKeyword(kw,
-                                PageRequest.of(pageNumber, size, Sort.by(Sort.Direction.DESC, "id")));
+                // Sắp xếp id DESC nằm trong query projection
+                Page<Object[]> pageResult = kw.isEmpty()
+                        ? issueHeaderRepository.findFeedRows(PageRequest.of(pageNumber, size))
+                        : issueHeaderRepository.searchFeedRows(kw, PageRequest.of(pageNumber, size));
 
                 List<IssueFeedItemDTO> items = pageResult.getContent().stream().map(this::toIssueFeedItemDTO).toList();
 
@@ -418,10 +458,9 @@ public class IssueService {
             }
 
             long cursor = (afterId == null || afterId <= 0) ? Long.MAX_VALUE : afterId;
-            List<IssueHeader> headers = issueHeaderRepository
-                    .findByIdLessThanOrderByIdDesc(cursor, PageRequest.of(0, size));
-
-            List<IssueFeedItemDTO> items = headers.stream().map(this::toIssueFeedItemDTO).toList();
+            List<IssueFeedItemDTO> items = issueHeaderRepository
+                    .findFeedRowsBefore(cursor, PageRequest.of(0, size))
+                    .stream().map(this::toIssueFeedItemDTO).toList();
 
             Long nextCursor = items.isEmpty() ? cursor : items.get(items.size() - 1).getId();
             boolean hasMore = items.size() == size;
@@ -445,18 +484,19 @@ public class IssueService {
 
         Map<String, BigDecimal> activeReservedCache = new HashMap<>();
 
-        List<InventoryCard> lots = inventoryCardRepository.findAvailableLotsLatestByMaterial(materialId);
-        return lots.stream().map(ic -> {
-            String lot = safeTrim(ic.getLotNumber());
-            BigDecimal closing = nvl(ic.getClosingStock());
+        List<LotBalance> lots = lotBalanceService.loadAvailableLots(Collections.singleton(materialId), activeReservedCache)
+                .getOrDefault(materialId, List.of());
+        return lots.stream().map(lb -> {
+            String lot = safeTrim(lb.getLotNumber());
+            BigDecimal closing = nvl(lb.getClosingStock());
             BigDecimal reserved = getActiveReservedSum(materialId, lot, activeReservedCache);
             BigDecimal net = closing.subtract(reserved);
             if (net.compareTo(BigDecimal.ZERO) < 0) net = BigDecimal.ZERO;
 
             LotStockDTO dto = new LotStockDTO();
             dto.setLotNumber(lot);
-            dto.setMfgDate(ic.getMfgDate());
-            dto.setExpDate(ic.getExpDate());
+            dto.setMfgDate(lb.getMfgDate());
+            dto.setExpDate(lb.getExpDate());
             dto.setAvailableStock(net);
             dto.setQtyOut(BigDecimal.ZERO);
             return dto;
@@ -473,23 +513,14 @@ public class IssueService {
     }
 
     /**
-     * Chống xuất trùng theo FK trước (issue_header.issue_req_id), fallback theo marker.
-     * - FK check: tránh lỗi substring.
-     * - Marker fallback: giữ tương thích với dữ liệu cũ đã lưu receiver_name.
+     * Chống xuất trùng theo FK issue_header.issue_req_id (unique).
+     * Dữ liệu cũ chỉ có marker trong receiver_name đã được backfill sang FK (IssuedRequestService).
      */
     private void ensureNotIssuedYet(IssueReqHeader req) {
         Long reqId = (req != null) ? req.getId() : null;
         if (reqId == null) throw new RuntimeException("Phiếu xin lĩnh không hợp lệ");
 
-        // 1) FK check (chuẩn nhất)
-        Optional<IssueHeader> byFk = issueHeaderRepository.findByIssueReqId(reqId);
-        if (byFk.isPresent()) {
-            throw new RuntimeException("Phiếu xin lĩnh #" + reqId + " đã được xuất kho trước đó");
-        }
-
-        // 2) Fallback marker (dữ liệu cũ)
-        String marker = buildIssueReqMarker(reqId); // có ngoặc
-        if (issueHeaderRepository.existsByReceiverMarker(marker)) {
+        if (issuedRequestService.isIssued(reqId)) {
             throw new RuntimeException("Phiếu xin lĩnh #" + reqId + " đã được xuất kho trước đó");
         }
     }
@@ -503,17 +534,17 @@ public class IssueService {
      * Dùng cho trường hợp không dùng reservation của chính phiếu.
      */
     private Map<String, BigDecimal> allocateFEFOWithReservations(Long materialId,
-                                                                 List<InventoryCard> availableLots,
+                                                                 List<LotBalance> availableLots,
                                                                  BigDecimal need,
                                                                  Map<String, BigDecimal> activeReservedCache) {
         BigDecimal remaining = nvl(need);
         Map<String, BigDecimal> allocation = new LinkedHashMap<>();
 
-        for (InventoryCard lotCard : availableLots) {
+        for (LotBalance lotBalance : availableLots) {
             if (remaining.compareTo(BigDecimal.ZERO) <= 0) break;
 
-            String lot = safeTrim(lotCard.getLotNumber());
-            BigDecimal closing = nvl(lotCard.getClosingStock());
+            String lot = safeTrim(lotBalance.getLotNumber());
+            BigDecimal closing = nvl(lotBalance.getClosingStock());
             if (closing.compareTo(BigDecimal.ZERO) <= 0) continue;
 
             BigDecimal reserved = getActiveReservedSum(materialId, lot, activeReservedCache);
@@ -529,9 +560,9 @@ public class IssueService {
 
         if (remaining.compareTo(BigDecimal.ZERO) > 0) {
             BigDecimal netAvail = BigDecimal.ZERO;
-            for (InventoryCard ic : availableLots) {
-                String lot = safeTrim(ic.getLotNumber());
-                BigDecimal closing = nvl(ic.getClosingStock());
+            for (LotBalance lb : availableLots) {
+                String lot = safeTrim(lb.getLotNumber());
+                BigDecimal closing = nvl(lb.getClosingStock());
                 BigDecimal reserved = getActiveReservedSum(materialId, lot, activeReservedCache);
                 BigDecimal net = closing.subtract(reserved);
                 if (net.compareTo(BigDecimal.ZERO) > 0) netAvail = netAvail.add(net);
@@ -545,6 +576,7 @@ public class IssueService {
     /**
      * Ghi inventory_card OUT theo lô, đồng thời chặn không cho lấy vào phần tồn đang được giữ chỗ bởi phiếu khác.
      * reservedThisMaterial: reservation ACTIVE của chính issueReq hiện tại (chỉ dùng khi useReservedAllocation=true)
+     * lockedByKey: balance các lô đã khóa trước đó, key "materialId|lot"
      */
     private void writeInventoryOutMovements(IssueReqHeader req,
                                             Material material,
@@ -552,7 +584,8 @@ public class IssueService {
                                             LocalDate issueDate,
                                             String fallbackWarehouseName,
                                             Map<String, BigDecimal> reservedThisMaterial,
-                                            Map<String, BigDecimal> activeReservedCache) {
+                                            Map<String, BigDecimal> activeReservedCache,
+                                            Map<String, LotBalance> lockedByKey) {
 
         Long materialId = material.getId();
 
@@ -563,9 +596,8 @@ public class IssueService {
             if (lot.isEmpty()) throw new RuntimeException("LotNumber không hợp lệ");
             if (qtyOut.compareTo(BigDecimal.ZERO) <= 0) continue;
 
-            InventoryCard latest = inventoryCardRepository
-                    .lockLatestByMaterialAndLot(materialId, lot)
-                    .orElseThrow(() -> new RuntimeException("Không tìm thấy thẻ kho cho lô " + lot));
+            LotBalance latest = lockedByKey.get(materialId + "|" + lot);
+            if (latest == null) throw new RuntimeException("Không tìm thấy thẻ kho cho lô " + lot);
 
             BigDecimal opening = nvl(latest.getClosingStock());
 
@@ -600,7 +632,8 @@ public class IssueService {
 
             out.setSubDepartment(req.getSubDepartment());
 
-            inventoryCardRepository.save(out);
+            out = inventoryCardRepository.save(out);
+            lotBalanceService.applyCard(out, latest);
         }
     }
 
@@ -641,7 +674,7 @@ public class IssueService {
     // ------------------------- PREVIEW LOT BUILDER -------------------------
 
     private List<LotStockDTO> buildAutoAllocationPreviewWithReservations(Long materialId,
-                                                                         List<InventoryCard> availableLots,
+                                                                         List<LotBalance> availableLots,
                                                                          BigDecimal need,
                                                                          Map<String, BigDecimal> activeReservedCache) {
         return buildAutoAllocationPreviewWithReservations(materialId, availableLots, need, Map.of(), activeReservedCache);
@@ -654,17 +687,17 @@ public class IssueService {
      * qtyOut preview: dùng reservedThis trước, rồi mới dùng baseNet.
      */
     private List<LotStockDTO> buildAutoAllocationPreviewWithReservations(Long materialId,
-                                                                         List<InventoryCard> availableLots,
+                                                                         List<LotBalance> availableLots,
                                                                          BigDecimal need,
                                                                          Map<String, BigDecimal> reservedThisByLot,
                                                                          Map<String, BigDecimal> activeReservedCache) {
         BigDecimal needLeft = nvl(need);
         List<LotStockDTO> lots = new ArrayList<>();
 
-        for (InventoryCard ic : availableLots) {
-            String lot = safeTrim(ic.getLotNumber());
+        for (LotBalance lb : availableLots) {
+            String lot = safeTrim(lb.getLotNumber());
 
-            BigDecimal closing = nvl(ic.getClosingStock());
+            BigDecimal closing = nvl(lb.getClosingStock());
             BigDecimal reservedTotal = getActiveReservedSum(materialId, lot, activeReservedCache);
             BigDecimal reservedThis = nvl(reservedThisByLot.get(lot));
 
@@ -675,8 +708,8 @@ public class IssueService {
 
             LotStockDTO dto = new LotStockDTO();
             dto.setLotNumber(lot);
-            dto.setMfgDate(ic.getMfgDate());
-            dto.setExpDate(ic.getExpDate());
+            dto.setMfgDate(lb.getMfgDate());
+            dto.setExpDate(lb.getExpDate());
             dto.setAvailableStock(availableThisReq);
 
             BigDecimal useReserved = BigDecimal.ZERO;
@@ -700,7 +733,7 @@ public class IssueService {
 
     // ------------------------- DTO MAPPERS -------------------------
 
-    private IssueHeaderDTO toIssueHeaderDTO(IssueHeader header) {
+    private IssueHeaderDTO toIssueHeaderDTO(IssueHeader header, List<IssueDetail> details) {
         IssueHeaderDTO dto = new IssueHeaderDTO();
         dto.setId(header.getId());
 
@@ -719,39 +752,26 @@ public class IssueService {
         dto.setIssueDate(header.getIssueDate());
         dto.setTotalAmount(header.getTotalAmount());
 
-        List<IssueDetail> details = issueDetailRepository.findByHeaderId(header.getId());
         dto.setDetails(details.stream().map(this::toIssueDetailDTO).collect(Collectors.toList()));
         return dto;
     }
 
-    private IssueFeedItemDTO toIssueFeedItemDTO(IssueHeader header) {
+    /** Dòng projection của {@link IssueHeaderRepository#FEED_SELECT}. */
+    private IssueFeedItemDTO toIssueFeedItemDTO(Object[] r) {
         IssueFeedItemDTO dto = new IssueFeedItemDTO();
-        dto.setId(header.getId());
-        dto.setIssueDate(header.getIssueDate());
-        dto.setReceiverName(header.getReceiverName());
-        dto.setTotalAmount(header.getTotalAmount());
+        dto.setId((Long) r[0]);
+        dto.setIssueDate((LocalDate) r[1]);
+        dto.setReceiverName((String) r[2]);
+        dto.setTotalAmount((BigDecimal) r[3]);
+        dto.setCreatedById((Long) r[4]);
+        dto.setCreatedByName((String) r[5]);
+        dto.setDepartmentId((Long) r[6]);
+        dto.setDepartmentName((String) r[7]);
+        dto.setIssueReqId((Long) r[8]);
+        dto.setSubDepartmentId((Long) r[9]);
+        dto.setSubDepartmentName((String) r[10]);
         // Số loại vật tư = số dòng chi tiết của phiếu xuất
-        dto.setMaterialTypeCount(issueDetailRepository.findByHeaderId(header.getId()).size());
-
-        if (header.getCreatedBy() != null) {
-            dto.setCreatedById(header.getCreatedBy().getId());
-            dto.setCreatedByName(header.getCreatedBy().getFullName());
-        }
-
-        if (header.getDepartment() != null) {
-            dto.setDepartmentId(header.getDepartment().getId());
-            dto.setDepartmentName(header.getDepartment().getName());
-        }
-
-        if (header.getIssueReq() != null) {
-            IssueReqHeader req = header.getIssueReq();
-            dto.setIssueReqId(req.getId());
-            if (req.getSubDepartment() != null) {
-                dto.setSubDepartmentId(req.getSubDepartment().getId());
-                dto.setSubDepartmentName(req.getSubDepartment().getName());
-            }
-        }
-
+        dto.setMaterialTypeCount(((Number) r[11]).intValue());
         return dto;
     }
 
@@ -852,7 +872,7 @@ public class IssueService {
     // ------------------------- VALIDATIONS & HELPERS -------------------------
 
     private User validateThuKho(Long userId) {
-        User u = userRepository.findById(userId)
+        User u = currentUserContext.findUser(userId)
                 .orElseThrow(() -> new RuntimeException("User không tồn tại"));
 
         if (!u.isApproved()) throw new RuntimeException("Tài khoản chưa được kích hoạt");
@@ -946,13 +966,6 @@ public class IssueService {
         return s == null ? "" : s.trim();
     }
 
-    private static BigDecimal sumMap(Map<String, BigDecimal> m) {
-        if (m == null || m.isEmpty()) return BigDecimal.ZERO;
-        BigDecimal s = BigDecimal.ZERO;
-        for (BigDecimal v : m.values()) s = s.add(nvl(v));
-        return s;
-    }
-
     // ------------------------- RESERVATION HELPERS -------------------------
 
     private BigDecimal getActiveReservedSum(Long materialId, String lotNumber, Map<String, BigDecimal> cache) {
@@ -1048,54 +1061,21 @@ public class IssueService {
 
             int size = (limit == null || limit <= 0) ? 50 : Math.min(limit, 200);
 
-            List<IssueReqHeader> approved;
-            if (departmentId != null && subDepartmentId != null) {
-                approved = issueReqHeaderRepository
-                        .findByDepartmentIdAndSubDepartmentIdAndStatus_CodeOrderByRequestedAtAsc(
-                                departmentId, subDepartmentId, DOC_APPROVED, PageRequest.of(0, size)
-                        );
-            } else if (departmentId != null) {
-                approved = issueReqHeaderRepository
-                        .findByDepartmentIdAndStatus_CodeOrderByRequestedAtAsc(
-                                departmentId, DOC_APPROVED, PageRequest.of(0, size)
-                        );
-            } else {
-                approved = issueReqHeaderRepository
-                        .findByStatus_CodeOrderByRequestedAtAsc(DOC_APPROVED, PageRequest.of(0, size));
-            }
-
-            Map<Long, List<LotState>> lotCache = new HashMap<>();
-            Map<String, BigDecimal> activeReservedCache = new HashMap<>();
+            List<IssueReqHeader> approved = issueEligibilityEngine.loadApproved(departmentId, subDepartmentId, size);
+            List<IssueEligibilityEngine.Evaluation> evaluations = issueEligibilityEngine.evaluate(approved);
 
             List<IssueReqHeaderDTO> eligible = new ArrayList<>();
 
             int checked = 0, alreadyIssued = 0, hasUnmappedMaterial = 0, notEnoughStock = 0;
 
-            for (IssueReqHeader req : approved) {
+            for (IssueEligibilityEngine.Evaluation ev : evaluations) {
                 checked++;
-
-                if (isAlreadyIssued(req)) {
-                    alreadyIssued++;
-                    continue;
-                }
-
-                boolean anyNullMaterial = req.getDetails().stream().anyMatch(d -> d.getMaterial() == null);
-                if (anyNullMaterial) {
-                    hasUnmappedMaterial++;
-                    continue;
+                switch (ev.getVerdict()) {
+                    case ALREADY_ISSUED -> alreadyIssued++;
+                    case HAS_UNMAPPED_MATERIAL -> hasUnmappedMaterial++;
+                    case NOT_ENOUGH_STOCK -> notEnoughStock++;
+                    case ELIGIBLE -> eligible.add(toIssueReqDTO(ev.getRequest()));
                 }
-
-                List<IssueReservation> res = issueReservationRepository
-                        .findByIssueReqHeader_IdAndStatus_Code(req.getId(), RES_ACTIVE);
-                Map<Long, Map<String, BigDecimal>> reservedThisReq = groupReservationsByMaterialLot(res);
-
-                AllocationAttempt attempt = tryAllocateWholeRequest(req, reservedThisReq, lotCache, activeReservedCache);
-                if (!attempt.success) {
-                    notEnoughStock++;
-                    continue;
-                }
-
-                eligible.add(toIssueReqDTO(req));
             }
 
             Map<String, Object> summary = new HashMap<>();
@@ -1117,140 +1097,6 @@ public class IssueService {
         }
     }
 
-    private boolean isAlreadyIssued(IssueReqHeader req) {
-        Long reqId = (req != null) ? req.getId() : null;
-        if (reqId == null) return false;
-
-        // Prefer FK check
-        if (issueHeaderRepository.findByIssueReqId(reqId).isPresent()) return true;
-
-        // Fallback marker check (có ngoặc)
-        String marker = buildIssueReqMarker(reqId);
-        return issueHeaderRepository.existsByReceiverMarker(marker);
-    }
-
-    private AllocationAttempt tryAllocateWholeRequest(IssueReqHeader req,
-                                                      Map<Long, Map<String, BigDecimal>> reservedThisReq,
-                                                      Map<Long, List<LotState>> lotCache,
-                                                      Map<String, BigDecimal> activeReservedCache) {
-
-        List<Deduction> deductions = new ArrayList<>();
-
-        Map<Long, MaterialNeed> needs = buildNeedByMaterial(req);
-
-        for (MaterialNeed mn : needs.values()) {
-            Long materialId = mn.material.getId();
-            BigDecimal need = nvl(mn.need);
-            if (need.compareTo(BigDecimal.ZERO) <= 0) continue;
-
-            BigDecimal reservedThisTotal = sumMap(reservedThisReq.get(materialId));
-            BigDecimal needFromBase = need.subtract(reservedThisTotal);
-            if (needFromBase.compareTo(BigDecimal.ZERO) <= 0) {
-                continue;
-            }
-
-            List<LotState> lots = lotCache.computeIfAbsent(materialId,
-                    mid -> loadLotStatesNet(mid, activeReservedCache));
-
-            BigDecimal remaining = needFromBase;
-
-            for (int i = 0; i < lots.size(); i++) {
-                if (remaining.compareTo(BigDecimal.ZERO) <= 0) break;
-
-                LotState lot = lots.get(i);
-                if (lot.remaining.compareTo(BigDecimal.ZERO) <= 0) continue;
-
-                BigDecimal take = lot.remaining.min(remaining);
-                if (take.compareTo(BigDecimal.ZERO) <= 0) continue;
-
-                lot.remaining = lot.remaining.subtract(take);
-                remaining = remaining.subtract(take);
-
-                deductions.add(new Deduction(materialId, i, take));
-            }
-
-            if (remaining.compareTo(BigDecimal.ZERO) > 0) {
-                rollbackDeductions(lotCache, deductions);
-                return AllocationAttempt.fail();
-            }
-        }
-
-        return AllocationAttempt.ok();
-    }
-
-    private void rollbackDeductions(Map<Long, List<LotState>> lotCache, List<Deduction> deductions) {
-        for (Deduction d : deductions) {
-            List<LotState> lots = lotCache.get(d.materialId);
-            if (lots == null) continue;
-            if (d.lotIndex < 0 || d.lotIndex >= lots.size()) continue;
-            lots.get(d.lotIndex).remaining = lots.get(d.lotIndex).remaining.add(d.qty);
-        }
-    }
-
-    private List<LotState> loadLotStatesNet(Long materialId, Map<String, BigDecimal> activeReservedCache) {
-        List<InventoryCard> available = inventoryCardRepository.findAvailableLotsLatestByMaterial(materialId);
-        List<LotState> states = new ArrayList<>();
-
-        for (InventoryCard ic : available) {
-            String lot = safeTrim(ic.getLotNumber());
-            BigDecimal closing = nvl(ic.getClosingStock());
-            BigDecimal reserved = getActiveReservedSum(materialId, lot, activeReservedCache);
-            BigDecimal net = closing.subtract(reserved);
-            if (net.compareTo(BigDecimal.ZERO) <= 0) continue;
-
-            states.add(new LotState(
-                    lot,
-                    net,
-                    ic.getExpDate(),
-                    ic.getMfgDate()
-            ));
-        }
-
-        return states;
-    }
-
-    private static class LotState {
-        String lotNumber;
-        BigDecimal remaining;
-        LocalDate expDate;
-        LocalDate mfgDate;
-
-        LotState(String lotNumber, BigDecimal remaining, LocalDate expDate, LocalDate mfgDate) {
-            this.lotNumber = lotNumber;
-            this.remaining = remaining;
-            this.expDate = expDate;
-            this.mfgDate = mfgDate;
-        }
-    }
-
-    private static class Deduction {
-        Long materialId;
-        int lotIndex;
-        BigDecimal qty;
-
-        Deduction(Long materialId, int lotIndex, BigDecimal qty) {
-            this.materialId = materialId;
-            this.lotIndex = lotIndex;
-            this.qty = qty;
-        }
-    }
-
-    private static class AllocationAttempt {
-        boolean success;
-
-        static AllocationAttempt ok() {
-            AllocationAttempt a = new AllocationAttempt();
-            a.success = true;
-            return a;
-        }
-
-        static AllocationAttempt fail() {
-            AllocationAttempt a = new AllocationAttempt();
-            a.success = false;
-            return a;
-        }
-    }
-
     // ------------------------- ELIGIBLE + REASONS (RESERVED-AWARE) -------------------------
 
     public EligibleIssueReqResponseDTO getEligibleApprovedRequestsWithReasons(Long thuKhoId,
@@ -1285,21 +1131,7 @@ public class IssueService {
             // để mô phỏng giữ chỗ tồn kho cho đúng (không phải là pageSize hiển thị).
             int size = (limit == null || limit <= 0) ? 1000 : Math.min(limit, 2000);
 
-            List<IssueReqHeader> approved;
-            if (departmentId != null && subDepartmentId != null) {
-                approved = issueReqHeaderRepository
-                        .findByDepartmentIdAndSubDepartmentIdAndStatus_CodeOrderByRequestedAtAsc(
-                                departmentId, subDepartmentId, DOC_APPROVED, PageRequest.of(0, size)
-                        );
-            } else if (departmentId != null) {
-                approved = issueReqHeaderRepository
-                        .findByDepartmentIdAndStatus_CodeOrderByRequestedAtAsc(
-                                departmentId, DOC_APPROVED, PageRequest.of(0, size)
-                        );
-            } else {
-                approved = issueReqHeaderRepository
-                        .findByStatus_CodeOrderByRequestedAtAsc(DOC_APPROVED, PageRequest.of(0, size));
-            }
+            List<IssueReqHeader> approved = issueEligibilityEngine.loadApproved(departmentId, subDepartmentId, size);
 
             // Lọc theo tên khoa / bộ môn ở backend (khớp UX ô tìm kiếm tự do).
             String dk = deptKeyword == null ? "" : deptKeyword.trim().toLowerCase();
@@ -1316,58 +1148,26 @@ public class IssueService {
                 }).collect(Collectors.toList());
             }
 
-            Map<Long, List<LotState>> lotCache = new HashMap<>();
-            Map<String, BigDecimal> activeReservedCache = new HashMap<>();
-
-            List<IssueReqHeaderDTO> eligible = new ArrayList<>();
-            List<IneligibleIssueReqDTO> ineligible = new ArrayList<>();
+            // Mô phỏng FEFO trong bộ nhớ; DTO chỉ dựng cho trang trả về
+            List<IssueEligibilityEngine.Evaluation> eligible = new ArrayList<>();
+            List<IssueEligibilityEngine.Evaluation> ineligible = new ArrayList<>();
 
             int checked = 0, rejectedAlreadyIssued = 0, rejectedUnmapped = 0, rejectedNotEnough = 0;
 
-            for (IssueReqHeader req : approved) {
+            for (IssueEligibilityEngine.Evaluation ev : issueEligibilityEngine.evaluate(approved)) {
                 checked++;
-
-                IssueReqHeaderDTO reqDTO = toIssueReqDTO(req);
-
-                if (isAlreadyIssued(req)) {
-                    rejectedAlreadyIssued++;
-                    continue;
-                }
-
-                List<String> unmappedItems = collectUnmappedItems(req);
-                if (!unmappedItems.isEmpty()) {
-                    rejectedUnmapped++;
-                    ineligible.add(IneligibleIssueReqDTO.of(
-                            reqDTO,
-                            "HAS_UNMAPPED_MATERIAL",
-                            "Có vật tư chưa được map material_id (vật tư mới/chưa duyệt tạo mã). Không thể xuất.",
-                            null,
-                            unmappedItems
-                    ));
-                    continue;
-                }
-
-                List<IssueReservation> res = issueReservationRepository
-                        .findByIssueReqHeader_IdAndStatus_Code(req.getId(), RES_ACTIVE);
-                Map<Long, Map<String, BigDecimal>> reservedThisReq = groupReservationsByMaterialLot(res);
-
-                Map<Long, MaterialNeed> needs = buildNeedByMaterial(req);
-                List<StockShortageDTO> shortages = computeShortages(needs, reservedThisReq, lotCache, activeReservedCache);
-
-                if (!shortages.isEmpty()) {
-                    rejectedNotEnough++;
-                    ineligible.add(IneligibleIssueReqDTO.of(
-                            reqDTO,
-                            "NOT_ENOUGH_STOCK",
-                            "Không đủ tồn kho (đã trừ giữ chỗ phiếu khác) để đáp ứng phiếu theo thứ tự ưu tiên.",
-                            shortages,
-                            null
-                    ));
-                    continue;
+                switch (ev.getVerdict()) {
+                    case ALREADY_ISSUED -> rejectedAlreadyIssued++;
+                    case HAS_UNMAPPED_MATERIAL -> {
+                        rejectedUnmapped++;
+                        ineligible.add(ev);
+                    }
+                    case NOT_ENOUGH_STOCK -> {
+                        rejectedNotEnough++;
+                        ineligible.add(ev);
+                    }
+                    case ELIGIBLE -> eligible.add(ev);
                 }
-
-                deductForRequest(needs, reservedThisReq, lotCache, activeReservedCache);
-                eligible.add(reqDTO);
             }
 
             // Phân trang ở backend: chỉ trả về 1 trang của mỗi danh sách.
@@ -1382,8 +1182,15 @@ public class IssueService {
             int iFrom = Math.min(iPage * ps, ineligible.size());
             int iTo = Math.min(iFrom + ps, ineligible.size());
 
-            List<IssueReqHeaderDTO> pagedEligible = new ArrayList<>(eligible.subList(eFrom, eTo));
-            List<IneligibleIssueReqDTO> pagedIneligible = new ArrayList<>(ineligible.subList(iFrom, iTo));
+            List<IssueReqHeaderDTO> pagedEligible = new ArrayList<>();
+            for (IssueEligibilityEngine.Evaluation ev : eligible.subList(eFrom, eTo)) {
+                pagedEligible.add(toIssueReqDTO(ev.getRequest()));
+            }
+
+            List<IneligibleIssueReqDTO> pagedIneligible = new ArrayList<>();
+            for (IssueEligibilityEngine.Evaluation ev : ineligible.subList(iFrom, iTo)) {
+                pagedIneligible.add(toIneligibleDTO(ev));
+            }
 
             Map<String, Object> summary = new HashMap<>();
             summary.put("checked", checked);
@@ -1411,121 +1218,25 @@ public class IssueService {
         }
     }
 
-    private Map<Long, MaterialNeed> buildNeedByMaterial(IssueReqHeader req) {
-        Map<Long, MaterialNeed> map = new LinkedHashMap<>();
-        for (IssueReqDetail d : req.getDetails()) {
-            if (d.getMaterial() == null) continue;
-            Material m = d.getMaterial();
-            BigDecimal qty = nvl(d.getQtyRequested());
-            if (qty.compareTo(BigDecimal.ZERO) <= 0) continue;
-
-            MaterialNeed need = map.computeIfAbsent(m.getId(), k -> new MaterialNeed(m));
-            need.need = need.need.add(qty);
-        }
-        return map;
-    }
-
-    private List<StockShortageDTO> computeShortages(Map<Long, MaterialNeed> needs,
-                                                    Map<Long, Map<String, BigDecimal>> reservedThisReq,
-                                                    Map<Long, List<LotState>> lotCache,
-                                                    Map<String, BigDecimal> activeReservedCache) {
-        List<StockShortageDTO> shortages = new ArrayList<>();
-
-        for (MaterialNeed mn : needs.values()) {
-            Long materialId = mn.material.getId();
-
-            List<LotState> lots = lotCache.computeIfAbsent(materialId,
-                    mid -> loadLotStatesNet(mid, activeReservedCache));
-
-            BigDecimal baseAvailable = lots.stream()
-                    .map(ls -> nvl(ls.remaining))
-                    .reduce(BigDecimal.ZERO, BigDecimal::add);
-
-            BigDecimal reservedThisTotal = sumMap(reservedThisReq.get(materialId));
-            BigDecimal availableForThisReq = baseAvailable.add(reservedThisTotal);
-
-            if (availableForThisReq.compareTo(mn.need) < 0) {
-                BigDecimal missing = mn.need.subtract(availableForThisReq);
-                String unitName = (mn.material.getUnit() != null) ? mn.material.getUnit().getName() : null;
-
-                shortages.add(StockShortageDTO.of(
-                        materialId,
-                        mn.material.getCode(),
-                        mn.material.getName(),
-                        unitName,
-                        mn.need,
-                        availableForThisReq,
-                        missing
-                ));
-            }
-        }
-
-        return shortages;
-    }
-
-    private void deductForRequest(Map<Long, MaterialNeed> needs,
-                                  Map<Long, Map<String, BigDecimal>> reservedThisReq,
-                                  Map<Long, List<LotState>> lotCache,
-                                  Map<String, BigDecimal> activeReservedCache) {
-        for (MaterialNeed mn : needs.values()) {
-            Long materialId = mn.material.getId();
-            List<LotState> lots = lotCache.computeIfAbsent(materialId,
-                    mid -> loadLotStatesNet(mid, activeReservedCache));
-
-            BigDecimal reservedThisTotal = sumMap(reservedThisReq.get(materialId));
-            BigDecimal needFromBase = nvl(mn.need).subtract(reservedThisTotal);
-            if (needFromBase.compareTo(BigDecimal.ZERO) <= 0) continue;
+    private IneligibleIssueReqDTO toIneligibleDTO(IssueEligibilityEngine.Evaluation ev) {
+        IssueReqHeaderDTO reqDTO = toIssueReqDTO(ev.getRequest());
 
-            BigDecimal remaining = needFromBase;
-
-            for (LotState lot : lots) {
-                if (remaining.compareTo(BigDecimal.ZERO) <= 0) break;
-                if (lot.remaining.compareTo(BigDecimal.ZERO) <= 0) continue;
-
-                BigDecimal take = lot.remaining.min(remaining);
-                lot.remaining = lot.remaining.subtract(take);
-                remaining = remaining.subtract(take);
-            }
-
-            if (remaining.compareTo(BigDecimal.ZERO) > 0) {
-                throw new RuntimeException("Lỗi nội bộ reserve tồn kho (materialId=" + materialId + ")");
-            }
-        }
-    }
-
-    private List<String> collectUnmappedItems(IssueReqHeader req) {
-        List<String> out = new ArrayList<>();
-        for (IssueReqDetail d : req.getDetails()) {
-            if (d.getMaterial() != null) continue;
-
-            String code = safeTrim(d.getProposedCode());
-            String name = safeTrim(d.getMaterialName());
-            String spec = safeTrim(d.getSpec());
-            BigDecimal qty = nvl(d.getQtyRequested());
-
-            String label;
-            if (!code.isEmpty()) label = code;
-            else if (!name.isEmpty()) label = name;
-            else label = "Vật tư chưa map";
-
-            if (!name.isEmpty() && !label.equals(name) && !code.isEmpty()) {
-                label = label + " - " + name;
-            }
-            if (!spec.isEmpty()) label = label + " (" + spec + ")";
-            label = label + " x " + qty;
-
-            out.add(label);
+        if (ev.getVerdict() == IssueEligibilityEngine.Verdict.HAS_UNMAPPED_MATERIAL) {
+            return IneligibleIssueReqDTO.of(
+                    reqDTO,
+                    "HAS_UNMAPPED_MATERIAL",
+                    "Có vật tư chưa được map material_id (vật tư mới/chưa duyệt tạo mã). Không thể xuất.",
+                    null,
+                    ev.getUnmappedItems()
+            );
         }
-        return out;
-    }
 
-    private static class MaterialNeed {
-        Material material;
-        BigDecimal need;
-
-        MaterialNeed(Material material) {
-            this.material = material;
-            this.need = BigDecimal.ZERO;
-        }
+        return IneligibleIssueReqDTO.of(
+                reqDTO,
+                "NOT_ENOUGH_STOCK",
+                "Không đủ tồn kho (đã trừ giữ chỗ phiếu khác) để đáp ứng phiếu theo thứ tự ưu tiên.",
+                ev.getShortages(),
+                null
+        );
     }
 }
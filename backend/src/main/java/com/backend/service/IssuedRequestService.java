@@ -0,0 +1,106 @@
+package com.backend.service;
+
+import com.backend.repository.IssueHeaderRepository;
+import com.backend.repository.IssueReqHeaderRepository;
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Tra cứu "phiếu xin lĩnh đã được xuất kho chưa" theo issue_header.issue_req_id (unique, có index).
+ *
+ * Phiếu xuất cũ chỉ lưu marker "(IssueReq#id)" trong receiver_name: được backfill sang
+ * issue_req_id khi khởi động (hoặc qua API admin), nên luồng kiểm tra không còn quét receiver_name.
+ */
+@Service
+@RequiredArgsConstructor
+@Transactional
+public class IssuedRequestService {
+
+    private static final Pattern LEGACY_MARKER = Pattern.compile("\\(IssueReq#(\\d+)\\)");
+    private static final int BACKFILL_CHUNK = 500;
+
+    private final IssueHeaderRepository issueHeaderRepository;
+    private final IssueReqHeaderRepository issueReqHeaderRepository;
+
+    @Transactional(readOnly = true)
+    public boolean isIssued(Long issueReqId) {
+        return issueReqId != null && issueHeaderRepository.existsByIssueReqId(issueReqId);
+    }
+
+    /** Tập id (trong {@code issueReqIds}) đã có phiếu xuất — 1 query. */
+    @Transactional(readOnly = true)
+    public Set<Long> findIssuedReqIds(Collection<Long> issueReqIds) {
+        if (issueReqIds == null || issueReqIds.isEmpty()) return new HashSet<>();
+        return new HashSet<>(issueHeaderRepository.findIssuedReqIds(issueReqIds));
+    }
+
+    /**
+     * Gán issue_req_id cho phiếu xuất cũ từ marker trong receiver_name.
+     *
+     * - DB cũ có thể có nhiều phiếu xuất cùng trỏ 1 phiếu xin lĩnh: giữ liên kết ở phiếu đầu tiên
+     *   (id nhỏ nhất), bỏ liên kết các phiếu sau để uq_issue_header_req tạo được.
+     * - Mỗi phiếu xin lĩnh chỉ nhận 1 phiếu xuất (id nhỏ nhất); bỏ qua marker trỏ tới phiếu
+     *   không còn tồn tại hoặc đã có phiếu xuất liên kết.
+     */
+    public Map<String, Object> backfillFromLegacyMarkers() {
+        int duplicateLinksCleared = issueHeaderRepository.countDuplicateIssueReqLinks() > 0
+                ? issueHeaderRepository.clearDuplicateIssueReqLinks() : 0;
+
+        List<Object[]> legacy = issueHeaderRepository.findLegacyMarkedWithoutIssueReq();
+
+        // req id -> phiếu xuất cũ đầu tiên (rows đã sắp theo id)
+        Map<Long, Long> firstIssueByReq = new LinkedHashMap<>();
+        for (Object[] r : legacy) {
+            Long reqId = parseMarker((String) r[1]);
+            if (reqId != null) firstIssueByReq.putIfAbsent(reqId, ((Number) r[0]).longValue());
+        }
+
+        int updated = 0;
+        List<Long> reqIds = new ArrayList<>(firstIssueByReq.keySet());
+        for (int from = 0; from < reqIds.size(); from += BACKFILL_CHUNK) {
+            List<Long> chunk = reqIds.subList(from, Math.min(from + BACKFILL_CHUNK, reqIds.size()));
+            Set<Long> existing = new HashSet<>(issueReqHeaderRepository.findExistingIds(chunk));
+            Set<Long> linked = findIssuedReqIds(chunk);
+            for (Long reqId : chunk) {
+                if (existing.contains(reqId) && !linked.contains(reqId)) {
+                    updated += issueHeaderRepository.linkIssueReq(firstIssueByReq.get(reqId), reqId);
+                }
+            }
+        }
+
+        Map<String, Object> result = new HashMap<>();
+        result.put("duplicateLinksCleared", duplicateLinksCleared);
+        result.put("legacyRows", legacy.size());
+        result.put("updated", updated);
+        return result;
+    }
+
+    /** Backfill + bỏ liên kết trùng, rồi mới tạo unique index issue_req_id (nếu chưa có). */
+    @EventListener(ApplicationReadyEvent.class)
+    public void backfillOnStartup() {
+        if (issueHeaderRepository.countLegacyMarkedWithoutIssueReq() > 0
+                || issueHeaderRepository.countDuplicateIssueReqLinks() > 0) {
+            backfillFromLegacyMarkers();
+        }
+        issueHeaderRepository.createIssueReqUniqueIndex();
+    }
+
+    /** Id phiếu xin lĩnh trong marker "(IssueReq#id)", null nếu không đọc được. */
+    static Long parseMarker(String receiverName) {
+        if (receiverName == null) return null;
+        Matcher m = LEGACY_MARKER.matcher(receiverName);
+        if (!m.find()) return null;
+        try {
+            return Long.valueOf(m.group(1));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
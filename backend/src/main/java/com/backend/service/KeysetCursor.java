@@ -0,0 +1,34 @@
+package com.backend.service;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.Base64;
+
+/**
+ * Vị trí keyset (thời điểm, id) cho danh sách sắp từ mới đến cũ.
+ * Client chỉ giữ chuỗi base64url, không phân tích.
+ */
+record KeysetCursor(LocalDateTime at, Long id) {
+
+    /** Trang đầu: mọi bản ghi đều đứng "trước" mốc này. */
+    static final KeysetCursor FIRST = new KeysetCursor(LocalDateTime.of(9999, 12, 31, 0, 0), Long.MAX_VALUE);
+
+    static KeysetCursor decodeOrFirst(String cursor) {
+        return (cursor == null || cursor.isBlank()) ? FIRST : decode(cursor);
+    }
+
+    String encode() {
+        String raw = at + "|" + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    static KeysetCursor decode(String cursor) {
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            int sep = raw.indexOf('|');
+            return new KeysetCursor(LocalDateTime.parse(raw.substring(0, sep)), Long.parseLong(raw.substring(sep + 1)));
+        } catch (RuntimeException e) {
+            throw new RuntimeException("Cursor không hợp lệ");
+        }
+    }
+}
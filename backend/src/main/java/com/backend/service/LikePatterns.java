@@ -0,0 +1,21 @@
+package com.backend.service;
+
+/**
+ * Từ khoá tìm kiếm cho LIKE: thoát ký tự đại diện (%, _) và ký tự thoát (\) để người dùng gõ
+ * "50%" hay "a_b" được tìm đúng chữ. Câu query phải có {@code ESCAPE '\'}.
+ */
+final class LikePatterns {
+
+    private LikePatterns() {
+    }
+
+    /** Từ khoá đã thoát, dùng với {@code LIKE CONCAT('%', :kw, '%') ESCAPE '\'}. */
+    static String escape(String kw) {
+        return kw.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+    }
+
+    /** "%từ khoá đã thoát%"; rỗng => rỗng (query hiểu là không lọc). */
+    static String contains(String kw) {
+        return kw.isEmpty() ? "" : "%" + escape(kw) + "%";
+    }
+}
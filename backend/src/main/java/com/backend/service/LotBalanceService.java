@@ -0,0 +1,254 @@
+package com.backend.service;
+
+import com.backend.entity.InventoryCard;
+import com.backend.entity.LotBalance;
+import com.backend.entity.Material;
+import com.backend.event.StockChangedEvent;
+import com.backend.repository.InventoryCardRepository;
+import com.backend.repository.IssueReservationRepository;
+import com.backend.repository.LotBalanceRepository;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.math.BigDecimal;
+import java.util.*;
+
+/**
+ * Duy trì bảng lot_balance (tồn hiện tại theo material + lô).
+ *
+ * - Mọi dòng inventory_card mới (nhập / xuất) phải đi qua {@link #applyCard} trong cùng transaction.
+ * - Các luồng phân bổ lô (preview, xuất kho, giữ chỗ) chỉ đọc từ lot_balance.
+ * - Có lệnh rebuild toàn bộ từ sổ thẻ kho và lệnh kiểm tra lệch giữa 2 bên.
+ */
+@Service
+@RequiredArgsConstructor
+@Transactional
+public class LotBalanceService {
+
+    private final LotBalanceRepository lotBalanceRepository;
+    private final InventoryCardRepository inventoryCardRepository;
+    private final IssueReservationRepository issueReservationRepository;
+    private final ApplicationEventPublisher eventPublisher;
+    private final LotLockManager lotLockManager;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Transactional(readOnly = true)
+    public List<LotBalance> findAvailableLots(Long materialId) {
+        return lotBalanceRepository.findAvailableByMaterial(materialId);
+    }
+
+    /**
+     * Nạp lô còn tồn (FEFO) + tổng giữ chỗ ACTIVE theo lô cho nhiều vật tư: 2 query cố định,
+     * không phụ thuộc số dòng / số lô của phiếu.
+     *
+     * @param materialIds         vật tư cần nạp
+     * @param activeReservedCache cache reserved theo key "materialId|lot" của caller (mới tạo),
+     *                            được điền bởi {@link #loadActiveReserved}; null => chỉ nạp lô
+     * @return materialId -> lô còn tồn theo FEFO (material không còn lô => list rỗng)
+     */
+    @Transactional(readOnly = true)
+    public Map<Long, List<LotBalance>> loadAvailableLots(Collection<Long> materialIds,
+                                                          Map<String, BigDecimal> activeReservedCache) {
+        Map<Long, List<LotBalance>> lotsByMaterial = new LinkedHashMap<>();
+        if (materialIds == null) return lotsByMaterial;
+
+        for (Long id : materialIds) {
+            if (id != null) lotsByMaterial.putIfAbsent(id, new ArrayList<>());
+        }
+        if (lotsByMaterial.isEmpty()) return lotsByMaterial;
+
+        for (LotBalance b : lotBalanceRepository.findAvailableByMaterialIds(lotsByMaterial.keySet())) {
+            lotsByMaterial.get(b.getMaterial().getId()).add(b);
+        }
+
+        if (activeReservedCache != null) {
+            loadActiveReserved(lotsByMaterial, activeReservedCache);
+        }
+        return lotsByMaterial;
+    }
+
+    /**
+     * Tổng giữ chỗ ACTIVE theo (material, lot) cho mọi vật tư trong {@code lotsByMaterial}: 1 query.
+     * Điền cache key "materialId|lot": mọi lô đang có giữ chỗ, và 0 cho lô còn tồn chưa ai giữ.
+     * Luồng giữ chỗ gọi sau khi đã lock các lô để đọc được reserved mới nhất.
+     */
+    @Transactional(readOnly = true)
+    public void loadActiveReserved(Map<Long, List<LotBalance>> lotsByMaterial,
+                                   Map<String, BigDecimal> activeReservedCache) {
+        if (lotsByMaterial == null || lotsByMaterial.isEmpty()) return;
+
+        for (Map.Entry<Long, List<LotBalance>> e : lotsByMaterial.entrySet()) {
+            for (LotBalance b : e.getValue()) {
+                activeReservedCache.putIfAbsent(e.getKey() + "|" + safeTrim(b.getLotNumber()), BigDecimal.ZERO);
+            }
+        }
+
+        for (Object[] r : issueReservationRepository.sumActiveReservedGroupByMaterialAndLot(lotsByMaterial.keySet())) {
+            Long mid = ((Number) r[0]).longValue();
+            String lot = safeTrim((String) r[1]);
+            BigDecimal qty = r[2] == null ? BigDecimal.ZERO : (BigDecimal) r[2];
+            activeReservedCache.put(mid + "|" + lot, qty);
+        }
+    }
+
+    /**
+     * Lock balance của lô (FOR UPDATE). Empty nếu lô chưa từng có thẻ kho.
+     * Nếu balance đã được đọc trước đó trong transaction, query khóa trả lại đúng instance cũ
+     * mà không nạp lại => refresh sau khi giữ khóa để có tồn mới nhất.
+     */
+    public Optional<LotBalance> lockBalance(Long materialId, String lotNumber) {
+        Optional<LotBalance> locked = lotBalanceRepository.lockByMaterialAndLot(materialId, safeTrim(lotNumber));
+        locked.ifPresent(entityManager::refresh);
+        return locked;
+    }
+
+    /**
+     * Lock balance của nhiều lô (1 câu FOR UPDATE theo thứ tự material, lô — xem {@link LotLockManager}).
+     * Key = "materialId|lot"; lô chưa từng có thẻ kho không có trong map (dùng {@link #newBalance}).
+     * Lô chưa có balance được khóa qua dòng vật tư: 2 phiếu nhập đầu tiên của cùng lô mới chờ nhau
+     * thay vì cùng tạo balance.
+     */
+    public Map<String, LotBalance> lockBalances(Map<Long, ? extends Collection<String>> lotsByMaterial) {
+        return lotLockManager.lockAllCreatingMissing(lotsByMaterial);
+    }
+
+    /**
+     * Như {@link #lockBalances(Map)} cho luồng đã đọc lô trước để lập phương án (FEFO):
+     * {@code plannedLots} được bỏ khỏi persistence context để kết quả là tồn mới nhất sau khi khóa.
+     */
+    public Map<String, LotBalance> lockBalances(Map<Long, List<LotBalance>> plannedLots,
+                                                Map<Long, ? extends Collection<String>> lotsByMaterial) {
+        List<LotBalance> read = new ArrayList<>();
+        if (plannedLots != null) plannedLots.values().forEach(read::addAll);
+        return lotLockManager.lockAll(lotsByMaterial, read);
+    }
+
+    /** Balance cho lô chưa có thẻ kho; được lưu khi {@link #applyCard} dòng thẻ kho đầu tiên. */
+    public LotBalance newBalance(Material material, String lotNumber) {
+        LotBalance b = new LotBalance();
+        b.setMaterial(material);
+        b.setLotNumber(safeTrim(lotNumber));
+        return b;
+    }
+
+    /**
+     * Áp 1 dòng thẻ kho vừa lưu vào balance của lô.
+     * closing_stock là cột generated trong DB nên tính lại ở đây: opening + in - out.
+     *
+     * @param card    dòng inventory_card đã save (đã có id)
+     * @param current balance đang giữ lock của lô (null nếu chưa lock / lô mới)
+     */
+    public LotBalance applyCard(InventoryCard card, LotBalance current) {
+        if (card == null || card.getId() == null || card.getMaterial() == null) {
+            throw new RuntimeException("Thẻ kho chưa được lưu, không thể cập nhật tồn theo lô");
+        }
+
+        String lot = safeTrim(card.getLotNumber());
+        LotBalance balance = current;
+        if (balance == null) {
+            balance = lotBalanceRepository.findByMaterial_IdAndLotNumber(card.getMaterial().getId(), lot)
+                    .orElseGet(() -> {
+                        LotBalance b = new LotBalance();
+                        b.setMaterial(card.getMaterial());
+                        b.setLotNumber(lot);
+                        return b;
+                    });
+        }
+
+        BigDecimal closing = nvl(card.getOpeningStock())
+                .add(nvl(card.getQtyIn()))
+                .subtract(nvl(card.getQtyOut()));
+
+        balance.setClosingStock(closing);
+        balance.setLastCardId(card.getId());
+        if (card.getMfgDate() != null) balance.setMfgDate(card.getMfgDate());
+        if (card.getExpDate() != null) balance.setExpDate(card.getExpDate());
+        if (card.getWarehouseName() != null) balance.setWarehouseName(card.getWarehouseName());
+        if (card.getSupplier() != null) balance.setSupplier(card.getSupplier());
+
+        return lotBalanceRepository.save(balance);
+    }
+
+    /** Dựng lại toàn bộ lot_balance từ dòng thẻ kho cuối cùng của mỗi lô. */
+    public Map<String, Object> rebuildFromLedger() {
+        int deleted = lotBalanceRepository.deleteAllRows();
+        int inserted = lotBalanceRepository.insertLatestFromLedger();
+        eventPublisher.publishEvent(StockChangedEvent.allMaterials("LOT_BALANCE_REBUILD"));
+
+        Map<String, Object> result = new HashMap<>();
+        result.put("deleted", deleted);
+        result.put("inserted", inserted);
+        return result;
+    }
+
+    /** Liệt kê các lô mà lot_balance lệch so với sổ thẻ kho. */
+    @Transactional(readOnly = true)
+    public Map<String, Object> checkConsistency() {
+        List<Map<String, Object>> mismatches = new ArrayList<>();
+
+        for (Object[] r : lotBalanceRepository.findLedgerMismatches()) {
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("materialId", r[0] == null ? null : ((Number) r[0]).longValue());
+            m.put("lotNumber", r[1]);
+            m.put("ledgerClosing", r[2]);
+            m.put("balanceClosing", r[3]);
+            m.put("ledgerCardId", r[4] == null ? null : ((Number) r[4]).longValue());
+            m.put("balanceCardId", r[5] == null ? null : ((Number) r[5]).longValue());
+            mismatches.add(m);
+        }
+
+        Map<String, Object> result = new HashMap<>();
+        result.put("consistent", mismatches.isEmpty());
+        result.put("mismatchCount", mismatches.size());
+        result.put("mismatches", mismatches);
+        return result;
+    }
+
+    /**
+     * "Thẻ kho mới nhất của lô" = id lớn nhất: chỉ đúng khi sequence inventory_card_id_seq tăng đúng
+     * allocationSize mỗi lần. DB chưa chạy ALTER SEQUENCE ... INCREMENT BY 50 (final_database.sql)
+     * thì dừng khởi động thay vì cấp id chồng / lệch thứ tự.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    @Order(Ordered.HIGHEST_PRECEDENCE)
+    public void verifyCardSequenceIncrement() {
+        List<Number> increments = inventoryCardRepository.findSequenceIncrements(InventoryCard.ID_SEQUENCE);
+        if (increments.isEmpty()) {
+            throw new RuntimeException("Không tìm thấy sequence " + InventoryCard.ID_SEQUENCE);
+        }
+        for (Number inc : increments) {
+            if (inc.longValue() != InventoryCard.ID_ALLOCATION_SIZE) {
+                throw new RuntimeException("Sequence " + InventoryCard.ID_SEQUENCE + " có INCREMENT BY " + inc
+                        + ", cần " + InventoryCard.ID_ALLOCATION_SIZE + " (xem final_database.sql)");
+            }
+        }
+    }
+
+    /**
+     * DB cũ (ddl-auto=update) chỉ có bảng lot_balance rỗng: dựng lần đầu từ sổ thẻ kho khi khởi động.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void rebuildIfEmpty() {
+        if (lotBalanceRepository.count() == 0 && inventoryCardRepository.count() > 0) {
+            rebuildFromLedger();
+        }
+    }
+
+    private static BigDecimal nvl(BigDecimal v) {
+        return v == null ? BigDecimal.ZERO : v;
+    }
+
+    private static String safeTrim(String s) {
+        return s == null ? "" : s.trim();
+    }
+}
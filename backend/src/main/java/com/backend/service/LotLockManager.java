@@ -0,0 +1,188 @@
+package com.backend.service;
+
+import com.backend.entity.LotBalance;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.persistence.Query;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Khóa lot_balance cho nhiều cặp (material, lô) trong 1 câu SELECT ... FOR UPDATE.
+ *
+ * - Mọi luồng ghi tồn (nhập, xuất, giữ chỗ) khóa theo cùng 1 thứ tự toàn cục: material_id tăng dần,
+ *   rồi lot_number. 2 giao dịch chồng lô nhau chỉ có thể chờ nhau, không deadlock.
+ * - Khớp đúng từng cặp (material_id, lot_number), không khóa thừa tổ hợp material x lô.
+ * - Danh sách dài được chia thành nhiều câu nhưng vẫn theo thứ tự trên.
+ * - Ghi nhận thời gian chờ khóa (thời gian chạy câu khóa) để theo dõi tranh chấp.
+ * - Luồng có thể tạo lô mới (nhập kho) dùng {@link #lockAllCreatingMissing}: lô chưa có balance
+ *   được "khóa" qua dòng materials, để 2 phiếu nhập đầu tiên của cùng 1 lô mới không cùng INSERT.
+ */
+@Slf4j
+@Component
+public class LotLockManager {
+
+    /** Số cặp tối đa mỗi câu (2 tham số / cặp). */
+    private static final int PAIRS_PER_STATEMENT = 500;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Value("${medventory.inventory.lock.slow-millis:200}")
+    private long slowLockMillis;
+
+    private final AtomicLong lockCalls = new AtomicLong();
+    private final AtomicLong statements = new AtomicLong();
+    private final AtomicLong pairsRequested = new AtomicLong();
+    private final AtomicLong rowsLocked = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final AtomicLong slowLocks = new AtomicLong();
+
+    /**
+     * Khóa balance của mọi lô trong {@code lotsByMaterial}. Key kết quả = "materialId|lot";
+     * lô chưa từng có thẻ kho không có trong map.
+     *
+     * @param previouslyRead balance đã đọc (chưa sửa) trong transaction này, vd. để lập phương án FEFO.
+     *                       Query khóa sẽ trả lại đúng instance đó mà không nạp lại dữ liệu, nên chúng được
+     *                       detach trước để kết quả là bản mới nhất sau khi đã giữ khóa.
+     */
+    public Map<String, LotBalance> lockAll(Map<Long, ? extends Collection<String>> lotsByMaterial,
+                                           Collection<LotBalance> previouslyRead) {
+        Map<String, LotBalance> out = new HashMap<>();
+        if (lotsByMaterial == null || lotsByMaterial.isEmpty()) return out;
+
+        TreeMap<Long, TreeSet<String>> ordered = new TreeMap<>();
+        int pairCount = 0;
+        for (Map.Entry<Long, ? extends Collection<String>> e : lotsByMaterial.entrySet()) {
+            if (e.getKey() == null || e.getValue() == null) continue;
+            for (String raw : e.getValue()) {
+                String lot = raw == null ? "" : raw.trim();
+                if (lot.isEmpty()) continue;
+                if (ordered.computeIfAbsent(e.getKey(), k -> new TreeSet<>()).add(lot)) pairCount++;
+            }
+        }
+        if (pairCount == 0) return out;
+
+        if (previouslyRead != null) {
+            for (LotBalance b : previouslyRead) {
+                if (b != null && entityManager.contains(b)) entityManager.detach(b);
+            }
+        }
+
+        lockCalls.incrementAndGet();
+        pairsRequested.addAndGet(pairCount);
+
+        List<Object[]> chunk = new ArrayList<>(Math.min(pairCount, PAIRS_PER_STATEMENT));
+        for (Map.Entry<Long, TreeSet<String>> e : ordered.entrySet()) {
+            for (String lot : e.getValue()) {
+                chunk.add(new Object[]{e.getKey(), lot});
+                if (chunk.size() == PAIRS_PER_STATEMENT) {
+                    lockChunk(chunk, out);
+                    chunk.clear();
+                }
+            }
+        }
+        if (!chunk.isEmpty()) lockChunk(chunk, out);
+        return out;
+    }
+
+    /**
+     * Như {@link #lockAll} cho luồng sẽ tạo balance cho lô chưa có (nhập kho).
+     *
+     * Lô chưa có balance thì không có dòng để khóa: khóa dòng materials của các lô đó (FOR UPDATE,
+     * id tăng dần, sau khi đã giữ khóa các lô có sẵn), rồi khóa lại các lô này. Giao dịch khác tạo
+     * cùng lô phải giữ khóa materials tới khi commit, nên lần khóa lại thấy balance nó vừa tạo
+     * (tồn đầu đúng, không INSERT trùng unique (material_id, lot_number)); vẫn không có thì chỉ
+     * giao dịch này tạo.
+     */
+    public Map<String, LotBalance> lockAllCreatingMissing(Map<Long, ? extends Collection<String>> lotsByMaterial) {
+        Map<String, LotBalance> out = lockAll(lotsByMaterial, List.of());
+        if (lotsByMaterial == null) return out;
+
+        Map<Long, List<String>> missing = new TreeMap<>();
+        for (Map.Entry<Long, ? extends Collection<String>> e : lotsByMaterial.entrySet()) {
+            if (e.getKey() == null || e.getValue() == null) continue;
+            for (String raw : e.getValue()) {
+                String lot = raw == null ? "" : raw.trim();
+                if (!lot.isEmpty() && !out.containsKey(e.getKey() + "|" + lot)) {
+                    missing.computeIfAbsent(e.getKey(), k -> new ArrayList<>()).add(lot);
+                }
+            }
+        }
+        if (missing.isEmpty()) return out;
+
+        List<Long> materialIds = new ArrayList<>(missing.keySet());
+        for (int from = 0; from < materialIds.size(); from += PAIRS_PER_STATEMENT) {
+            List<Long> ids = materialIds.subList(from, Math.min(from + PAIRS_PER_STATEMENT, materialIds.size()));
+            long started = System.nanoTime();
+            entityManager.createNativeQuery("SELECT id FROM materials WHERE id IN (:ids) ORDER BY id FOR UPDATE")
+                    .setParameter("ids", ids)
+                    .getResultList();
+            recordWait(System.nanoTime() - started, 0, ids.size(), ids.get(0));
+        }
+
+        out.putAll(lockAll(missing, List.of()));
+        return out;
+    }
+
+    public Map<String, Object> getStats() {
+        long calls = lockCalls.get();
+        long waitNanos = totalWaitNanos.get();
+
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("lockCalls", calls);
+        stats.put("statements", statements.get());
+        stats.put("pairsRequested", pairsRequested.get());
+        stats.put("rowsLocked", rowsLocked.get());
+        stats.put("totalWaitMillis", waitNanos / 1_000_000);
+        stats.put("avgWaitMillis", calls == 0 ? 0.0 : waitNanos / 1_000_000.0 / calls);
+        stats.put("maxWaitMillis", maxWaitNanos.get() / 1_000_000);
+        stats.put("slowLockThresholdMillis", slowLockMillis);
+        stats.put("slowLocks", slowLocks.get());
+        return stats;
+    }
+
+    // ---------------------------------------------------------------------
+
+    @SuppressWarnings("unchecked")
+    private void lockChunk(List<Object[]> pairs, Map<String, LotBalance> out) {
+        StringBuilder sql = new StringBuilder("SELECT * FROM lot_balance WHERE (material_id, lot_number) IN (");
+        for (int i = 0; i < pairs.size(); i++) {
+            if (i > 0) sql.append(", ");
+            sql.append("(?").append(2 * i + 1).append(", ?").append(2 * i + 2).append(')');
+        }
+        sql.append(") ORDER BY material_id, lot_number FOR UPDATE");
+
+        Query q = entityManager.createNativeQuery(sql.toString(), LotBalance.class);
+        for (int i = 0; i < pairs.size(); i++) {
+            q.setParameter(2 * i + 1, pairs.get(i)[0]);
+            q.setParameter(2 * i + 2, pairs.get(i)[1]);
+        }
+
+        long started = System.nanoTime();
+        List<LotBalance> locked = q.getResultList();
+        recordWait(System.nanoTime() - started, locked.size(), pairs.size(), pairs.get(0)[0]);
+
+        for (LotBalance b : locked) {
+            String lot = b.getLotNumber() == null ? "" : b.getLotNumber().trim();
+            out.put(b.getMaterial().getId() + "|" + lot, b);
+        }
+    }
+
+    private void recordWait(long waited, int locked, int requested, Object firstMaterialId) {
+        statements.incrementAndGet();
+        rowsLocked.addAndGet(locked);
+        totalWaitNanos.addAndGet(waited);
+        maxWaitNanos.accumulateAndGet(waited, Math::max);
+        if (waited / 1_000_000 >= slowLockMillis) {
+            slowLocks.incrementAndGet();
+            log.warn("Waited {} ms to lock {} lot balances (first material {})",
+                    waited / 1_000_000, requested, firstMaterialId);
+        }
+    }
+}
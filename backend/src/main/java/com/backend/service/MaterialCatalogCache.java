@@ -0,0 +1,138 @@
+package com.backend.service;
+
+import com.backend.entity.Material;
+import com.backend.repository.MaterialRepository;
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Danh mục vật tư trong bộ nhớ: id <-> code <-> đơn vị tính <-> phân loại.
+ *
+ * - Nạp toàn bộ khi ứng dụng khởi động (1 query projection), sau đó chỉ thêm:
+ *   vật tư mới được đăng ký sau commit ({@link #registerAfterCommit}).
+ * - Code chưa có trong cache => tra DB 1 lần cho cả lô code thiếu; kết quả chỉ được cache
+ *   khi transaction hiện tại commit (tránh giữ id của vật tư tạo trong transaction bị rollback).
+ * - Code không tồn tại không được cache (có thể được tạo ngay sau đó).
+ */
+@Component
+@RequiredArgsConstructor
+public class MaterialCatalogCache {
+
+    private final MaterialRepository materialRepository;
+
+    private final Map<String, Entry> byCode = new ConcurrentHashMap<>();
+    private final Map<Long, Entry> byId = new ConcurrentHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong dbLookups = new AtomicLong();
+    private volatile long lastLoadMillis;
+
+    public record Entry(Long id, String code, String name, String spec, Long unitId, String category) {
+
+        static Entry of(Material m) {
+            return new Entry(m.getId(), m.getCode(), m.getName(), m.getSpec(), m.getUnitId(), m.getCategory());
+        }
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void loadOnStartup() {
+        reload();
+    }
+
+    /** Nạp lại toàn bộ danh mục (vd. sau khi sửa tay bảng materials). */
+    public Map<String, Object> reload() {
+        long started = System.currentTimeMillis();
+        List<Object[]> rows = materialRepository.findCatalogRows();
+
+        Map<String, Entry> codes = new HashMap<>(rows.size() * 2);
+        Map<Long, Entry> ids = new HashMap<>(rows.size() * 2);
+        for (Object[] r : rows) {
+            Entry e = new Entry(((Number) r[0]).longValue(), (String) r[1], (String) r[2], (String) r[3],
+                    r[4] == null ? null : ((Number) r[4]).longValue(), (String) r[5]);
+            codes.put(e.code(), e);
+            ids.put(e.id(), e);
+        }
+
+        byCode.keySet().retainAll(codes.keySet());
+        byId.keySet().retainAll(ids.keySet());
+        byCode.putAll(codes);
+        byId.putAll(ids);
+
+        lastLoadMillis = System.currentTimeMillis() - started;
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("size", byId.size());
+        result.put("loadMillis", lastLoadMillis);
+        return result;
+    }
+
+    /**
+     * Tra cứu nhiều code một lúc. Trả về map code (đã trim) -> entry, chỉ gồm code tìm thấy.
+     * Code thiếu trong cache được tra DB bằng đúng 1 query.
+     */
+    public Map<String, Entry> resolveCodes(Collection<String> codes) {
+        Map<String, Entry> out = new HashMap<>();
+        if (codes == null || codes.isEmpty()) return out;
+
+        Set<String> missing = new HashSet<>();
+        for (String raw : codes) {
+            String code = raw == null ? "" : raw.trim();
+            if (code.isEmpty()) continue;
+            Entry e = byCode.get(code);
+            if (e != null) out.put(code, e);
+            else missing.add(code);
+        }
+        hits.addAndGet(out.size());
+        if (missing.isEmpty()) return out;
+
+        misses.addAndGet(missing.size());
+        dbLookups.incrementAndGet();
+        List<Entry> found = new ArrayList<>();
+        for (Material m : materialRepository.findByCodeIn(missing)) {
+            Entry e = Entry.of(m);
+            out.put(e.code(), e);
+            found.add(e);
+        }
+        putAfterCommit(found);
+        return out;
+    }
+
+    /** Gọi ngay sau khi lưu vật tư mới; entry xuất hiện trong cache khi transaction commit. */
+    public void registerAfterCommit(Material material) {
+        if (material == null || material.getId() == null || material.getCode() == null) return;
+        putAfterCommit(List.of(Entry.of(material)));
+    }
+
+    public Map<String, Object> getStats() {
+        long h = hits.get();
+        long m = misses.get();
+
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("size", byId.size());
+        stats.put("hits", h);
+        stats.put("misses", m);
+        stats.put("hitRatio", (h + m) == 0 ? 0.0 : (double) h / (h + m));
+        stats.put("dbLookups", dbLookups.get());
+        stats.put("lastLoadMillis", lastLoadMillis);
+        return stats;
+    }
+
+    // ---------------------------------------------------------------------
+
+    private void putAfterCommit(List<Entry> entries) {
+        if (entries.isEmpty()) return;
+        AfterCommit.run(() -> entries.forEach(this::put));
+    }
+
+    private void put(Entry e) {
+        byCode.put(e.code(), e);
+        byId.put(e.id(), e);
+    }
+}
@@ -6,10 +6,11 @@ import com.backend.dto.MaterialFeedResponseDTO;
 import com.backend.entity.Material;
 import com.backend.entity.User;
 import com.backend.entity.Unit;
+import com.backend.event.StockChangedEvent;
 import com.backend.repository.MaterialRepository;
-import com.backend.repository.UserRepository;
 import com.backend.repository.UnitRepository;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
 
@@ -25,11 +26,17 @@ public class MaterialService {
     private MaterialRepository materialRepository;
 
     @Autowired
-    private UserRepository userRepository;
+    private CurrentUserContext currentUserContext;
 
     @Autowired
     private UnitRepository unitRepository;
 
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
+    @Autowired
+    private MaterialCatalogCache materialCatalog;
+
     public MaterialDTO addMaterial(MaterialDTO dto) {
 
         // 1. Validate bắt buộc
@@ -69,6 +76,8 @@ public class MaterialService {
 
         // 4. Save
         Material saved = materialRepository.save(material);
+        materialCatalog.registerAfterCommit(saved);
+        eventPublisher.publishEvent(StockChangedEvent.of(List.of(saved.getId()), "MATERIAL_CREATED"));
 
         // 5. Trả DTO
         MaterialDTO res = new MaterialDTO();
@@ -93,7 +102,7 @@ public class MaterialService {
 
     public MaterialFeedResponseDTO getMaterialFeed(Long userId, Long afterId, Integer limit) {
         try {
-            User u = userRepository.findById(userId)
+            User u = currentUserContext.findUser(userId)
                     .orElseThrow(() -> new RuntimeException("User không tồn tại"));
             if (!u.isApproved()) {
                 throw new RuntimeException("Tài khoản chưa được kích hoạt");
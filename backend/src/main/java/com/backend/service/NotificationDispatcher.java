@@ -0,0 +1,208 @@
+package com.backend.service;
+
+import com.backend.entity.Notification;
+import com.backend.entity.NotificationEntity;
+import com.backend.entity.NotificationEvent;
+import com.backend.event.NotificationRequestedEvent;
+import com.backend.repository.NotificationEntityRepository;
+import com.backend.repository.NotificationEventRepository;
+import com.backend.repository.NotificationRepository;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.event.TransactionPhase;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Ghi thông báo (notifications + notification_recipients) sau khi transaction nghiệp vụ commit.
+ *
+ * - Nhận {@link NotificationRequestedEvent} ở AFTER_COMMIT rồi đẩy vào hàng đợi có giới hạn;
+ *   luồng duyệt / xuất kho không chờ ghi thông báo. Rollback => không có thông báo.
+ * - Worker ghi mỗi thông báo trong transaction riêng; người nhận được insert bằng JDBC batch.
+ * - Hàng đợi đầy: chạy luôn ở luồng gọi (back-pressure, không bỏ thông báo).
+ */
+@Slf4j
+@Component
+public class NotificationDispatcher {
+
+    private static final int RECIPIENT_BATCH_SIZE = 500;
+
+    private static final String INSERT_RECIPIENT =
+            "INSERT INTO notification_recipients(notification_id, user_id, is_read, created_at) VALUES (?, ?, FALSE, ?)";
+
+    private final NotificationRepository notificationRepository;
+    private final NotificationEntityRepository notificationEntityRepository;
+    private final NotificationEventRepository notificationEventRepository;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final NotificationUnreadCounter unreadCounter;
+    private final NotificationStreamService streamService;
+
+    private final ThreadPoolExecutor executor;
+    private final BlockingQueue<Runnable> queue;
+
+    private final Map<String, Long> entityTypeIds = new ConcurrentHashMap<>();
+    private final Map<String, Long> eventTypeIds = new ConcurrentHashMap<>();
+
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong callerRuns = new AtomicLong();
+    private final AtomicLong recipientsWritten = new AtomicLong();
+    private volatile long lastLagMillis;
+    private volatile long maxLagMillis;
+
+    public NotificationDispatcher(NotificationRepository notificationRepository,
+                                  NotificationEntityRepository notificationEntityRepository,
+                                  NotificationEventRepository notificationEventRepository,
+                                  JdbcTemplate jdbcTemplate,
+                                  PlatformTransactionManager transactionManager,
+                                  NotificationUnreadCounter unreadCounter,
+                                  NotificationStreamService streamService,
+                                  @Value("${medventory.notifications.dispatch-threads:2}") int threads,
+                                  @Value("${medventory.notifications.queue-capacity:1000}") int queueCapacity) {
+        this.notificationRepository = notificationRepository;
+        this.notificationEntityRepository = notificationEntityRepository;
+        this.notificationEventRepository = notificationEventRepository;
+        this.jdbcTemplate = jdbcTemplate;
+        // Luôn mở transaction mới: khi hàng đợi đầy, job chạy ngay trong callback AFTER_COMMIT của
+        // transaction nghiệp vụ — REQUIRED sẽ nhập vào transaction đã commit và không ghi được gì.
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.unreadCounter = unreadCounter;
+        this.streamService = streamService;
+
+        AtomicInteger seq = new AtomicInteger();
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, queueCapacity));
+        this.executor = new ThreadPoolExecutor(
+                Math.max(1, threads), Math.max(1, threads),
+                60, TimeUnit.SECONDS,
+                queue,
+                r -> {
+                    Thread t = new Thread(r, "notif-dispatch-" + seq.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                },
+                (r, ex) -> {
+                    callerRuns.incrementAndGet();
+                    if (!ex.isShutdown()) r.run();
+                });
+    }
+
+    @TransactionalEventListener(phase = TransactionPhase.AFTER_COMMIT, fallbackExecution = true)
+    public void onNotificationRequested(NotificationRequestedEvent event) {
+        if (event == null || event.userIds().isEmpty()) return;
+        submitted.incrementAndGet();
+        executor.execute(new Job(event));
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("queueDepth", queue.size());
+        stats.put("queueCapacity", queue.size() + queue.remainingCapacity());
+        stats.put("activeWorkers", executor.getActiveCount());
+        stats.put("oldestQueuedMillis", oldestQueuedMillis());
+        stats.put("lastLagMillis", lastLagMillis);
+        stats.put("maxLagMillis", maxLagMillis);
+        stats.put("submitted", submitted.get());
+        stats.put("completed", completed.get());
+        stats.put("failed", failed.get());
+        stats.put("callerRuns", callerRuns.get());
+        stats.put("recipientsWritten", recipientsWritten.get());
+        stats.put("streamSubscribers", streamService.subscriberCount());
+        stats.put("streamSlowDropped", streamService.slowDroppedCount());
+        stats.put("streamFailedDropped", streamService.failedDroppedCount());
+        return stats;
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        executor.shutdown();
+        if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+            log.warn("Notification dispatcher stopped with {} queued notifications", queue.size());
+        }
+    }
+
+    // ---------------------------------------------------------------------
+
+    private long oldestQueuedMillis() {
+        Runnable head = queue.peek();
+        return head instanceof Job job ? System.currentTimeMillis() - job.event.requestedAt() : 0L;
+    }
+
+    private void write(NotificationRequestedEvent e) {
+        LocalDateTime createdAt = LocalDateTime.now();
+        Long notificationId = transactionTemplate.execute(status -> {
+            Notification n = new Notification();
+            n.setEntityType(notificationEntityRepository.getReferenceById(
+                    typeId(entityTypeIds, e.entityCode(), code -> notificationEntityRepository.findByCode(code)
+                            .map(NotificationEntity::getId)
+                            .orElseThrow(() -> new RuntimeException("Thiếu notification_entity code=" + code)))));
+            n.setEntityId(e.entityId());
+            n.setEventType(notificationEventRepository.getReferenceById(
+                    typeId(eventTypeIds, e.eventCode(), code -> notificationEventRepository.findByCode(code)
+                            .map(NotificationEvent::getId)
+                            .orElseThrow(() -> new RuntimeException("Thiếu notification_event code=" + code)))));
+            n.setTitle(e.title());
+            n.setContent(e.content());
+            n.setCreatedAt(createdAt);
+            Long id = notificationRepository.saveAndFlush(n).getId();
+            Timestamp createdTs = Timestamp.valueOf(createdAt);
+
+            List<Long> userIds = e.userIds();
+            for (int from = 0; from < userIds.size(); from += RECIPIENT_BATCH_SIZE) {
+                List<Long> chunk = userIds.subList(from, Math.min(from + RECIPIENT_BATCH_SIZE, userIds.size()));
+                jdbcTemplate.batchUpdate(INSERT_RECIPIENT, chunk, chunk.size(), (ps, userId) -> {
+                    ps.setLong(1, id);
+                    ps.setLong(2, userId);
+                    ps.setTimestamp(3, createdTs);
+                });
+            }
+            return id;
+        });
+        recipientsWritten.addAndGet(e.userIds().size());
+        unreadCounter.added(e.userIds());
+        streamService.publish(notificationId, e, createdAt);
+    }
+
+    private static Long typeId(Map<String, Long> cache, String code, Function<String, Long> loader) {
+        return cache.computeIfAbsent(code, loader);
+    }
+
+    private final class Job implements Runnable {
+        private final NotificationRequestedEvent event;
+
+        private Job(NotificationRequestedEvent event) {
+            this.event = event;
+        }
+
+        @Override
+        public void run() {
+            long lag = System.currentTimeMillis() - event.requestedAt();
+            lastLagMillis = lag;
+            if (lag > maxLagMillis) maxLagMillis = lag;
+
+            try {
+                write(event);
+                completed.incrementAndGet();
+            } catch (Exception ex) {
+                failed.incrementAndGet();
+                log.warn("Failed to write notification {} #{} ({}) for {} recipients",
+                        event.entityCode(), event.entityId(), event.eventCode(), event.userIds().size(), ex);
+            }
+        }
+    }
+}
@@ -0,0 +1,222 @@
+package com.backend.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Dọn bảng thông báo "nóng": chuyển sang bảng lưu trữ theo từng lô nhỏ (mỗi lô 1 transaction).
+ *
+ * - Dòng người nhận ĐÃ ĐỌC có read_at quá {@code read-days} ngày => notification_recipient_archive
+ *   (thông báo tương ứng được chép sang notification_archive nếu chưa có).
+ * - Thông báo quá hạn không còn người nhận "nóng" => xoá khỏi notifications (đã có bản lưu trữ).
+ * - Dòng chưa đọc không bao giờ bị chuyển: bộ đếm chưa đọc và hộp thư không đổi.
+ *
+ * - Dòng đã đọc từ trước khi có read_at: tính tuổi theo created_at.
+ *
+ * Chạy định kỳ (@Scheduled) theo {@code interval-hours}; admin có thể chạy tay.
+ */
+@Slf4j
+@Component
+public class NotificationRetentionService {
+
+    private static final String SELECT_EXPIRED_READ = """
+            SELECT notification_id, user_id FROM notification_recipients
+            WHERE is_read = TRUE AND COALESCE(read_at, created_at) < ?
+            ORDER BY COALESCE(read_at, created_at), notification_id, user_id
+            LIMIT ?
+            """;
+
+    private static final String COPY_NOTIFICATION = """
+            INSERT INTO notification_archive(id, entity_type_id, entity_id, event_type_id, title, content,
+                                             created_at, created_by, archived_at)
+            SELECT n.id, n.entity_type_id, n.entity_id, n.event_type_id, n.title, n.content,
+                   n.created_at, n.created_by, ?
+            FROM notifications n
+            WHERE n.id = ? AND NOT EXISTS (SELECT 1 FROM notification_archive a WHERE a.id = n.id)
+            """;
+
+    private static final String COPY_RECIPIENT = """
+            INSERT INTO notification_recipient_archive(notification_id, user_id, is_read, read_at, created_at, archived_at)
+            SELECT r.notification_id, r.user_id, r.is_read, r.read_at, r.created_at, ?
+            FROM notification_recipients r
+            WHERE r.notification_id = ? AND r.user_id = ? AND r.is_read = TRUE
+            """;
+
+    private static final String DELETE_RECIPIENT =
+            "DELETE FROM notification_recipients WHERE notification_id = ? AND user_id = ? AND is_read = TRUE";
+
+    private static final String SELECT_EXPIRED_ORPHANS = """
+            SELECT n.id FROM notifications n
+            WHERE n.created_at < ?
+              AND NOT EXISTS (SELECT 1 FROM notification_recipients r WHERE r.notification_id = n.id)
+            ORDER BY n.id
+            LIMIT ?
+            """;
+
+    private static final String DELETE_ORPHAN = """
+            DELETE FROM notifications
+            WHERE id = ?
+              AND NOT EXISTS (SELECT 1 FROM notification_recipients r WHERE r.notification_id = notifications.id)
+            """;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final int readDays;
+    private final int batchSize;
+    private final int maxBatchesPerRun;
+    private final boolean enabled;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    private final AtomicLong runs = new AtomicLong();
+    private final AtomicLong recipientsArchived = new AtomicLong();
+    private final AtomicLong notificationsArchived = new AtomicLong();
+    private volatile LocalDateTime lastRunAt;
+    private volatile long lastRunMillis;
+    private volatile String lastError;
+
+    public NotificationRetentionService(JdbcTemplate jdbcTemplate,
+                                        PlatformTransactionManager transactionManager,
+                                        @Value("${medventory.notifications.retention.enabled:true}") boolean enabled,
+                                        @Value("${medventory.notifications.retention.read-days:90}") int readDays,
+                                        @Value("${medventory.notifications.retention.batch-size:1000}") int batchSize,
+                                        @Value("${medventory.notifications.retention.max-batches-per-run:500}") int maxBatchesPerRun) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.enabled = enabled;
+        this.readDays = Math.max(1, readDays);
+        this.batchSize = Math.max(1, batchSize);
+        this.maxBatchesPerRun = Math.max(1, maxBatchesPerRun);
+    }
+
+    /** Chạy 1 lượt với hạn mặc định (read-days). */
+    public Map<String, Object> runOnce() {
+        return runOnce(LocalDateTime.now().minusDays(readDays));
+    }
+
+    /** Chạy 1 lượt: chuyển mọi dòng đã đọc có read_at trước {@code cutoff}. Lượt đang chạy => bỏ qua. */
+    public Map<String, Object> runOnce(LocalDateTime cutoff) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("cutoff", cutoff);
+        if (!running.compareAndSet(false, true)) {
+            result.put("skipped", "Đang có lượt lưu trữ khác chạy");
+            return result;
+        }
+        long started = System.currentTimeMillis();
+        try {
+            Timestamp cutoffTs = Timestamp.valueOf(cutoff);
+
+            long recipients = 0;
+            int batches = 0;
+            int moved;
+            do {
+                moved = transactionTemplate.execute(status -> archiveReadBatch(cutoffTs));
+                recipients += moved;
+                batches++;
+            } while (moved == batchSize && batches < maxBatchesPerRun);
+
+            long notifications = 0;
+            batches = 0;
+            do {
+                moved = transactionTemplate.execute(status -> archiveOrphanBatch(cutoffTs));
+                notifications += moved;
+                batches++;
+            } while (moved == batchSize && batches < maxBatchesPerRun);
+
+            recipientsArchived.addAndGet(recipients);
+            notificationsArchived.addAndGet(notifications);
+            lastError = null;
+
+            result.put("recipientsArchived", recipients);
+            result.put("notificationsArchived", notifications);
+            return result;
+        } catch (RuntimeException e) {
+            lastError = e.getMessage();
+            throw e;
+        } finally {
+            runs.incrementAndGet();
+            lastRunAt = LocalDateTime.now();
+            lastRunMillis = System.currentTimeMillis() - started;
+            running.set(false);
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("readDays", readDays);
+        stats.put("batchSize", batchSize);
+        stats.put("running", running.get());
+        stats.put("runs", runs.get());
+        stats.put("lastRunAt", lastRunAt);
+        stats.put("lastRunMillis", lastRunMillis);
+        stats.put("lastError", lastError);
+        stats.put("recipientsArchived", recipientsArchived.get());
+        stats.put("notificationsArchived", notificationsArchived.get());
+        stats.put("hotRecipients", jdbcTemplate.queryForObject("SELECT COUNT(1) FROM notification_recipients", Long.class));
+        stats.put("archivedRecipients", jdbcTemplate.queryForObject("SELECT COUNT(1) FROM notification_recipient_archive", Long.class));
+        return stats;
+    }
+
+    @Scheduled(initialDelayString = "PT10M",
+            fixedDelayString = "PT${medventory.notifications.retention.interval-hours:24}H")
+    public void runScheduled() {
+        if (!enabled) return;
+        try {
+            Map<String, Object> result = runOnce();
+            log.info("Notification retention: {}", result);
+        } catch (RuntimeException e) {
+            log.warn("Notification retention run failed", e);
+        }
+    }
+
+    // ---------------------------------------------------------------------
+
+    private int archiveReadBatch(Timestamp cutoff) {
+        List<long[]> keys = jdbcTemplate.query(SELECT_EXPIRED_READ,
+                (rs, i) -> new long[]{rs.getLong(1), rs.getLong(2)},
+                cutoff, batchSize);
+        if (keys.isEmpty()) return 0;
+
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        List<Long> notificationIds = keys.stream().map(k -> k[0]).distinct().toList();
+
+        jdbcTemplate.batchUpdate(COPY_NOTIFICATION, notificationIds, notificationIds.size(), (ps, id) -> {
+            ps.setTimestamp(1, now);
+            ps.setLong(2, id);
+        });
+        jdbcTemplate.batchUpdate(COPY_RECIPIENT, keys, keys.size(), (ps, k) -> {
+            ps.setTimestamp(1, now);
+            ps.setLong(2, k[0]);
+            ps.setLong(3, k[1]);
+        });
+        jdbcTemplate.batchUpdate(DELETE_RECIPIENT, keys, keys.size(), (ps, k) -> {
+            ps.setLong(1, k[0]);
+            ps.setLong(2, k[1]);
+        });
+        return keys.size();
+    }
+
+    private int archiveOrphanBatch(Timestamp cutoff) {
+        List<Long> ids = jdbcTemplate.queryForList(SELECT_EXPIRED_ORPHANS, Long.class, cutoff, batchSize);
+        if (ids.isEmpty()) return 0;
+
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        jdbcTemplate.batchUpdate(COPY_NOTIFICATION, ids, ids.size(), (ps, id) -> {
+            ps.setTimestamp(1, now);
+            ps.setLong(2, id);
+        });
+        jdbcTemplate.batchUpdate(DELETE_ORPHAN, ids, ids.size(), (ps, id) -> ps.setLong(1, id));
+        return ids.size();
+    }
+}
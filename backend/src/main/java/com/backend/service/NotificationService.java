@@ -4,11 +4,16 @@ import com.backend.dto.BasicResponseDTO;
 import com.backend.dto.NotificationDTO;
 import com.backend.dto.NotificationListResponseDTO;
 import com.backend.entity.*;
+import com.backend.event.NotificationRequestedEvent;
 import com.backend.repository.*;
 import lombok.RequiredArgsConstructor;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import java.time.LocalDateTime;
 import java.util.*;
@@ -27,16 +32,21 @@ public class NotificationService {
     private static final String EVT_REJECTED  = "REJECTED";
     private static final String EVT_SCHEDULED = "SCHEDULED";
 
-    private final UserRepository userRepository;
+    private final CurrentUserContext currentUserContext;
+    private final RecipientResolver recipientResolver;
+    private final NotificationUnreadCounter unreadCounter;
+    private final NotificationStreamService streamService;
 
     private final NotificationRepository notificationRepository;
     private final NotificationRecipientRepository recipientRepository;
+    private final NotificationRecipientArchiveRepository archiveRepository;
 
     private final NotificationEntityRepository notificationEntityRepository;
     private final NotificationEventRepository notificationEventRepository;
 
     private final IssueReqHeaderRepository issueReqHeaderRepository;
     private final RbacService rbacService;
+    private final ApplicationEventPublisher eventPublisher;
 
     // ===================== CREATE NOTIFICATIONS =====================
 
@@ -44,17 +54,10 @@ public class NotificationService {
         if (header == null) return;
 
         // CHỈ GỬI CHO LÃNH ĐẠO (Logic mới: Thủ kho không nhận thông báo tạo mới)
-        List<User> recipients = new ArrayList<>();
-
-        List<User> leaders = userRepository.findByRole_CodeAndStatus_Code("LANH_DAO", "APPROVED");
-        if (leaders != null) recipients.addAll(leaders);
-
         Long creatorId = header.getCreatedBy() != null ? header.getCreatedBy().getId() : null;
 
-        recipients = recipients.stream()
-                .filter(Objects::nonNull)
-                .filter(u -> creatorId == null || !u.getId().equals(creatorId)) // tránh tự gửi cho mình
-                .distinct()
+        List<Long> recipients = recipientResolver.approvedWithRole("LANH_DAO").stream()
+                .filter(id -> creatorId == null || !id.equals(creatorId)) // tránh tự gửi cho mình
                 .collect(Collectors.toList());
 
         if (recipients.isEmpty()) return;
@@ -64,7 +67,7 @@ public class NotificationService {
                 + (header.getCreatedBy() != null ? header.getCreatedBy().getFullName() : "cán bộ")
                 + ". Nội dung: " + safe(header.getNote());
 
-        createNotificationForUsers(
+        enqueueNotification(
                 ENTITY_ISSUE_REQ,
                 header.getId(),
                 EVT_PENDING,
@@ -79,23 +82,18 @@ public class NotificationService {
 
         User requester = header.getCreatedBy();
 
-        List<User> recipients = new ArrayList<>();
+        List<Long> recipients = new ArrayList<>();
 
         // 1. Luôn gửi cho người tạo (nếu tài khoản còn active)
         if (requester.isApproved()) {
-            recipients.add(requester);
+            recipients.add(requester.getId());
         }
 
         // 2. Logic mới: NẾU ĐƯỢC DUYỆT -> Gửi thêm cho THỦ KHO
         if (approved) {
-            List<User> storekeepers = userRepository.findByRole_CodeAndStatus_Code("THU_KHO", "APPROVED");
-            if (storekeepers != null) {
-                recipients.addAll(storekeepers);
-            }
+            recipients.addAll(recipientResolver.approvedWithRole("THU_KHO"));
         }
 
-        recipients = recipients.stream().distinct().collect(Collectors.toList());
-
         if (recipients.isEmpty()) return;
 
         String title = "Phiếu xin lĩnh #" + header.getId() + (approved ? " đã được phê duyệt" : " bị từ chối");
@@ -107,7 +105,7 @@ public class NotificationService {
                     : "Phiếu đã bị từ chối phê duyệt.";
         }
 
-        createNotificationForUsers(
+        enqueueNotification(
                 ENTITY_ISSUE_REQ,
                 header.getId(),
                 approved ? EVT_APPROVED : EVT_REJECTED,
@@ -124,13 +122,13 @@ public class NotificationService {
         User requester = header.getCreatedBy();
         if (!requester.isApproved()) return;
 
-        createNotificationForUsers(
+        enqueueNotification(
                 ENTITY_ISSUE_REQ,
                 header.getId(),
                 EVT_PENDING,
                 "Phiếu xin lĩnh #" + header.getId() + " cần điều chỉnh",
                 safe(note),
-                List.of(requester)
+                List.of(requester.getId())
         );
     }
     // ---------------------------------------------
@@ -184,10 +182,7 @@ public class NotificationService {
     public void notifyBghForSuppForecastApproval(SuppForecastHeader header) {
         if (header == null) return;
 
-        List<User> approvers = userRepository.findAll().stream()
-                .filter(User::isApproved)
-                .filter(u -> rbacService.hasPermission(u, RbacService.PERM_SUPP_FORECAST_APPROVE))
-                .toList();
+        List<Long> approvers = recipientResolver.approvedWithPermission(RbacService.PERM_SUPP_FORECAST_APPROVE);
 
         if (approvers.isEmpty()) return;
 
@@ -195,7 +190,7 @@ public class NotificationService {
         String content = "Có phiếu dự trù mới (" + safe(header.getAcademicYear()) + ")"
                 + (header.getDepartment() != null ? (" từ " + safe(header.getDepartment().getName())) : "");
 
-        createNotificationForUsers(
+        enqueueNotification(
                 ENTITY_SUPP_FORECAST,
                 header.getId(),
                 EVT_PENDING,
@@ -208,16 +203,12 @@ public class NotificationService {
     public void notifySuppForecastResult(SuppForecastHeader header, boolean approved, String note) {
         if (header == null) return;
 
-        List<User> recipients = new ArrayList<>();
+        List<Long> recipients = new ArrayList<>();
 
         if (header.getCreatedBy() != null && header.getCreatedBy().isApproved()) {
-            recipients.add(header.getCreatedBy());
-        } else if (header.getDepartment() != null && header.getDepartment().getId() != null) {
-            recipients.addAll(
-                    userRepository.findByDepartmentId(header.getDepartment().getId()).stream()
-                            .filter(User::isApproved)
-                            .toList()
-            );
+            recipients.add(header.getCreatedBy().getId());
+        } else if (header.getDepartment() != null) {
+            recipients.addAll(recipientResolver.approvedInDepartment(header.getDepartment().getId()));
         }
 
         if (recipients.isEmpty()) return;
@@ -229,7 +220,7 @@ public class NotificationService {
             content = approved ? "Phiếu dự trù đã được duyệt." : "Phiếu dự trù đã bị từ chối.";
         }
 
-        createNotificationForUsers(
+        enqueueNotification(
                 ENTITY_SUPP_FORECAST,
                 header.getId(),
                 approved ? EVT_APPROVED : EVT_REJECTED,
@@ -239,6 +230,21 @@ public class NotificationService {
         );
     }
 
+    /**
+     * Thông báo ghi bất đồng bộ sau commit (NotificationDispatcher): transaction duyệt / xuất kho
+     * không phải chờ insert người nhận. Id trùng được loại trong event.
+     */
+    private void enqueueNotification(String entityCode,
+                                     Long entityId,
+                                     String eventCode,
+                                     String title,
+                                     String content,
+                                     List<Long> userIds) {
+        eventPublisher.publishEvent(
+                NotificationRequestedEvent.of(entityCode, entityId, eventCode, title, content, userIds));
+    }
+
+    /** Ghi đồng bộ — dùng khi cần trả id thông báo ngay cho client (hẹn lịch). */
     private Notification createNotificationForUsers(String entityCode,
                                                     Long entityId,
                                                     String eventCode,
@@ -272,14 +278,34 @@ public class NotificationService {
         }
         recipientRepository.saveAll(recs);
 
+        List<Long> userIds = users.stream().map(User::getId).toList();
+        Long notificationId = n.getId();
+        LocalDateTime createdAt = n.getCreatedAt();
+        NotificationRequestedEvent pushed =
+                NotificationRequestedEvent.of(entityCode, entityId, eventCode, title, content, userIds);
+        AfterCommit.run(() -> {
+            unreadCounter.added(userIds);
+            streamService.publish(notificationId, pushed, createdAt);
+        });
+
         return n;
     }
 
     // ===================== READ NOTIFICATIONS =====================
 
+    /** Mở kết nối SSE nhận thông báo mới (thay cho polling /my). */
+    @Transactional(readOnly = true)
+    public SseEmitter subscribe(Long userId, Long lastEventId) {
+        User u = currentUserContext.findUser(userId)
+                .orElseThrow(() -> new SecurityException("User không tồn tại"));
+        if (!u.isApproved()) throw new SecurityException("Tài khoản chưa kích hoạt");
+
+        return streamService.subscribe(userId, lastEventId);
+    }
+
     public NotificationListResponseDTO getMyNotifications(Long userId, boolean unreadOnly, Integer page, Integer size) {
         try {
-            User u = userRepository.findById(userId)
+            User u = currentUserContext.findUser(userId)
                     .orElseThrow(() -> new RuntimeException("User không tồn tại"));
             if (!u.isApproved()) throw new RuntimeException("Tài khoản chưa kích hoạt");
 
@@ -289,14 +315,14 @@ public class NotificationService {
             var pageable = PageRequest.of(p, s);
 
             var dataPage = unreadOnly
-                    ? recipientRepository.findByUser_IdAndIsReadFalseOrderByNotification_CreatedAtDesc(userId, pageable)
-                    : recipientRepository.findByUser_IdOrderByNotification_CreatedAtDesc(userId, pageable);
+                    ? recipientRepository.findByUser_IdAndIsReadFalseOrderByCreatedAtDesc(userId, pageable)
+                    : recipientRepository.findByUser_IdOrderByCreatedAtDesc(userId, pageable);
 
             List<NotificationDTO> items = dataPage.getContent().stream()
-                    .map(this::toDTO)
+                    .map(NotificationService::toDTO)
                     .toList();
 
-            long unreadCount = recipientRepository.countByUser_IdAndIsReadFalse(userId);
+            long unreadCount = unreadCounter.get(userId);
 
             Map<String, Object> summary = new HashMap<>();
             summary.put("page", p);
@@ -312,18 +338,125 @@ public class NotificationService {
         }
     }
 
-    public BasicResponseDTO markAsRead(Long userId, Long notificationId) {
+    /**
+     * Hộp thư phân trang keyset: {@code cursor} (opaque) = vị trí (createdAt, notificationId)
+     * của dòng cuối trang trước; null => trang đầu. Trang sâu tốn như trang đầu (không OFFSET).
+     */
+    @Transactional(readOnly = true)
+    public NotificationListResponseDTO getMyNotificationsFeed(Long userId, boolean unreadOnly, String cursor, Integer size) {
         try {
-            NotificationRecipient r = recipientRepository.findByNotification_IdAndUser_Id(notificationId, userId)
-                    .orElseThrow(() -> new RuntimeException("Thông báo không tồn tại hoặc không thuộc về bạn"));
+            User u = currentUserContext.findUser(userId)
+                    .orElseThrow(() -> new RuntimeException("User không tồn tại"));
+            if (!u.isApproved()) throw new RuntimeException("Tài khoản chưa kích hoạt");
 
-            if (Boolean.TRUE.equals(r.getIsRead())) {
-                return BasicResponseDTO.ok("Thông báo đã ở trạng thái đã đọc", Map.of("id", notificationId));
+            int s = (size == null || size <= 0) ? 20 : Math.min(size, 100);
+
+            KeysetCursor before = KeysetCursor.decodeOrFirst(cursor);
+            LocalDateTime beforeAt = before.at();
+            Long beforeId = before.id();
+
+            // lấy thêm 1 dòng để biết còn trang sau
+            var pageable = PageRequest.of(0, s + 1);
+            List<NotificationRecipient> rows = unreadOnly
+                    ? recipientRepository.findUnreadInboxBefore(userId, beforeAt, beforeId, pageable)
+                    : recipientRepository.findInboxBefore(userId, beforeAt, beforeId, pageable);
+
+            boolean hasMore = rows.size() > s;
+            if (hasMore) rows = rows.subList(0, s);
+
+            List<NotificationDTO> items = rows.stream()
+                    .map(NotificationService::toDTO)
+                    .toList();
+
+            String nextCursor = null;
+            if (hasMore) {
+                NotificationRecipient last = rows.get(rows.size() - 1);
+                nextCursor = new KeysetCursor(last.getCreatedAt(), last.getId().getNotificationId()).encode();
+            }
+
+            Map<String, Object> summary = new HashMap<>();
+            summary.put("size", s);
+            summary.put("hasMore", hasMore);
+            summary.put("nextCursor", nextCursor);
+            summary.put("unreadCount", unreadCounter.get(userId));
+
+            return NotificationListResponseDTO.success("Lấy danh sách thông báo thành công", items, summary);
+
+        } catch (Exception e) {
+            return NotificationListResponseDTO.error("Không thể lấy thông báo: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Lịch sử thông báo đã lưu trữ (đã đọc, quá hạn giữ) — chỉ đọc khi user mở xem,
+     * cùng kiểu cursor với {@link #getMyNotificationsFeed}.
+     */
+    @Transactional(readOnly = true)
+    public NotificationListResponseDTO getMyArchivedNotifications(Long userId, String cursor, Integer size) {
+        try {
+            User u = currentUserContext.findUser(userId)
+                    .orElseThrow(() -> new RuntimeException("User không tồn tại"));
+            if (!u.isApproved()) throw new RuntimeException("Tài khoản chưa kích hoạt");
+
+            int s = (size == null || size <= 0) ? 20 : Math.min(size, 100);
+
+            KeysetCursor before = KeysetCursor.decodeOrFirst(cursor);
+            LocalDateTime beforeAt = before.at();
+            Long beforeId = before.id();
+
+            List<NotificationRecipientArchive> rows =
+                    archiveRepository.findArchiveBefore(userId, beforeAt, beforeId, PageRequest.of(0, s + 1));
+
+            boolean hasMore = rows.size() > s;
+            if (hasMore) rows = rows.subList(0, s);
+
+            List<NotificationDTO> items = rows.stream()
+                    .map(NotificationService::toDTO)
+                    .toList();
+
+            String nextCursor = null;
+            if (hasMore) {
+                NotificationRecipientArchive last = rows.get(rows.size() - 1);
+                nextCursor = new KeysetCursor(last.getCreatedAt(), last.getId().getNotificationId()).encode();
             }
 
-            r.setIsRead(true);
-            r.setReadAt(LocalDateTime.now());
-            recipientRepository.save(r);
+            Map<String, Object> summary = new HashMap<>();
+            summary.put("size", s);
+            summary.put("hasMore", hasMore);
+            summary.put("nextCursor", nextCursor);
+
+            return NotificationListResponseDTO.success("Lấy lịch sử thông báo thành công", items, summary);
+
+        } catch (Exception e) {
+            return NotificationListResponseDTO.error("Không thể lấy lịch sử thông báo: " + e.getMessage());
+        }
+    }
+
+    /** Số thông báo chưa đọc cho chuông (đọc từ bộ đếm trong bộ nhớ). */
+    @Transactional(readOnly = true)
+    public BasicResponseDTO getUnreadCount(Long userId) {
+        try {
+            User u = currentUserContext.findUser(userId)
+                    .orElseThrow(() -> new RuntimeException("User không tồn tại"));
+            if (!u.isApproved()) throw new RuntimeException("Tài khoản chưa kích hoạt");
+
+            return BasicResponseDTO.ok("OK", Map.of("unreadCount", unreadCounter.get(userId)));
+
+        } catch (Exception e) {
+            return BasicResponseDTO.error("Không thể lấy số thông báo chưa đọc: " + e.getMessage());
+        }
+    }
+
+    public BasicResponseDTO markAsRead(Long userId, Long notificationId) {
+        try {
+            int updated = recipientRepository.markRead(notificationId, userId, LocalDateTime.now());
+            if (updated == 0) {
+                if (recipientRepository.findByNotification_IdAndUser_Id(notificationId, userId).isEmpty()) {
+                    throw new RuntimeException("Thông báo không tồn tại hoặc không thuộc về bạn");
+                }
+                return BasicResponseDTO.ok("Thông báo đã ở trạng thái đã đọc", Map.of("id", notificationId));
+            }
+            AfterCommit.run(() -> unreadCounter.markedRead(userId, updated));
 
             return BasicResponseDTO.ok("Đánh dấu đã đọc thành công", Map.of("id", notificationId));
 
@@ -334,28 +467,21 @@ public class NotificationService {
 
     public BasicResponseDTO markAllAsRead(Long userId) {
         try {
-            User u = userRepository.findById(userId)
+            User u = currentUserContext.findUser(userId)
                     .orElseThrow(() -> new RuntimeException("User không tồn tại"));
             if (!u.isApproved()) throw new RuntimeException("Tài khoản chưa kích hoạt");
 
-            var page = recipientRepository.findByUser_IdAndIsReadFalseOrderByNotification_CreatedAtDesc(
-                    userId, PageRequest.of(0, 500)
-            );
-
-            for (NotificationRecipient r : page.getContent()) {
-                r.setIsRead(true);
-                r.setReadAt(LocalDateTime.now());
-            }
-            recipientRepository.saveAll(page.getContent());
+            int updated = recipientRepository.markAllRead(userId, LocalDateTime.now());
+            AfterCommit.run(() -> unreadCounter.allRead(userId));
 
-            return BasicResponseDTO.ok("Đánh dấu tất cả đã đọc", Map.of("count", page.getNumberOfElements()));
+            return BasicResponseDTO.ok("Đánh dấu tất cả đã đọc", Map.of("count", updated));
 
         } catch (Exception e) {
             return BasicResponseDTO.error("Không thể đánh dấu tất cả: " + e.getMessage());
         }
     }
 
-    private NotificationDTO toDTO(NotificationRecipient r) {
+    static NotificationDTO toDTO(NotificationRecipient r) {
         Notification n = r.getNotification();
 
         NotificationDTO dto = new NotificationDTO();
@@ -376,14 +502,30 @@ public class NotificationService {
         return dto;
     }
 
-    private int entityCodeToInt(String code) {
+    static NotificationDTO toDTO(NotificationRecipientArchive r) {
+        NotificationArchive n = r.getNotification();
+
+        NotificationDTO dto = new NotificationDTO();
+        dto.setId(n.getId());
+        dto.setEntityType(entityCodeToInt(n.getEntityType() != null ? n.getEntityType().getCode() : null));
+        dto.setEntityId(n.getEntityId());
+        dto.setEventType(eventCodeToInt(n.getEventType() != null ? n.getEventType().getCode() : null));
+        dto.setTitle(n.getTitle());
+        dto.setContent(n.getContent());
+        dto.setIsRead(r.getIsRead());
+        dto.setCreatedAt(n.getCreatedAt());
+        dto.setReadAt(r.getReadAt());
+        return dto;
+    }
+
+    static int entityCodeToInt(String code) {
         if (code == null) return 0;
         if (ENTITY_ISSUE_REQ.equalsIgnoreCase(code)) return 0;
         if (ENTITY_SUPP_FORECAST.equalsIgnoreCase(code)) return 1;
         return 0;
     }
 
-    private int eventCodeToInt(String code) {
+    static int eventCodeToInt(String code) {
         if (code == null) return 0;
         String c = code.trim().toUpperCase();
         if (EVT_APPROVED.equals(c)) return 1;
@@ -395,4 +537,12 @@ public class NotificationService {
     private String safe(String s) {
         return s == null ? "" : s.trim();
     }
+
+    /** Dòng nhận thông báo cũ (trước khi có cột created_at) được gán thời gian từ notifications. */
+    @EventListener(ApplicationReadyEvent.class)
+    public void backfillRecipientTimesOnStartup() {
+        if (recipientRepository.existsByCreatedAtIsNull()) {
+            recipientRepository.backfillCreatedAt();
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,268 @@
+package com.backend.service;
+
+import com.backend.dto.NotificationDTO;
+import com.backend.event.NotificationRequestedEvent;
+import com.backend.repository.NotificationRecipientRepository;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Đẩy thông báo mới tới client qua Server-Sent Events thay cho polling /my.
+ *
+ * - Mỗi kết nối là 1 {@link SseEmitter} (async servlet): kết nối rảnh không giữ thread.
+ * - id của event SSE = notification id (tăng dần). Client kết nối lại gửi Last-Event-ID
+ *   => phát lại các thông báo bị lỡ (tối đa REPLAY_LIMIT) trước khi nhận tiếp.
+ * - Heartbeat (comment SSE) định kỳ để giữ kết nối qua proxy và dọn kết nối chết.
+ * - Kết nối có thời hạn (stream-timeout); client tự nối lại bằng Last-Event-ID.
+ * - Ghi ra socket chạy trên pool riêng, tuần tự theo từng kết nối (hàng đợi nhỏ / kết nối):
+ *   heartbeat và publish không bao giờ chờ client. Client chậm (ghi treo quá send-timeout
+ *   hoặc hàng đợi đầy) bị ngắt, client tự nối lại và nhận bù bằng Last-Event-ID.
+ */
+@Slf4j
+@Component
+public class NotificationStreamService {
+
+    private static final int REPLAY_LIMIT = 100;
+    private static final int MAX_CONNECTIONS_PER_USER = 10;
+    /** Số event chờ gửi tối đa / kết nối (>= REPLAY_LIMIT để phát lại không làm rớt kết nối). */
+    private static final int OUTBOX_LIMIT = REPLAY_LIMIT + 50;
+
+    private final NotificationRecipientRepository recipientRepository;
+    private final long streamTimeoutMillis;
+    private final long sendTimeoutMillis;
+
+    private final Map<Long, Set<Connection>> byUser = new ConcurrentHashMap<>();
+    private final ExecutorService sender;
+
+    private final AtomicLong slowDropped = new AtomicLong();
+    private final AtomicLong failedDropped = new AtomicLong();
+
+    public NotificationStreamService(NotificationRecipientRepository recipientRepository,
+                                     @Value("${medventory.notifications.stream-timeout-minutes:30}") long timeoutMinutes,
+                                     @Value("${medventory.notifications.stream-send-timeout-seconds:10}") long sendTimeoutSeconds,
+                                     @Value("${medventory.notifications.stream-send-threads:4}") int senderThreads) {
+        this.recipientRepository = recipientRepository;
+        this.streamTimeoutMillis = TimeUnit.MINUTES.toMillis(Math.max(1, timeoutMinutes));
+        this.sendTimeoutMillis = TimeUnit.SECONDS.toMillis(Math.max(1, sendTimeoutSeconds));
+
+        AtomicInteger seq = new AtomicInteger();
+        this.sender = Executors.newFixedThreadPool(Math.max(1, senderThreads), r -> {
+            Thread t = new Thread(r, "notif-sse-send-" + seq.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Mở kết nối cho user; {@code lastEventId} != null => phát lại thông báo có id lớn hơn.
+     */
+    @Transactional(readOnly = true)
+    public SseEmitter subscribe(Long userId, Long lastEventId) {
+        Connection conn = new Connection(userId, newEmitter(streamTimeoutMillis));
+
+        Connection[] evicted = new Connection[1];
+        byUser.compute(userId, (k, set) -> {
+            if (set == null) set = new CopyOnWriteArraySet<>();
+            if (set.size() >= MAX_CONNECTIONS_PER_USER) {
+                // quá nhiều tab: đóng kết nối cũ nhất
+                evicted[0] = set.iterator().next();
+                set.remove(evicted[0]);
+            }
+            set.add(conn);
+            return set;
+        });
+        if (evicted[0] != null) evicted[0].close();
+
+        Runnable remove = () -> unsubscribe(conn);
+        conn.emitter.onCompletion(remove);
+        conn.emitter.onTimeout(remove);
+        conn.emitter.onError(e -> remove.run());
+
+        conn.enqueue(SseEmitter.event().comment("connected"));
+        if (lastEventId != null) {
+            recipientRepository.findForReplay(userId, lastEventId, PageRequest.of(0, REPLAY_LIMIT))
+                    .forEach(r -> conn.enqueue(notificationEvent(NotificationService.toDTO(r))));
+        }
+        return conn.emitter;
+    }
+
+    /** Gửi thông báo vừa commit tới các kết nối đang mở của người nhận (không chờ ghi socket). */
+    public void publish(Long notificationId, NotificationRequestedEvent e, LocalDateTime createdAt) {
+        if (byUser.isEmpty()) return;
+
+        NotificationDTO dto = new NotificationDTO();
+        dto.setId(notificationId);
+        dto.setEntityType(NotificationService.entityCodeToInt(e.entityCode()));
+        dto.setEntityId(e.entityId());
+        dto.setEventType(NotificationService.eventCodeToInt(e.eventCode()));
+        dto.setTitle(e.title());
+        dto.setContent(e.content());
+        dto.setIsRead(false);
+        dto.setCreatedAt(createdAt);
+
+        for (Long userId : e.userIds()) {
+            Set<Connection> connections = byUser.get(userId);
+            if (connections == null) continue;
+            for (Connection conn : connections) {
+                conn.enqueue(notificationEvent(dto));
+            }
+        }
+    }
+
+    public int subscriberCount() {
+        return byUser.values().stream().mapToInt(Set::size).sum();
+    }
+
+    /** Số kết nối đã ngắt vì client chậm (ghi treo / hàng đợi đầy). */
+    public long slowDroppedCount() {
+        return slowDropped.get();
+    }
+
+    /** Số kết nối đã ngắt vì ghi lỗi (client đóng kết nối). */
+    public long failedDroppedCount() {
+        return failedDropped.get();
+    }
+
+    /** Heartbeat: ngắt kết nối đang ghi treo quá send-timeout, còn lại xếp 1 comment "hb". */
+    @Scheduled(initialDelayString = "PT${medventory.notifications.heartbeat-seconds:25}S",
+            fixedRateString = "PT${medventory.notifications.heartbeat-seconds:25}S")
+    public void sendHeartbeat() {
+        long now = System.currentTimeMillis();
+        byUser.values().forEach(connections -> {
+            for (Connection conn : connections) {
+                if (conn.stalledSince(now) > sendTimeoutMillis) {
+                    slowDropped.incrementAndGet();
+                    drop(conn);
+                } else {
+                    conn.enqueue(SseEmitter.event().comment("hb"));
+                }
+            }
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        sender.shutdownNow();
+        byUser.values().forEach(set -> set.forEach(Connection::close));
+        byUser.clear();
+    }
+
+    /** Tạo emitter cho 1 kết nối (test thay bằng emitter ghi lại event). */
+    SseEmitter newEmitter(long timeoutMillis) {
+        return new SseEmitter(timeoutMillis);
+    }
+
+    // ---------------------------------------------------------------------
+
+    private static SseEmitter.SseEventBuilder notificationEvent(NotificationDTO dto) {
+        return SseEmitter.event()
+                .id(String.valueOf(dto.getId()))
+                .name("notification")
+                .data(dto, MediaType.APPLICATION_JSON);
+    }
+
+    private void unsubscribe(Connection conn) {
+        byUser.computeIfPresent(conn.userId, (k, set) -> {
+            set.remove(conn);
+            return set.isEmpty() ? null : set;
+        });
+    }
+
+    /**
+     * Bỏ kết nối khỏi danh sách ngay; đóng emitter trên pool gửi
+     * (emitter đang ghi treo sẽ giữ lock tới khi socket lỗi / timeout, không được chặn luồng gọi).
+     */
+    private void drop(Connection conn) {
+        unsubscribe(conn);
+        conn.outbox.clear();
+        try {
+            sender.execute(conn::close);
+        } catch (RejectedExecutionException ignored) {
+            // đang tắt ứng dụng
+        }
+    }
+
+    /** 1 kết nối SSE: hàng đợi event + cờ "đang có lượt gửi" để ghi tuần tự, không chồng luồng. */
+    private final class Connection {
+        private final Long userId;
+        private final SseEmitter emitter;
+        private final Queue<SseEmitter.SseEventBuilder> outbox = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger pending = new AtomicInteger();
+        private final AtomicBoolean draining = new AtomicBoolean();
+        private volatile long sendStartedAt;
+
+        private Connection(Long userId, SseEmitter emitter) {
+            this.userId = userId;
+            this.emitter = emitter;
+        }
+
+        void enqueue(SseEmitter.SseEventBuilder event) {
+            if (pending.incrementAndGet() > OUTBOX_LIMIT) {
+                slowDropped.incrementAndGet();
+                drop(this);
+                return;
+            }
+            outbox.add(event);
+            scheduleDrain();
+        }
+
+        /** Thời gian lượt ghi hiện tại đã treo (0 nếu không ghi). */
+        long stalledSince(long now) {
+            long started = sendStartedAt;
+            return started == 0 ? 0 : now - started;
+        }
+
+        private void scheduleDrain() {
+            if (!draining.compareAndSet(false, true)) return;
+            try {
+                sender.execute(this::drain);
+            } catch (RejectedExecutionException e) {
+                draining.set(false);
+            }
+        }
+
+        private void drain() {
+            try {
+                SseEmitter.SseEventBuilder event;
+                while ((event = outbox.poll()) != null) {
+                    pending.decrementAndGet();
+                    sendStartedAt = System.currentTimeMillis();
+                    emitter.send(event);
+                    sendStartedAt = 0;
+                }
+            } catch (IOException | IllegalStateException ex) {
+                sendStartedAt = 0;
+                failedDropped.incrementAndGet();
+                drop(this);
+                return;
+            } finally {
+                draining.set(false);
+            }
+            // event đến sau lần poll cuối nhưng trước khi nhả cờ
+            if (!outbox.isEmpty()) scheduleDrain();
+        }
+
+        void close() {
+            try {
+                emitter.complete();
+            } catch (RuntimeException ex) {
+                log.debug("Closing SSE emitter for user {} failed", userId, ex);
+            }
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.backend.service;
+
+import com.backend.repository.NotificationRecipientRepository;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Số thông báo chưa đọc theo user, giữ trong bộ nhớ cho chuông thông báo (đọc O(1)).
+ *
+ * - Lần đầu (hoặc sau RECOUNT_AFTER_MILLIS) đếm từ DB; sau đó cộng / trừ theo thay đổi đã commit
+ *   (ghi thông báo, đánh dấu đã đọc, đọc tất cả).
+ * - Đếm lại định kỳ để tự sửa lệch do thay đổi chen vào đúng lúc đang đếm.
+ */
+@Component
+@RequiredArgsConstructor
+public class NotificationUnreadCounter {
+
+    private static final long RECOUNT_AFTER_MILLIS = 5 * 60 * 1000L;
+
+    private final NotificationRecipientRepository recipientRepository;
+
+    private final Map<Long, Counter> counters = new ConcurrentHashMap<>();
+
+    private static final class Counter {
+        private final AtomicLong value;
+        private final long loadedAt;
+
+        private Counter(long value) {
+            this.value = new AtomicLong(value);
+            this.loadedAt = System.currentTimeMillis();
+        }
+    }
+
+    public long get(Long userId) {
+        if (userId == null) return 0L;
+        Counter c = counters.get(userId);
+        if (c == null || System.currentTimeMillis() - c.loadedAt > RECOUNT_AFTER_MILLIS) {
+            c = new Counter(recipientRepository.countByUser_IdAndIsReadFalse(userId));
+            counters.put(userId, c);
+        }
+        return Math.max(0L, c.value.get());
+    }
+
+    /** Đã commit thêm 1 thông báo chưa đọc cho từng user. */
+    public void added(Collection<Long> userIds) {
+        if (userIds == null) return;
+        for (Long id : userIds) {
+            Counter c = id == null ? null : counters.get(id);
+            if (c != null) c.value.incrementAndGet();
+        }
+    }
+
+    public void markedRead(Long userId, int count) {
+        Counter c = userId == null ? null : counters.get(userId);
+        if (c != null && count > 0) c.value.updateAndGet(v -> Math.max(0L, v - count));
+    }
+
+    public void allRead(Long userId) {
+        Counter c = userId == null ? null : counters.get(userId);
+        if (c != null) c.value.set(0L);
+    }
+
+    public void evict(Long userId) {
+        if (userId != null) counters.remove(userId);
+    }
+
+    public void evictAll() {
+        counters.clear();
+    }
+}
@@ -0,0 +1,143 @@
+package com.backend.service;
+
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache quyền hiệu lực theo user, dùng cho RbacService.hasPermission / requirePermission.
+ *
+ * - Mỗi permission code được gán 1 bit cố định (theo thứ tự gặp lần đầu); tập quyền của user
+ *   lưu dạng bitset bất biến ({@link PermissionSet}).
+ * - Entry gắn với version toàn cục + roleId lúc nạp. Mọi thay đổi role_permissions / user_permissions
+ *   tăng version (sau commit) => entry cũ tự hết hiệu lực; đổi role của user => roleId khác => nạp lại.
+ */
+@Component
+public class PermissionSetCache {
+
+    private final Map<String, Integer> bitByCode = new ConcurrentHashMap<>();
+    private final List<String> codeByBit = new CopyOnWriteArrayList<>();
+
+    private final Map<Long, Entry> byUserId = new ConcurrentHashMap<>();
+    private final AtomicLong version = new AtomicLong();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    private record Entry(long version, Long roleId, PermissionSet permissions) {}
+
+    /** Version hiện tại: lấy TRƯỚC khi đọc DB rồi truyền lại cho {@link #put}. */
+    public long currentVersion() {
+        return version.get();
+    }
+
+    /** Tập quyền đã cache, null nếu chưa có / đã hết hiệu lực. */
+    public PermissionSet get(Long userId, Long roleId) {
+        if (userId == null) return null;
+        Entry e = byUserId.get(userId);
+        if (e == null || e.version() != version.get() || !Objects.equals(e.roleId(), roleId)) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return e.permissions();
+    }
+
+    /**
+     * Lưu tập quyền đọc được ở {@code loadedAtVersion}.
+     * Nếu trong lúc đọc đã có thay đổi quyền, entry mang version cũ và bị bỏ qua ở lần get sau.
+     */
+    public PermissionSet put(Long userId, Long roleId, long loadedAtVersion, Collection<String> codes) {
+        PermissionSet set = encode(codes);
+        if (userId != null) byUserId.put(userId, new Entry(loadedAtVersion, roleId, set));
+        return set;
+    }
+
+    /**
+     * Gọi trong transaction thay đổi quyền: tăng version khi commit
+     * (tránh request khác cache lại dữ liệu chưa commit). Ngoài transaction thì tăng ngay.
+     */
+    public void invalidateAfterCommit() {
+        AfterCommit.run(this::invalidateAll);
+    }
+
+    public void invalidateAll() {
+        version.incrementAndGet();
+        byUserId.clear();
+    }
+
+    public Map<String, Object> getStats() {
+        long h = hits.get();
+        long m = misses.get();
+
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("users", byUserId.size());
+        stats.put("knownPermissionCodes", codeByBit.size());
+        stats.put("version", version.get());
+        stats.put("hits", h);
+        stats.put("misses", m);
+        stats.put("hitRatio", (h + m) == 0 ? 0.0 : (double) h / (h + m));
+        return stats;
+    }
+
+    // ---------------------------------------------------------------------
+
+    private PermissionSet encode(Collection<String> codes) {
+        BitSet bits = new BitSet();
+        if (codes != null) {
+            for (String c : codes) {
+                if (c != null) bits.set(bitOf(c));
+            }
+        }
+        return new PermissionSet(bits.toLongArray());
+    }
+
+    private int bitOf(String code) {
+        Integer bit = bitByCode.get(code);
+        if (bit != null) return bit;
+        synchronized (codeByBit) {
+            return bitByCode.computeIfAbsent(code, c -> {
+                codeByBit.add(c);
+                return codeByBit.size() - 1;
+            });
+        }
+    }
+
+    /** Tập quyền bất biến dạng bitset (long[] words, như {@link BitSet#toLongArray()}). */
+    public final class PermissionSet {
+        private final long[] words;
+
+        private PermissionSet(long[] words) {
+            this.words = words;
+        }
+
+        public boolean contains(String code) {
+            if (code == null) return false;
+            Integer bit = bitByCode.get(code);
+            if (bit == null) return false;
+            int w = bit >>> 6;
+            return w < words.length && (words[w] & (1L << bit)) != 0;
+        }
+
+        public boolean containsAny(String... codes) {
+            if (codes == null) return false;
+            for (String c : codes) {
+                if (contains(c)) return true;
+            }
+            return false;
+        }
+
+        /** Bản sao dạng Set<String> (caller được phép sửa). */
+        public Set<String> toCodes() {
+            Set<String> out = new HashSet<>();
+            BitSet bits = BitSet.valueOf(words);
+            for (int i = bits.nextSetBit(0); i >= 0; i = bits.nextSetBit(i + 1)) {
+                out.add(codeByBit.get(i));
+            }
+            return out;
+        }
+    }
+}
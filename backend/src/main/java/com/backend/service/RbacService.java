@@ -37,6 +37,9 @@ public class RbacService {
     @Autowired private PermissionRepository permissionRepository;
     @Autowired private RolePermissionRepository rolePermissionRepository;
     @Autowired private UserPermissionRepository userPermissionRepository;
+    @Autowired private PermissionSetCache permissionSetCache;
+    @Autowired private RecipientResolver recipientResolver;
+    @Autowired private CurrentUserContext currentUserContext;
 
     // ===== Default mapping =====
     private static final Map<String, List<String>> DEFAULT_ROLE_PERMS = Map.of(
@@ -50,7 +53,7 @@ public class RbacService {
     // ================= Public helpers for other services =================
 
     public User requireApprovedUser(Long userId) {
-        User u = userRepository.findById(userId)
+        User u = currentUserContext.findUser(userId)
                 .orElseThrow(() -> new SecurityException("User không tồn tại"));
 
         // BGH vào luôn; user khác phải approved
@@ -66,6 +69,30 @@ public class RbacService {
     }
 
     public Set<String> getEffectivePermissionCodes(User user) {
+        return effectivePermissions(user).toCodes();
+    }
+
+    /**
+     * Tập quyền hiệu lực qua cache (không query khi hit).
+     * Hết hiệu lực khi quyền role/user thay đổi hoặc user đổi role.
+     * Với người gọi API, tập quyền được giữ cố định trong suốt request.
+     */
+    private PermissionSetCache.PermissionSet effectivePermissions(User user) {
+        PermissionSetCache.PermissionSet inRequest = currentUserContext.cachedPermissions(user);
+        if (inRequest != null) return inRequest;
+
+        Long roleId = user.getRole() != null ? user.getRole().getId() : null;
+
+        PermissionSetCache.PermissionSet perms = permissionSetCache.get(user.getId(), roleId);
+        if (perms == null) {
+            long version = permissionSetCache.currentVersion();
+            perms = permissionSetCache.put(user.getId(), roleId, version, loadEffectivePermissionCodes(user));
+        }
+        currentUserContext.rememberPermissions(user, perms);
+        return perms;
+    }
+
+    private Set<String> loadEffectivePermissionCodes(User user) {
         Set<String> perms = new HashSet<>();
 
         boolean isSpecial = isSpecialUser(user.getId());
@@ -148,16 +175,12 @@ public class RbacService {
 
     public boolean hasPermission(User user, String permCode) {
         if (user == null) return false;
-        return getEffectivePermissionCodes(user).contains(permCode);
+        return effectivePermissions(user).contains(permCode);
     }
 
     public boolean hasAnyPermission(User user, String... permCodes) {
         if (user == null || permCodes == null || permCodes.length == 0) return false;
-        Set<String> eff = getEffectivePermissionCodes(user);
-        for (String p : permCodes) {
-            if (p != null && eff.contains(p)) return true;
-        }
-        return false;
+        return effectivePermissions(user).containsAny(permCodes);
     }
 
     public void requirePermission(User user, String permCode, String errorMessage) {
@@ -214,6 +237,12 @@ public class RbacService {
                 .collect(Collectors.toList());
     }
 
+    /** Thống kê cache quyền hiệu lực (hit / miss / version). */
+    public Map<String, Object> getPermissionCacheStats(String authorizationHeader) {
+        requirePermissionManage(authorizationHeader);
+        return permissionSetCache.getStats();
+    }
+
     public RolePermissionsResponseDTO getRolePermissions(String authorizationHeader, String roleCode) {
         requirePermissionManage(authorizationHeader);
 
@@ -269,6 +298,7 @@ public class RbacService {
             }
             rolePermissionRepository.saveAll(toSave);
         }
+        permissionsChanged();
 
         return getRolePermissions(authorizationHeader, rc);
     }
@@ -327,6 +357,7 @@ public class RbacService {
         for (Permission p : perms) {
             upsertUserPermission(target, p, "GRANT");
         }
+        permissionsChanged();
 
         return buildUserPermResponse(target);
     }
@@ -355,6 +386,7 @@ public class RbacService {
 
         // upsert GRANT
         upsertUserPermission(target, perm, "GRANT");
+        permissionsChanged();
 
         return buildUserPermResponse(target);
     }
@@ -385,6 +417,7 @@ public class RbacService {
         if (userPermissionRepository.existsById(id)) {
             userPermissionRepository.deleteById(id);
             userPermissionRepository.flush();
+            permissionsChanged();
         }
 
         return buildUserPermResponse(target);
@@ -400,6 +433,7 @@ public class RbacService {
         // xóa hết override (kể cả marker) => user quay về theo role_permissions
         userPermissionRepository.deleteByUserId(targetUserId);
         userPermissionRepository.flush();
+        permissionsChanged();
 
         return buildUserPermResponse(target);
     }
@@ -428,7 +462,8 @@ public class RbacService {
         dto.setRolePermissionCodes(sortUnique(rolePerms));
         dto.setUserGrantedPermissionCodes(filterOutMarker(grants));
         dto.setUserRevokedPermissionCodes(filterOutMarker(revokes));
-        dto.setEffectivePermissionCodes(sortUnique(new ArrayList<>(getEffectivePermissionCodes(target))));
+        // đọc thẳng DB: response trả về trong transaction vừa sửa quyền (cache chỉ hết hiệu lực sau commit)
+        dto.setEffectivePermissionCodes(sortUnique(new ArrayList<>(loadEffectivePermissionCodes(target))));
 
         return dto;
     }
@@ -439,8 +474,7 @@ public class RbacService {
         Long actorId = parseUserIdFromAuth(authorizationHeader);
         User actor = requireApprovedUser(actorId);
 
-        Set<String> effective = getEffectivePermissionCodes(actor);
-        if (!effective.contains(PERM_MANAGE)) {
+        if (!effectivePermissions(actor).contains(PERM_MANAGE)) {
             throw new SecurityException("Bạn không có quyền " + PERM_MANAGE);
         }
     }
@@ -489,4 +523,10 @@ public class RbacService {
                 .sorted()
                 .collect(Collectors.toList());
     }
+
+    /** Quyền đã đổi: tập quyền đã cache và danh sách người nhận thông báo theo quyền đều làm mới sau commit. */
+    private void permissionsChanged() {
+        permissionSetCache.invalidateAfterCommit();
+        recipientResolver.invalidateAfterCommit();
+    }
 }
@@ -0,0 +1,365 @@
+package com.backend.service;
+
+import com.backend.dto.BasicResponseDTO;
+import com.backend.dto.CreateReceiptDTO;
+import com.backend.dto.CreateReceiptDetailDTO;
+import com.backend.entity.Material;
+import com.backend.entity.ReceiptDetail;
+import com.backend.entity.ReceiptHeader;
+import com.backend.entity.User;
+import com.backend.event.StockChangedEvent;
+import com.backend.repository.MaterialRepository;
+import com.backend.repository.ReceiptHeaderRepository;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import lombok.RequiredArgsConstructor;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.interceptor.TransactionAspectSupport;
+
+import java.io.*;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+
+/**
+ * Nhập phiếu nhập kho từ file CSV (giao hàng lớn, hàng nghìn dòng).
+ *
+ * - Đọc file theo từng dòng (không nạp cả file), gom {@link #CHUNK_SIZE} dòng / lô.
+ * - Mỗi lô: tra vật tư theo code bằng 1 query, kiểm tra từng dòng, ghi chi tiết + thẻ kho qua
+ *   {@link ReceiptService#writeLines} (JDBC batch), rồi flush + clear để persistence context không phình.
+ * - Có dòng lỗi: vẫn đọc hết file để báo đủ lỗi (dòng số mấy, lỗi gì) và rollback — không nhập dở phiếu.
+ *
+ * Cột (dòng tiêu đề, không phân biệt hoa thường; phân cách , ; hoặc tab):
+ * materialCode, lotNumber, qtyActual, price [, qtyDoc, mfgDate, expDate] — ngày dạng yyyy-MM-dd hoặc dd/MM/yyyy.
+ */
+@Service
+@RequiredArgsConstructor
+@Transactional
+public class ReceiptImportService {
+
+    static final int CHUNK_SIZE = 500;
+    private static final int MAX_REPORTED_ERRORS = 200;
+
+    private static final DateTimeFormatter VN_DATE = DateTimeFormatter.ofPattern("d/M/yyyy");
+
+    private final ReceiptService receiptService;
+    private final ReceiptHeaderRepository receiptHeaderRepository;
+    private final MaterialRepository materialRepository;
+    private final MaterialCatalogCache materialCatalog;
+    private final CurrentUserContext currentUserContext;
+    private final RbacService rbacService;
+    private final ApplicationEventPublisher eventPublisher;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    public BasicResponseDTO importCsv(InputStream in, CreateReceiptDTO headerInfo, Long creatorId) {
+        long started = System.currentTimeMillis();
+        try {
+            User creator = currentUserContext.findUser(creatorId)
+                    .orElseThrow(() -> new RuntimeException("User không tồn tại"));
+
+            if (!creator.isApproved()) throw new RuntimeException("Tài khoản chưa được kích hoạt");
+            rbacService.requirePermission(creator, RbacService.PERM_RECEIPT_CREATE, "Bạn không có quyền tạo phiếu nhập");
+
+            if (headerInfo == null || safeTrim(headerInfo.getReceivedFrom()).isEmpty()) {
+                throw new RuntimeException("Nhà cung cấp/nguồn nhận hàng không được để trống");
+            }
+
+            ReceiptHeader header = receiptHeaderRepository.save(receiptService.newHeader(creator, headerInfo));
+            ImportState state = new ImportState(header.getId(), ReceiptService.warehouseName(headerInfo));
+
+            try (CsvReader csv = new CsvReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+                Columns cols = Columns.of(csv.next());
+
+                List<ParsedLine> chunk = new ArrayList<>(CHUNK_SIZE);
+                List<String> row;
+                while ((row = csv.next()) != null) {
+                    if (row.stream().allMatch(v -> v.isBlank())) continue;
+                    state.linesRead++;
+
+                    ParsedLine line = parseLine(row, cols, csv.lineNumber(), state);
+                    if (line != null) chunk.add(line);
+
+                    if (chunk.size() == CHUNK_SIZE) {
+                        processChunk(chunk, state);
+                        chunk.clear();
+                    }
+                }
+                processChunk(chunk, state);
+            }
+
+            if (state.errorCount > 0) {
+                TransactionAspectSupport.currentTransactionStatus().setRollbackOnly();
+
+                Map<String, Object> data = new LinkedHashMap<>();
+                data.put("linesRead", state.linesRead);
+                data.put("errorCount", state.errorCount);
+                data.put("errors", state.errors);
+                return new BasicResponseDTO(false,
+                        "File có " + state.errorCount + " dòng lỗi, chưa nhập dòng nào", data);
+            }
+            if (state.linesImported == 0) throw new RuntimeException("File không có dòng hàng");
+
+            ReceiptHeader saved = receiptHeaderRepository.findById(state.headerId)
+                    .orElseThrow(() -> new RuntimeException("Phiếu nhập không tồn tại"));
+            BigDecimal totalAmount = state.totalAmount.setScale(2, RoundingMode.HALF_UP);
+            saved.setTotalAmount(totalAmount);
+
+            eventPublisher.publishEvent(StockChangedEvent.of(state.materialIds, "RECEIPT"));
+
+            Map<String, Object> data = new LinkedHashMap<>();
+            data.put("receiptId", state.headerId);
+            data.put("linesImported", state.linesImported);
+            data.put("totalQuantity", state.totalQuantity);
+            data.put("totalAmount", totalAmount);
+            data.put("elapsedMillis", System.currentTimeMillis() - started);
+            return BasicResponseDTO.ok("Nhập phiếu từ file thành công", data);
+
+        } catch (Exception e) {
+            TransactionAspectSupport.currentTransactionStatus().setRollbackOnly();
+            return BasicResponseDTO.error("Không thể nhập phiếu từ file: " + e.getMessage());
+        }
+    }
+
+    // ---------------------------------------------------------------------
+
+    private void processChunk(List<ParsedLine> chunk, ImportState state) {
+        if (chunk.isEmpty()) return;
+
+        Set<String> codes = new HashSet<>();
+        chunk.forEach(l -> codes.add(l.dto.getMaterialCode()));
+        Map<String, MaterialCatalogCache.Entry> byCode = materialCatalog.resolveCodes(codes);
+
+        for (ParsedLine l : chunk) {
+            if (!byCode.containsKey(l.dto.getMaterialCode())) {
+                state.error(l.lineNumber, "Không tìm thấy vật tư theo code: " + l.dto.getMaterialCode());
+            }
+        }
+
+        // Đã có lỗi: chỉ kiểm tra tiếp, không tải vật tư / không ghi (transaction sẽ rollback)
+        if (state.errorCount > 0) return;
+
+        Set<Long> ids = new HashSet<>();
+        byCode.values().forEach(e -> ids.add(e.id()));
+        Map<Long, Material> byId = new HashMap<>();
+        materialRepository.findAllById(ids).forEach(m -> byId.put(m.getId(), m));
+
+        List<CreateReceiptDetailDTO> lines = new ArrayList<>(chunk.size());
+        List<Material> materials = new ArrayList<>(chunk.size());
+        for (ParsedLine l : chunk) {
+            lines.add(l.dto);
+            materials.add(byId.get(byCode.get(l.dto.getMaterialCode()).id()));
+        }
+
+        ReceiptHeader header = entityManager.getReference(ReceiptHeader.class, state.headerId);
+        List<ReceiptDetail> details = receiptService.writeLines(header, lines, materials, state.warehouseName);
+
+        for (ReceiptDetail d : details) {
+            state.totalQuantity = state.totalQuantity.add(nvl(d.getQtyActual()));
+            state.totalAmount = state.totalAmount.add(nvl(d.getTotal()));
+            state.materialIds.add(d.getMaterial().getId());
+        }
+        state.linesImported += details.size();
+
+        entityManager.flush();
+        entityManager.clear();
+    }
+
+    private ParsedLine parseLine(List<String> row, Columns cols, long lineNumber, ImportState state) {
+        try {
+            CreateReceiptDetailDTO d = new CreateReceiptDetailDTO();
+            d.setMaterialCode(cols.get(row, cols.code));
+            d.setLotNumber(cols.get(row, cols.lot));
+            d.setQtyActual(parseDecimal(cols.get(row, cols.qtyActual), "qtyActual"));
+            d.setPrice(parseDecimal(cols.get(row, cols.price), "price"));
+            d.setQtyDoc(parseDecimal(cols.get(row, cols.qtyDoc), "qtyDoc"));
+            d.setMfgDate(parseDate(cols.get(row, cols.mfgDate), "mfgDate"));
+            d.setExpDate(parseDate(cols.get(row, cols.expDate), "expDate"));
+
+            receiptService.validateLine(d);
+            return new ParsedLine(lineNumber, d);
+        } catch (RuntimeException e) {
+            state.error(lineNumber, e.getMessage());
+            return null;
+        }
+    }
+
+    private static BigDecimal parseDecimal(String raw, String column) {
+        if (raw.isEmpty()) return null;
+        String v = raw.replace(" ", "");
+        // "1234,5" (dấu phẩy thập phân) khi file không dùng dấu chấm
+        if (v.indexOf(',') >= 0 && v.indexOf('.') < 0) v = v.replace(',', '.');
+        try {
+            return new BigDecimal(v);
+        } catch (NumberFormatException e) {
+            throw new RuntimeException("Giá trị " + column + " không phải số: " + raw);
+        }
+    }
+
+    private static LocalDate parseDate(String raw, String column) {
+        if (raw.isEmpty()) return null;
+        try {
+            return raw.indexOf('/') >= 0 ? LocalDate.parse(raw, VN_DATE) : LocalDate.parse(raw);
+        } catch (DateTimeParseException e) {
+            throw new RuntimeException("Ngày " + column + " không hợp lệ: " + raw);
+        }
+    }
+
+    private static BigDecimal nvl(BigDecimal v) {
+        return v == null ? BigDecimal.ZERO : v;
+    }
+
+    private static String safeTrim(String s) {
+        return s == null ? "" : s.trim();
+    }
+
+    private record ParsedLine(long lineNumber, CreateReceiptDetailDTO dto) {
+    }
+
+    private static final class ImportState {
+        private final Long headerId;
+        private final String warehouseName;
+        private final Set<Long> materialIds = new HashSet<>();
+        private final List<Map<String, Object>> errors = new ArrayList<>();
+        private long linesRead;
+        private long linesImported;
+        private long errorCount;
+        private BigDecimal totalQuantity = BigDecimal.ZERO;
+        private BigDecimal totalAmount = BigDecimal.ZERO;
+
+        private ImportState(Long headerId, String warehouseName) {
+            this.headerId = headerId;
+            this.warehouseName = warehouseName;
+        }
+
+        private void error(long lineNumber, String message) {
+            errorCount++;
+            if (errors.size() < MAX_REPORTED_ERRORS) {
+                errors.add(Map.of("line", lineNumber, "error", message == null ? "Dòng không hợp lệ" : message));
+            }
+        }
+    }
+
+    /** Vị trí các cột theo dòng tiêu đề. */
+    private static final class Columns {
+        private int code = -1, lot = -1, qtyActual = -1, price = -1, qtyDoc = -1, mfgDate = -1, expDate = -1;
+
+        static Columns of(List<String> header) {
+            if (header == null) throw new RuntimeException("File rỗng");
+            Columns c = new Columns();
+            for (int i = 0; i < header.size(); i++) {
+                String h = header.get(i).toLowerCase(Locale.ROOT).replaceAll("[^a-z0-9]", "");
+                switch (h) {
+                    case "materialcode", "code", "mavattu" -> c.code = i;
+                    case "lotnumber", "lot", "solo" -> c.lot = i;
+                    case "qtyactual", "qty", "soluong" -> c.qtyActual = i;
+                    case "price", "dongia" -> c.price = i;
+                    case "qtydoc" -> c.qtyDoc = i;
+                    case "mfgdate", "nsx" -> c.mfgDate = i;
+                    case "expdate", "hsd" -> c.expDate = i;
+                    default -> { }
+                }
+            }
+            if (c.code < 0 || c.lot < 0 || c.qtyActual < 0 || c.price < 0) {
+                throw new RuntimeException("Thiếu cột bắt buộc: materialCode, lotNumber, qtyActual, price");
+            }
+            return c;
+        }
+
+        String get(List<String> row, int idx) {
+            return (idx < 0 || idx >= row.size()) ? "" : row.get(idx).trim();
+        }
+    }
+
+    /**
+     * Đọc CSV theo bản ghi (RFC 4180: ô trong dấu nháy, "" là dấu nháy, xuống dòng trong ô).
+     * Dấu phân cách lấy theo dòng đầu: ; hoặc tab nếu nhiều hơn dấu phẩy.
+     */
+    static final class CsvReader implements Closeable {
+        private final BufferedReader reader;
+        private char delimiter;
+        private long physicalLine;
+        private long recordLine;
+
+        CsvReader(Reader reader) {
+            this.reader = new BufferedReader(reader, 64 * 1024);
+        }
+
+        /** Dòng (trong file, tính từ 1) bắt đầu bản ghi vừa đọc. */
+        long lineNumber() {
+            return recordLine;
+        }
+
+        List<String> next() throws IOException {
+            String line = reader.readLine();
+            if (line == null) return null;
+            physicalLine++;
+            recordLine = physicalLine;
+
+            if (delimiter == 0) {
+                if (!line.isEmpty() && line.charAt(0) == '\uFEFF') line = line.substring(1);
+                delimiter = detectDelimiter(line);
+            }
+
+            List<String> fields = new ArrayList<>();
+            StringBuilder cur = new StringBuilder();
+            boolean quoted = false;
+            int i = 0;
+            while (true) {
+                if (i >= line.length()) {
+                    if (!quoted) break;
+                    // ô trong nháy chứa xuống dòng
+                    String more = reader.readLine();
+                    if (more == null) break;
+                    physicalLine++;
+                    cur.append('\n');
+                    line = more;
+                    i = 0;
+                    continue;
+                }
+                char ch = line.charAt(i++);
+                if (quoted) {
+                    if (ch == '"') {
+                        if (i < line.length() && line.charAt(i) == '"') {
+                            cur.append('"');
+                            i++;
+                        } else {
+                            quoted = false;
+                        }
+                    } else {
+                        cur.append(ch);
+                    }
+                } else if (ch == '"') {
+                    quoted = true;
+                } else if (ch == delimiter) {
+                    fields.add(cur.toString());
+                    cur.setLength(0);
+                } else {
+                    cur.append(ch);
+                }
+            }
+            fields.add(cur.toString());
+            return fields;
+        }
+
+        private static char detectDelimiter(String line) {
+            long commas = line.chars().filter(c -> c == ',').count();
+            long semis = line.chars().filter(c -> c == ';').count();
+            long tabs = line.chars().filter(c -> c == '\t').count();
+            if (tabs > commas && tabs > semis) return '\t';
+            return semis > commas ? ';' : ',';
+        }
+
+        @Override
+        public void close() throws IOException {
+            reader.close();
+        }
+    }
+}
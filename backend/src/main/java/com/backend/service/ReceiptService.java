@@ -2,13 +2,14 @@ package com.backend.service;
 
 import com.backend.dto.*;
 import com.backend.entity.*;
+import com.backend.event.StockChangedEvent;
 import com.backend.repository.*;
 import lombok.RequiredArgsConstructor;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
-import org.springframework.data.domain.Sort;
 
 import java.math.BigDecimal;
 import java.math.RoundingMode;
@@ -24,16 +25,19 @@ public class ReceiptService {
     private final ReceiptHeaderRepository receiptHeaderRepository;
     private final ReceiptDetailRepository receiptDetailRepository;
     private final InventoryCardRepository inventoryCardRepository;
+    private final LotBalanceService lotBalanceService;
 
-    private final UserRepository userRepository;
+    private final CurrentUserContext currentUserContext;
     private final MaterialRepository materialRepository;
+    private final MaterialCatalogCache materialCatalog;
 
     private final NotificationService notificationService;
     private final RbacService rbacService;
+    private final ApplicationEventPublisher eventPublisher;
 
     public ReceiptResponseDTO createReceipt(CreateReceiptDTO request, Long creatorId) {
         try {
-            User creator = userRepository.findById(creatorId)
+            User creator = currentUserContext.findUser(creatorId)
                     .orElseThrow(() -> new RuntimeException("User không tồn tại"));
 
             if (!creator.isApproved()) throw new RuntimeException("Tài khoản chưa được kích hoạt");
@@ -41,28 +45,14 @@ public class ReceiptService {
 
             validateCreateReceipt(request);
 
-            ReceiptHeader header = new ReceiptHeader();
-            header.setCreatedBy(creator);
-
-            header.setReceiptDate(request.getReceiptDate() != null ? request.getReceiptDate() : LocalDate.now());
-
-            String receivedFrom = safeTrim(request.getReceivedFrom());
-            String deliveryPerson = safeTrim(request.getDeliveryPerson());
-
-            if (!deliveryPerson.isEmpty()) {
-                receivedFrom = receivedFrom + " - Người giao: " + deliveryPerson;
-            }
-            header.setReceivedFrom(receivedFrom);
-
-            String reason = safeTrim(request.getReason());
-            header.setReason(reason.isEmpty() ? "Nhu cầu từ đơn vị" : reason);
-
-            header.setTotalAmount(BigDecimal.ZERO);
-            header = receiptHeaderRepository.save(header);
+            ReceiptHeader header = receiptHeaderRepository.save(newHeader(creator, request));
 
             List<ReceiptDetail> details = createDetailsAndInventory(header, request);
             header.setDetails(details);
 
+            eventPublisher.publishEvent(StockChangedEvent.of(
+                    details.stream().map(d -> d.getMaterial().getId()).toList(), "RECEIPT"));
+
             BigDecimal totalAmount = details.stream()
                     .map(d -> nvl(d.getTotal()))
                     .reduce(BigDecimal.ZERO, BigDecimal::add)
@@ -84,7 +74,7 @@ public class ReceiptService {
     @Transactional(readOnly = true)
     public ReceiptResponseDTO getReceiptDetail(Long receiptId, Long userId) {
         try {
-            User user = userRepository.findById(userId)
+            User user = currentUserContext.findUser(userId)
                     .orElseThrow(() -> new RuntimeException("User không tồn tại"));
 
             if (!user.isApproved()) throw new RuntimeException("Tài khoản chưa được kích hoạt");
@@ -124,38 +114,90 @@ public class ReceiptService {
         }
 
         for (CreateReceiptDetailDTO d : request.getDetails()) {
-            if ((d.getMaterialId() == null) && safeTrim(d.getMaterialCode()).isEmpty()) {
-                throw new RuntimeException("Mỗi dòng phải có materialId hoặc materialCode");
-            }
+            validateLine(d);
+        }
+    }
 
-            if (d.getQtyActual() == null || d.getQtyActual().compareTo(BigDecimal.ZERO) <= 0) {
-                throw new RuntimeException("Số lượng thực nhập (qtyActual) phải > 0");
-            }
+    /** Kiểm tra 1 dòng hàng (dùng chung cho tạo phiếu và import file). */
+    void validateLine(CreateReceiptDetailDTO d) {
+        if ((d.getMaterialId() == null) && safeTrim(d.getMaterialCode()).isEmpty()) {
+            throw new RuntimeException("Mỗi dòng phải có materialId hoặc materialCode");
+        }
 
-            if (d.getPrice() == null || d.getPrice().compareTo(BigDecimal.ZERO) < 0) {
-                throw new RuntimeException("Đơn giá (price) không hợp lệ");
-            }
+        if (d.getQtyActual() == null || d.getQtyActual().compareTo(BigDecimal.ZERO) <= 0) {
+            throw new RuntimeException("Số lượng thực nhập (qtyActual) phải > 0");
+        }
 
-            if (safeTrim(d.getLotNumber()).isEmpty()) {
-                throw new RuntimeException("Số lô (lotNumber) không được để trống");
-            }
+        if (d.getPrice() == null || d.getPrice().compareTo(BigDecimal.ZERO) < 0) {
+            throw new RuntimeException("Đơn giá (price) không hợp lệ");
+        }
+
+        if (safeTrim(d.getLotNumber()).isEmpty()) {
+            throw new RuntimeException("Số lô (lotNumber) không được để trống");
+        }
 
-            if (d.getMfgDate() != null && d.getExpDate() != null) {
-                if (d.getExpDate().isBefore(d.getMfgDate())) {
-                    throw new RuntimeException("Hạn sử dụng phải >= ngày sản xuất");
-                }
+        if (d.getMfgDate() != null && d.getExpDate() != null) {
+            if (d.getExpDate().isBefore(d.getMfgDate())) {
+                throw new RuntimeException("Hạn sử dụng phải >= ngày sản xuất");
             }
         }
     }
 
-    private List<ReceiptDetail> createDetailsAndInventory(ReceiptHeader header, CreateReceiptDTO request) {
+    /** Header phiếu nhập (chưa lưu), totalAmount = 0. */
+    ReceiptHeader newHeader(User creator, CreateReceiptDTO request) {
+        ReceiptHeader header = new ReceiptHeader();
+        header.setCreatedBy(creator);
+
+        header.setReceiptDate(request.getReceiptDate() != null ? request.getReceiptDate() : LocalDate.now());
+
+        String receivedFrom = safeTrim(request.getReceivedFrom());
+        String deliveryPerson = safeTrim(request.getDeliveryPerson());
+
+        if (!deliveryPerson.isEmpty()) {
+            receivedFrom = receivedFrom + " - Người giao: " + deliveryPerson;
+        }
+        header.setReceivedFrom(receivedFrom);
+
+        String reason = safeTrim(request.getReason());
+        header.setReason(reason.isEmpty() ? "Nhu cầu từ đơn vị" : reason);
+
+        header.setTotalAmount(BigDecimal.ZERO);
+        return header;
+    }
+
+    static String warehouseName(CreateReceiptDTO request) {
         String warehouseName = safeTrim(request.getWarehouseName());
-        if (warehouseName.isEmpty()) warehouseName = "Kho chính";
+        return warehouseName.isEmpty() ? "Kho chính" : warehouseName;
+    }
+
+    private List<ReceiptDetail> createDetailsAndInventory(ReceiptHeader header, CreateReceiptDTO request) {
+        List<Material> lineMaterials = resolveMaterials(request.getDetails());
+        return writeLines(header, request.getDetails(), lineMaterials, warehouseName(request));
+    }
+
+    /**
+     * Ghi các dòng đã kiểm tra ({@code lineMaterials} cùng thứ tự với {@code lines}):
+     * chi tiết phiếu + thẻ kho + balance. Dùng cho cả phiếu nhập thường và từng lô khi import file.
+     *
+     * Lock trước mọi lô (1 query FOR UPDATE), sau đó chỉ tạo entity: không còn query chen giữa các dòng
+     * nên INSERT thẻ kho / chi tiết / balance được gom JDBC batch khi flush.
+     */
+    List<ReceiptDetail> writeLines(ReceiptHeader header, List<CreateReceiptDetailDTO> lines,
+                                   List<Material> lineMaterials, String warehouseName) {
+        Map<Long, Set<String>> lotsByMaterial = new HashMap<>();
+        for (int i = 0; i < lineMaterials.size(); i++) {
+            lotsByMaterial.computeIfAbsent(lineMaterials.get(i).getId(), k -> new HashSet<>())
+                    .add(safeTrim(lines.get(i).getLotNumber()));
+        }
+        // Tồn đầu = tồn hiện tại của lô (lot_balance), lock để 2 phiếu nhập cùng lô không ghi đè nhau
+        // (kể cả lô mới: 2 phiếu nhập đầu tiên của lô chờ nhau qua khóa vật tư)
+        Map<String, LotBalance> balances = lotBalanceService.lockBalances(lotsByMaterial);
 
         List<ReceiptDetail> details = new ArrayList<>();
 
-        for (CreateReceiptDetailDTO dto : request.getDetails()) {
-            Material material = resolveMaterial(dto);
+        for (int i = 0; i < lineMaterials.size(); i++) {
+            CreateReceiptDetailDTO dto = lines.get(i);
+            Material material = lineMaterials.get(i);
 
             ReceiptDetail detail = new ReceiptDetail();
             detail.setHeader(header);
@@ -181,22 +223,23 @@ public class ReceiptService {
 
             details.add(detail);
 
-            createInventoryCardForReceiptLine(material, detail, header, warehouseName);
+            createInventoryCardForReceiptLine(material, detail, header, warehouseName, balances);
         }
 
         return receiptDetailRepository.saveAll(details);
     }
 
     private void createInventoryCardForReceiptLine(Material material, ReceiptDetail detail,
-                                                   ReceiptHeader header, String warehouseName) {
+                                                   ReceiptHeader header, String warehouseName,
+                                                   Map<String, LotBalance> balances) {
 
         String lot = detail.getLotNumber();
+        String key = material.getId() + "|" + lot;
 
-        BigDecimal opening = inventoryCardRepository
-                // CHỖ SỬA: theo schema mới (material là entity)
-                .findTopByMaterial_IdAndLotNumberOrderByRecordDateDescIdDesc(material.getId(), lot)
-                .map(InventoryCard::getClosingStock)
-                .orElse(BigDecimal.ZERO);
+        // Cùng lô xuất hiện nhiều dòng: dòng sau mở từ balance dòng trước vừa áp
+        LotBalance balance = balances.get(key);
+        BigDecimal opening = balance != null ? balance.getClosingStock() : BigDecimal.ZERO;
+        if (balance == null) balance = lotBalanceService.newBalance(material, lot);
 
         InventoryCard card = new InventoryCard();
         card.setMaterial(material);
@@ -215,21 +258,40 @@ public class ReceiptService {
 
         card.setSubDepartment(null);
 
-        inventoryCardRepository.save(card);
+        card = inventoryCardRepository.save(card);
+        balances.put(key, lotBalanceService.applyCard(card, balance));
     }
 
-    private Material resolveMaterial(CreateReceiptDetailDTO dto) {
-        if (dto.getMaterialId() != null) {
-            return materialRepository.findById(dto.getMaterialId())
-                    .orElseThrow(() -> new RuntimeException("Vật tư không tồn tại với ID: " + dto.getMaterialId()));
+    /** Vật tư của từng dòng (cùng thứ tự): code -> id qua danh mục cache, rồi 1 query theo id. */
+    private List<Material> resolveMaterials(List<CreateReceiptDetailDTO> lines) {
+        Set<Long> ids = new HashSet<>();
+        Set<String> codes = new HashSet<>();
+        for (CreateReceiptDetailDTO dto : lines) {
+            if (dto.getMaterialId() != null) ids.add(dto.getMaterialId());
+            else codes.add(safeTrim(dto.getMaterialCode()));
         }
 
-        String code = safeTrim(dto.getMaterialCode());
-        Material m = materialRepository.findByCode(code);
-        if (m == null) {
-            throw new RuntimeException("Không tìm thấy vật tư theo code: " + code);
+        Map<String, MaterialCatalogCache.Entry> byCode = materialCatalog.resolveCodes(codes);
+        byCode.values().forEach(e -> ids.add(e.id()));
+
+        Map<Long, Material> byId = new HashMap<>();
+        if (!ids.isEmpty()) materialRepository.findAllById(ids).forEach(m -> byId.put(m.getId(), m));
+
+        List<Material> out = new ArrayList<>(lines.size());
+        for (CreateReceiptDetailDTO dto : lines) {
+            if (dto.getMaterialId() != null) {
+                Material m = byId.get(dto.getMaterialId());
+                if (m == null) throw new RuntimeException("Vật tư không tồn tại với ID: " + dto.getMaterialId());
+                out.add(m);
+            } else {
+                String code = safeTrim(dto.getMaterialCode());
+                MaterialCatalogCache.Entry e = byCode.get(code);
+                Material m = e == null ? null : byId.get(e.id());
+                if (m == null) throw new RuntimeException("Không tìm thấy vật tư theo code: " + code);
+                out.add(m);
+            }
         }
-        return m;
+        return out;
     }
 
     private ReceiptHeaderDTO convertHeaderToDTO(ReceiptHeader header) {
@@ -333,7 +395,7 @@ public class ReceiptService {
     @Transactional(readOnly = true)
     public ReceiptFeedResponseDTO feedReceipts(Long afterId, Integer limit, Long userId, Integer page, String keyword) {
         try {
-            User user = userRepository.findById(userId)
+            User user = currentUserContext.findUser(userId)
                     .orElseThrow(() -> new RuntimeException("User không tồn tại"));
             if (!user.isApproved()) throw new RuntimeException("Tài khoản chưa được kích hoạt");
 
@@ -342,11 +404,10 @@ public class ReceiptService {
 
             if (page != null) {
                 int pageNumber = Math.max(0, page);
-                Page<ReceiptHeader> pageResult = kw.isEmpty()
-                        ? receiptHeaderRepository.findAll(
-                                PageRequest.of(pageNumber, size, Sort.by(Sort.Direction.DESC, "id")))
-                        : receiptHeaderRepository.searchByKeyword(kw,
-                                PageRequest.of(pageNumber, size, Sort.by(Sort.Direction.DESC, "id")));
+                // Sắp xếp id DESC nằm trong query projection
+                Page<Object[]> pageResult = kw.isEmpty()
+                        ? receiptHeaderRepository.findFeedRows(PageRequest.of(pageNumber, size))
+                        : receiptHeaderRepository.searchFeedRows(kw, PageRequest.of(pageNumber, size));
 
                 List<ReceiptFeedItemDTO> items = pageResult.getContent().stream().map(this::toReceiptFeedItemDTO).toList();
 
@@ -366,10 +427,9 @@ public class ReceiptService {
             }
 
             long cursor = (afterId == null || afterId <= 0) ? Long.MAX_VALUE : afterId;
-            List<ReceiptHeader> headers = receiptHeaderRepository
-                    .findByIdLessThanOrderByIdDesc(cursor, PageRequest.of(0, size));
-
-            List<ReceiptFeedItemDTO> items = headers.stream().map(this::toReceiptFeedItemDTO).toList();
+            List<ReceiptFeedItemDTO> items = receiptHeaderRepository
+                    .findFeedRowsBefore(cursor, PageRequest.of(0, size))
+                    .stream().map(this::toReceiptFeedItemDTO).toList();
 
             Long nextCursor = items.isEmpty() ? cursor : items.get(items.size() - 1).getId();
             boolean hasMore = items.size() == size;
@@ -385,13 +445,17 @@ public class ReceiptService {
         }
     }
 
-    private ReceiptFeedItemDTO toReceiptFeedItemDTO(ReceiptHeader h) {
+    /** Dòng projection của {@link ReceiptHeaderRepository#FEED_SELECT}. */
+    private ReceiptFeedItemDTO toReceiptFeedItemDTO(Object[] r) {
         ReceiptFeedItemDTO x = new ReceiptFeedItemDTO();
-        x.setId(h.getId());
-        x.setReceiptDate(h.getReceiptDate());
-        x.setReceivedFrom(h.getReceivedFrom());
-        x.setReason(h.getReason());
-        x.setTotalAmount(h.getTotalAmount());
+        x.setId((Long) r[0]);
+        x.setReceiptDate((LocalDate) r[1]);
+        x.setReceivedFrom((String) r[2]);
+        x.setReason((String) r[3]);
+        x.setTotalAmount((BigDecimal) r[4]);
+        x.setCreatedById((Long) r[5]);
+        x.setCreatedByName((String) r[6]);
+        x.setLineCount(((Number) r[7]).intValue());
         return x;
     }
 }
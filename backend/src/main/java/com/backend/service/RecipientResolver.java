@@ -0,0 +1,73 @@
+package com.backend.service;
+
+import com.backend.repository.UserRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Tìm người nhận thông báo (id user APPROVED) theo quyền / role / khoa bằng query có index,
+ * thay cho findAll() rồi lọc trong bộ nhớ.
+ *
+ * Kết quả cache ngắn hạn (TTL cấu hình được): 1 đợt duyệt nhiều phiếu chỉ query 1 lần.
+ * Đổi quyền (RbacService) và đổi trạng thái / role / xoá user (UserService) xoá cache sau commit;
+ * TTL chỉ là lưới an toàn cho thay đổi ghi thẳng vào DB.
+ */
+@Component
+public class RecipientResolver {
+
+    private final UserRepository userRepository;
+    private final long ttlMillis;
+
+    private final Map<String, Entry> cache = new ConcurrentHashMap<>();
+
+    private record Entry(long expiresAt, List<Long> userIds) {}
+
+    public RecipientResolver(UserRepository userRepository,
+                             @Value("${medventory.notifications.recipient-cache-ttl-seconds:30}") long ttlSeconds) {
+        this.userRepository = userRepository;
+        this.ttlMillis = Math.max(0, ttlSeconds) * 1000;
+    }
+
+    /** User APPROVED có quyền hiệu lực {@code permCode} (role + GRANT/REVOKE riêng). */
+    public List<Long> approvedWithPermission(String permCode) {
+        return cached("perm:" + permCode,
+                () -> userRepository.findApprovedIdsWithPermission(permCode, RbacService.PERM_USER_SPECIAL));
+    }
+
+    /** User APPROVED thuộc role {@code roleCode}. */
+    public List<Long> approvedWithRole(String roleCode) {
+        return cached("role:" + roleCode, () -> userRepository.findApprovedIdsByRoleCode(roleCode));
+    }
+
+    /** User APPROVED thuộc khoa {@code departmentId}. */
+    public List<Long> approvedInDepartment(Long departmentId) {
+        if (departmentId == null) return List.of();
+        return cached("dept:" + departmentId, () -> userRepository.findApprovedIdsByDepartmentId(departmentId));
+    }
+
+    /** Gọi trong transaction đổi user / quyền: xoá cache khi commit. */
+    public void invalidateAfterCommit() {
+        AfterCommit.run(this::invalidateAll);
+    }
+
+    public void invalidateAll() {
+        cache.clear();
+    }
+
+    // ---------------------------------------------------------------------
+
+    private List<Long> cached(String key, Supplier<List<Long>> loader) {
+        long now = System.currentTimeMillis();
+        Entry e = cache.get(key);
+        if (e != null && e.expiresAt() > now) return e.userIds();
+
+        List<Long> ids = List.copyOf(loader.get());
+        if (ttlMillis > 0) cache.put(key, new Entry(now + ttlMillis, ids));
+        return ids;
+    }
+}
@@ -0,0 +1,272 @@
+package com.backend.service;
+
+import com.backend.event.StockChangedEvent;
+import com.backend.repository.LotBalanceRepository;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionPhase;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Snapshot tồn khả dụng theo material, giữ trong bộ nhớ cho trang tồn kho.
+ *
+ * - Lưu dạng mảng song song sắp theo material id: long[] id -> long[] tồn (x1000, đúng scale 3 của DB).
+ * - Không hết hạn theo thời gian; chỉ làm mới khi có {@link StockChangedEvent} (sau commit):
+ *   material bị đánh dấu bẩn, lần đọc kế tiếp nạp lại đúng các material đó bằng 1 câu query.
+ * - Đọc khi không có gì bẩn là thuần bộ nhớ (hit).
+ * - Mỗi lần nạp dựng sẵn summary (sắp hết / hết hàng) và danh sách vị trí theo trạng thái,
+ *   để đọc 1 trang không phải quét lại cả danh mục.
+ */
+@Service
+@RequiredArgsConstructor
+public class StockSnapshotCache {
+
+    /** Tồn kho lưu dạng số nguyên: qty * 10^QTY_SCALE. */
+    private static final int QTY_SCALE = 3;
+
+    /** Ngưỡng "sắp hết hàng": tồn kho > 0 và < 10. */
+    static final BigDecimal LOW_STOCK_THRESHOLD = BigDecimal.TEN;
+    private static final long LOW_STOCK_SCALED = LOW_STOCK_THRESHOLD.movePointRight(QTY_SCALE).longValueExact();
+
+    private final LotBalanceRepository lotBalanceRepository;
+
+    private volatile Snapshot snapshot;
+    private volatile boolean fullReloadRequired = true;
+    private final Set<Long> dirtyIds = ConcurrentHashMap.newKeySet();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong fullReloads = new AtomicLong();
+    private final AtomicLong partialRefreshes = new AtomicLong();
+    private final AtomicLong invalidatedIds = new AtomicLong();
+    private volatile long lastLoadMillis;
+
+    /** Snapshot hiện tại, đã áp mọi thay đổi đã commit. */
+    public Snapshot get() {
+        Snapshot current = snapshot;
+        if (current != null && !fullReloadRequired && dirtyIds.isEmpty()) {
+            hits.incrementAndGet();
+            return current;
+        }
+        misses.incrementAndGet();
+        return refresh();
+    }
+
+    @TransactionalEventListener(phase = TransactionPhase.AFTER_COMMIT, fallbackExecution = true)
+    public void onStockChanged(StockChangedEvent event) {
+        if (event == null) return;
+        if (event.all()) {
+            invalidateAll();
+            return;
+        }
+        dirtyIds.addAll(event.materialIds());
+        invalidatedIds.addAndGet(event.materialIds().size());
+    }
+
+    public void invalidateAll() {
+        fullReloadRequired = true;
+    }
+
+    public Map<String, Object> getStats() {
+        Snapshot current = snapshot;
+        long h = hits.get();
+        long m = misses.get();
+
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("size", current == null ? 0 : current.size());
+        stats.put("hits", h);
+        stats.put("misses", m);
+        stats.put("hitRatio", (h + m) == 0 ? 0.0 : (double) h / (h + m));
+        stats.put("fullReloads", fullReloads.get());
+        stats.put("partialRefreshes", partialRefreshes.get());
+        stats.put("invalidatedIds", invalidatedIds.get());
+        stats.put("pendingDirtyIds", dirtyIds.size());
+        stats.put("lastLoadMillis", lastLoadMillis);
+        return stats;
+    }
+
+    // ---------------------------------------------------------------------
+
+    private synchronized Snapshot refresh() {
+        long start = System.currentTimeMillis();
+
+        if (snapshot == null || fullReloadRequired) {
+            // Xoá cờ trước khi query: event đến trong lúc nạp sẽ được áp ở lần đọc sau
+            fullReloadRequired = false;
+            dirtyIds.clear();
+            snapshot = Snapshot.of(lotBalanceRepository.findAllMaterialStock());
+            fullReloads.incrementAndGet();
+        } else if (!dirtyIds.isEmpty()) {
+            List<Long> ids = new ArrayList<>(dirtyIds);
+            dirtyIds.removeAll(ids);
+            snapshot = snapshot.merge(ids, lotBalanceRepository.findMaterialStockByIds(ids));
+            partialRefreshes.incrementAndGet();
+        }
+
+        lastLoadMillis = System.currentTimeMillis() - start;
+        return snapshot;
+    }
+
+    private static long toScaled(Object v) {
+        if (v == null) return 0L;
+        BigDecimal bd = (v instanceof BigDecimal d) ? d : new BigDecimal(v.toString());
+        return bd.setScale(QTY_SCALE, RoundingMode.HALF_UP).unscaledValue().longValueExact();
+    }
+
+    /**
+     * Dữ liệu bất biến của 1 lần nạp. Tra cứu theo id bằng binary search trên long[].
+     * Vị trí các material sắp hết / hết hàng được giữ riêng (int[] cỡ đúng tập đó, theo thứ tự id).
+     */
+    public static final class Snapshot {
+        private final long[] ids;
+        private final long[] availableScaled;
+        private final String[] codes;
+        private final String[] names;
+        private final String[] unitNames;
+        private final String[] categories;
+        private int[] lowPositions;
+        private int[] outPositions;
+
+        private Snapshot(int n) {
+            ids = new long[n];
+            availableScaled = new long[n];
+            codes = new String[n];
+            names = new String[n];
+            unitNames = new String[n];
+            categories = new String[n];
+        }
+
+        /** rows: id, code, name, unit_name, category, available — đã sắp theo id. */
+        static Snapshot of(List<Object[]> rows) {
+            Snapshot s = new Snapshot(rows.size());
+            for (int i = 0; i < rows.size(); i++) {
+                s.set(i, rows.get(i));
+            }
+            s.indexStatuses();
+            return s;
+        }
+
+        /**
+         * Copy-on-write: thay các dòng của {@code changedIds} bằng {@code rows}
+         * (id không còn trong rows => material đã bị xoá).
+         */
+        Snapshot merge(Collection<Long> changedIds, List<Object[]> rows) {
+            Map<Long, Object[]> fresh = new HashMap<>();
+            for (Object[] r : rows) fresh.put(((Number) r[0]).longValue(), r);
+
+            Set<Long> changed = new HashSet<>(changedIds);
+            List<Object[]> added = new ArrayList<>();
+            for (Map.Entry<Long, Object[]> e : fresh.entrySet()) {
+                if (Arrays.binarySearch(ids, e.getKey()) < 0) added.add(e.getValue());
+            }
+            added.sort(Comparator.comparingLong(r -> ((Number) r[0]).longValue()));
+
+            int removed = 0;
+            for (long id : ids) {
+                if (changed.contains(id) && !fresh.containsKey(id)) removed++;
+            }
+
+            Snapshot s = new Snapshot(ids.length - removed + added.size());
+            int i = 0, a = 0, k = 0;
+            while (i < ids.length || a < added.size()) {
+                long addedId = a < added.size() ? ((Number) added.get(a)[0]).longValue() : Long.MAX_VALUE;
+                if (i < ids.length && ids[i] < addedId) {
+                    long id = ids[i];
+                    if (!changed.contains(id)) {
+                        s.copyFrom(k++, this, i);
+                    } else if (fresh.containsKey(id)) {
+                        s.set(k++, fresh.get(id));
+                    }
+                    i++;
+                } else {
+                    s.set(k++, added.get(a++));
+                }
+            }
+            s.indexStatuses();
+            return s;
+        }
+
+        private void indexStatuses() {
+            int low = 0, out = 0;
+            for (long qty : availableScaled) {
+                if (qty <= 0) out++;
+                else if (qty < LOW_STOCK_SCALED) low++;
+            }
+            lowPositions = new int[low];
+            outPositions = new int[out];
+            low = 0;
+            out = 0;
+            for (int i = 0; i < availableScaled.length; i++) {
+                long qty = availableScaled[i];
+                if (qty <= 0) outPositions[out++] = i;
+                else if (qty < LOW_STOCK_SCALED) lowPositions[low++] = i;
+            }
+        }
+
+        private void set(int i, Object[] r) {
+            ids[i] = ((Number) r[0]).longValue();
+            codes[i] = (String) r[1];
+            names[i] = (String) r[2];
+            unitNames[i] = (String) r[3];
+            categories[i] = (String) r[4];
+            availableScaled[i] = toScaled(r[5]);
+        }
+
+        private void copyFrom(int i, Snapshot other, int j) {
+            ids[i] = other.ids[j];
+            codes[i] = other.codes[j];
+            names[i] = other.names[j];
+            unitNames[i] = other.unitNames[j];
+            categories[i] = other.categories[j];
+            availableScaled[i] = other.availableScaled[j];
+        }
+
+        public int size() { return ids.length; }
+
+        public int lowStockCount() { return lowPositions.length; }
+
+        public int outOfStockCount() { return outPositions.length; }
+
+        /** Số dòng theo trạng thái: "low" | "out" | còn lại = cả danh mục. */
+        public int count(String status) {
+            if ("low".equals(status)) return lowPositions.length;
+            if ("out".equals(status)) return outPositions.length;
+            return ids.length;
+        }
+
+        /** Vị trí (trong snapshot) của dòng thứ {@code k} thuộc trạng thái {@code status}. */
+        public int position(String status, int k) {
+            if ("low".equals(status)) return lowPositions[k];
+            if ("out".equals(status)) return outPositions[k];
+            return k;
+        }
+
+        public long id(int i) { return ids[i]; }
+
+        public String code(int i) { return codes[i]; }
+
+        public String name(int i) { return names[i]; }
+
+        public String unitName(int i) { return unitNames[i]; }
+
+        public String category(int i) { return categories[i]; }
+
+        public long availableScaled(int i) { return availableScaled[i]; }
+
+        public BigDecimal available(int i) {
+            return BigDecimal.valueOf(availableScaled[i], QTY_SCALE);
+        }
+
+        /** Tồn khả dụng của 1 material, empty nếu material không có trong danh mục. */
+        public Optional<BigDecimal> availableOf(long materialId) {
+            int i = Arrays.binarySearch(ids, materialId);
+            return i < 0 ? Optional.empty() : Optional.of(available(i));
+        }
+    }
+}
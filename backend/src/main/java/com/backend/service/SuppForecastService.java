@@ -2,15 +2,20 @@ package com.backend.service;
 
 import com.backend.dto.SuppForecastApprovalDTO;
 import com.backend.dto.SuppForecastDetailDTO;
+import com.backend.dto.SuppForecastListItemDTO;
 import com.backend.dto.SuppForecastPreviousDTO;
 import com.backend.dto.SuppForecastRequestDTO;
 import com.backend.entity.*;
 import com.backend.repository.*;
 import lombok.RequiredArgsConstructor;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.math.BigDecimal;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.util.*;
 import java.util.stream.Collectors;
@@ -32,6 +37,8 @@ public class SuppForecastService {
     private final MaterialRepository materialRepository;
     private final DocStatusRepository docStatusRepository;
 
+    private final ConsumptionHistoryService consumptionHistoryService;
+
     private final RbacService rbacService;
     private final NotificationService notificationService;
 
@@ -212,104 +219,121 @@ public class SuppForecastService {
 
     @Transactional(readOnly = true)
     public ResponseEntity<?> getMyForecasts(Long userId) {
-        return getMyForecasts(userId, null, 0, 10);
+        return getMyForecasts(userId, null, null, 0, 10);
     }
 
     /**
      * Danh sách phiếu dự trù của người dùng — lọc theo keyword (mã / năm học /
-     * bộ môn / trạng thái) và phân trang ở backend.
+     * bộ môn / trạng thái) và năm học, phân trang trong DB. Số dòng vật tư chỉ đếm cho các phiếu của trang.
      */
     @Transactional(readOnly = true)
-    public ResponseEntity<?> getMyForecasts(Long userId, String keyword, Integer page, Integer size) {
+    public ResponseEntity<?> getMyForecasts(Long userId, String keyword, String academicYear, Integer page, Integer size) {
         try {
             User actor = rbacService.requireApprovedUser(userId);
-            List<SuppForecastHeader> forecasts = headerRepository.findByCreatedBy_IdOrderByCreatedAtDesc(actor.getId());
-            List<Map<String, Object>> all = forecasts.stream()
-                    .map(h -> {
-                        Map<String, Object> dto = new HashMap<>();
-                        dto.put("id", h.getId());
-                        dto.put("academicYear", h.getAcademicYear());
-                        dto.put("status", h.getStatus() != null ? h.getStatus().getCode() : null);
-                        dto.put("createdAt", h.getCreatedAt());
-                        dto.put("itemCount", h.getDetails() != null ? h.getDetails().size() : 0);
-                        if (h.getDepartment() != null) {
-                            dto.put("departmentName", h.getDepartment().getName());
-                        }
-                        return dto;
-                    })
-                    .collect(Collectors.toList());
 
             String kw = keyword == null ? "" : keyword.trim().toLowerCase();
-            List<Map<String, Object>> filtered = kw.isEmpty() ? all : all.stream()
-                    .filter(d -> {
-                        String id = String.valueOf(d.getOrDefault("id", ""));
-                        String year = String.valueOf(d.getOrDefault("academicYear", "")).toLowerCase();
-                        String dept = String.valueOf(d.getOrDefault("departmentName", "")).toLowerCase();
-                        String status = String.valueOf(d.getOrDefault("status", "")).toLowerCase();
-                        return id.contains(kw) || year.contains(kw) || dept.contains(kw) || status.contains(kw);
-                    })
+            String year = academicYear == null ? "" : academicYear.trim();
+            int safeSize = (size == null || size <= 0) ? 10 : Math.min(size, 100);
+            int requestedPage = Math.max(0, page == null ? 0 : page);
+
+            Page<Object[]> rows = headerRepository.findMyForecastRows(
+                    actor.getId(), year, kw, PageRequest.of(requestedPage, safeSize));
+            int totalPages = Math.max(1, rows.getTotalPages());
+            int safePage = Math.min(requestedPage, totalPages - 1);
+            if (safePage != requestedPage) {
+                rows = headerRepository.findMyForecastRows(actor.getId(), year, kw, PageRequest.of(safePage, safeSize));
+            }
+
+            List<SuppForecastListItemDTO> pageItems = rows.getContent().stream()
+                    .map(SuppForecastService::toListItemDTO)
                     .collect(Collectors.toList());
+            fillItemCounts(pageItems);
 
-            int safeSize = (size == null || size <= 0) ? 10 : size;
-            int totalPages = (int) Math.max(1, Math.ceil((double) filtered.size() / safeSize));
-            int safePage = Math.max(0, Math.min(page == null ? 0 : page, totalPages - 1));
-            int from = Math.min(safePage * safeSize, filtered.size());
-            int to = Math.min(from + safeSize, filtered.size());
-            List<Map<String, Object>> pageItems = new ArrayList<>(filtered.subList(from, to));
+            long filteredCount = rows.getTotalElements();
+            long totalCount = (kw.isEmpty() && year.isEmpty())
+                    ? filteredCount
+                    : headerRepository.countByCreatedBy_Id(actor.getId());
 
             Map<String, Object> resp = new HashMap<>();
             resp.put("success", true);
             resp.put("items", pageItems);
             resp.put("page", safePage);
             resp.put("totalPages", totalPages);
-            resp.put("totalCount", (long) all.size());
-            resp.put("filteredCount", (long) filtered.size());
+            resp.put("totalCount", totalCount);
+            resp.put("filteredCount", filteredCount);
             return ResponseEntity.ok(resp);
         } catch (Exception e) {
             return ResponseEntity.badRequest().body(Map.of("success", false, "message", e.getMessage()));
         }
     }
 
-    public List<SuppForecastPreviousDTO> loadPreviousForecast(Long departmentId) {
-        // NOTE: method này không có user context => không enforce permission được nếu không sửa controller.
-        String previousYear = "2025-2026";
+    /** Row: id, academicYear, status code, createdAt, department name (xem findMyForecastRows). */
+    private static SuppForecastListItemDTO toListItemDTO(Object[] r) {
+        SuppForecastListItemDTO dto = new SuppForecastListItemDTO();
+        dto.setId(((Number) r[0]).longValue());
+        dto.setAcademicYear((String) r[1]);
+        dto.setStatus((String) r[2]);
+        dto.setCreatedAt((LocalDate) r[3]);
+        dto.setDepartmentName((String) r[4]);
+        dto.setItemCount(0);
+        return dto;
+    }
 
-        List<SuppForecastHeader> headers;
-        if (departmentId != null) {
-            headers = headerRepository.findByAcademicYearAndDepartmentId(previousYear, departmentId);
-        } else {
-            headers = headerRepository.findByAcademicYear(previousYear);
+    private void fillItemCounts(List<SuppForecastListItemDTO> items) {
+        if (items.isEmpty()) return;
+        Map<Long, SuppForecastListItemDTO> byId = new HashMap<>();
+        for (SuppForecastListItemDTO dto : items) byId.put(dto.getId(), dto);
+        for (Object[] r : detailRepository.countByHeaderIds(byId.keySet())) {
+            SuppForecastListItemDTO dto = byId.get(((Number) r[0]).longValue());
+            if (dto != null) dto.setItemCount(((Number) r[1]).intValue());
         }
+    }
 
-        List<SuppForecastPreviousDTO> result = new ArrayList<>();
-
-        for (SuppForecastHeader h : headers) {
-            for (SuppForecastDetail d : h.getDetails()) {
-                SuppForecastPreviousDTO x = new SuppForecastPreviousDTO();
-
-                x.setMaterialId(d.getMaterial() != null ? d.getMaterial().getId() : null);
-                x.setMaterialName(d.getMaterial() != null ? d.getMaterial().getName() : null);
-                x.setSpecification(d.getMaterial() != null ? d.getMaterial().getSpec() : null);
-                x.setUnitId(d.getMaterial() != null && d.getMaterial().getUnit() != null ? d.getMaterial().getUnit().getId() : null);
-                x.setMaterialCode(d.getMaterial() != null ? d.getMaterial().getCode() : null);
-                x.setManufacturer(d.getMaterial() != null ? d.getMaterial().getManufacturer() : null);
-
-                x.setCurrentStock(d.getCurrentStock());
-                x.setPrevYearQty(d.getPrevYearQty());
-                x.setThisYearQty(d.getThisYearQty());
-
-                x.setJustification("Tự động tạo dự trù");
-                x.setProposedCode(d.getProposedCode());
-                x.setProposedManufacturer(d.getProposedManufacturer());
-                x.setAcademicYear(h.getAcademicYear());
+    /**
+     * Số liệu "năm trước" cho phiếu dự trù năm {@code academicYear} (mặc định: năm học hiện tại):
+     * lượng thực xuất năm học liền trước theo material (của khoa, hoặc cả trường) + tồn hiện tại,
+     * đọc từ material_consumption bằng 1 query.
+     */
+    @Transactional(readOnly = true)
+    public List<SuppForecastPreviousDTO> loadPreviousForecast(Long departmentId, String academicYear) {
+        // NOTE: method này không có user context => không enforce permission được nếu không sửa controller.
+        String targetYear = (academicYear == null || academicYear.isBlank())
+                ? ConsumptionHistoryService.academicYearOf(LocalDate.now())
+                : academicYear.trim();
+        String previousYear = ConsumptionHistoryService.previousAcademicYear(targetYear);
 
-                result.add(x);
-            }
+        List<SuppForecastPreviousDTO> result = new ArrayList<>();
+        for (Object[] r : consumptionHistoryService.findYearRowsWithStock(previousYear, departmentId)) {
+            SuppForecastPreviousDTO x = new SuppForecastPreviousDTO();
+
+            x.setMaterialId(((Number) r[0]).longValue());
+            x.setMaterialCode((String) r[1]);
+            x.setMaterialName((String) r[2]);
+            x.setSpecification((String) r[3]);
+            x.setUnitId(r[4] == null ? null : ((Number) r[4]).longValue());
+            x.setManufacturer((String) r[5]);
+
+            BigDecimal prevYearQty = toDecimal(r[6]);
+            BigDecimal currentStock = toDecimal(r[7]);
+            x.setPrevYearQty(prevYearQty);
+            x.setCurrentStock(currentStock);
+            // gợi ý = năm trước - hiện có (không âm), giống công thức trên form dự trù
+            x.setThisYearQty(prevYearQty.subtract(currentStock).max(BigDecimal.ZERO));
+
+            x.setJustification("Tự động tạo dự trù");
+            x.setAcademicYear(previousYear);
+
+            result.add(x);
         }
 
         return result;
     }
 
+    private static BigDecimal toDecimal(Object v) {
+        if (v == null) return BigDecimal.ZERO;
+        return v instanceof BigDecimal bd ? bd : new BigDecimal(v.toString());
+    }
+
     private Map<String, Object> convertToForecastDTO(SuppForecastHeader forecast) {
         Map<String, Object> dto = new HashMap<>();
         dto.put("id", forecast.getId());
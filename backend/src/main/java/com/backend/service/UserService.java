@@ -11,6 +11,8 @@ import com.backend.repository.RoleRepository;
 import com.backend.repository.UserRepository;
 import com.backend.repository.UserStatusRepository;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
 
 import java.util.List;
@@ -42,6 +44,9 @@ public class UserService {
     @Autowired
     private UserStatusRepository userStatusRepository;
 
+    @Autowired
+    private RecipientResolver recipientResolver;
+
     public User findByEmail(String email) {
         return userRepository.findByEmail(email).orElse(null);
     }
@@ -104,56 +109,70 @@ public class UserService {
     }
 
     /**
-     * Danh sách người dùng cho màn Quản trị — đã lọc (trạng thái + keyword)
-     * và phân trang ở backend. Loại trừ Admin và Ban Giám Hiệu.
+     * Danh sách người dùng cho màn Quản trị — lọc (trạng thái + keyword), sắp theo id
+     * và phân trang ngay trong DB. Loại trừ Admin và Ban Giám Hiệu.
+     * Có {@code afterId} => keyset (trang kế tiếp sau id đó), bỏ qua {@code page}.
+     * Summary + totalElements lấy từ 1 câu đếm GROUP BY trạng thái.
      *
      * @param status "all" | "pending" | "approved"
      */
     public com.backend.dto.UserPageDTO getUsersPage(String status, String keyword, int page, int size) {
-        List<UserDTO> all = userRepository.findAll()
-                .stream()
-                .map(this::convertToDTO)
-                .filter(u -> !Boolean.TRUE.equals(u.getIsAdmin())
-                        && !Boolean.TRUE.equals(u.getIsBanGiamHieu()))
-                .collect(Collectors.toList());
-
-        long totalUsers = all.size();
-        long pendingUsers = all.stream().filter(u -> Integer.valueOf(0).equals(u.getStatusValue())).count();
-        long approvedUsers = all.stream().filter(u -> Integer.valueOf(1).equals(u.getStatusValue())).count();
+        return getUsersPage(status, keyword, page, size, null);
+    }
 
+    public com.backend.dto.UserPageDTO getUsersPage(String status, String keyword, int page, int size, Long afterId) {
         String kw = keyword == null ? "" : keyword.trim().toLowerCase();
+        String kwLike = LikePatterns.contains(kw);
         String st = status == null ? "all" : status.trim().toLowerCase();
+        if (!"pending".equals(st) && !"approved".equals(st)) st = "all";
+
+        long totalUsers = 0, pendingUsers = 0, approvedUsers = 0;
+        long matchedPending = 0, matchedApproved = 0;
+        for (Object[] r : userRepository.countAdminListingByStatus(kwLike)) {
+            long total = ((Number) r[1]).longValue();
+            long matched = r[2] == null ? 0 : ((Number) r[2]).longValue();
+            totalUsers += total;
+            // Trạng thái null / khác APPROVED (không phân biệt hoa thường) => chờ duyệt
+            if (STATUS_APPROVED.equalsIgnoreCase((String) r[0])) {
+                approvedUsers += total;
+                matchedApproved += matched;
+            } else {
+                pendingUsers += total;
+                matchedPending += matched;
+            }
+        }
 
-        List<UserDTO> filtered = all.stream()
-                .filter(u -> {
-                    if ("pending".equals(st)) return Integer.valueOf(0).equals(u.getStatusValue());
-                    if ("approved".equals(st)) return Integer.valueOf(1).equals(u.getStatusValue());
-                    return true;
-                })
-                .filter(u -> {
-                    if (kw.isEmpty()) return true;
-                    String name = u.getFullName() == null ? "" : u.getFullName().toLowerCase();
-                    String email = u.getEmail() == null ? "" : u.getEmail().toLowerCase();
-                    return name.contains(kw) || email.contains(kw);
-                })
-                .collect(Collectors.toList());
+        long totalElements = "pending".equals(st) ? matchedPending
+                : "approved".equals(st) ? matchedApproved
+                : matchedPending + matchedApproved;
 
         int safeSize = size <= 0 ? 10 : size;
-        int totalPages = (int) Math.max(1, Math.ceil((double) filtered.size() / safeSize));
+        int totalPages = (int) Math.max(1, Math.ceil((double) totalElements / safeSize));
         int safePage = Math.max(0, Math.min(page, totalPages - 1));
-        int from = Math.min(safePage * safeSize, filtered.size());
-        int to = Math.min(from + safeSize, filtered.size());
 
-        return new com.backend.dto.UserPageDTO(
-                new java.util.ArrayList<>(filtered.subList(from, to)),
-                safePage,
+        Pageable pageable = afterId != null
+                ? PageRequest.of(0, safeSize + 1)
+                : PageRequest.of(safePage, safeSize);
+        List<User> rows = userRepository.findAdminListing(st, kwLike, afterId, pageable);
+
+        boolean hasMore = afterId != null
+                ? rows.size() > safeSize
+                : (long) (safePage + 1) * safeSize < totalElements;
+        if (rows.size() > safeSize) rows = rows.subList(0, safeSize);
+
+        com.backend.dto.UserPageDTO dto = new com.backend.dto.UserPageDTO(
+                rows.stream().map(this::convertToDTO).collect(Collectors.toList()),
+                afterId != null ? 0 : safePage,
                 safeSize,
-                filtered.size(),
+                totalElements,
                 totalPages,
                 totalUsers,
                 pendingUsers,
                 approvedUsers
         );
+        dto.setHasMore(hasMore);
+        dto.setNextAfterId(rows.isEmpty() ? null : rows.get(rows.size() - 1).getId());
+        return dto;
     }
 
     // controller cũ gọi updateUserStatus(userId, "approved"/"pending")
@@ -165,6 +184,7 @@ public class UserService {
                             .orElseThrow(() -> new RuntimeException("Không tìm thấy user_status code=" + code));
                     user.setStatus(st);
                     userRepository.save(user);
+                    recipientResolver.invalidateAfterCommit();
                     return true;
                 })
                 .orElse(false);
@@ -226,6 +246,7 @@ public class UserService {
     public boolean deleteUser(Long userId) {
         if (!userRepository.existsById(userId)) return false;
         userRepository.deleteById(userId);
+        recipientResolver.invalidateAfterCommit();
         return true;
     }
 
@@ -238,6 +259,7 @@ public class UserService {
                             .orElseThrow(() -> new RuntimeException("Không tìm thấy role code=" + roleCode));
                     user.setRole(role);
                     userRepository.save(user);
+                    recipientResolver.invalidateAfterCommit();
                     return true;
                 })
                 .orElse(false);
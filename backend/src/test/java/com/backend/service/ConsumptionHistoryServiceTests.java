@@ -0,0 +1,109 @@
+package com.backend.service;
+
+import com.backend.entity.*;
+import com.backend.repository.DepartmentRepository;
+import com.backend.repository.MaterialConsumptionRepository;
+import jakarta.persistence.EntityManager;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+@SpringBootTest
+@Transactional
+class ConsumptionHistoryServiceTests {
+
+    @Autowired private ConsumptionHistoryService consumptionHistoryService;
+    @Autowired private EntityManager entityManager;
+    @Autowired private ServiceTestFixtures fixtures;
+
+    @Autowired private DepartmentRepository departmentRepository;
+    @Autowired private MaterialConsumptionRepository consumptionRepository;
+
+    private Department dept;
+    private Material m0;
+    private Material m1;
+
+    @BeforeEach
+    void setUp() {
+        dept = new Department();
+        dept.setName("Khoa tiêu thụ");
+        dept = departmentRepository.save(dept);
+
+        m0 = fixtures.material("CH-0");
+        m1 = fixtures.material("CH-1");
+    }
+
+    @Test
+    void academicYearStartsInSeptember() {
+        assertEquals("2025-2026", ConsumptionHistoryService.academicYearOf(LocalDate.of(2025, 9, 1)));
+        assertEquals("2024-2025", ConsumptionHistoryService.academicYearOf(LocalDate.of(2025, 8, 31)));
+        assertEquals("2025-2026", ConsumptionHistoryService.academicYearOf(LocalDate.of(2026, 8, 31)));
+        assertEquals("2024-2025", ConsumptionHistoryService.previousAcademicYear("2025-2026"));
+        assertThrows(RuntimeException.class, () -> ConsumptionHistoryService.previousAcademicYear("abc"));
+    }
+
+    @Test
+    void issuesAccumulatePerAcademicYearDepartmentAndMaterial() {
+        // m0 xuất 2 dòng trong cùng phiếu => cộng vào 1 dòng, tính 1 lần xuất
+        consumptionHistoryService.recordIssue(issue(dept, LocalDate.of(2025, 10, 15), m0, "10", m0, "5", m1, "3"));
+        consumptionHistoryService.recordIssue(issue(dept, LocalDate.of(2026, 3, 2), m0, "10"));
+        // Năm học sau: dòng riêng
+        consumptionHistoryService.recordIssue(issue(dept, LocalDate.of(2026, 9, 1), m0, "7"));
+        // Không gắn khoa / số lượng 0: bỏ qua
+        consumptionHistoryService.recordIssue(issue(null, LocalDate.of(2025, 10, 20), m0, "100"));
+        consumptionHistoryService.recordIssue(issue(dept, LocalDate.of(2025, 10, 20), m1, "0"));
+
+        entityManager.flush();
+        entityManager.clear();
+
+        MaterialConsumption c0 = consumption("2025-2026", m0);
+        assertEquals(0, new BigDecimal("25").compareTo(c0.getQtyIssued()));
+        assertEquals(2, c0.getIssueCount());
+        assertEquals(LocalDate.of(2026, 3, 2), c0.getLastIssueDate());
+
+        MaterialConsumption c1 = consumption("2025-2026", m1);
+        assertEquals(0, new BigDecimal("3").compareTo(c1.getQtyIssued()));
+        assertEquals(1, c1.getIssueCount());
+
+        assertEquals(0, new BigDecimal("7").compareTo(consumption("2026-2027", m0).getQtyIssued()));
+        assertEquals(3, consumptionRepository.count());
+
+        // Phiếu ghi muộn với ngày xuất cũ hơn không lùi ngày xuất gần nhất
+        consumptionHistoryService.recordIssue(issue(dept, LocalDate.of(2025, 11, 1), m0, "1"));
+        entityManager.flush();
+        entityManager.clear();
+        assertEquals(LocalDate.of(2026, 3, 2), consumption("2025-2026", m0).getLastIssueDate());
+    }
+
+    // ---------------------------------------------------------------------
+
+    /** Phiếu xuất chưa lưu: chỉ cần khoa, ngày xuất và các dòng (vật tư, số lượng thực xuất). */
+    private IssueHeader issue(Department department, LocalDate issueDate, Object... lines) {
+        IssueHeader h = new IssueHeader();
+        h.setDepartment(department);
+        h.setIssueDate(issueDate);
+        for (int i = 0; i < lines.length; i += 2) {
+            IssueDetail d = new IssueDetail();
+            d.setHeader(h);
+            d.setMaterial((Material) lines[i]);
+            d.setQtyIssued(new BigDecimal((String) lines[i + 1]));
+            h.getDetails().add(d);
+        }
+        return h;
+    }
+
+    private MaterialConsumption consumption(String year, Material m) {
+        List<MaterialConsumption> rows = consumptionRepository.lockForUpdate(year, dept.getId(), List.of(m.getId()));
+        assertEquals(1, rows.size());
+        return rows.get(0);
+    }
+}
@@ -0,0 +1,185 @@
+package com.backend.service;
+
+import com.backend.dto.MaterialStockDTO;
+import com.backend.dto.MaterialStockPageDTO;
+import com.backend.entity.*;
+import com.backend.event.StockChangedEvent;
+import com.backend.repository.*;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+@SpringBootTest
+@Transactional
+class InventorySummaryServiceTests {
+
+    @Autowired private InventorySummaryService inventorySummaryService;
+    @Autowired private StockSnapshotCache stockSnapshotCache;
+    @Autowired private ServiceTestFixtures fixtures;
+
+    @Autowired private InventoryCardRepository inventoryCardRepository;
+    @Autowired private LotBalanceRepository lotBalanceRepository;
+    @Autowired private IssueReqHeaderRepository issueReqHeaderRepository;
+    @Autowired private IssueReservationRepository issueReservationRepository;
+
+    private Material gloves;
+
+    @BeforeEach
+    void setUp() {
+        gloves = fixtures.material("GLOVE-100");
+    }
+
+    @Test
+    void stockUsesLatestBalancePerLotNotSumOfLedgerRows() {
+        // Lô A: nhập 100, xuất 30, xuất 20 => còn 50
+        receive(gloves, "LOT-A", "100");
+        issue(gloves, "LOT-A", "30");
+        issue(gloves, "LOT-A", "20");
+
+        // Lô B: nhập 40, nhập thêm 10, xuất 15 => còn 35
+        receive(gloves, "LOT-B", "40");
+        receive(gloves, "LOT-B", "10");
+        issue(gloves, "LOT-B", "15");
+
+        // Giữ chỗ ACTIVE 5 trên lô B, 7 CANCELLED không được trừ
+        reserve(gloves, "LOT-B", "5", "ACTIVE");
+        reserve(gloves, "LOT-B", "7", "CANCELLED");
+
+        assertEquals(0, new BigDecimal("80").compareTo(stockOf(gloves)));
+        assertEquals(0, new BigDecimal("80").compareTo(searchedStockOf(gloves)));
+        assertEquals(0, inventorySummaryService.getMaterialStockSummary(null, "out", 0, 10).getTotalElements());
+        assertEquals(0, inventorySummaryService.getMaterialStockSummary("glove", "low", 0, 10).getTotalElements());
+        assertEquals(6, inventoryCardRepository.count());
+        assertEquals(2, lotBalanceRepository.count());
+    }
+
+    @Test
+    void aggregationCostStaysFlatAsLedgerHistoryGrows() {
+        receive(gloves, "LOT-A", "100000");
+        receive(gloves, "LOT-B", "100000");
+
+        long shortHistoryStatements = aggregationStatements();
+
+        // Thêm 2000 dòng lịch sử xuất kho — số dòng lot_balance phải giữ nguyên
+        for (int i = 0; i < 1000; i++) {
+            issue(gloves, "LOT-A", "1");
+            issue(gloves, "LOT-B", "1");
+        }
+
+        long longHistoryStatements = aggregationStatements();
+
+        assertEquals(2002, inventoryCardRepository.count());
+        assertEquals(2, lotBalanceRepository.count());
+        assertEquals(0, new BigDecimal("198000").compareTo(stockOf(gloves)));
+        assertEquals(shortHistoryStatements, longHistoryStatements);
+    }
+
+    @Test
+    void snapshotServesReadsFromMemoryUntilStockChangedEvent() {
+        receive(gloves, "LOT-A", "100");
+        assertEquals(0, new BigDecimal("100").compareTo(stockOf(gloves)));
+
+        long missesBefore = counter("misses");
+        long hitsBefore = counter("hits");
+
+        // Không có thay đổi => đọc thuần bộ nhớ
+        stockOf(gloves);
+        stockOf(gloves);
+        assertEquals(missesBefore, counter("misses"));
+        assertEquals(hitsBefore + 2, counter("hits"));
+
+        // Giữ chỗ 30 => chỉ material này được nạp lại
+        reserve(gloves, "LOT-A", "30", "ACTIVE");
+        assertEquals(0, new BigDecimal("70").compareTo(stockOf(gloves)));
+        assertEquals(missesBefore + 1, counter("misses"));
+    }
+
+    @Test
+    void keywordWildcardsMatchLiterally() {
+        Material acid = fixtures.material("ACID_5%");
+        Material lookalike = fixtures.material("ACIDX5Y");
+        receive(acid, "LOT-A", "10");
+        receive(lookalike, "LOT-A", "10");
+
+        // "_" và "%" trong từ khoá là chữ thường, không phải ký tự đại diện
+        MaterialStockPageDTO page = inventorySummaryService.getMaterialStockSummary("id_5%", "all", 0, 10);
+        assertEquals(1, page.getTotalElements());
+        assertEquals(acid.getId(), page.getItems().get(0).getMaterialId());
+        assertEquals(0, inventorySummaryService.getMaterialStockSummary("acid%y", "all", 0, 10).getTotalElements());
+    }
+
+    // ---------------------------------------------------------------------
+
+    /** Số câu SQL khi nạp lại toàn bộ snapshot (câu aggregate trên lot_balance). */
+    private long aggregationStatements() {
+        return fixtures.countStatements(() -> {
+            stockSnapshotCache.invalidateAll();
+            inventorySummaryService.getMaterialStockSummary(null, "all", 0, 10);
+        });
+    }
+
+    private long counter(String name) {
+        Map<String, Object> stats = stockSnapshotCache.getStats();
+        return ((Number) stats.get(name)).longValue();
+    }
+
+    /**
+     * Test chạy trong 1 transaction rollback nên listener AFTER_COMMIT không chạy:
+     * gọi trực tiếp như khi transaction nghiệp vụ commit.
+     */
+    private void stockChanged(Material m) {
+        stockSnapshotCache.onStockChanged(StockChangedEvent.of(List.of(m.getId()), "TEST"));
+    }
+
+    /** Đọc qua snapshot (không keyword). */
+    private BigDecimal stockOf(Material m) {
+        return stockIn(inventorySummaryService.getMaterialStockSummary(null, "all", 0, 10), m);
+    }
+
+    /** Đọc qua nhánh tìm kiếm ở DB (có keyword). */
+    private BigDecimal searchedStockOf(Material m) {
+        return stockIn(inventorySummaryService.getMaterialStockSummary(m.getCode(), "all", 0, 10), m);
+    }
+
+    private BigDecimal stockIn(MaterialStockPageDTO page, Material m) {
+        return page.getItems().stream()
+                .filter(x -> m.getId().equals(x.getMaterialId()))
+                .map(MaterialStockDTO::getClosingStock)
+                .findFirst()
+                .orElseThrow();
+    }
+
+    private void receive(Material m, String lot, String qty) {
+        fixtures.receive(m, lot, qty, LocalDate.now().plusYears(2));
+        stockChanged(m);
+    }
+
+    private void issue(Material m, String lot, String qty) {
+        fixtures.issue(m, lot, qty);
+        stockChanged(m);
+    }
+
+    private void reserve(Material m, String lot, String qty, String statusCode) {
+        IssueReqHeader req = new IssueReqHeader();
+        req.setStatus(fixtures.docStatus("APPROVED", "Đã duyệt"));
+        req = issueReqHeaderRepository.save(req);
+
+        IssueReservation r = new IssueReservation();
+        r.setIssueReqHeader(req);
+        r.setMaterial(m);
+        r.setLotNumber(lot);
+        r.setQtyReserved(new BigDecimal(qty));
+        r.setStatus(fixtures.reservationStatus(statusCode));
+        issueReservationRepository.save(r);
+        stockChanged(m);
+    }
+}
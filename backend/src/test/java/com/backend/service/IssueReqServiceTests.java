@@ -0,0 +1,174 @@
+package com.backend.service;
+
+import com.backend.dto.IssueReqHeaderDTO;
+import com.backend.dto.IssueReqListResponseDTO;
+import com.backend.entity.*;
+import com.backend.repository.*;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.when;
+
+@SpringBootTest
+@Transactional
+class IssueReqServiceTests {
+
+    @Autowired private IssueReqService issueReqService;
+    @Autowired private IssueReqStatusCounts issueReqStatusCounts;
+    @Autowired private ServiceTestFixtures fixtures;
+
+    @Autowired private IssueReqHeaderRepository issueReqHeaderRepository;
+
+    @MockBean private RbacService rbacService;
+
+    private User thuKho;
+    private DocStatus approved;
+
+    @BeforeEach
+    void setUp() {
+        when(rbacService.hasPermission(any(User.class), anyString())).thenReturn(true);
+
+        thuKho = fixtures.user("THU_KHO_REQ", "Thủ kho phiếu xin lĩnh", "thukho-req@example.com");
+        approved = fixtures.docStatus("APPROVED", "Đã duyệt");
+    }
+
+    @Test
+    void canBoRequestListPagesInDatabaseAndScrollsByCursor() {
+        // 25 phiếu cùng thời điểm tạo theo cặp => thứ tự phải phá hòa bằng id
+        Material m = fixtures.material("MY-0");
+        LocalDateTime base = LocalDateTime.of(2025, 1, 1, 8, 0);
+        for (int i = 0; i < 25; i++) {
+            IssueReqHeader req = new IssueReqHeader();
+            req.setStatus(approved);
+            req.setCreatedBy(thuKho);
+            req.setRequestedAt(base.plusMinutes(i / 2));
+            req.setNote(i % 5 == 0 ? "Phòng mổ " + i : "Thường quy " + i);
+            req.getDetails().add(fixtures.detail(req, m, "1"));
+            issueReqHeaderRepository.save(req);
+        }
+
+        IssueReqListResponseDTO[] res = new IssueReqListResponseDTO[1];
+        long small = fixtures.countStatements(() -> res[0] = issueReqService.getRequestsForCanBo(thuKho.getId(), null, 0, 5));
+        long large = fixtures.countStatements(() -> res[0] = issueReqService.getRequestsForCanBo(thuKho.getId(), null, 1, 20));
+        assertEquals(small, large);
+        assertEquals(5, res[0].getRequests().size());
+        assertEquals(2, res[0].getTotalPages());
+        assertEquals(25L, res[0].getTotalCount());
+        assertEquals(25, res[0].getApprovedCount());
+
+        // trang vượt quá cuối => trang cuối
+        res[0] = issueReqService.getRequestsForCanBo(thuKho.getId(), "phòng mổ", 9, 2);
+        assertEquals(2, res[0].getPage());
+        assertEquals(5L, res[0].getFilteredCount());
+        assertEquals(1, res[0].getRequests().size());
+        assertEquals(1, res[0].getRequests().get(0).getDetails().size());
+
+        // cuộn hết bằng cursor: đủ 25 phiếu, không trùng, mới nhất trước
+        List<IssueReqHeaderDTO> scrolled = new ArrayList<>();
+        String cursor = null;
+        do {
+            IssueReqListResponseDTO page = issueReqService.getRequestsForCanBoFeed(thuKho.getId(), "", cursor, 4);
+            assertTrue(page.isSuccess(), page.getMessage());
+            scrolled.addAll(page.getRequests());
+            cursor = page.getNextCursor();
+        } while (cursor != null);
+
+        assertEquals(25, scrolled.size());
+        Set<Long> seen = new HashSet<>();
+        for (int i = 0; i < scrolled.size(); i++) {
+            assertTrue(seen.add(scrolled.get(i).getId()));
+            if (i > 0) assertFalse(scrolled.get(i).getRequestedAt().isAfter(scrolled.get(i - 1).getRequestedAt()));
+        }
+    }
+
+    @Test
+    void leaderProcessedQueueScrollsByCursorWithCachedStatusCounts() {
+        DocStatus rejected = fixtures.docStatus("REJECTED", "Từ chối");
+        Material m = fixtures.material("LEAD-0");
+        for (int i = 0; i < 30; i++) {
+            IssueReqHeader req = new IssueReqHeader();
+            req.setStatus(i % 3 == 0 ? rejected : approved);
+            req.getDetails().add(fixtures.detail(req, m, "1"));
+            issueReqHeaderRepository.save(req);
+        }
+        issueReqStatusCounts.invalidate();
+
+        IssueReqListResponseDTO[] res = new IssueReqListResponseDTO[1];
+        long first = fixtures.countStatements(() -> res[0] = issueReqService.getProcessedRequestsForLeader(thuKho.getId(), null, 5));
+        assertEquals(30L, res[0].getTotalCount());
+        assertEquals(20, res[0].getApprovedCount());
+        assertEquals(10, res[0].getRejectedCount());
+
+        // trang sau: không đếm lại (cache), số câu không phụ thuộc cỡ trang
+        String cursor = res[0].getNextCursor();
+        long small = fixtures.countStatements(() -> res[0] = issueReqService.getProcessedRequestsForLeader(thuKho.getId(), cursor, 5));
+        long large = fixtures.countStatements(() -> res[0] = issueReqService.getProcessedRequestsForLeader(thuKho.getId(), cursor, 25));
+        assertEquals(small, large);
+        assertEquals(first - 1, small);
+        assertEquals(25, res[0].getRequests().size());
+        assertFalse(res[0].getHasMore());
+
+        Set<Long> seen = new HashSet<>();
+        String next = null;
+        do {
+            IssueReqListResponseDTO page = issueReqService.getProcessedRequestsForLeader(thuKho.getId(), next, 7);
+            assertTrue(page.isSuccess(), page.getMessage());
+            page.getRequests().forEach(r -> assertTrue(seen.add(r.getId())));
+            next = page.getNextCursor();
+        } while (next != null);
+        assertEquals(30, seen.size());
+    }
+
+    @Test
+    void leaderPendingQueueKeysetDoesNotSkipOrRepeatAcrossTiedTimestamps() {
+        // 12 phiếu chờ duyệt, 3 mốc requestedAt x 4 phiếu; trang 5 => ranh giới trang rơi giữa các nhóm cùng mốc
+        DocStatus pending = fixtures.docStatus("PENDING", "Chờ duyệt");
+        Material m = fixtures.material("TIE-0");
+        LocalDateTime base = LocalDateTime.of(2025, 2, 1, 9, 0);
+        List<Long> created = new ArrayList<>();
+        for (int i = 0; i < 12; i++) {
+            IssueReqHeader req = new IssueReqHeader();
+            req.setStatus(pending);
+            req.setRequestedAt(base.plusHours(i % 3));
+            req.getDetails().add(fixtures.detail(req, m, "1"));
+            created.add(issueReqHeaderRepository.save(req).getId());
+        }
+        issueReqStatusCounts.invalidate();
+
+        List<IssueReqHeaderDTO> scrolled = new ArrayList<>();
+        List<Integer> pageSizes = new ArrayList<>();
+        String cursor = null;
+        do {
+            IssueReqListResponseDTO page = issueReqService.getPendingRequestsForLeader(thuKho.getId(), cursor, 5);
+            assertTrue(page.isSuccess(), page.getMessage());
+            scrolled.addAll(page.getRequests());
+            pageSizes.add(page.getRequests().size());
+            cursor = page.getNextCursor();
+        } while (cursor != null);
+
+        assertEquals(List.of(5, 5, 2), pageSizes);
+        // (requestedAt DESC, id DESC): mốc muộn nhất trước, cùng mốc thì id lớn trước
+        List<Long> expected = new ArrayList<>();
+        for (int h = 2; h >= 0; h--) {
+            for (int i = created.size() - 1; i >= 0; i--) {
+                if (i % 3 == h) expected.add(created.get(i));
+            }
+        }
+        assertEquals(expected, scrolled.stream().map(IssueReqHeaderDTO::getId).toList());
+    }
+}
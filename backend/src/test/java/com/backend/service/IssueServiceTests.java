@@ -0,0 +1,284 @@
+package com.backend.service;
+
+import com.backend.dto.CreateIssueFromReqDTO;
+import com.backend.dto.EligibleIssueReqResponseDTO;
+import com.backend.dto.IssueFeedItemDTO;
+import com.backend.dto.IssueFeedResponseDTO;
+import com.backend.dto.IssuePreviewResponseDTO;
+import com.backend.dto.IssueResponseDTO;
+import com.backend.entity.*;
+import com.backend.repository.*;
+import jakarta.persistence.EntityManager;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.when;
+
+@SpringBootTest
+@Transactional
+class IssueServiceTests {
+
+    @Autowired private IssueService issueService;
+    @Autowired private IssuedRequestService issuedRequestService;
+    @Autowired private LotBalanceService lotBalanceService;
+    @Autowired private LotLockManager lotLockManager;
+    @Autowired private EntityManager entityManager;
+    @Autowired private ServiceTestFixtures fixtures;
+
+    @Autowired private MaterialRepository materialRepository;
+    @Autowired private IssueReqHeaderRepository issueReqHeaderRepository;
+    @Autowired private IssueHeaderRepository issueHeaderRepository;
+    @Autowired private DepartmentRepository departmentRepository;
+
+    @MockBean private RbacService rbacService;
+
+    private User thuKho;
+    private DocStatus approved;
+
+    @BeforeEach
+    void setUp() {
+        when(rbacService.hasPermission(any(User.class), anyString())).thenReturn(true);
+
+        thuKho = fixtures.user("THU_KHO_T", "Thủ kho test", "thukho-test@example.com");
+        approved = fixtures.docStatus("APPROVED", "Đã duyệt");
+    }
+
+    @Test
+    void previewStatementCountDoesNotGrowWithLineCount() {
+        IssueReqHeader small = fixtures.approvedRequestWithLines("S", 2);
+        IssueReqHeader large = fixtures.approvedRequestWithLines("L", 40);
+
+        long smallStatements = fixtures.countStatements(() -> assertPreviewOk(small.getId()));
+        long largeStatements = fixtures.countStatements(() -> assertPreviewOk(large.getId()));
+        assertEquals(smallStatements, largeStatements);
+    }
+
+    @Test
+    void eligibilityEngineAt2000RequestsUsesFixedStatementCount() {
+        // 5 vật tư x 300 tồn; 2000 phiếu, mỗi phiếu xin 1 đơn vị của 1 vật tư
+        // => theo thứ tự ưu tiên: 300 phiếu đầu mỗi vật tư đủ tồn, 100 phiếu sau thiếu.
+        List<Material> materials = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            Material m = fixtures.material("ELIG-" + i);
+            fixtures.receive(m, "LOT-1", "300", LocalDate.now().plusYears(1));
+            materials.add(m);
+        }
+        for (int i = 0; i < 2000; i++) {
+            Material m = materials.get(i % materials.size());
+            IssueReqHeader req = new IssueReqHeader();
+            req.setStatus(approved);
+            req.getDetails().add(fixtures.detail(req, m, "1"));
+            issueReqHeaderRepository.save(req);
+        }
+
+        long smallStatements = fixtures.countStatements(() -> eligibleWithReasons(20));
+
+        EligibleIssueReqResponseDTO[] result = new EligibleIssueReqResponseDTO[1];
+        long largeStatements = fixtures.countStatements(() -> result[0] = eligibleWithReasons(2000));
+
+        Map<String, Object> summary = result[0].getSummary();
+        assertEquals(2000, summary.get("checked"));
+        assertEquals(1500, summary.get("eligible"));
+        assertEquals(500, summary.get("rejectedNotEnoughStock"));
+        assertEquals(smallStatements, largeStatements);
+    }
+
+    @Test
+    void issueLocksEveryLotInOneOrderedStatement() {
+        IssueReqHeader req = fixtures.approvedRequestWithLines("LK", 10);
+
+        long statementsBefore = (Long) lotLockManager.getStats().get("statements");
+        long rowsBefore = (Long) lotLockManager.getStats().get("rowsLocked");
+
+        CreateIssueFromReqDTO dto = new CreateIssueFromReqDTO();
+        dto.setIssueReqId(req.getId());
+        IssueResponseDTO res = issueService.createIssueFromApprovedRequest(dto, thuKho.getId());
+        assertTrue(res.isSuccess(), res.getMessage());
+
+        // 10 vật tư x 2 lô (LOT-1 còn 15 sau giữ chỗ phiếu khác, phần còn lại lấy từ LOT-2)
+        assertEquals(1L, (Long) lotLockManager.getStats().get("statements") - statementsBefore);
+        assertEquals(20L, (Long) lotLockManager.getStats().get("rowsLocked") - rowsBefore);
+
+        entityManager.flush();
+        entityManager.clear();
+        Material first = materialRepository.findByCode("LK-0");
+        assertEquals(0, new BigDecimal("5").compareTo(
+                lotBalanceService.lockBalance(first.getId(), "LOT-1").orElseThrow().getClosingStock()));
+        assertEquals(0, new BigDecimal("35").compareTo(
+                lotBalanceService.lockBalance(first.getId(), "LOT-2").orElseThrow().getClosingStock()));
+    }
+
+    @Test
+    void createIssueStatementCountDoesNotGrowWithLineCount() {
+        IssueReqHeader small = fixtures.approvedRequestWithLines("CI-S", 2);
+        IssueReqHeader large = fixtures.approvedRequestWithLines("CI-L", 20);
+
+        // giữ chỗ ACTIVE nạp sẵn khi lập phương án FEFO: không truy vấn theo từng lô
+        long smallStatements = fixtures.countStatements(() -> {
+            issue(small, LocalDate.now());
+            entityManager.flush();
+        });
+        long largeStatements = fixtures.countStatements(() -> {
+            issue(large, LocalDate.now());
+            entityManager.flush();
+        });
+        assertEquals(smallStatements, largeStatements);
+    }
+
+    @Test
+    void secondIssueOfSameRequestIsRejected() {
+        IssueReqHeader req = fixtures.approvedRequestWithLines("TWICE", 1);
+        issue(req, LocalDate.now());
+        assertTrue(issuedRequestService.isIssued(req.getId()));
+
+        CreateIssueFromReqDTO dto = new CreateIssueFromReqDTO();
+        dto.setIssueReqId(req.getId());
+        IssueResponseDTO again = issueService.createIssueFromApprovedRequest(dto, thuKho.getId());
+
+        assertFalse(again.isSuccess());
+        assertTrue(again.getMessage().contains("đã được xuất kho"), again.getMessage());
+        assertEquals(1, issueHeaderRepository.findIssuedReqIds(List.of(req.getId())).size());
+    }
+
+    @Test
+    void legacyMarkersAreLinkedToTheFirstIssueOfEachRequest() {
+        IssueReqHeader legacyReq = new IssueReqHeader();
+        legacyReq.setStatus(approved);
+        legacyReq = issueReqHeaderRepository.save(legacyReq);
+        IssueReqHeader linkedReq = new IssueReqHeader();
+        linkedReq.setStatus(approved);
+        linkedReq = issueReqHeaderRepository.save(linkedReq);
+
+        IssueHeader first = legacyIssue("Khoa A (IssueReq#" + legacyReq.getId() + ")", null);
+        IssueHeader duplicate = legacyIssue("Khoa A (IssueReq#" + legacyReq.getId() + ")", null);
+        legacyIssue("Khoa B (IssueReq#" + linkedReq.getId() + ")", null);
+        legacyIssue("Khoa B", linkedReq);
+        legacyIssue("Khoa C (IssueReq#999999999)", null);
+
+        Map<String, Object> result = issuedRequestService.backfillFromLegacyMarkers();
+        assertEquals(4, result.get("legacyRows"));
+        assertEquals(1, result.get("updated"));
+
+        entityManager.flush();
+        entityManager.clear();
+        assertEquals(legacyReq.getId(), issueHeaderRepository.findById(first.getId()).orElseThrow().getIssueReq().getId());
+        assertNull(issueHeaderRepository.findById(duplicate.getId()).orElseThrow().getIssueReq());
+        assertTrue(issuedRequestService.isIssued(legacyReq.getId()));
+        assertEquals(0L, issueHeaderRepository.countDuplicateIssueReqLinks());
+
+        // Chạy lại không đổi gì
+        assertEquals(0, issuedRequestService.backfillFromLegacyMarkers().get("updated"));
+    }
+
+    @Test
+    void feedWalksKeysetCursorWithProjectedTotals() {
+        Department dept = new Department();
+        dept.setName("Khoa feed xuất");
+        dept = departmentRepository.save(dept);
+        Material m0 = fixtures.material("FEED-0");
+        Material m1 = fixtures.material("FEED-1");
+
+        // 7 phiếu, ngày xuất xen kẽ (4 phiếu cùng 02/03, 3 phiếu cùng 01/03): feed vẫn theo id giảm dần
+        List<IssueHeader> created = new ArrayList<>();
+        for (int i = 0; i < 7; i++) {
+            IssueHeader h = new IssueHeader();
+            h.setCreatedBy(thuKho);
+            h.setDepartment(dept);
+            h.setReceiverName("Người nhận " + i);
+            h.setIssueDate(i % 2 == 0 ? LocalDate.of(2025, 3, 2) : LocalDate.of(2025, 3, 1));
+            h.setTotalAmount(new BigDecimal(100 * (i + 1)));
+            for (Material m : i % 3 == 0 ? List.of(m0, m1) : List.of(m0)) {
+                IssueDetail d = new IssueDetail();
+                d.setHeader(h);
+                d.setMaterial(m);
+                d.setQtyIssued(BigDecimal.ONE);
+                h.getDetails().add(d);
+            }
+            created.add(issueHeaderRepository.save(h));
+        }
+        List<Long> expected = created.stream().map(IssueHeader::getId)
+                .sorted(Comparator.reverseOrder()).toList();
+
+        List<IssueFeedItemDTO> seen = new ArrayList<>();
+        Long afterId = null;
+        boolean hasMore;
+        int pages = 0;
+        do {
+            IssueFeedResponseDTO page = issueService.feedIssues(afterId, 3, thuKho.getId(), null);
+            assertTrue(page.isSuccess(), page.getMessage());
+            seen.addAll(page.getItems());
+            afterId = (Long) page.getSummary().get("nextAfterId");
+            hasMore = (Boolean) page.getSummary().get("hasMore");
+            pages++;
+        } while (hasMore);
+
+        assertEquals(3, pages);
+        assertEquals(expected, seen.stream().map(IssueFeedItemDTO::getId).toList());
+        for (IssueFeedItemDTO item : seen) {
+            int i = created.stream().map(IssueHeader::getId).toList().indexOf(item.getId());
+            assertEquals(0, new BigDecimal(100 * (i + 1)).compareTo(item.getTotalAmount()), "issue " + i);
+            assertEquals(i % 3 == 0 ? 2 : 1, item.getMaterialTypeCount(), "issue " + i);
+            assertEquals("Người nhận " + i, item.getReceiverName());
+            assertEquals("Khoa feed xuất", item.getDepartmentName());
+            assertEquals(thuKho.getFullName(), item.getCreatedByName());
+        }
+
+        // Trang sau phiếu cuối: rỗng, cursor giữ nguyên
+        IssueFeedResponseDTO end = issueService.feedIssues(afterId, 3, thuKho.getId(), null);
+        assertTrue(end.getItems().isEmpty());
+        assertEquals(afterId, end.getSummary().get("nextAfterId"));
+
+        // 1 câu projection / trang, không phụ thuộc cỡ trang
+        long small = fixtures.countStatements(() -> issueService.feedIssues(null, 2, thuKho.getId(), null));
+        long large = fixtures.countStatements(() -> issueService.feedIssues(null, 7, thuKho.getId(), null));
+        assertEquals(small, large);
+    }
+
+    // ---------------------------------------------------------------------
+
+    private void issue(IssueReqHeader req, LocalDate issueDate) {
+        CreateIssueFromReqDTO dto = new CreateIssueFromReqDTO();
+        dto.setIssueReqId(req.getId());
+        dto.setIssueDate(issueDate);
+        IssueResponseDTO res = issueService.createIssueFromApprovedRequest(dto, thuKho.getId());
+        assertTrue(res.isSuccess(), res.getMessage());
+    }
+
+    private IssueHeader legacyIssue(String receiverName, IssueReqHeader linkedReq) {
+        IssueHeader h = new IssueHeader();
+        h.setCreatedBy(thuKho);
+        h.setReceiverName(receiverName);
+        h.setIssueReq(linkedReq);
+        h.setIssueDate(LocalDate.of(2024, 5, 1));
+        return issueHeaderRepository.save(h);
+    }
+
+    private EligibleIssueReqResponseDTO eligibleWithReasons(int limit) {
+        EligibleIssueReqResponseDTO res = issueService.getEligibleApprovedRequestsWithReasons(
+                thuKho.getId(), null, null, limit, null, null, 0, 0, 10);
+        assertTrue(res.isSuccess(), res.getMessage());
+        return res;
+    }
+
+    private void assertPreviewOk(Long issueReqId) {
+        IssuePreviewResponseDTO res = issueService.previewIssueFromApprovedRequest(issueReqId, thuKho.getId());
+        assertTrue(res.isSuccess(), res.getMessage());
+    }
+}
@@ -0,0 +1,104 @@
+package com.backend.service;
+
+import com.backend.dto.CreateIssueFromReqDTO;
+import com.backend.dto.IssueResponseDTO;
+import com.backend.entity.*;
+import com.backend.repository.InventoryCardRepository;
+import com.backend.repository.LotBalanceRepository;
+import com.backend.repository.MaterialRepository;
+import jakarta.persistence.EntityManager;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.when;
+
+@SpringBootTest
+@Transactional
+class LotBalanceServiceTests {
+
+    @Autowired private LotBalanceService lotBalanceService;
+    @Autowired private IssueService issueService;
+    @Autowired private EntityManager entityManager;
+    @Autowired private ServiceTestFixtures fixtures;
+
+    @Autowired private MaterialRepository materialRepository;
+    @Autowired private LotBalanceRepository lotBalanceRepository;
+    @Autowired private InventoryCardRepository inventoryCardRepository;
+
+    @MockBean private RbacService rbacService;
+
+    private User thuKho;
+
+    @BeforeEach
+    void setUp() {
+        when(rbacService.hasPermission(any(User.class), anyString())).thenReturn(true);
+
+        thuKho = fixtures.user("THU_KHO_LB", "Thủ kho tồn lô", "thukho-lot@example.com");
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void consistencyCheckFindsPlantedMismatchesAndRebuildRestoresLedger() {
+        // Luồng thật: nhập 2 lô / vật tư rồi xuất 30 / vật tư (FEFO: hết LOT-1, LOT-2 còn 45)
+        IssueReqHeader req = fixtures.approvedRequestWithLines("LB", 3);
+        CreateIssueFromReqDTO dto = new CreateIssueFromReqDTO();
+        dto.setIssueReqId(req.getId());
+        dto.setIssueDate(LocalDate.now());
+        IssueResponseDTO res = issueService.createIssueFromApprovedRequest(dto, thuKho.getId());
+        assertTrue(res.isSuccess(), res.getMessage());
+        entityManager.flush();
+
+        assertEquals(true, lotBalanceService.checkConsistency().get("consistent"));
+
+        // Lệch số tồn + dòng lot_balance không có thẻ kho nào
+        Material m0 = materialRepository.findByCode("LB-0");
+        LotBalance lot2 = lotBalanceRepository.findByMaterial_IdAndLotNumber(m0.getId(), "LOT-2").orElseThrow();
+        BigDecimal ledgerClosing = lot2.getClosingStock();
+        lot2.setClosingStock(ledgerClosing.add(BigDecimal.ONE));
+
+        LotBalance ghost = lotBalanceService.newBalance(m0, "GHOST");
+        ghost.setClosingStock(BigDecimal.TEN);
+        ghost.setLastCardId(lot2.getLastCardId());
+        lotBalanceRepository.save(ghost);
+        entityManager.flush();
+
+        Map<String, Object> check = lotBalanceService.checkConsistency();
+        assertFalse((Boolean) check.get("consistent"));
+        assertEquals(2, check.get("mismatchCount"));
+        List<Map<String, Object>> mismatches = (List<Map<String, Object>>) check.get("mismatches");
+        assertEquals(List.of("GHOST", "LOT-2"), mismatches.stream().map(m -> m.get("lotNumber")).sorted().toList());
+        for (Map<String, Object> m : mismatches) assertEquals(m0.getId(), m.get("materialId"));
+
+        Map<String, Object> rebuilt = lotBalanceService.rebuildFromLedger();
+        entityManager.clear();
+
+        assertEquals(lotBalanceRepository.count(), ((Number) rebuilt.get("inserted")).longValue());
+        assertEquals(true, lotBalanceService.checkConsistency().get("consistent"));
+        LotBalance restored = lotBalanceRepository.findByMaterial_IdAndLotNumber(m0.getId(), "LOT-2").orElseThrow();
+        assertEquals(0, ledgerClosing.compareTo(restored.getClosingStock()));
+        assertTrue(lotBalanceRepository.findByMaterial_IdAndLotNumber(m0.getId(), "GHOST").isEmpty());
+    }
+
+    @Test
+    void cardSequenceIncrementMatchesAllocationSize() {
+        List<Number> increments = inventoryCardRepository.findSequenceIncrements(InventoryCard.ID_SEQUENCE);
+        assertEquals(1, increments.size());
+        assertEquals(InventoryCard.ID_ALLOCATION_SIZE, increments.get(0).longValue());
+
+        lotBalanceService.verifyCardSequenceIncrement();
+    }
+}
@@ -0,0 +1,158 @@
+package com.backend.service;
+
+import com.backend.dto.BasicResponseDTO;
+import com.backend.dto.CreateReceiptDTO;
+import com.backend.dto.MaterialDTO;
+import com.backend.entity.Material;
+import com.backend.entity.User;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SpringBootTest
+@Transactional
+class MaterialCatalogCacheTests {
+
+    @Autowired private MaterialCatalogCache materialCatalog;
+    @Autowired private MaterialService materialService;
+    @Autowired private ReceiptImportService receiptImportService;
+    @Autowired private PlatformTransactionManager transactionManager;
+    @Autowired private ServiceTestFixtures fixtures;
+
+    @MockBean private RbacService rbacService;
+
+    private Material known;
+
+    @BeforeEach
+    void setUp() {
+        // Lưu thẳng qua repository: chưa có trong cache, lần tra đầu phải xuống DB
+        known = fixtures.material("MCC-1");
+    }
+
+    /** Bỏ các entry đã "commit" giả trong test (dữ liệu thật bị rollback) khỏi cache dùng chung. */
+    @AfterEach
+    void tearDown() {
+        newTransaction().executeWithoutResult(status -> materialCatalog.reload());
+    }
+
+    @Test
+    void resolveCodesCachesHitsAfterCommitAndMatchesCodeExactly() {
+        long lookups = dbLookups();
+
+        Map<String, MaterialCatalogCache.Entry> first =
+                materialCatalog.resolveCodes(Arrays.asList(" MCC-1 ", "mcc-1", "MCC-NONE", "", null));
+        assertEquals(1, first.size());
+        assertEquals(known.getId(), first.get("MCC-1").id());
+        assertEquals(lookups + 1, dbLookups());
+
+        // Chưa commit => lần sau vẫn tra DB
+        materialCatalog.resolveCodes(List.of("MCC-1"));
+        assertEquals(lookups + 2, dbLookups());
+
+        fixtures.runAfterCommitCallbacks();
+        assertEquals(known.getId(), materialCatalog.resolveCodes(List.of("MCC-1")).get("MCC-1").id());
+        assertEquals(lookups + 2, dbLookups());
+
+        // Code phân biệt hoa thường như materials.code; code không tồn tại không được cache
+        assertTrue(materialCatalog.resolveCodes(List.of("mcc-1")).isEmpty());
+        assertTrue(materialCatalog.resolveCodes(List.of("mcc-1")).isEmpty());
+        assertEquals(lookups + 4, dbLookups());
+    }
+
+    @Test
+    void addedMaterialIsCachedOnlyAfterCommit() {
+        int size = cacheSize();
+
+        MaterialDTO saved = materialService.addMaterial(materialDto("MCC-NEW", fixtures.unit("Hộp").getId()));
+        assertEquals(size, cacheSize());
+
+        fixtures.runAfterCommitCallbacks();
+        assertEquals(size + 1, cacheSize());
+
+        long lookups = dbLookups();
+        assertEquals(saved.getMaterialId(), materialCatalog.resolveCodes(List.of("MCC-NEW")).get("MCC-NEW").id());
+        assertEquals(lookups, dbLookups());
+    }
+
+    @Test
+    void materialFromRolledBackTransactionIsNotCached() {
+        int size = cacheSize();
+
+        newTransaction().executeWithoutResult(status -> {
+            materialService.addMaterial(materialDto("MCC-RB", fixtures.unit("Thùng MCC").getId()));
+            assertFalse(materialCatalog.resolveCodes(List.of("MCC-RB")).isEmpty());
+            status.setRollbackOnly();
+        });
+
+        assertEquals(size, cacheSize());
+        long lookups = dbLookups();
+        assertTrue(materialCatalog.resolveCodes(List.of("MCC-RB")).isEmpty());
+        assertEquals(lookups + 1, dbLookups());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void unknownCodeIsReportedAsImportLineError() {
+        User thuKho = fixtures.user("THU_KHO_MCC", "Thủ kho danh mục", "thukho-catalog@example.com");
+        String csv = """
+                materialCode,lotNumber,qtyActual,price
+                MCC-1,L1,5,100
+                mcc-1,L1,5,100
+                MCC-NONE,L2,1,100
+                """;
+
+        CreateReceiptDTO header = new CreateReceiptDTO();
+        header.setReceivedFrom("Nhà cung cấp C");
+        BasicResponseDTO res = receiptImportService.importCsv(
+                new ByteArrayInputStream(csv.getBytes(StandardCharsets.UTF_8)), header, thuKho.getId());
+
+        assertFalse(res.isSuccess());
+        assertEquals(2L, res.getData().get("errorCount"));
+        List<Map<String, Object>> errors = (List<Map<String, Object>>) res.getData().get("errors");
+        assertEquals(List.of(3L, 4L), errors.stream().map(e -> e.get("line")).sorted().toList());
+    }
+
+    // ---------------------------------------------------------------------
+
+    private static MaterialDTO materialDto(String code, Long unitId) {
+        MaterialDTO dto = new MaterialDTO();
+        dto.setMaterialCode(code);
+        dto.setMaterialName("Vật tư " + code);
+        dto.setSpecification("Hộp 10");
+        dto.setUnitId(unitId);
+        dto.setManufacturer("Hãng");
+        dto.setCategory("B");
+        return dto;
+    }
+
+    private TransactionTemplate newTransaction() {
+        TransactionTemplate tx = new TransactionTemplate(transactionManager);
+        tx.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        return tx;
+    }
+
+    private long dbLookups() {
+        return (Long) materialCatalog.getStats().get("dbLookups");
+    }
+
+    private int cacheSize() {
+        return (Integer) materialCatalog.getStats().get("size");
+    }
+}
@@ -0,0 +1,127 @@
+package com.backend.service;
+
+import com.backend.entity.*;
+import com.backend.event.NotificationRequestedEvent;
+import com.backend.repository.*;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Không dùng @Transactional: dispatcher ghi trong transaction riêng sau commit,
+ * nên dữ liệu phải commit thật (dọn lại ở {@link #tearDown()}).
+ */
+@SpringBootTest
+class NotificationDispatcherTests {
+
+    private static final String CODE = "DISPATCH_TEST";
+
+    @Autowired private PlatformTransactionManager transactionManager;
+    @Autowired private JdbcTemplate jdbcTemplate;
+    @Autowired private NotificationUnreadCounter unreadCounter;
+    @Autowired private ServiceTestFixtures fixtures;
+
+    @Autowired private NotificationEntityRepository notificationEntityRepository;
+    @Autowired private NotificationEventRepository notificationEventRepository;
+    @Autowired private NotificationRepository notificationRepository;
+
+    private TransactionTemplate tx;
+    private User user;
+
+    @BeforeEach
+    void setUp() {
+        tx = new TransactionTemplate(transactionManager);
+        user = tx.execute(status -> {
+            User u = fixtures.user(CODE, "Dispatch test", "dispatch-test@example.com");
+
+            NotificationEntity entityType = new NotificationEntity();
+            entityType.setCode(CODE);
+            entityType.setName(CODE);
+            notificationEntityRepository.save(entityType);
+
+            NotificationEvent eventType = new NotificationEvent();
+            eventType.setCode(CODE);
+            eventType.setName(CODE);
+            notificationEventRepository.save(eventType);
+            return u;
+        });
+    }
+
+    /** fixtures.user tạo role {@link #CODE}; trạng thái APPROVED dùng chung nên giữ lại. */
+    @AfterEach
+    void tearDown() {
+        jdbcTemplate.update("DELETE FROM notification_recipients WHERE user_id = ?", user.getId());
+        jdbcTemplate.update("DELETE FROM notifications WHERE entity_type_id IN "
+                + "(SELECT id FROM notification_entities WHERE code = ?)", CODE);
+        jdbcTemplate.update("DELETE FROM notification_entities WHERE code = ?", CODE);
+        jdbcTemplate.update("DELETE FROM notification_events WHERE code = ?", CODE);
+        jdbcTemplate.update("DELETE FROM users WHERE id = ?", user.getId());
+        jdbcTemplate.update("DELETE FROM roles WHERE code = ?", CODE);
+        unreadCounter.evict(user.getId());
+    }
+
+    @Test
+    void callerRunsWritesCommitWhenQueueIsFullAfterCommit() throws Exception {
+        // Worker duy nhất bị giữ ở bước publish => hàng đợi (1 chỗ) đầy, các job sau chạy ở luồng gọi
+        CountDownLatch workerBusy = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        NotificationStreamService stream = mock(NotificationStreamService.class);
+        doAnswer(inv -> {
+            if (Thread.currentThread().getName().startsWith("notif-dispatch-")) {
+                workerBusy.countDown();
+                release.await(10, TimeUnit.SECONDS);
+            }
+            return null;
+        }).when(stream).publish(any(), any(), any());
+
+        NotificationDispatcher dispatcher = new NotificationDispatcher(notificationRepository,
+                notificationEntityRepository, notificationEventRepository, jdbcTemplate, transactionManager,
+                unreadCounter, stream, 1, 1);
+        try {
+            dispatcher.onNotificationRequested(event(0));
+            assertTrue(workerBusy.await(10, TimeUnit.SECONDS));
+
+            // Như listener AFTER_COMMIT của transaction nghiệp vụ: job 1 vào hàng đợi, job 2..4 chạy tại chỗ
+            tx.executeWithoutResult(status -> AfterCommit.run(() -> {
+                for (long i = 1; i <= 4; i++) dispatcher.onNotificationRequested(event(i));
+            }));
+
+            assertEquals(3L, dispatcher.getStats().get("callerRuns"));
+            // job 0 đã commit trước khi worker dừng ở publish; job 1 còn trong hàng đợi
+            assertEquals(List.of(0L, 2L, 3L, 4L), persistedEntityIds());
+        } finally {
+            release.countDown();
+            dispatcher.shutdown();
+        }
+
+        assertEquals(List.of(0L, 1L, 2L, 3L, 4L), persistedEntityIds());
+        assertEquals(5L, dispatcher.getStats().get("completed"));
+        assertEquals(5, jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM notification_recipients WHERE user_id = ?", Integer.class, user.getId()));
+    }
+
+    private NotificationRequestedEvent event(long entityId) {
+        return NotificationRequestedEvent.of(CODE, entityId, CODE, "Thông báo " + entityId, null, List.of(user.getId()));
+    }
+
+    private List<Long> persistedEntityIds() {
+        return jdbcTemplate.queryForList("SELECT n.entity_id FROM notifications n "
+                + "JOIN notification_entities e ON e.id = n.entity_type_id WHERE e.code = ? ORDER BY n.entity_id",
+                Long.class, CODE);
+    }
+}
@@ -0,0 +1,214 @@
+package com.backend.service;
+
+import com.backend.dto.BasicResponseDTO;
+import com.backend.dto.NotificationListResponseDTO;
+import com.backend.entity.*;
+import com.backend.repository.*;
+import jakarta.persistence.EntityManager;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SpringBootTest
+@Transactional
+class NotificationServiceTests {
+
+    @Autowired private NotificationService notificationService;
+    @Autowired private NotificationUnreadCounter unreadCounter;
+    @Autowired private NotificationRetentionService retentionService;
+    @Autowired private EntityManager entityManager;
+    @Autowired private ServiceTestFixtures fixtures;
+
+    @Autowired private NotificationEntityRepository notificationEntityRepository;
+    @Autowired private NotificationEventRepository notificationEventRepository;
+    @Autowired private NotificationRepository notificationRepository;
+    @Autowired private NotificationRecipientRepository recipientRepository;
+
+    private User user;
+
+    @BeforeEach
+    void setUp() {
+        user = fixtures.user("CAN_BO_NOTIF", "Cán bộ test", "notif-test@example.com");
+
+        NotificationEntity entityType = new NotificationEntity();
+        entityType.setCode("ISSUE_REQ");
+        entityType.setName("Phiếu xin lĩnh");
+        entityType = notificationEntityRepository.save(entityType);
+
+        NotificationEvent eventType = new NotificationEvent();
+        eventType.setCode("APPROVED");
+        eventType.setName("Đã duyệt");
+        eventType = notificationEventRepository.save(eventType);
+
+        List<NotificationRecipient> recs = new ArrayList<>();
+        for (int i = 0; i < 600; i++) {
+            Notification n = new Notification();
+            n.setEntityType(entityType);
+            n.setEntityId((long) i);
+            n.setEventType(eventType);
+            n.setTitle("Thông báo " + i);
+            n = notificationRepository.save(n);
+
+            NotificationRecipient r = new NotificationRecipient();
+            r.setNotification(n);
+            r.setUser(user);
+            r.setIsRead(false);
+            recs.add(r);
+        }
+        recipientRepository.saveAll(recs);
+        entityManager.flush();
+        unreadCounter.evict(user.getId());
+    }
+
+    @Test
+    void markAllAsReadCoversEveryUnreadRowInOneStatement() {
+        assertEquals(600L, unreadCount());
+
+        BasicResponseDTO[] res = new BasicResponseDTO[1];
+        long statements = fixtures.countStatements(() -> res[0] = notificationService.markAllAsRead(user.getId()));
+
+        assertTrue(res[0].isSuccess(), res[0].getMessage());
+        assertEquals(600, ((Number) res[0].getData().get("count")).intValue());
+        assertEquals(0L, recipientRepository.countByUser_IdAndIsReadFalse(user.getId()));
+        // user (nếu chưa có trong context) + 1 UPDATE
+        assertTrue(statements <= 2, "statements=" + statements);
+    }
+
+    @Test
+    void unreadCountIsServedFromCounter() {
+        assertEquals(600L, unreadCount());
+
+        long statements = fixtures.countStatements(() -> {
+            for (int i = 0; i < 50; i++) {
+                assertEquals(600L, unreadCount());
+            }
+        });
+        assertEquals(0, statements);
+
+        unreadCounter.markedRead(user.getId(), 1);
+        assertEquals(599L, unreadCount());
+    }
+
+    @Test
+    void feedCursorWalksInboxWithConstantCostPerPage() {
+        List<Long> all = idsNewestFirst();
+        for (int i = 0; i < 100; i++) {
+            notificationService.markAsRead(user.getId(), all.get(i * 2));
+        }
+        entityManager.flush();
+        entityManager.clear();
+        unreadCounter.evict(user.getId());
+        unreadCount(); // nạp bộ đếm trước khi đo
+
+        List<Long> seen = new ArrayList<>();
+        List<Long> statementsPerPage = new ArrayList<>();
+        String cursor = null;
+        boolean hasMore;
+        do {
+            String pageCursor = cursor;
+            NotificationListResponseDTO[] page = new NotificationListResponseDTO[1];
+            statementsPerPage.add(fixtures.countStatements(() ->
+                    page[0] = notificationService.getMyNotificationsFeed(user.getId(), false, pageCursor, 50)));
+
+            NotificationListResponseDTO res = page[0];
+            assertTrue(res.isSuccess(), res.getMessage());
+            res.getNotifications().forEach(n -> seen.add(n.getId()));
+            hasMore = (Boolean) res.getSummary().get("hasMore");
+            cursor = (String) res.getSummary().get("nextCursor");
+        } while (hasMore);
+
+        assertEquals(idsNewestFirst(), seen);
+        // trang cuối tốn như trang đầu: chỉ user + 1 SELECT keyset
+        assertEquals(statementsPerPage.get(0), statementsPerPage.get(statementsPerPage.size() - 1));
+        assertTrue(statementsPerPage.get(0) <= 2, "statements=" + statementsPerPage);
+
+        List<Long> unread = new ArrayList<>();
+        cursor = null;
+        do {
+            NotificationListResponseDTO res = notificationService.getMyNotificationsFeed(user.getId(), true, cursor, 64);
+            res.getNotifications().forEach(n -> {
+                assertFalse(n.getIsRead());
+                unread.add(n.getId());
+            });
+            cursor = (String) res.getSummary().get("nextCursor");
+        } while (cursor != null);
+        assertEquals(500, unread.size());
+
+        NotificationListResponseDTO bad = notificationService.getMyNotificationsFeed(user.getId(), false, "???", 10);
+        assertFalse(bad.isSuccess());
+    }
+
+    @Test
+    void retentionMovesReadRowsToArchiveAndKeepsThemReadable() {
+        List<Long> all = idsNewestFirst();
+        for (int i = 0; i < 150; i++) {
+            notificationService.markAsRead(user.getId(), all.get(i));
+        }
+        entityManager.flush();
+        entityManager.clear();
+
+        // Tuổi tính theo lúc đọc: nhận từ 200 ngày trước nhưng vừa đọc => chưa đến hạn 90 ngày
+        entityManager.createNativeQuery("UPDATE notification_recipients SET created_at = :at")
+                .setParameter("at", LocalDateTime.now().minusDays(200))
+                .executeUpdate();
+        assertEquals(0L, retentionService.runOnce(LocalDateTime.now().minusDays(90)).get("recipientsArchived"));
+
+        Map<String, Object> result = retentionService.runOnce(LocalDateTime.now().plusMinutes(1));
+        entityManager.clear();
+
+        assertEquals(150L, result.get("recipientsArchived"));
+        assertEquals(150L, result.get("notificationsArchived"));
+        assertEquals(450L, recipientRepository.count());
+        assertEquals(450L, notificationRepository.count());
+        assertEquals(450L, recipientRepository.countByUser_IdAndIsReadFalse(user.getId()));
+
+        NotificationListResponseDTO hot = notificationService.getMyNotificationsFeed(user.getId(), false, null, 100);
+        assertTrue(hot.getNotifications().stream().noneMatch(n -> n.getIsRead()));
+
+        List<Long> archived = new ArrayList<>();
+        String cursor = null;
+        do {
+            NotificationListResponseDTO res = notificationService.getMyArchivedNotifications(user.getId(), cursor, 40);
+            assertTrue(res.isSuccess(), res.getMessage());
+            res.getNotifications().forEach(n -> {
+                assertTrue(n.getIsRead());
+                archived.add(n.getId());
+            });
+            cursor = (String) res.getSummary().get("nextCursor");
+        } while (cursor != null);
+        assertEquals(all.subList(0, 150), archived);
+
+        // lượt sau không còn gì để chuyển
+        Map<String, Object> again = retentionService.runOnce(LocalDateTime.now().plusMinutes(1));
+        assertEquals(0L, again.get("recipientsArchived"));
+    }
+
+    /** Thứ tự mong đợi của hộp thư: createdAt giảm dần, cùng thời điểm thì id giảm dần. */
+    private List<Long> idsNewestFirst() {
+        return recipientRepository.findAll().stream()
+                .filter(r -> r.getId().getUserId().equals(user.getId()))
+                .sorted(Comparator.comparing(NotificationRecipient::getCreatedAt)
+                        .thenComparing(r -> r.getId().getNotificationId())
+                        .reversed())
+                .map(r -> r.getId().getNotificationId())
+                .toList();
+    }
+
+    private long unreadCount() {
+        BasicResponseDTO res = notificationService.getUnreadCount(user.getId());
+        assertTrue(res.isSuccess(), res.getMessage());
+        return ((Number) res.getData().get("unreadCount")).longValue();
+    }
+}
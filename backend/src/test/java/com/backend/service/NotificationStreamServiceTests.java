@@ -0,0 +1,184 @@
+package com.backend.service;
+
+import com.backend.dto.NotificationDTO;
+import com.backend.event.NotificationRequestedEvent;
+import com.backend.repository.NotificationRecipientRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+@SpringBootTest
+class NotificationStreamServiceTests {
+
+    @Autowired private NotificationRecipientRepository recipientRepository;
+
+    private final CountDownLatch release = new CountDownLatch(1);
+    private NotificationStreamService stream;
+
+    @AfterEach
+    void tearDown() {
+        release.countDown();
+        if (stream != null) stream.shutdown();
+    }
+
+    @Test
+    void subscribePublishAndComplete() throws Exception {
+        stream = newStream();
+
+        RecordingEmitter tab1 = (RecordingEmitter) stream.subscribe(1L, null);
+        RecordingEmitter tab2 = (RecordingEmitter) stream.subscribe(1L, null);
+        RecordingEmitter other = (RecordingEmitter) stream.subscribe(2L, null);
+        assertEquals(3, stream.subscriberCount());
+
+        stream.publish(42L, event(1L), LocalDateTime.now());
+
+        await(() -> tab1.notificationIds().contains(42L) && tab2.notificationIds().contains(42L));
+        await(() -> other.comments().contains("connected"));
+        assertTrue(other.notificationIds().isEmpty());
+
+        // Client đóng tab: container gọi callback hoàn tất => bỏ kết nối
+        tab1.complete();
+        assertEquals(2, stream.subscriberCount());
+
+        stream.publish(43L, event(1L), LocalDateTime.now());
+        await(() -> tab2.notificationIds().contains(43L));
+        assertEquals(List.of(42L), tab1.notificationIds());
+    }
+
+    @Test
+    void slowClientDoesNotStallHeartbeatAndIsDroppedAfterSendTimeout() throws Exception {
+        stream = newStream();
+        RecordingEmitter fast = (RecordingEmitter) stream.subscribe(1L, null);
+        RecordingEmitter slow = (RecordingEmitter) stream.subscribe(2L, null);
+        slow.behavior = Behavior.BLOCK;
+
+        stream.publish(7L, event(2L), LocalDateTime.now());
+        await(() -> slow.blocked);
+
+        long start = System.nanoTime();
+        stream.sendHeartbeat();
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 500);
+        await(() -> fast.comments().contains("hb"));
+        assertEquals(2, stream.subscriberCount());
+
+        // Ghi treo quá send-timeout (1s) => heartbeat kế tiếp ngắt client chậm, client nhanh vẫn nhận
+        Thread.sleep(1_200);
+        stream.sendHeartbeat();
+        assertEquals(1, stream.subscriberCount());
+        assertEquals(1, stream.slowDroppedCount());
+        await(() -> fast.comments().stream().filter("hb"::equals).count() == 2);
+    }
+
+    @Test
+    void failedSendDropsEmitter() throws Exception {
+        stream = newStream();
+        RecordingEmitter broken = (RecordingEmitter) stream.subscribe(1L, null);
+        await(() -> broken.comments().contains("connected"));
+        broken.behavior = Behavior.FAIL;
+
+        stream.publish(9L, event(1L), LocalDateTime.now());
+
+        await(() -> stream.subscriberCount() == 0);
+        assertEquals(1, stream.failedDroppedCount());
+    }
+
+    // ---------------------------------------------------------------------
+
+    private enum Behavior { OK, BLOCK, FAIL }
+
+    private NotificationStreamService newStream() {
+        return new NotificationStreamService(recipientRepository, 30, 1, 2) {
+            @Override
+            SseEmitter newEmitter(long timeoutMillis) {
+                return new RecordingEmitter(timeoutMillis);
+            }
+        };
+    }
+
+    private static NotificationRequestedEvent event(Long userId) {
+        return NotificationRequestedEvent.of("ISSUE_REQ", 1L, "PENDING",
+                "Phiếu mới", "Nội dung", List.of(userId));
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) fail("condition not reached in 5s");
+            Thread.sleep(10);
+        }
+    }
+
+    /**
+     * Emitter không gắn HTTP response: ghi lại event đã gửi, mô phỏng client chậm / lỗi,
+     * và gọi callback hoàn tất khi complete() như servlet container.
+     */
+    private class RecordingEmitter extends SseEmitter {
+        private final List<Object> sent = new CopyOnWriteArrayList<>();
+        private final List<Runnable> completionCallbacks = new CopyOnWriteArrayList<>();
+        private volatile Behavior behavior = Behavior.OK;
+        private volatile boolean blocked;
+
+        RecordingEmitter(long timeout) {
+            super(timeout);
+        }
+
+        @Override
+        public void send(SseEventBuilder builder) throws IOException {
+            if (behavior == Behavior.FAIL) throw new IOException("Broken pipe");
+            if (behavior == Behavior.BLOCK) {
+                blocked = true;
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                throw new IOException("Client gone");
+            }
+            for (ResponseBodyEmitter.DataWithMediaType d : builder.build()) {
+                sent.add(d.getData());
+            }
+        }
+
+        @Override
+        public synchronized void onCompletion(Runnable callback) {
+            completionCallbacks.add(callback);
+        }
+
+        @Override
+        public void complete() {
+            completionCallbacks.forEach(Runnable::run);
+        }
+
+        List<Long> notificationIds() {
+            return sent.stream()
+                    .filter(NotificationDTO.class::isInstance)
+                    .map(d -> ((NotificationDTO) d).getId())
+                    .toList();
+        }
+
+        /** Comment SSE dạng ":text\n\n" (builder tách phần chữ và ký tự xuống dòng). */
+        List<String> comments() {
+            return sent.stream()
+                    .filter(String.class::isInstance)
+                    .map(d -> ((String) d).trim())
+                    .filter(s -> s.startsWith(":"))
+                    .map(s -> s.substring(1))
+                    .toList();
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package com.backend.service;
+
+import com.backend.config.CurrentUserFilter;
+import com.backend.entity.*;
+import jakarta.persistence.EntityManager;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SpringBootTest
+@Transactional
+class RbacServiceTests {
+
+    @Autowired private RbacService rbacService;
+    @Autowired private PermissionSetCache permissionSetCache;
+    @Autowired private EntityManager entityManager;
+    @Autowired private ServiceTestFixtures fixtures;
+    @Autowired private CurrentUserContext currentUserContext;
+    @Autowired private CurrentUserFilter currentUserFilter;
+
+    private Role thuKho;
+    private Role canBo;
+    private User user;
+
+    @BeforeEach
+    void setUp() {
+        Permission view = fixtures.permission("TEST.VIEW");
+        Permission create = fixtures.permission("TEST.CREATE");
+
+        thuKho = fixtures.role("THU_KHO_RBAC");
+        canBo = fixtures.role("CAN_BO_RBAC");
+        fixtures.grant(thuKho, view);
+        fixtures.grant(thuKho, create);
+        fixtures.grant(canBo, view);
+
+        user = fixtures.user(thuKho, fixtures.userStatus("APPROVED", "Đã duyệt"), "RBAC test", "rbac-test@example.com");
+
+        entityManager.flush();
+    }
+
+    @Test
+    void repeatedChecksAreServedWithoutStatements() {
+        assertTrue(rbacService.hasPermission(user, "TEST.CREATE"));
+
+        long statements = fixtures.countStatements(() -> {
+            for (int i = 0; i < 100; i++) {
+                assertTrue(rbacService.hasPermission(user, "TEST.VIEW"));
+                assertTrue(rbacService.hasAnyPermission(user, "NOPE", "TEST.CREATE"));
+                assertFalse(rbacService.hasPermission(user, "NOPE"));
+            }
+        });
+
+        assertEquals(0, statements);
+    }
+
+    @Test
+    void roleChangeAndVersionBumpReloadPermissions() {
+        assertTrue(rbacService.hasPermission(user, "TEST.CREATE"));
+
+        // Đổi role => roleId khác => nạp lại
+        user.setRole(canBo);
+        assertFalse(rbacService.hasPermission(user, "TEST.CREATE"));
+        assertTrue(rbacService.hasPermission(user, "TEST.VIEW"));
+
+        // Thêm quyền cho role rồi tăng version (như afterCommit của replaceRolePermissions)
+        fixtures.grant(canBo, fixtures.permission("TEST.CREATE"));
+        entityManager.flush();
+        assertFalse(rbacService.hasPermission(user, "TEST.CREATE"));
+
+        permissionSetCache.invalidateAll();
+        assertTrue(rbacService.hasPermission(user, "TEST.CREATE"));
+    }
+
+    @Test
+    void callerIsLoadedOncePerRequest() {
+        assertTrue(rbacService.hasPermission(user, "TEST.VIEW"));
+        entityManager.flush();
+
+        long withoutRequest = fixtures.countStatements(this::checksInSeparatePersistenceContexts);
+
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setAttribute(CurrentUserContext.ATTR_USER_ID, user.getId());
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(request));
+        long withRequest;
+        try {
+            withRequest = fixtures.countStatements(this::checksInSeparatePersistenceContexts);
+        } finally {
+            RequestContextHolder.resetRequestAttributes();
+        }
+
+        assertEquals(withoutRequest / 3, withRequest);
+    }
+
+    @Test
+    void principalAndPermissionsLoadOncePerFilteredRequest() throws Exception {
+        permissionSetCache.invalidateAll();
+        entityManager.flush();
+
+        User first = filteredRequest();
+        User second = filteredRequest();
+        // Mỗi request nạp người gọi riêng
+        assertNotSame(first, second);
+    }
+
+    // ---------------------------------------------------------------------
+
+    /**
+     * 1 request qua CurrentUserFilter (Authorization: Bearer user-token-{id}): lần kiểm tra quyền đầu nạp
+     * người gọi + tập quyền, các lần sau trong request không query, kể cả khi cache quyền bị xoá giữa chừng.
+     * Trả về người gọi đã nạp.
+     */
+    private User filteredRequest() throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.addHeader("Authorization", "Bearer user-token-" + user.getId());
+        User[] caller = new User[1];
+
+        currentUserFilter.doFilter(request, new MockHttpServletResponse(), (req, res) -> {
+            assertEquals(user.getId(), req.getAttribute(CurrentUserContext.ATTR_USER_ID));
+            RequestContextHolder.setRequestAttributes(new ServletRequestAttributes((MockHttpServletRequest) req));
+            try {
+                long first = fixtures.countStatements(() -> rbacService.requirePermission(user.getId(), "TEST.VIEW", null));
+                assertTrue(first > 0, "statements=" + first);
+
+                caller[0] = currentUserContext.findUser(user.getId()).orElseThrow();
+                permissionSetCache.invalidateAll();
+                long again = fixtures.countStatements(() -> {
+                    for (int i = 0; i < 5; i++) {
+                        entityManager.clear();
+                        assertSame(caller[0], currentUserContext.findUser(user.getId()).orElseThrow());
+                        rbacService.requirePermission(user.getId(), "TEST.CREATE", null);
+                    }
+                });
+                assertEquals(0, again);
+            } finally {
+                RequestContextHolder.resetRequestAttributes();
+            }
+        });
+        return caller[0];
+    }
+
+    /** 3 lần kiểm tra quyền như 3 service khác nhau trong cùng 1 request (mỗi lần 1 persistence context). */
+    private void checksInSeparatePersistenceContexts() {
+        for (int i = 0; i < 3; i++) {
+            entityManager.clear();
+            rbacService.requirePermission(user.getId(), "TEST.VIEW", null);
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package com.backend.service;
+
+import com.backend.dto.BasicResponseDTO;
+import com.backend.dto.CreateReceiptDTO;
+import com.backend.dto.CreateReceiptDetailDTO;
+import com.backend.dto.ReceiptFeedResponseDTO;
+import com.backend.dto.ReceiptResponseDTO;
+import com.backend.entity.*;
+import com.backend.repository.*;
+import jakarta.persistence.EntityManager;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.io.ByteArrayInputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SpringBootTest
+@Transactional
+class ReceiptServiceTests {
+
+    @Autowired private ReceiptService receiptService;
+    @Autowired private ReceiptImportService receiptImportService;
+    @Autowired private EntityManager entityManager;
+    @Autowired private ServiceTestFixtures fixtures;
+
+    @Autowired private LotBalanceRepository lotBalanceRepository;
+    @Autowired private InventoryCardRepository inventoryCardRepository;
+
+    @MockBean private RbacService rbacService;
+
+    private User thuKho;
+    private final List<Material> materials = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        thuKho = fixtures.user("THU_KHO_RCPT", "Thủ kho nhập", "thukho-receipt@example.com");
+
+        for (int i = 0; i < 10; i++) {
+            materials.add(fixtures.material("RCPT-" + i));
+        }
+    }
+
+    @Test
+    void hundredLineReceiptIsWrittenInBatches() {
+        // 10 vật tư x 10 lô; lô LOT-0 của mỗi vật tư xuất hiện 2 lần (dòng sau mở từ dòng trước)
+        CreateReceiptDTO req = new CreateReceiptDTO();
+        req.setReceivedFrom("Nhà cung cấp A");
+        List<CreateReceiptDetailDTO> lines = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            Material m = materials.get(i % 10);
+            CreateReceiptDetailDTO d = new CreateReceiptDetailDTO();
+            if (i % 2 == 0) d.setMaterialId(m.getId()); else d.setMaterialCode(m.getCode());
+            d.setPrice(new BigDecimal("1000"));
+            d.setQtyActual(new BigDecimal("5"));
+            d.setLotNumber(i < 90 ? "LOT-" + (i / 10) : "LOT-0");
+            d.setExpDate(LocalDate.now().plusYears(1));
+            lines.add(d);
+        }
+        req.setDetails(lines);
+
+        ReceiptResponseDTO[] res = new ReceiptResponseDTO[1];
+        long statements = fixtures.countStatements(() -> {
+            res[0] = receiptService.createReceipt(req, thuKho.getId());
+            entityManager.flush();
+        });
+
+        assertTrue(res[0].isSuccess(), res[0].getMessage());
+        assertTrue(statements <= 40, "statements=" + statements);
+
+        entityManager.clear();
+        assertEquals(100, inventoryCardRepository.count());
+        assertEquals(90, lotBalanceRepository.count());
+        LotBalance lot0 = lotBalanceRepository.findByMaterial_IdAndLotNumber(materials.get(0).getId(), "LOT-0").orElseThrow();
+        assertEquals(0, new BigDecimal("10").compareTo(lot0.getClosingStock()));
+    }
+
+    @Test
+    void csvImportWritesTenThousandLinesInChunks() {
+        StringBuilder csv = new StringBuilder("materialCode;lotNumber;qtyActual;price;expDate\n");
+        for (int i = 0; i < 10_000; i++) {
+            csv.append("RCPT-").append(i % 10).append(';')
+                    .append("IMP-").append(i % 200).append(';')
+                    .append("2;1500,5;31/12/2030\n");
+        }
+
+        BasicResponseDTO res = importCsv(csv.toString());
+
+        assertTrue(res.isSuccess(), res.getMessage());
+        assertEquals(10_000L, res.getData().get("linesImported"));
+        assertEquals(0, new BigDecimal("30010000.00").compareTo((BigDecimal) res.getData().get("totalAmount")));
+
+        entityManager.clear();
+        assertEquals(10_000, inventoryCardRepository.count());
+        // lô IMP-k luôn đi với vật tư k % 10 => 200 cặp (vật tư, lô), mỗi cặp 50 dòng x 2
+        assertEquals(200, lotBalanceRepository.count());
+        LotBalance b = lotBalanceRepository.findByMaterial_IdAndLotNumber(materials.get(0).getId(), "IMP-0").orElseThrow();
+        assertEquals(0, new BigDecimal("100").compareTo(b.getClosingStock()));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void csvImportReportsLineErrorsAndWritesNothing() {
+        String csv = """
+                materialCode,lotNumber,qtyActual,price
+                RCPT-1,L1,5,100
+                NOPE,L1,5,100
+                RCPT-2,L2,abc,100
+                "RCPT-3","L ""3""",1,100
+                RCPT-4,,1,100
+                """;
+
+        BasicResponseDTO res = importCsv(csv);
+
+        assertFalse(res.isSuccess());
+        assertEquals(3L, res.getData().get("errorCount"));
+        List<Map<String, Object>> errors = (List<Map<String, Object>>) res.getData().get("errors");
+        assertEquals(List.of(3L, 4L, 6L), errors.stream().map(e -> e.get("line")).sorted().toList());
+        assertEquals(0, inventoryCardRepository.count());
+    }
+
+    @Test
+    void feedPageUsesOneProjectionQueryRegardlessOfSize() {
+        for (int i = 0; i < 30; i++) {
+            CreateReceiptDTO req = new CreateReceiptDTO();
+            req.setReceivedFrom("NCC " + i);
+            List<CreateReceiptDetailDTO> lines = new ArrayList<>();
+            for (int j = 0; j < 2; j++) {
+                CreateReceiptDetailDTO d = new CreateReceiptDetailDTO();
+                d.setMaterialId(materials.get(j).getId());
+                d.setPrice(new BigDecimal("100"));
+                d.setQtyActual(BigDecimal.ONE);
+                d.setLotNumber("FEED-" + i);
+                lines.add(d);
+            }
+            req.setDetails(lines);
+            assertTrue(receiptService.createReceipt(req, thuKho.getId()).isSuccess());
+        }
+
+        long small = fixtures.countStatements(() -> receiptService.feedReceipts(null, 5, thuKho.getId(), null));
+        ReceiptFeedResponseDTO[] page = new ReceiptFeedResponseDTO[1];
+        long large = fixtures.countStatements(() -> page[0] = receiptService.feedReceipts(null, 30, thuKho.getId(), 0));
+
+        assertTrue(page[0].isSuccess(), page[0].getMessage());
+        assertEquals(30, page[0].getItems().size());
+        assertEquals(2, page[0].getItems().get(0).getLineCount());
+        assertEquals(thuKho.getFullName(), page[0].getItems().get(0).getCreatedByName());
+        // trang có phân trang thêm đúng 1 câu COUNT
+        assertEquals(small + 1, large);
+    }
+
+    private BasicResponseDTO importCsv(String csv) {
+        CreateReceiptDTO header = new CreateReceiptDTO();
+        header.setReceivedFrom("Nhà cung cấp B");
+        return receiptImportService.importCsv(
+                new ByteArrayInputStream(csv.getBytes(StandardCharsets.UTF_8)), header, thuKho.getId());
+    }
+}
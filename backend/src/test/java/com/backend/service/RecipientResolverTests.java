@@ -0,0 +1,160 @@
+package com.backend.service;
+
+import com.backend.entity.*;
+import com.backend.repository.*;
+import jakarta.persistence.EntityManager;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SpringBootTest
+@Transactional
+class RecipientResolverTests {
+
+    private static final String PERM = "RECIP.NOTIFY";
+
+    @Autowired private RecipientResolver recipientResolver;
+    @Autowired private RbacService rbacService;
+    @Autowired private UserService userService;
+    @Autowired private EntityManager entityManager;
+    @Autowired private ServiceTestFixtures fixtures;
+
+    @Autowired private RoleRepository roleRepository;
+    @Autowired private PermissionRepository permissionRepository;
+    @Autowired private RolePermissionRepository rolePermissionRepository;
+    @Autowired private UserPermissionRepository userPermissionRepository;
+    @Autowired private UserStatusRepository userStatusRepository;
+    @Autowired private UserRepository userRepository;
+
+    private final List<User> users = new ArrayList<>();
+    private User pending;
+
+    @BeforeEach
+    void setUp() {
+        recipientResolver.invalidateAll();
+
+        Permission perm = permission(PERM);
+        Permission special = permissionRepository.findByCode(RbacService.PERM_USER_SPECIAL)
+                .orElseGet(() -> permission(RbacService.PERM_USER_SPECIAL));
+
+        Role withPerm = role("RECIP_WITH");
+        Role withoutPerm = role("RECIP_WITHOUT");
+        grant(withPerm, perm);
+
+        UserStatus approved = status("APPROVED");
+        UserStatus waiting = status("PENDING");
+
+        // Quyền theo role
+        user("role", withPerm, approved);
+        // Role có quyền nhưng bị REVOKE riêng
+        userPermission(user("revoked", withPerm, approved), perm, "REVOKE");
+        // Role không có quyền nhưng được GRANT riêng
+        userPermission(user("granted", withoutPerm, approved), perm, "GRANT");
+        // User special: bỏ quyền role, chỉ dùng quyền riêng
+        userPermission(user("special-no-grant", withPerm, approved), special, "GRANT");
+        User specialGranted = user("special-grant", withoutPerm, approved);
+        userPermission(specialGranted, special, "GRANT");
+        userPermission(specialGranted, perm, "GRANT");
+        // Chưa duyệt: không nhận thông báo dù có quyền
+        pending = user("pending", withPerm, waiting);
+
+        entityManager.flush();
+        entityManager.clear();
+    }
+
+    @Test
+    void permissionRecipientsMatchRbacEffectivePermissions() {
+        Set<Long> expected = new HashSet<>();
+        for (User u : users) {
+            User fresh = userRepository.findById(u.getId()).orElseThrow();
+            if (fresh.isApproved() && rbacService.hasPermission(fresh, PERM)) expected.add(fresh.getId());
+        }
+
+        List<Long> resolved = recipientResolver.approvedWithPermission(PERM);
+
+        assertEquals(3, expected.size());
+        assertEquals(expected, new HashSet<>(resolved));
+        assertEquals(expected.size(), resolved.size());
+    }
+
+    @Test
+    void userStatusChangeRefreshesRecipientsAfterCommit() {
+        assertFalse(recipientResolver.approvedWithPermission(PERM).contains(pending.getId()));
+
+        assertTrue(userService.updateUserStatus(pending.getId(), "approved"));
+        entityManager.flush();
+
+        // Chưa commit: vẫn đọc danh sách cũ trong cache
+        assertFalse(recipientResolver.approvedWithPermission(PERM).contains(pending.getId()));
+
+        fixtures.runAfterCommitCallbacks();
+        assertTrue(recipientResolver.approvedWithPermission(PERM).contains(pending.getId()));
+    }
+
+    // ---------------------------------------------------------------------
+
+    private User user(String name, Role role, UserStatus status) {
+        User u = new User();
+        u.setFullName("Recipient " + name);
+        u.setEmail("recip-" + name + "@example.com");
+        u.setPassword("x");
+        u.setRole(role);
+        u.setStatus(status);
+        u = userRepository.save(u);
+        users.add(u);
+        return u;
+    }
+
+    private UserStatus status(String code) {
+        return userStatusRepository.findByCode(code).orElseGet(() -> {
+            UserStatus s = new UserStatus();
+            s.setCode(code);
+            s.setName(code);
+            return userStatusRepository.save(s);
+        });
+    }
+
+    private Permission permission(String code) {
+        Permission p = new Permission();
+        p.setCode(code);
+        p.setName(code);
+        return permissionRepository.save(p);
+    }
+
+    private Role role(String code) {
+        Role r = new Role();
+        r.setCode(code);
+        r.setName(code);
+        return roleRepository.save(r);
+    }
+
+    private void grant(Role role, Permission perm) {
+        RolePermission rp = new RolePermission();
+        rp.setRole(role);
+        rp.setPermission(perm);
+        rp.getId().setRoleId(role.getId());
+        rp.getId().setPermissionId(perm.getId());
+        rolePermissionRepository.save(rp);
+    }
+
+    private void userPermission(User user, Permission perm, String effect) {
+        UserPermission up = new UserPermission();
+        up.getId().setUserId(user.getId());
+        up.getId().setPermissionId(perm.getId());
+        up.setUser(user);
+        up.setPermission(perm);
+        up.setEffect(effect);
+        userPermissionRepository.save(up);
+    }
+}
@@ -0,0 +1,229 @@
+package com.backend.service;
+
+import com.backend.entity.*;
+import com.backend.repository.*;
+import jakarta.persistence.EntityManager;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+
+/**
+ * Dữ liệu mẫu + đếm câu SQL dùng chung cho các test service.
+ * Mọi thao tác chạy trong transaction của test gọi tới (rollback sau mỗi test).
+ */
+@Component
+class ServiceTestFixtures {
+
+    @Autowired private EntityManager entityManager;
+    @Autowired private LotBalanceService lotBalanceService;
+
+    @Autowired private UnitRepository unitRepository;
+    @Autowired private MaterialRepository materialRepository;
+    @Autowired private InventoryCardRepository inventoryCardRepository;
+    @Autowired private RoleRepository roleRepository;
+    @Autowired private UserStatusRepository userStatusRepository;
+    @Autowired private UserRepository userRepository;
+    @Autowired private PermissionRepository permissionRepository;
+    @Autowired private RolePermissionRepository rolePermissionRepository;
+    @Autowired private DocStatusRepository docStatusRepository;
+    @Autowired private ReservationStatusRepository reservationStatusRepository;
+    @Autowired private IssueReqHeaderRepository issueReqHeaderRepository;
+    @Autowired private IssueReservationRepository issueReservationRepository;
+
+    /**
+     * Số câu SQL Hibernate chuẩn bị khi chạy {@code action}.
+     * Flush + clear trước để không tính câu ghi dồn từ phần chuẩn bị dữ liệu, và để không đọc từ cache cấp 1.
+     */
+    long countStatements(Runnable action) {
+        entityManager.flush();
+        entityManager.clear();
+
+        Statistics stats = entityManager.getEntityManagerFactory().unwrap(SessionFactory.class).getStatistics();
+        stats.setStatisticsEnabled(true);
+        stats.clear();
+
+        action.run();
+        return stats.getPrepareStatementCount();
+    }
+
+    Unit unit(String name) {
+        return unitRepository.findByName(name).orElseGet(() -> {
+            Unit u = new Unit();
+            u.setName(name);
+            return unitRepository.save(u);
+        });
+    }
+
+    DocStatus docStatus(String code, String name) {
+        return docStatusRepository.findByCode(code).orElseGet(() -> {
+            DocStatus s = new DocStatus();
+            s.setCode(code);
+            s.setName(name);
+            return docStatusRepository.save(s);
+        });
+    }
+
+    ReservationStatus reservationStatus(String code) {
+        return reservationStatusRepository.findByCode(code).orElseGet(() -> {
+            ReservationStatus s = new ReservationStatus();
+            s.setCode(code);
+            s.setName(code);
+            return reservationStatusRepository.save(s);
+        });
+    }
+
+    /** User APPROVED với role mới {@code roleCode}. */
+    User user(String roleCode, String fullName, String email) {
+        Role role = new Role();
+        role.setCode(roleCode);
+        role.setName(fullName);
+        role = roleRepository.save(role);
+
+        return user(role, userStatus("APPROVED", "Đã duyệt"), fullName, email);
+    }
+
+    User user(Role role, UserStatus status, String fullName, String email) {
+        User u = new User();
+        u.setFullName(fullName);
+        u.setEmail(email);
+        u.setPassword("x");
+        u.setRole(role);
+        u.setStatus(status);
+        return userRepository.save(u);
+    }
+
+    UserStatus userStatus(String code, String name) {
+        return userStatusRepository.findByCode(code).orElseGet(() -> {
+            UserStatus s = new UserStatus();
+            s.setCode(code);
+            s.setName(name);
+            return userStatusRepository.save(s);
+        });
+    }
+
+    Role role(String code) {
+        return roleRepository.findByCode(code).orElseGet(() -> {
+            Role r = new Role();
+            r.setCode(code);
+            r.setName(code);
+            return roleRepository.save(r);
+        });
+    }
+
+    Permission permission(String code) {
+        return permissionRepository.findByCode(code).orElseGet(() -> {
+            Permission p = new Permission();
+            p.setCode(code);
+            p.setName(code);
+            return permissionRepository.save(p);
+        });
+    }
+
+    void grant(Role role, Permission perm) {
+        RolePermission rp = new RolePermission();
+        rp.setRole(role);
+        rp.setPermission(perm);
+        rp.getId().setRoleId(role.getId());
+        rp.getId().setPermissionId(perm.getId());
+        rolePermissionRepository.save(rp);
+    }
+
+    /**
+     * Test chạy trong 1 transaction rollback nên callback sau commit không chạy:
+     * gọi trực tiếp các callback đăng ký qua {@link AfterCommit} như khi transaction nghiệp vụ commit.
+     */
+    void runAfterCommitCallbacks() {
+        for (TransactionSynchronization s : TransactionSynchronizationManager.getSynchronizations()) {
+            if (s.getClass().getEnclosingClass() == AfterCommit.class) s.afterCommit();
+        }
+    }
+
+    Material material(String code) {
+        Material m = new Material();
+        m.setName("Vật tư " + code);
+        m.setSpec("Hộp");
+        m.setCode(code);
+        m.setManufacturer("Hãng");
+        m.setCategory("C");
+        m.setUnit(unit("Hộp"));
+        return materialRepository.save(m);
+    }
+
+    IssueReqDetail detail(IssueReqHeader req, Material m, String qty) {
+        IssueReqDetail d = new IssueReqDetail();
+        d.setHeader(req);
+        d.setMaterial(m);
+        d.setMaterialName(m.getName());
+        d.setQtyRequested(new BigDecimal(qty));
+        return d;
+    }
+
+    /** Nhập {@code qty} vào lô qua đúng đường thẻ kho + lot_balance như luồng nhập thật. */
+    void receive(Material m, String lot, String qty, LocalDate exp) {
+        writeCard(m, lot, new BigDecimal(qty), BigDecimal.ZERO, exp);
+    }
+
+    /** Xuất {@code qty} khỏi lô (dòng thẻ kho qty_out) qua cùng đường ghi như {@link #receive}. */
+    void issue(Material m, String lot, String qty) {
+        writeCard(m, lot, BigDecimal.ZERO, new BigDecimal(qty), null);
+    }
+
+    private void writeCard(Material m, String lot, BigDecimal qtyIn, BigDecimal qtyOut, LocalDate exp) {
+        LotBalance balance = lotBalanceService.lockBalance(m.getId(), lot).orElse(null);
+
+        InventoryCard card = new InventoryCard();
+        card.setMaterial(m);
+        card.setUnit(m.getUnit());
+        card.setWarehouseName("Kho chính");
+        card.setRecordDate(LocalDate.now());
+        card.setOpeningStock(balance != null ? balance.getClosingStock() : BigDecimal.ZERO);
+        card.setQtyIn(qtyIn);
+        card.setQtyOut(qtyOut);
+        card.setLotNumber(lot);
+        card.setExpDate(exp != null ? exp : balance != null ? balance.getExpDate() : null);
+
+        card = inventoryCardRepository.save(card);
+        lotBalanceService.applyCard(card, balance);
+    }
+
+    /**
+     * Phiếu APPROVED có {@code lines} dòng (vật tư {@code prefix-i}, xin 30), mỗi vật tư 2 lô:
+     * LOT-1 = 20 (hết hạn trước, bị phiếu khác giữ chỗ 5), LOT-2 = 50.
+     */
+    IssueReqHeader approvedRequestWithLines(String prefix, int lines) {
+        DocStatus approved = docStatus("APPROVED", "Đã duyệt");
+        ReservationStatus active = reservationStatus("ACTIVE");
+
+        IssueReqHeader other = new IssueReqHeader();
+        other.setStatus(approved);
+        other = issueReqHeaderRepository.save(other);
+
+        IssueReqHeader req = new IssueReqHeader();
+        req.setStatus(approved);
+
+        for (int i = 0; i < lines; i++) {
+            Material m = material(prefix + "-" + i);
+
+            receive(m, "LOT-1", "20", LocalDate.now().plusMonths(6));
+            receive(m, "LOT-2", "50", LocalDate.now().plusYears(1));
+
+            IssueReservation r = new IssueReservation();
+            r.setIssueReqHeader(other);
+            r.setMaterial(m);
+            r.setLotNumber("LOT-1");
+            r.setQtyReserved(new BigDecimal("5"));
+            r.setStatus(active);
+            issueReservationRepository.save(r);
+
+            req.getDetails().add(detail(req, m, "30"));
+        }
+
+        return issueReqHeaderRepository.save(req);
+    }
+}
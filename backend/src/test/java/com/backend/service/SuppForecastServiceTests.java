@@ -0,0 +1,191 @@
+package com.backend.service;
+
+import com.backend.dto.CreateIssueFromReqDTO;
+import com.backend.dto.IssueResponseDTO;
+import com.backend.dto.SuppForecastListItemDTO;
+import com.backend.dto.SuppForecastPreviousDTO;
+import com.backend.entity.*;
+import com.backend.repository.*;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.when;
+
+@SpringBootTest
+@Transactional
+class SuppForecastServiceTests {
+
+    @Autowired private SuppForecastService suppForecastService;
+    @Autowired private IssueService issueService;
+    @Autowired private ServiceTestFixtures fixtures;
+
+    @Autowired private MaterialRepository materialRepository;
+    @Autowired private IssueReqHeaderRepository issueReqHeaderRepository;
+    @Autowired private DepartmentRepository departmentRepository;
+    @Autowired private SuppForecastHeaderRepository forecastHeaderRepository;
+
+    @MockBean private RbacService rbacService;
+
+    private User thuKho;
+    private DocStatus approved;
+    private DocStatus pending;
+
+    @BeforeEach
+    void setUp() {
+        when(rbacService.hasPermission(any(User.class), anyString())).thenReturn(true);
+
+        thuKho = fixtures.user("THU_KHO_FC", "Thủ kho dự trù", "thukho-forecast@example.com");
+        approved = fixtures.docStatus("APPROVED", "Đã duyệt");
+        pending = fixtures.docStatus("PENDING", "Chờ duyệt");
+    }
+
+    @Test
+    void issuesAccumulateConsumptionReadByForecastPrefill() {
+        Department dept = new Department();
+        dept.setName("Khoa tiêu thụ test");
+        dept = departmentRepository.save(dept);
+
+        // Cùng năm học 2025-2026: phiếu 10/2025 xuất 30 / vật tư, phiếu 03/2026 xuất thêm 10 / vật tư
+        IssueReqHeader first = fixtures.approvedRequestWithLines("CS", 3);
+        first.setDepartment(dept);
+        issueReqHeaderRepository.save(first);
+        issue(first, LocalDate.of(2025, 10, 15));
+
+        IssueReqHeader second = new IssueReqHeader();
+        second.setStatus(approved);
+        second.setDepartment(dept);
+        for (int i = 0; i < 3; i++) {
+            second.getDetails().add(fixtures.detail(second, materialRepository.findByCode("CS-" + i), "10"));
+        }
+        issue(issueReqHeaderRepository.save(second), LocalDate.of(2026, 3, 2));
+
+        Long deptId = dept.getId();
+        List<List<SuppForecastPreviousDTO>> result = new ArrayList<>();
+        long statements = fixtures.countStatements(() -> result.add(suppForecastService.loadPreviousForecast(deptId, "2026-2027")));
+        List<SuppForecastPreviousDTO> rows = result.get(0);
+        assertEquals(1, statements);
+        assertEquals(3, rows.size());
+        for (SuppForecastPreviousDTO x : rows) {
+            assertEquals("2025-2026", x.getAcademicYear());
+            assertEquals(0, new BigDecimal("40").compareTo(x.getPrevYearQty()), x.getMaterialCode());
+            // nhập 20 + 50, xuất 30 + 10
+            assertEquals(0, new BigDecimal("30").compareTo(x.getCurrentStock()), x.getMaterialCode());
+            assertEquals(0, new BigDecimal("10").compareTo(x.getThisYearQty()), x.getMaterialCode());
+        }
+        assertTrue(suppForecastService.loadPreviousForecast(deptId, "2025-2026").isEmpty());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void myForecastsFilterAndPageInDatabase() {
+        User gv = fixtures.user("GV_FC", "Giảng viên dự trù", "gv-forecast@example.com");
+        when(rbacService.requireApprovedUser(gv.getId())).thenReturn(gv);
+
+        Department hoa = department("Bộ môn Hoá");
+        Department sinh = department("Bộ môn Sinh");
+        List<Material> materials = new ArrayList<>();
+        for (int i = 0; i < 5; i++) materials.add(fixtures.material("SF-" + i));
+
+        // 5 phiếu 2025-2026 (Hoá, 1..5 dòng), 2 phiếu 2024-2025 (Sinh), 1 phiếu của người khác
+        Map<Long, Integer> lines = new HashMap<>();
+        for (int i = 0; i < 5; i++) {
+            SuppForecastHeader h = forecast(gv, "2025-2026", hoa, materials.subList(0, i + 1));
+            lines.put(h.getId(), i + 1);
+        }
+        for (int i = 0; i < 2; i++) {
+            SuppForecastHeader h = forecast(gv, "2024-2025", sinh, materials.subList(0, 2));
+            lines.put(h.getId(), 2);
+        }
+        forecast(thuKho, "2025-2026", hoa, materials);
+
+        Map<String, Object> all = (Map<String, Object>) suppForecastService
+                .getMyForecasts(gv.getId(), null, null, 0, 3).getBody();
+        assertEquals(true, all.get("success"));
+        assertEquals(7L, all.get("totalCount"));
+        assertEquals(7L, all.get("filteredCount"));
+        assertEquals(3, all.get("totalPages"));
+        List<SuppForecastListItemDTO> items = (List<SuppForecastListItemDTO>) all.get("items");
+        assertEquals(3, items.size());
+        // Cùng ngày tạo => id giảm dần
+        assertTrue(items.get(0).getId() > items.get(1).getId() && items.get(1).getId() > items.get(2).getId());
+
+        Map<String, Object> lastYear = (Map<String, Object>) suppForecastService
+                .getMyForecasts(gv.getId(), null, "2024-2025", 0, 10).getBody();
+        assertEquals(2L, lastYear.get("filteredCount"));
+        assertEquals(7L, lastYear.get("totalCount"));
+
+        Map<String, Object> byDept = (Map<String, Object>) suppForecastService
+                .getMyForecasts(gv.getId(), "  SINH ", null, 0, 10).getBody();
+        assertEquals(2L, byDept.get("filteredCount"));
+        for (SuppForecastListItemDTO x : (List<SuppForecastListItemDTO>) byDept.get("items")) {
+            assertEquals("Bộ môn Sinh", x.getDepartmentName());
+            assertEquals("2024-2025", x.getAcademicYear());
+        }
+
+        // Trang vượt quá => kẹp về trang cuối
+        Map<String, Object> clamped = (Map<String, Object>) suppForecastService
+                .getMyForecasts(gv.getId(), null, null, 99, 3).getBody();
+        assertEquals(2, clamped.get("page"));
+        assertEquals(1, ((List<?>) clamped.get("items")).size());
+
+        // Số dòng vật tư (countByHeaderIds) khớp từng phiếu trên mọi trang
+        int seen = 0;
+        for (int page = 0; page < 3; page++) {
+            Map<String, Object> body = (Map<String, Object>) suppForecastService
+                    .getMyForecasts(gv.getId(), null, null, page, 3).getBody();
+            for (SuppForecastListItemDTO x : (List<SuppForecastListItemDTO>) body.get("items")) {
+                assertEquals(lines.get(x.getId()), x.getItemCount(), "forecast " + x.getId());
+                assertEquals("PENDING", x.getStatus());
+                seen++;
+            }
+        }
+        assertEquals(7, seen);
+    }
+
+    // ---------------------------------------------------------------------
+
+    private void issue(IssueReqHeader req, LocalDate issueDate) {
+        CreateIssueFromReqDTO dto = new CreateIssueFromReqDTO();
+        dto.setIssueReqId(req.getId());
+        dto.setIssueDate(issueDate);
+        IssueResponseDTO res = issueService.createIssueFromApprovedRequest(dto, thuKho.getId());
+        assertTrue(res.isSuccess(), res.getMessage());
+    }
+
+    private Department department(String name) {
+        Department d = new Department();
+        d.setName(name);
+        return departmentRepository.save(d);
+    }
+
+    private SuppForecastHeader forecast(User creator, String year, Department dept, List<Material> materials) {
+        SuppForecastHeader h = new SuppForecastHeader();
+        h.setCreatedBy(creator);
+        h.setAcademicYear(year);
+        h.setDepartment(dept);
+        h.setStatus(pending);
+        for (Material m : materials) {
+            SuppForecastDetail d = new SuppForecastDetail();
+            d.setHeader(h);
+            d.setMaterial(m);
+            d.setThisYearQty(BigDecimal.TEN);
+            h.getDetails().add(d);
+        }
+        return forecastHeaderRepository.save(h);
+    }
+}
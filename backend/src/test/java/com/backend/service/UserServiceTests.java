@@ -0,0 +1,139 @@
+package com.backend.service;
+
+import com.backend.dto.UserDTO;
+import com.backend.dto.UserPageDTO;
+import com.backend.entity.Role;
+import com.backend.entity.User;
+import com.backend.entity.UserStatus;
+import com.backend.repository.RoleRepository;
+import com.backend.repository.UserRepository;
+import com.backend.repository.UserStatusRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SpringBootTest
+@Transactional
+class UserServiceTests {
+
+    @Autowired private UserService userService;
+
+    @Autowired private RoleRepository roleRepository;
+    @Autowired private UserStatusRepository userStatusRepository;
+    @Autowired private UserRepository userRepository;
+
+    @BeforeEach
+    void setUp() {
+        Role admin = role("ADMIN");
+        Role bgh = role("BGH");
+        Role canBo = role("CAN_BO");
+        UserStatus pending = status("PENDING");
+        UserStatus approved = status("APPROVED");
+
+        user("Quản trị", admin, approved);
+        user("Hiệu trưởng", bgh, approved);
+        for (int i = 0; i < 7; i++) {
+            user("Nguyễn Văn " + i, canBo, i < 4 ? approved : pending);
+        }
+        user("Trần Thị Lan", canBo, pending);
+    }
+
+    @Test
+    void listingExcludesAdminAndBghAndCountsByStatus() {
+        UserPageDTO all = userService.getUsersPage("all", null, 0, 3);
+        assertEquals(8, all.getTotalUsers());
+        assertEquals(4, all.getApprovedUsers());
+        assertEquals(4, all.getPendingUsers());
+        assertEquals(8, all.getTotalElements());
+        assertEquals(3, all.getTotalPages());
+        assertEquals(3, all.getItems().size());
+
+        UserPageDTO pendingLan = userService.getUsersPage("pending", "LAN", 0, 10);
+        assertEquals(1, pendingLan.getTotalElements());
+        assertEquals("Trần Thị Lan", pendingLan.getItems().get(0).getFullName());
+        assertEquals(8, pendingLan.getTotalUsers());
+    }
+
+    @Test
+    void keysetWalksAllRowsInIdOrder() {
+        List<Long> seen = new ArrayList<>();
+        Long afterId = null;
+        UserPageDTO page;
+        do {
+            page = userService.getUsersPage("approved", "nguyễn", 0, 3, afterId);
+            for (UserDTO u : page.getItems()) seen.add(u.getId());
+            afterId = page.getNextAfterId();
+        } while (page.isHasMore());
+
+        assertEquals(4, seen.size());
+        assertTrue(seen.stream().sorted().toList().equals(seen));
+        assertFalse(page.isHasMore());
+    }
+
+    @Test
+    void nullStatusCountsAsPendingAndRoleCodesIgnoreCase() {
+        user("Chưa có trạng thái", role("CAN_BO"), null);
+        user("Quản trị cũ", role("admin"), status("APPROVED"));
+        user("Hiệu phó", role("Bgh"), null);
+
+        UserPageDTO all = userService.getUsersPage("all", null, 0, 20);
+        assertEquals(9, all.getTotalUsers());
+        assertEquals(4, all.getApprovedUsers());
+        assertEquals(5, all.getPendingUsers());
+        assertEquals(9, all.getItems().size());
+
+        UserPageDTO pending = userService.getUsersPage("pending", "trạng thái", 0, 10);
+        assertEquals(1, pending.getTotalElements());
+        assertEquals("Chưa có trạng thái", pending.getItems().get(0).getFullName());
+        assertEquals(0, userService.getUsersPage("approved", "trạng thái", 0, 10).getTotalElements());
+    }
+
+    @Test
+    void keywordWildcardsMatchLiterally() {
+        user("Lê_Văn 100%", role("CAN_BO"), status("PENDING"));
+
+        assertEquals(1, userService.getUsersPage("all", "_", 0, 10).getTotalElements());
+        assertEquals(1, userService.getUsersPage("all", "%", 0, 10).getTotalElements());
+        assertEquals("Lê_Văn 100%", userService.getUsersPage("all", "_", 0, 10).getItems().get(0).getFullName());
+        assertEquals(0, userService.getUsersPage("all", "\\", 0, 10).getTotalElements());
+    }
+
+    // ---------------------------------------------------------------------
+
+    private Role role(String code) {
+        return roleRepository.findByCode(code).orElseGet(() -> {
+            Role r = new Role();
+            r.setCode(code);
+            r.setName(code);
+            return roleRepository.save(r);
+        });
+    }
+
+    private UserStatus status(String code) {
+        return userStatusRepository.findByCode(code).orElseGet(() -> {
+            UserStatus s = new UserStatus();
+            s.setCode(code);
+            s.setName(code);
+            return userStatusRepository.save(s);
+        });
+    }
+
+    private void user(String name, Role role, UserStatus status) {
+        User u = new User();
+        u.setFullName(name);
+        u.setEmail("u" + System.nanoTime() + "@example.com");
+        u.setPassword("x");
+        u.setRole(role);
+        u.setStatus(status);
+        userRepository.save(u);
+    }
+}
@@ -311,6 +311,28 @@ CREATE TABLE inventory_card (
   sub_department_id INT REFERENCES sub_departments(id)
 );
 
+-- ============================================================
+-- 10.0) LOT BALANCE (Tồn hiện tại theo lô - projection của thẻ kho)
+-- ============================================================
+
+CREATE TABLE lot_balance (
+  id             SERIAL PRIMARY KEY,
+  material_id    INT NOT NULL REFERENCES materials(id),
+  lot_number     VARCHAR(100) NOT NULL,
+
+  closing_stock  NUMERIC(18,3) NOT NULL DEFAULT 0,
+  mfg_date       DATE,
+  exp_date       DATE,
+
+  warehouse_name VARCHAR(255),
+  supplier       VARCHAR(255),
+
+  last_card_id   INT NOT NULL REFERENCES inventory_card(id),
+  updated_at     TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+
+  UNIQUE (material_id, lot_number)
+);
+
 -- ============================================================
 -- 10.1) STOCK RESERVATION (Giữ chỗ tồn kho cho auto-approve)
 -- ============================================================
@@ -335,6 +357,25 @@ CREATE TABLE issue_reservations (
   note                  TEXT
 );
 
+-- ============================================================
+-- 10.2) CONSUMPTION (Lượng thực xuất theo năm học / khoa / vật tư)
+-- Cộng dồn cùng transaction với phiếu xuất; năm học bắt đầu tháng 9.
+-- ============================================================
+
+CREATE TABLE material_consumption (
+  id              SERIAL PRIMARY KEY,
+  academic_year   VARCHAR(20) NOT NULL,
+  department_id   INT NOT NULL REFERENCES departments(id),
+  material_id     INT NOT NULL REFERENCES materials(id),
+
+  qty_issued      NUMERIC(18,3) NOT NULL DEFAULT 0,
+  issue_count     INT NOT NULL DEFAULT 0,
+  last_issue_date DATE,
+  updated_at      TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+
+  UNIQUE (academic_year, department_id, material_id)
+);
+
 -- ============================================================
 -- 11) NOTIFICATIONS: 1 thông báo -> nhiều người nhận
 -- ============================================================
@@ -357,6 +398,32 @@ CREATE TABLE notification_recipients (
   user_id         INT NOT NULL REFERENCES users(id) ON DELETE CASCADE,
   is_read         BOOLEAN NOT NULL DEFAULT FALSE,
   read_at         TIMESTAMP,
+  created_at      TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP, -- = notifications.created_at (phân trang keyset)
+  PRIMARY KEY (notification_id, user_id)
+);
+
+-- Lưu trữ: người nhận đã đọc quá hạn giữ + thông báo tương ứng (NotificationRetentionService)
+CREATE TABLE notification_archive (
+  id             INT PRIMARY KEY,               -- = notifications.id
+  entity_type_id INT NOT NULL REFERENCES notification_entities(id),
+  event_type_id  INT NOT NULL REFERENCES notification_events(id),
+  entity_id      INT NOT NULL,
+
+  title          VARCHAR(255),
+  content        TEXT,
+
+  created_at     TIMESTAMP,
+  created_by     INT,                           -- không FK: user có thể đã bị xoá
+  archived_at    TIMESTAMP NOT NULL
+);
+
+CREATE TABLE notification_recipient_archive (
+  notification_id INT NOT NULL REFERENCES notification_archive(id) ON DELETE CASCADE,
+  user_id         INT NOT NULL,
+  is_read         BOOLEAN NOT NULL DEFAULT TRUE,
+  read_at         TIMESTAMP,
+  created_at      TIMESTAMP,
+  archived_at     TIMESTAMP NOT NULL,
   PRIMARY KEY (notification_id, user_id)
 );
 
@@ -376,29 +443,53 @@ CREATE TABLE system_settings (
 CREATE INDEX idx_subdep_dept           ON sub_departments(department_id);
 CREATE INDEX idx_users_role            ON users(role_id);
 CREATE INDEX idx_users_status          ON users(status_id);
+CREATE INDEX idx_users_role_status     ON users(role_id, status_id);
+CREATE INDEX idx_users_department      ON users(department_id, status_id);
+CREATE INDEX idx_role_perm_permission  ON role_permissions(permission_id);
+CREATE INDEX idx_user_perm_permission  ON user_permissions(permission_id, effect);
 
 CREATE INDEX idx_issue_req_dept        ON issue_req_header(department_id);
-CREATE INDEX idx_issue_req_status      ON issue_req_header(status_id);
-CREATE INDEX idx_issue_req_created     ON issue_req_header(created_by);
+CREATE INDEX idx_issue_req_status      ON issue_req_header(status_id, requested_at DESC, id DESC);
+CREATE INDEX idx_issue_req_created     ON issue_req_header(created_by, requested_at DESC, id DESC);
 
 CREATE INDEX idx_supp_forecast_dept    ON supp_forecast_header(department_id);
 CREATE INDEX idx_supp_forecast_status  ON supp_forecast_header(status_id);
+CREATE INDEX idx_supp_forecast_created ON supp_forecast_header(created_by, created_at DESC, id DESC);
+CREATE INDEX idx_supp_forecast_detail  ON supp_forecast_detail(header_id);
 
 CREATE INDEX idx_inventory_material    ON inventory_card(material_id);
 CREATE INDEX idx_inventory_lot         ON inventory_card(material_id, lot_number);
 CREATE INDEX idx_inventory_exp         ON inventory_card(material_id, exp_date);
 
+CREATE INDEX idx_lot_balance_fefo      ON lot_balance(material_id, exp_date, mfg_date) WHERE closing_stock > 0;
+
+-- Dự trù cả trường: lọc theo năm học (UNIQUE đã phủ truy vấn theo năm học + khoa)
+CREATE INDEX idx_consumption_year_mat  ON material_consumption(academic_year, material_id) INCLUDE (qty_issued);
+
 CREATE INDEX idx_materials_code        ON materials(code);
 
-CREATE INDEX idx_issue_header_req      ON issue_header(issue_req_id);
+-- Mỗi phiếu xin lĩnh chỉ có 1 phiếu xuất.
+-- DB đang chạy có thể đã có phiếu xuất trùng: giữ liên kết ở phiếu đầu tiên (id nhỏ nhất) trước khi tạo index.
+-- (Ứng dụng cũng làm bước này khi khởi động / POST /api/admin/issues/issue-req-links/backfill.)
+UPDATE issue_header SET issue_req_id = NULL
+WHERE issue_req_id IS NOT NULL
+  AND id > (SELECT MIN(x.id) FROM issue_header x WHERE x.issue_req_id = issue_header.issue_req_id);
+CREATE UNIQUE INDEX uq_issue_header_req ON issue_header(issue_req_id);
 
 CREATE INDEX idx_resv_header           ON issue_reservations(issue_req_header_id);
 CREATE INDEX idx_resv_detail           ON issue_reservations(issue_req_detail_id);
 CREATE INDEX idx_resv_material_lot     ON issue_reservations(material_id, lot_number);
 CREATE INDEX idx_resv_status           ON issue_reservations(status_id);
+CREATE INDEX idx_resv_status_material  ON issue_reservations(status_id, material_id) INCLUDE (qty_reserved);
 
 CREATE INDEX idx_notif_entity          ON notifications(entity_type_id, entity_id);
 CREATE INDEX idx_notif_recip_user      ON notification_recipients(user_id, is_read);
+CREATE INDEX idx_notif_recip_user_time ON notification_recipients(user_id, created_at DESC, notification_id DESC);
+CREATE INDEX idx_notif_recip_unread_time ON notification_recipients(user_id, created_at DESC, notification_id DESC)
+  WHERE is_read = FALSE;
+CREATE INDEX idx_notif_recip_read_age  ON notification_recipients((COALESCE(read_at, created_at))) WHERE is_read = TRUE;
+CREATE INDEX idx_notif_created         ON notifications(created_at);
+CREATE INDEX idx_notif_recip_arch_user ON notification_recipient_archive(user_id, created_at DESC, notification_id DESC);
 
 -- ============================================================
 -- SEED: LOOKUPS
@@ -1011,6 +1102,14 @@ FROM (VALUES
 JOIN materials m ON m.code = d.code
 LEFT JOIN sub_departments sd ON sd.name = d.sd_name;
 
+-- Tồn theo lô = dòng thẻ kho cuối cùng của mỗi (material, lot)
+INSERT INTO lot_balance(material_id, lot_number, closing_stock, mfg_date, exp_date, warehouse_name, supplier, last_card_id)
+SELECT DISTINCT ON (ic.material_id, ic.lot_number)
+       ic.material_id, ic.lot_number, ic.closing_stock, ic.mfg_date, ic.exp_date, ic.warehouse_name, ic.supplier, ic.id
+FROM inventory_card ic
+WHERE ic.material_id IS NOT NULL AND ic.lot_number IS NOT NULL
+ORDER BY ic.material_id, ic.lot_number, ic.id DESC;
+
 -- ============================================================
 -- SEED: Phiếu xuất kho (từ phiếu xin lĩnh đã APPROVED)
 -- ============================================================
@@ -1058,6 +1157,18 @@ JOIN materials m ON m.code = x.code;
 UPDATE issue_header ih
 SET total_amount = COALESCE((SELECT SUM(total) FROM issue_detail d WHERE d.header_id = ih.id), 0);
 
+-- Tiêu thụ theo năm học (tháng 9 -> tháng 8) / khoa / vật tư = tổng qty_issued của phiếu xuất
+INSERT INTO material_consumption(academic_year, department_id, material_id, qty_issued, issue_count, last_issue_date)
+SELECT CASE WHEN EXTRACT(MONTH FROM h.issue_date) >= 9
+            THEN EXTRACT(YEAR FROM h.issue_date)::INT || '-' || (EXTRACT(YEAR FROM h.issue_date)::INT + 1)
+            ELSE (EXTRACT(YEAR FROM h.issue_date)::INT - 1) || '-' || EXTRACT(YEAR FROM h.issue_date)::INT
+       END,
+       h.department_id, d.material_id, SUM(d.qty_issued), COUNT(DISTINCT h.id), MAX(h.issue_date)
+FROM issue_detail d
+JOIN issue_header h ON h.id = d.header_id
+WHERE d.material_id IS NOT NULL AND h.department_id IS NOT NULL AND d.qty_issued > 0
+GROUP BY 1, h.department_id, d.material_id;
+
 -- ============================================================
 -- SEED: Notifications
 -- ============================================================
@@ -1197,4 +1308,29 @@ INSERT INTO notification_recipients(notification_id, user_id, is_read, read_at)
 SELECT (SELECT MAX(id) FROM notifications), u.id, TRUE, NOW() - INTERVAL '5 days'
 FROM users u WHERE u.email IN ('thukho@gmail.com','canbo.hoisu@gmail.com');
 
+-- Thời điểm trên dòng người nhận = thời điểm tạo thông báo (phân trang keyset)
+UPDATE notification_recipients r
+SET created_at = n.created_at
+FROM notifications n
+WHERE n.id = r.notification_id;
+
+-- ============================================================
+-- SEQUENCES: bảng ghi nhiều dòng dùng sequence pooled (Hibernate allocationSize = 50)
+-- INCREMENT phải khớp allocationSize; setval về MAX(id) để khối id kế tiếp bắt đầu sau dữ liệu hiện có.
+-- Chạy lại được trên DB đang chạy (sau khi deploy bản dùng sequence).
+-- ============================================================
+ALTER SEQUENCE inventory_card_id_seq INCREMENT BY 50;
+ALTER SEQUENCE lot_balance_id_seq INCREMENT BY 50;
+ALTER SEQUENCE receipt_detail_id_seq INCREMENT BY 50;
+ALTER SEQUENCE issue_detail_id_seq INCREMENT BY 50;
+ALTER SEQUENCE issue_req_detail_id_seq INCREMENT BY 50;
+ALTER SEQUENCE issue_reservations_id_seq INCREMENT BY 50;
+
+SELECT setval('inventory_card_id_seq', COALESCE((SELECT MAX(id) FROM inventory_card), 1), (SELECT MAX(id) FROM inventory_card) IS NOT NULL);
+SELECT setval('lot_balance_id_seq', COALESCE((SELECT MAX(id) FROM lot_balance), 1), (SELECT MAX(id) FROM lot_balance) IS NOT NULL);
+SELECT setval('receipt_detail_id_seq', COALESCE((SELECT MAX(id) FROM receipt_detail), 1), (SELECT MAX(id) FROM receipt_detail) IS NOT NULL);
+SELECT setval('issue_detail_id_seq', COALESCE((SELECT MAX(id) FROM issue_detail), 1), (SELECT MAX(id) FROM issue_detail) IS NOT NULL);
+SELECT setval('issue_req_detail_id_seq', COALESCE((SELECT MAX(id) FROM issue_req_detail), 1), (SELECT MAX(id) FROM issue_req_detail) IS NOT NULL);
+SELECT setval('issue_reservations_id_seq', COALESCE((SELECT MAX(id) FROM issue_reservations), 1), (SELECT MAX(id) FROM issue_reservations) IS NOT NULL);
+
 COMMIT;
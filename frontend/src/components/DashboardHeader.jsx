@@ -152,6 +152,25 @@ export default function DashboardHeader({ userInfo }) {
     }
   }, [userId, fetchMyNotifications]);
 
+  // 1b. Nhận thông báo mới qua SSE (trình duyệt tự kết nối lại kèm Last-Event-ID)
+  useEffect(() => {
+    if (!userId || typeof EventSource === "undefined") return undefined;
+
+    const es = new EventSource(
+      `http://localhost:8080/api/notifications/stream?userId=${encodeURIComponent(userId)}`
+    );
+    es.addEventListener("notification", (ev) => {
+      try {
+        const it = JSON.parse(ev.data);
+        setNotiItems((prev) => (prev.some((x) => x.id === it.id) ? prev : [it, ...prev]));
+        if (!it.isRead) setUnreadCount((c) => c + 1);
+      } catch {
+        // Bỏ qua event lỗi định dạng.
+      }
+    });
+    return () => es.close();
+  }, [userId]);
+
   // 2. Xử lý khi bấm nút chuông
   const handleToggleNoti = async () => {
     const nextState = !showNoti;
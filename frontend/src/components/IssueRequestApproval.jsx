@@ -6,6 +6,8 @@ import "./dashboard-ui.css";
 import "./IssueRequestApproval.css";
 
 const API_URL = "http://localhost:8080/api";
+// Hàng đợi lãnh đạo trả theo trang (cursor), tối đa 50 phiếu / lần gọi
+const LEADER_PAGE_SIZE = 50;
 
 function fmtDate(s) {
   if (!s) return "—";
@@ -27,6 +29,9 @@ export default function IssueRequestApproval() {
   const [activeTab, setActiveTab] = useState("pending");
   const [pendingRequests, setPendingRequests] = useState([]);
   const [processedRequests, setProcessedRequests] = useState([]);
+  const [processedCursor, setProcessedCursor] = useState(null);
+  const [processedTotal, setProcessedTotal] = useState(0);
+  const [isLoadingMore, setIsLoadingMore] = useState(false);
   const [selectedRequest, setSelectedRequest] = useState(null);
   const [isLoading, setIsLoading] = useState(false);
   const [isDetailLoading, setIsDetailLoading] = useState(false);
@@ -79,6 +84,41 @@ export default function IssueRequestApproval() {
     return headers;
   };
 
+  const fetchLeaderPage = (path, cursor) => {
+    const params = new URLSearchParams({ size: String(LEADER_PAGE_SIZE) });
+    if (cursor) params.set("cursor", cursor);
+    return fetch(`${API_URL}/issue-requests/leader/${path}?${params}`, {
+      headers: { ...buildHeaders() },
+    });
+  };
+
+  // Phiếu chờ duyệt: đi hết các trang theo nextCursor để không sót phiếu cần duyệt
+  const loadRemainingPending = async (firstPage) => {
+    const all = [...(firstPage?.requests || [])];
+    let cursor = firstPage?.nextCursor;
+    while (cursor) {
+      const res = await fetchLeaderPage("pending", cursor);
+      if (!res.ok) throw new Error(`HTTP ${res.status}`);
+      const data = await res.json();
+      if (!data?.success) break;
+      all.push(...(data.requests || []));
+      cursor = data.nextCursor;
+    }
+    return all;
+  };
+
+  // Lịch sử: trang đầu, các trang sau tải khi bấm "Tải thêm"
+  const applyProcessedPage = (data, append) => {
+    const items = data?.requests || [];
+    setProcessedRequests((prev) => {
+      if (!append) return items;
+      const seen = new Set(prev.map((r) => r.id));
+      return [...prev, ...items.filter((r) => !seen.has(r.id))];
+    });
+    setProcessedCursor(data?.nextCursor || null);
+    setProcessedTotal(data?.totalCount ?? 0);
+  };
+
   const fetchCategories = async () => {
     try {
       const response = await fetch(`${API_URL}/materials/categories`, {
@@ -111,9 +151,7 @@ export default function IssueRequestApproval() {
     try {
       await fetchCategories();
 
-      const pendingRes = await fetch(`${API_URL}/issue-requests/leader/pending`, {
-        headers: { ...buildHeaders() },
-      });
+      const pendingRes = await fetchLeaderPage("pending");
 
       if (pendingRes.status === 403) {
         setAccessDenied(true);
@@ -130,9 +168,7 @@ export default function IssueRequestApproval() {
 
       const pendingData = await pendingRes.json();
 
-      const processedRes = await fetch(`${API_URL}/issue-requests/leader/processed`, {
-        headers: { ...buildHeaders() },
-      });
+      const processedRes = await fetchLeaderPage("processed");
 
       if (processedRes.status === 403) {
         setAccessDenied(true);
@@ -149,8 +185,8 @@ export default function IssueRequestApproval() {
 
       const processedData = await processedRes.json();
 
-      setPendingRequests(pendingData?.success ? pendingData.requests || [] : []);
-      setProcessedRequests(processedData?.success ? processedData.requests || [] : []);
+      setPendingRequests(pendingData?.success ? await loadRemainingPending(pendingData) : []);
+      applyProcessedPage(processedData?.success ? processedData : null, false);
       setInitialLoad(false);
     } catch {
       toast.error("Lỗi kết nối server");
@@ -165,9 +201,7 @@ export default function IssueRequestApproval() {
   const fetchPendingRequests = async () => {
     if (!currentUser?.id) return;
     try {
-      const response = await fetch(`${API_URL}/issue-requests/leader/pending`, {
-        headers: { ...buildHeaders() },
-      });
+      const response = await fetchLeaderPage("pending");
 
       if (response.status === 403) {
         setAccessDenied(true);
@@ -177,7 +211,7 @@ export default function IssueRequestApproval() {
       }
 
       const data = await response.json();
-      if (data.success) setPendingRequests(data.requests || []);
+      if (data.success) setPendingRequests(await loadRemainingPending(data));
     } catch {
       toast.error("Lỗi tải phiếu chờ duyệt");
       setPendingRequests([]);
@@ -187,9 +221,7 @@ export default function IssueRequestApproval() {
   const fetchProcessedRequests = async () => {
     if (!currentUser?.id) return;
     try {
-      const response = await fetch(`${API_URL}/issue-requests/leader/processed`, {
-        headers: { ...buildHeaders() },
-      });
+      const response = await fetchLeaderPage("processed");
 
       if (response.status === 403) {
         setAccessDenied(true);
@@ -199,10 +231,25 @@ export default function IssueRequestApproval() {
       }
 
       const data = await response.json();
-      if (data.success) setProcessedRequests(data.requests || []);
+      if (data.success) applyProcessedPage(data, false);
     } catch {
       toast.error("Lỗi tải lịch sử phê duyệt");
-      setProcessedRequests([]);
+      applyProcessedPage(null, false);
+    }
+  };
+
+  const loadMoreProcessed = async () => {
+    if (!currentUser?.id || !processedCursor) return;
+    setIsLoadingMore(true);
+    try {
+      const response = await fetchLeaderPage("processed", processedCursor);
+      if (!response.ok) throw new Error(`HTTP ${response.status}`);
+      const data = await response.json();
+      if (data.success) applyProcessedPage(data, true);
+    } catch {
+      toast.error("Lỗi tải thêm lịch sử phê duyệt");
+    } finally {
+      setIsLoadingMore(false);
     }
   };
 
@@ -370,9 +417,9 @@ export default function IssueRequestApproval() {
 
   const summary = useMemo(
     () => ({
-      total: pendingRequests.length + processedRequests.length,
+      total: pendingRequests.length + processedTotal,
       pending: pendingRequests.length,
-      processed: processedRequests.length,
+      processed: processedTotal,
       // "Phiếu khẩn ưu tiên" — real heuristic over the loaded data (note/priority marks urgency)
       urgent: pendingRequests.filter(
         (r) =>
@@ -380,7 +427,7 @@ export default function IssueRequestApproval() {
           String(r?.priority || "").toLowerCase() === "urgent"
       ).length,
     }),
-    [pendingRequests, processedRequests.length]
+    [pendingRequests, processedTotal]
   );
 
   if (checkingAccess) {
@@ -449,7 +496,7 @@ export default function IssueRequestApproval() {
                 setCurrentPage(0);
               }}
             >
-              Lịch sử ({processedRequests.length})
+              Lịch sử ({processedTotal})
             </button>
           </div>
 
@@ -509,6 +556,16 @@ export default function IssueRequestApproval() {
             onChange={setCurrentPage}
             ariaLabel="Phân trang phê duyệt phiếu xin lĩnh"
           />
+
+          {activeTab !== "pending" && processedCursor && !currentTabLoading && (
+            <div className="ira-load-more">
+              <button className="ui-btn-outline" onClick={loadMoreProcessed} disabled={isLoadingMore}>
+                {isLoadingMore
+                  ? "Đang tải..."
+                  : `Tải thêm lịch sử (${processedRequests.length}/${processedTotal})`}
+              </button>
+            </div>
+          )}
         </div>
       </div>
 
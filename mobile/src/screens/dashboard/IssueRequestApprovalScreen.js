@@ -32,6 +32,13 @@ import {
 
 
 const PAGE_SIZE = 8;
+// Leader queues are cursor-paged on the server (at most 50 requests per call)
+const LEADER_PAGE_SIZE = 50;
+
+function leaderPageUrl(base, cursor) {
+  const query = `size=${LEADER_PAGE_SIZE}`;
+  return cursor ? `${base}?${query}&cursor=${encodeURIComponent(cursor)}` : `${base}?${query}`;
+}
 
 const SEGMENTS = [
   { key: 'pending', label: 'Chờ duyệt' },
@@ -50,6 +57,8 @@ export default function IssueRequestApprovalScreen() {
   // Data for each tab
   const [pendingRequests, setPendingRequests] = useState([]);
   const [processedRequests, setProcessedRequests] = useState([]);
+  const [processedCursor, setProcessedCursor] = useState(null);
+  const [loadingMore, setLoadingMore] = useState(false);
 
   // Stat counts from API response
   const [stats, setStats] = useState({ pendingCount: 0, approvedCount: 0, rejectedCount: 0 });
@@ -77,19 +86,30 @@ export default function IssueRequestApprovalScreen() {
     setLoading(true);
     try {
       const [pendingRes, processedRes] = await Promise.all([
-        apiGet(API_ENDPOINTS.ISSUE_REQ_LEADER_PENDING, user.id),
-        apiGet(API_ENDPOINTS.ISSUE_REQ_LEADER_PROCESSED, user.id),
+        apiGet(leaderPageUrl(API_ENDPOINTS.ISSUE_REQ_LEADER_PENDING), user.id),
+        apiGet(leaderPageUrl(API_ENDPOINTS.ISSUE_REQ_LEADER_PROCESSED), user.id),
       ]);
 
       if (pendingRes.ok && pendingRes.data?.success) {
-        setPendingRequests(pendingRes.data.requests || []);
+        // Pending queue: follow nextCursor to the end so no request awaiting approval is hidden
+        const pending = [...(pendingRes.data.requests || [])];
+        let cursor = pendingRes.data.nextCursor;
+        while (cursor) {
+          const next = await apiGet(leaderPageUrl(API_ENDPOINTS.ISSUE_REQ_LEADER_PENDING, cursor), user.id);
+          if (!next.ok || !next.data?.success) break;
+          pending.push(...(next.data.requests || []));
+          cursor = next.data.nextCursor;
+        }
+        setPendingRequests(pending);
         setStats((prev) => ({ ...prev, pendingCount: pendingRes.data.pendingCount ?? 0 }));
       } else {
         setPendingRequests([]);
       }
 
       if (processedRes.ok && processedRes.data?.success) {
+        // History: first page now, further pages on "load more"
         setProcessedRequests(processedRes.data.requests || []);
+        setProcessedCursor(processedRes.data.nextCursor || null);
         setStats((prev) => ({
           ...prev,
           approvedCount: processedRes.data.approvedCount ?? 0,
@@ -97,6 +117,7 @@ export default function IssueRequestApprovalScreen() {
         }));
       } else {
         setProcessedRequests([]);
+        setProcessedCursor(null);
       }
     } catch {
       Toast.show({ type: 'error', text1: 'Lỗi kết nối server!' });
@@ -116,6 +137,28 @@ export default function IssueRequestApprovalScreen() {
   // Reset page when tab changes
   useEffect(() => { setPage(1); }, [activeTab]);
 
+  const loadMoreProcessed = async () => {
+    if (!user?.id || !processedCursor) return;
+    setLoadingMore(true);
+    try {
+      const res = await apiGet(leaderPageUrl(API_ENDPOINTS.ISSUE_REQ_LEADER_PROCESSED, processedCursor), user.id);
+      if (res.ok && res.data?.success) {
+        const items = res.data.requests || [];
+        setProcessedRequests((prev) => {
+          const seen = new Set(prev.map((r) => r.id));
+          return [...prev, ...items.filter((r) => !seen.has(r.id))];
+        });
+        setProcessedCursor(res.data.nextCursor || null);
+      } else {
+        Toast.show({ type: 'error', text1: 'Không tải thêm được lịch sử!' });
+      }
+    } catch {
+      Toast.show({ type: 'error', text1: 'Lỗi kết nối server!' });
+    } finally {
+      setLoadingMore(false);
+    }
+  };
+
   const onRefresh = async () => {
     setRefreshing(true);
     await fetchAll();
@@ -303,6 +346,15 @@ export default function IssueRequestApprovalScreen() {
               onPrev={() => setPage((p) => Math.max(1, p - 1))}
               onNext={() => setPage((p) => Math.min(totalPages, p + 1))}
             />
+            {activeTab === 'processed' && processedCursor ? (
+              <Button
+                title={loadingMore ? 'Đang tải...' : 'Tải thêm lịch sử'}
+                variant="secondary"
+                onPress={loadMoreProcessed}
+                disabled={loadingMore}
+                style={styles.loadMore}
+              />
+            ) : null}
           </>
         )}
       </View>
@@ -391,6 +443,8 @@ const styles = StyleSheet.create({
   cardDept: { fontSize: 14, fontFamily: fontFamily.semibold, color: colors.text },
   cardMeta: { fontSize: 12, color: '#94a3b8', marginTop: 3 },
 
+  loadMore: { marginTop: 4 },
+
   actionRow: { flexDirection: 'row', gap: 12 },
   actionBtn: { flex: 1 },
 });